@@ -0,0 +1,137 @@
+package es.ubu.lsi.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Filtro de vetos de una difusión: comprueba si cada usuario ha vetado al emisor, como hace
+ * el servidor con todos los destinatarios. Compara {@link BanList} sobre índices de
+ * {@link UserIndex} con la lista de nombres anterior, con búsqueda lineal.
+ * Cada usuario veta a una fracción de los demás, elegida al azar con semilla fija.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BanListBenchmark {
+
+    /** Usuarios conectados. */
+    @Param({"10", "100", "1000"})
+    public int users;
+
+    /** Fracción de los demás usuarios que veta cada uno. */
+    @Param({"0", "0.1", "0.5"})
+    public double banDensity;
+
+    /** Nombres de usuario. */
+    private String[] usernames;
+
+    /** Índices internos de los usuarios. */
+    private int[] indexes;
+
+    /** Vetos de cada usuario como mapa de bits. */
+    private BanList[] banLists;
+
+    /** Vetos de cada usuario como lista de nombres. */
+    private List<List<String>> legacyLists;
+
+    /** Emisor de la siguiente difusión. */
+    private int sender = 0;
+
+    /**
+     * Crea los mismos vetos en las dos representaciones.
+     */
+    @Setup
+    public void setUp() {
+        UserIndex userIndex = new UserIndex();
+        this.usernames = new String[this.users];
+        this.indexes = new int[this.users];
+        for (int i = 0; i < this.users; i++) {
+            this.usernames[i] = ChatFixture.username(i);
+            this.indexes[i] = userIndex.indexOf(this.usernames[i]);
+        }
+
+        Random random = new Random(42);
+        this.banLists = new BanList[this.users];
+        this.legacyLists = new ArrayList<>();
+        for (int i = 0; i < this.users; i++) {
+            BanList banList = new BanList();
+            List<String> legacy = new CopyOnWriteArrayList<>();
+            for (int j = 0; j < this.users; j++) {
+                if (j != i && random.nextDouble() < this.banDensity) {
+                    banList.add(this.indexes[j]);
+                    legacy.add(this.usernames[j]);
+                }
+            }
+            this.banLists[i] = banList;
+            this.legacyLists.add(legacy);
+        }
+    }
+
+    /**
+     * Avanza al siguiente emisor.
+     *
+     * @return Posición del emisor
+     */
+    private int nextSender() {
+        this.sender = this.sender + 1 == this.users ? 0 : this.sender + 1;
+        return this.sender;
+    }
+
+    /**
+     * Filtra una difusión con los mapas de bits.
+     *
+     * @return Destinatarios que no han vetado al emisor
+     */
+    @Benchmark
+    public int bitset() {
+        int senderIndex = this.indexes[nextSender()];
+        int recipients = 0;
+        for (BanList banList : this.banLists) {
+            if (!banList.contains(senderIndex)) {
+                recipients++;
+            }
+        }
+        return recipients;
+    }
+
+    /**
+     * Filtra una difusión con las listas de nombres.
+     *
+     * @return Destinatarios que no han vetado al emisor
+     */
+    @Benchmark
+    public int legacyList() {
+        /* Copia del nombre, como el que se obtenía de la sesión, para no comparar por referencia. */
+        String senderName = new String(this.usernames[nextSender()]);
+        int recipients = 0;
+        for (List<String> legacy : this.legacyLists) {
+            if (!legacy.contains(senderName)) {
+                recipients++;
+            }
+        }
+        return recipients;
+    }
+}
@@ -0,0 +1,110 @@
+package es.ubu.lsi.server;
+
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.ChatMessage.MessageType;
+
+/**
+ * Memoria reservada por cada difusión. Compara el camino anterior, con un PrintWriter nuevo por
+ * destinatario que vuelve a codificar el texto, con {@link ChatServerImpl#broadcast(ChatMessage)},
+ * que codifica el mensaje una vez y comparte la trama entre todos los destinatarios.
+ * Tiene sentido con el perfilador de memoria: {@code -prof gc}, columna {@code gc.alloc.rate.norm}.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastAllocationBenchmark {
+
+    /** Texto difundido. */
+    private static final String TEXT = "Mensaje de prueba para medir la difusión del servidor de chat.";
+
+    /** Destinatarios de cada difusión. */
+    @Param({"10", "100", "1000"})
+    public int users;
+
+    /** Servidor poblado, con escritores, para el camino actual. */
+    private ChatFixture fixture;
+
+    /** Flujos de salida de los destinatarios en el camino anterior. */
+    private OutputStream[] legacyOutputs;
+
+    /** Formato de la hora compartido, como en el servidor anterior. */
+    private SimpleDateFormat sdf;
+
+    /** Identificador del emisor. */
+    private int senderId;
+
+    /**
+     * Crea los destinatarios de los dos caminos.
+     */
+    @Setup
+    public void setUp() {
+        this.fixture = new ChatFixture(this.users, 0, true);
+        this.senderId = this.fixture.sessions[0].getId();
+
+        this.legacyOutputs = new OutputStream[this.users];
+        for (int i = 0; i < this.users; i++) {
+            this.legacyOutputs[i] = Channels.newOutputStream(new DiscardChannel());
+        }
+        this.sdf = new SimpleDateFormat("HH:mm:ss");
+    }
+
+    /**
+     * Cierra las sesiones.
+     */
+    @TearDown
+    public void tearDown() {
+        this.fixture.close();
+    }
+
+    /**
+     * Difunde un mensaje con un PrintWriter nuevo por destinatario, como el servidor anterior.
+     */
+    @Benchmark
+    public void printWriterPerRecipient() {
+        String time = this.sdf.format(new Date());
+        String messageToSend = ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Mensaje de " + ChatServerImpl.GREEN
+                                + ChatFixture.username(0) + ChatServerImpl.CYAN + " [" + time + "]: " + ChatServerImpl.RESET
+                                + BroadcastAllocationBenchmark.TEXT + "\n";
+
+        for (OutputStream stream : this.legacyOutputs) {
+            PrintWriter output = new PrintWriter(stream, true);
+            output.println(messageToSend);
+        }
+    }
+
+    /**
+     * Difunde un mensaje con la codificación única del servidor actual.
+     */
+    @Benchmark
+    public void encodeOnce() {
+        this.fixture.server.broadcast(new ChatMessage(this.senderId, MessageType.MESSAGE, BroadcastAllocationBenchmark.TEXT));
+    }
+}
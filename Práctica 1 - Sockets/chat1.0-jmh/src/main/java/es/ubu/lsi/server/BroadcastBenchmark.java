@@ -0,0 +1,86 @@
+package es.ubu.lsi.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.ChatMessage.MessageType;
+
+/**
+ * Coste de {@link ChatServerImpl#broadcast(ChatMessage)} desde el hilo del emisor:
+ * búsqueda del emisor, formato de la cabecera, codificación única y reparto a las colas
+ * de los miembros del canal, saltando a quienes lo tienen vetado. Con escritores, cada sesión
+ * vacía su cola en segundo plano sobre un canal que descarta lo escrito, y la medida incluye
+ * despertarlos; sin ellos, las colas están llenas y solo se mide el reparto.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    /** Texto difundido. */
+    private static final String TEXT = "Mensaje de prueba para medir la difusión del servidor de chat.";
+
+    /** Usuarios conectados, todos en el canal por defecto. */
+    @Param({"10", "100", "1000"})
+    public int users;
+
+    /** Fracción de usuarios que vetan al emisor. */
+    @Param({"0", "0.1", "0.5"})
+    public double banDensity;
+
+    /** Si se arrancan los hilos escritores de las sesiones. */
+    @Param({"true", "false"})
+    public boolean writers;
+
+    /** Servidor poblado. */
+    private ChatFixture fixture;
+
+    /** Identificador del emisor. */
+    private int senderId;
+
+    /**
+     * Crea el servidor y, si se piden, arranca los escritores.
+     */
+    @Setup
+    public void setUp() {
+        this.fixture = new ChatFixture(this.users, this.banDensity, this.writers);
+        this.senderId = this.fixture.sessions[0].getId();
+    }
+
+    /**
+     * Cierra las sesiones.
+     */
+    @TearDown
+    public void tearDown() {
+        this.fixture.close();
+    }
+
+    /**
+     * Difunde un mensaje de chat del emisor a su canal.
+     */
+    @Benchmark
+    public void broadcast() {
+        this.fixture.server.broadcast(new ChatMessage(this.senderId, MessageType.MESSAGE, BroadcastBenchmark.TEXT));
+    }
+}
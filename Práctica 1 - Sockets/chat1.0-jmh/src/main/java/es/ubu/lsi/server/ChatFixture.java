@@ -0,0 +1,85 @@
+package es.ubu.lsi.server;
+
+import java.util.Random;
+
+import es.ubu.lsi.common.ExecutionMode;
+
+/**
+ * Servidor de chat poblado en memoria para los benchmarks: N sesiones sobre canales que
+ * descartan lo escrito, sin sockets ni hilos lectores. Una fracción de los usuarios, elegida
+ * con semilla fija, tiene vetado al usuario 0, que es el emisor en las difusiones medidas.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ */
+final class ChatFixture {
+
+    /** Semilla de los vetos, para que todas las ejecuciones midan lo mismo. */
+    private static final long SEED = 42;
+
+    /** Servidor sin arrancar; solo se usan su registro y su difusión. */
+    final ChatServerImpl server;
+
+    /** Registro de sesiones del servidor. */
+    final SessionRegistry registry;
+
+    /** Sesiones en orden de alta; la primera es el emisor. */
+    final ClientSession[] sessions;
+
+    /**
+     * Crea y registra las sesiones.
+     *
+     * @param users Número de usuarios conectados
+     * @param banDensity Fracción de usuarios que vetan al emisor, entre 0 y 1
+     * @param startWriters Si se arrancan los hilos escritores de las sesiones
+     */
+    ChatFixture(int users, double banDensity, boolean startWriters) {
+        /* Con DROP_OLDEST la difusión nunca se bloquea aunque los escritores se queden atrás. */
+        ServerOptions options = new ServerOptions();
+        options.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+
+        this.server = new ChatServerImpl(options);
+        this.registry = this.server.getSessions();
+        this.sessions = new ClientSession[users];
+
+        for (int i = 0; i < users; i++) {
+            DiscardChannel channel = new DiscardChannel();
+            ClientSession session = new ClientSession(this.registry.nextId(), username(i), channel, channel,
+                                                      false, "00:00:00", options);
+            this.registry.register(session);
+            this.sessions[i] = session;
+            if (startWriters) {
+                session.start(ExecutionMode.PLATFORM);
+            }
+        }
+
+        Random random = new Random(ChatFixture.SEED);
+        int senderIndex = this.sessions[0].getUserIndex();
+        for (int i = 1; i < users; i++) {
+            if (random.nextDouble() < banDensity) {
+                this.sessions[i].getBans().add(senderIndex);
+            }
+        }
+    }
+
+    /**
+     * Nombre del usuario i-ésimo.
+     *
+     * @param i Posición del usuario
+     * @return Nombre de usuario
+     */
+    static String username(int i) {
+        return "usuario" + i;
+    }
+
+    /**
+     * Cierra todas las sesiones sin esperar a vaciar las colas.
+     */
+    void close() {
+        for (ClientSession session : this.sessions) {
+            session.abort();
+        }
+    }
+}
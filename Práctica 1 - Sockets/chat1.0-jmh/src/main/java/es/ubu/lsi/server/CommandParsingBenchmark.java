@@ -0,0 +1,79 @@
+package es.ubu.lsi.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reconocimiento del comando de cada línea recibida en ServerThreadForClient.run():
+ * {@link ServerCommand#of(String)}, que solo trocea las líneas que son comandos, frente al
+ * código anterior, que troceaba todas las líneas y pasaba la primera palabra a mayúsculas.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandParsingBenchmark {
+
+    /** Línea recibida: un mensaje normal corto o largo, o un comando. */
+    @Param({
+        "Hola a todos",
+        "Hola a todos, ¿alguien ha terminado ya la práctica de sockets?",
+        "ban usuario42",
+        "join #sockets"
+    })
+    public String line;
+
+    /**
+     * Reconoce la línea con ServerCommand.
+     *
+     * @param blackhole Sumidero de JMH
+     */
+    @Benchmark
+    public void serverCommand(Blackhole blackhole) {
+        ServerCommand command = ServerCommand.of(this.line);
+        blackhole.consume(command);
+        blackhole.consume(command == ServerCommand.NONE ? null : this.line.split(" "));
+    }
+
+    /**
+     * Reconoce la línea como el código anterior.
+     *
+     * @param blackhole Sumidero de JMH
+     */
+    @Benchmark
+    public void legacySwitch(Blackhole blackhole) {
+        String[] words = this.line.split(" ");
+        blackhole.consume(words);
+        switch (words[0].toUpperCase()) {
+            case "LOGOUT":
+            case "BAN":
+            case "UNBAN":
+            case "SHUTDOWN":
+            case "JOIN":
+            case "PART":
+                blackhole.consume(true);
+                break;
+            default:
+                blackhole.consume(false);
+                break;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package es.ubu.lsi.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Coste de la protección contra inundaciones en el hilo lector de cada cliente:
+ * la comprobación del límite de ritmo con {@link RateLimiter}, y la lectura de una línea con
+ * {@link LineReader} frente a BufferedReader.readLine(). La línea de 1000 caracteres cabe en la
+ * longitud máxima y la de 100000 se descarta; BufferedReader crea la cadena en los dos casos.
+ * Con {@code -prof gc} se ve que ni el límite ni LineReader reservan memoria.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FloodProtectionBenchmark {
+
+    /** Mensajes por segundo del límite medido, como con --rate=20. */
+    private static final int RATE = 20;
+
+    /** Ráfaga del límite medido, como con --burst=40. */
+    private static final int BURST = 40;
+
+    /** Longitud máxima de una línea, como con --max-line=4096. */
+    private static final int MAX_LINE = 4096;
+
+    /** Longitud de la línea pegada por el cliente, en caracteres. */
+    @Param({"1000", "100000"})
+    public int lineLength;
+
+    /** Límite activado con --rate; en un bucle cerrado casi todo se descarta. */
+    private RateLimiter limiter;
+
+    /** Lector de líneas sobre la línea pegada una y otra vez. */
+    private LineReader lineReader;
+
+    /** BufferedReader sobre la línea pegada una y otra vez. */
+    private BufferedReader bufferedReader;
+
+    /**
+     * Prepara el límite y la línea.
+     */
+    @Setup
+    public void setup() {
+        this.limiter = new RateLimiter(FloodProtectionBenchmark.RATE, FloodProtectionBenchmark.BURST);
+        char[] pasted = new char[this.lineLength + 1];
+        Arrays.fill(pasted, 'x');
+        pasted[this.lineLength] = '\n';
+        this.lineReader = new LineReader(new RepeatingReader(pasted), FloodProtectionBenchmark.MAX_LINE);
+        this.bufferedReader = new BufferedReader(new RepeatingReader(pasted));
+    }
+
+    /**
+     * Comprueba el límite de ritmo de un mensaje.
+     *
+     * @return Si se acepta el mensaje
+     */
+    @Benchmark
+    public boolean tryAcquire() {
+        return this.limiter.tryAcquire();
+    }
+
+    /**
+     * Lee la línea con LineReader y una longitud máxima de 4096 caracteres.
+     *
+     * @return Longitud leída, o LineReader.TOO_LONG
+     * @throws IOException No ocurre con un flujo en memoria
+     */
+    @Benchmark
+    public int lineReader() throws IOException {
+        return this.lineReader.read();
+    }
+
+    /**
+     * Lee la línea con BufferedReader, como antes.
+     *
+     * @param blackhole Sumidero de JMH
+     * @throws IOException No ocurre con un flujo en memoria
+     */
+    @Benchmark
+    public void bufferedReader(Blackhole blackhole) throws IOException {
+        blackhole.consume(this.bufferedReader.readLine());
+    }
+
+    /**
+     * Flujo en memoria que repite el mismo texto sin fin, como un cliente que pega sin parar.
+     */
+    private static final class RepeatingReader extends Reader {
+
+        /** Texto que se repite. */
+        private final char[] text;
+
+        /** Posición en el texto. */
+        private int position = 0;
+
+        /**
+         * Constructor de RepeatingReader.
+         *
+         * @param text Texto que se repite
+         */
+        RepeatingReader(char[] text) {
+            this.text = text;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            int count = Math.min(length, this.text.length - this.position);
+            System.arraycopy(this.text, this.position, buffer, offset, count);
+            this.position = (this.position + count) % this.text.length;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
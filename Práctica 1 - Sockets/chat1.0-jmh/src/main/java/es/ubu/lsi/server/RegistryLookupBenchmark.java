@@ -0,0 +1,135 @@
+package es.ubu.lsi.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Búsqueda de sesiones en el registro, que sustituye a findUserById(): por identificador
+ * y por nombre de usuario, frente al recorrido lineal de la lista de clientes que hacía
+ * el servidor antes del registro. Cada operación busca un usuario distinto, elegido al azar.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryLookupBenchmark {
+
+    /** Número de búsquedas precalculadas, potencia de dos. */
+    private static final int PROBES = 1024;
+
+    /** Usuarios conectados. */
+    @Param({"10", "100", "1000"})
+    public int users;
+
+    /** Servidor poblado, sin escritores. */
+    private ChatFixture fixture;
+
+    /** Lista de clientes como la del servidor anterior al registro. */
+    private List<ClientSession> legacyClients;
+
+    /** Identificadores a buscar. */
+    private int[] ids;
+
+    /** Nombres a buscar. */
+    private String[] usernames;
+
+    /** Posición de la siguiente búsqueda. */
+    private int next = 0;
+
+    /**
+     * Crea el servidor y las búsquedas.
+     */
+    @Setup
+    public void setUp() {
+        this.fixture = new ChatFixture(this.users, 0, false);
+        this.legacyClients = new ArrayList<>();
+        for (ClientSession session : this.fixture.sessions) {
+            this.legacyClients.add(session);
+        }
+
+        Random random = new Random(42);
+        this.ids = new int[RegistryLookupBenchmark.PROBES];
+        this.usernames = new String[RegistryLookupBenchmark.PROBES];
+        for (int i = 0; i < RegistryLookupBenchmark.PROBES; i++) {
+            ClientSession session = this.fixture.sessions[random.nextInt(this.users)];
+            this.ids[i] = session.getId();
+            /* Copia del nombre, como el que llega por la red, para no comparar por referencia. */
+            this.usernames[i] = new String(session.getUsername());
+        }
+    }
+
+    /**
+     * Cierra las sesiones.
+     */
+    @TearDown
+    public void tearDown() {
+        this.fixture.close();
+    }
+
+    /**
+     * Avanza a la siguiente búsqueda.
+     *
+     * @return Posición de la búsqueda
+     */
+    private int nextProbe() {
+        return this.next = (this.next + 1) & (RegistryLookupBenchmark.PROBES - 1);
+    }
+
+    /**
+     * Búsqueda por identificador en el registro.
+     *
+     * @return Sesión encontrada
+     */
+    @Benchmark
+    public ClientSession byId() {
+        return this.fixture.registry.byId(this.ids[nextProbe()]);
+    }
+
+    /**
+     * Búsqueda por nombre de usuario en el registro.
+     *
+     * @return Sesión encontrada
+     */
+    @Benchmark
+    public ClientSession byUsername() {
+        return this.fixture.registry.byUsername(this.usernames[nextProbe()]);
+    }
+
+    /**
+     * Búsqueda por identificador recorriendo la lista, como el antiguo findUserById().
+     *
+     * @return Sesión encontrada, o null
+     */
+    @Benchmark
+    public ClientSession legacyLinearScan() {
+        int id = this.ids[nextProbe()];
+        for (ClientSession session : this.legacyClients) {
+            if (session.getId() == id) {
+                return session;
+            }
+        }
+        return null;
+    }
+}
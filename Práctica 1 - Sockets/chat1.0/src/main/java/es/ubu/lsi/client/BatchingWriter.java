@@ -0,0 +1,126 @@
+package es.ubu.lsi.client;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import es.ubu.lsi.common.ExecutionMode;
+
+/**
+ * Flujo de salida persistente del cliente que agrupa los mensajes antes de enviarlos.
+ * Sin ventana de agrupación cada mensaje se envía en cuanto se escribe, pero sin crear
+ * un flujo nuevo por mensaje. Con ventana, los mensajes se acumulan en el buffer y se
+ * envían juntos cuando pasa la ventana desde el primero pendiente o cuando se llena el buffer,
+ * lo que reduce las llamadas al sistema cuando se envían muchos mensajes seguidos.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.client.ChatClientImpl
+ */
+final class BatchingWriter implements Closeable {
+
+    /** Flujo con buffer sobre el del socket; se vacía solo al llenarse o al hacer flush. */
+    private final OutputStream output;
+
+    /** Ventana de agrupación en milisegundos, 0 si no se agrupa. */
+    private final long windowMillis;
+
+    /** Planificador del vaciado diferido, o null si no se agrupa. */
+    private final ScheduledExecutorService flusher;
+
+    /** Si hay un vaciado diferido pendiente. */
+    private boolean flushScheduled = false;
+
+    /** Error del último vaciado diferido, que se lanza en la siguiente escritura. */
+    private IOException failure = null;
+
+    /**
+     * Constructor de BatchingWriter.
+     *
+     * @param socketOutput Flujo de salida del socket
+     * @param batchBytes Tamaño del buffer, que limita cuántos bytes se agrupan
+     * @param windowMillis Ventana de agrupación en milisegundos, 0 para enviar cada mensaje al momento
+     * @param mode Modo de ejecución del hilo que vacía el buffer al vencer la ventana
+     */
+    BatchingWriter(OutputStream socketOutput, int batchBytes, long windowMillis, ExecutionMode mode) {
+        this.output = new BufferedOutputStream(socketOutput, batchBytes);
+        this.windowMillis = windowMillis;
+        this.flusher = windowMillis > 0 ? new ScheduledThreadPoolExecutor(1, mode.threadFactory("chat-client-flusher-", true)) : null;
+    }
+
+    /**
+     * Escribe un mensaje ya codificado y lo envía según la ventana de agrupación.
+     *
+     * @param frame Mensaje codificado
+     * @throws IOException Si falla el envío, ahora o en un vaciado diferido anterior
+     */
+    synchronized void write(byte[] frame) throws IOException {
+        append(frame);
+        if (this.flusher == null) {
+            flush();
+        } else if (!this.flushScheduled) {
+            this.flushScheduled = true;
+            this.flusher.schedule(this::scheduledFlush, this.windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Añade un mensaje ya codificado al buffer sin forzar su envío.
+     * Solo se envía si se llena el buffer o en el siguiente {@link #flush()}.
+     *
+     * @param frame Mensaje codificado
+     * @throws IOException Si falla el envío, ahora o en un vaciado diferido anterior
+     */
+    synchronized void append(byte[] frame) throws IOException {
+        if (this.failure != null) {
+            IOException previous = this.failure;
+            this.failure = null;
+            throw previous;
+        }
+        this.output.write(frame);
+    }
+
+    /**
+     * Envía todo lo pendiente.
+     *
+     * @throws IOException Si falla el envío
+     */
+    synchronized void flush() throws IOException {
+        this.flushScheduled = false;
+        this.output.flush();
+    }
+
+    /**
+     * Vaciado al vencer la ventana; guarda el error para la siguiente escritura.
+     */
+    private synchronized void scheduledFlush() {
+        if (!this.flushScheduled) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException ioException) {
+            this.failure = ioException;
+        }
+    }
+
+    /**
+     * Envía lo pendiente y detiene el vaciado diferido. No cierra el socket.
+     *
+     * @throws IOException Si falla el envío
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.flusher != null) {
+            this.flusher.shutdownNow();
+        }
+        flush();
+    }
+}
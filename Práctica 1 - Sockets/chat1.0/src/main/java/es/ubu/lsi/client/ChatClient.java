@@ -1,5 +1,7 @@
 package es.ubu.lsi.client;
 
+import java.util.List;
+
 import es.ubu.lsi.common.ChatMessage;
 
 /**
@@ -28,6 +30,15 @@ public interface ChatClient {
      */
     public void sendMessage(ChatMessage message);
 
+    /**
+     * Envía varios mensajes al servidor de forma no interactiva, sin mostrarlos
+     * por consola y con un único vaciado del flujo al final.
+     * Pensado para bots, reproducción de registros y herramientas de carga.
+     * @param messages Los mensajes a enviar, en orden
+     * @return Número de mensajes enviados
+     */
+    public int sendMessages(List<ChatMessage> messages);
+
     /**
      * Desconecta el cliente del servidor.
      */	
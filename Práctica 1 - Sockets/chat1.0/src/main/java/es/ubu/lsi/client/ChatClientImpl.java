@@ -1,16 +1,24 @@
 package es.ubu.lsi.client;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 import es.ubu.lsi.common.ChatMessage;
 import es.ubu.lsi.common.ChatMessage.MessageType;
+import es.ubu.lsi.common.ChatMessageCodec;
+import es.ubu.lsi.common.ExecutionMode;
 
 /**
  * Implementación de la interfaz ChatClient.
@@ -42,6 +50,12 @@ public class ChatClientImpl implements ChatClient {
     /** Mensaje de shudown. */
     private static final String SHUTDOWN = "SHUTDOWN";
 
+    /** Espera antes del primer intento de reconexión, en milisegundos; se duplica en cada intento. */
+    private static final long RECONNECT_BASE_MILLIS = 250;
+
+    /** Espera máxima entre intentos de reconexión, en milisegundos. */
+    private static final long RECONNECT_MAX_MILLIS = 30_000;
+
     /** Servidor al que se conectará el cliente. */
     private String server = ChatClientImpl.DEFAULT_SERVER;
 
@@ -52,16 +66,37 @@ public class ChatClientImpl implements ChatClient {
     private int port = ChatClientImpl.DEFAULT_PORT;
 
     /** Flag para mantener la conexión. */
-    private boolean carryOn = true;
+    private volatile boolean carryOn = true;
 
     /** Identificador del cliente. */
     private int id;
 
-    /* Elementos de la conexión. */
-    private Socket socket;
+    /* Elementos de la conexión; se sustituyen al reconectar. */
+    private volatile Socket socket;
 	
-    /** Flujo de entrada actual. */
-    private BufferedReader buffer;
+    /** Flujo de entrada actual del protocolo de texto. */
+    private volatile BufferedReader buffer;
+
+    /** Flujo de entrada del protocolo binario, si el servidor lo ha aceptado. */
+    private volatile DataInputStream binaryInput;
+
+    /** Si la conexión usa tramas binarias tras el saludo. */
+    private volatile boolean binary = false;
+
+    /** Opciones del cliente. */
+    private final ClientOptions options;
+
+    /** Flujo de salida persistente hacia el servidor durante cada conexión. */
+    private volatile BatchingWriter writer;
+
+    /** Testigo con el que se reanuda la sesión al reconectar, o null si el servidor no lo ha dado. */
+    private volatile String resumeToken = null;
+
+    /** Si la última conexión ha reanudado la sesión anterior. */
+    private volatile boolean resumed = false;
+
+    /** Si el cliente se ha arrancado en modo interactivo, que termina la JVM al cerrarse la conexión. */
+    private volatile boolean interactive = false;
 
 
     /** Color rojo. */
@@ -89,13 +124,52 @@ public class ChatClientImpl implements ChatClient {
      * @param username El nombre de usuario del cliente
      */
     public ChatClientImpl(String server, int port, String username) {
+        this(server, port, username, ExecutionMode.PLATFORM);
+    }
+
+    /**
+     * Constructor de ChatClientImpl indicando el modo de ejecución del hilo de escucha.
+     * 
+     * @param server El servidor al que se conecta el cliente
+     * @param port El puerto de conexión con el servidor
+     * @param username El nombre de usuario del cliente
+     * @param mode Modo de ejecución del hilo que escucha al servidor
+     */
+    public ChatClientImpl(String server, int port, String username, ExecutionMode mode) {
+        this(server, port, username, ChatClientImpl.optionsFor(mode));
+    }
+
+    /**
+     * Constructor de ChatClientImpl a partir de las opciones de arranque.
+     * 
+     * @param server El servidor al que se conecta el cliente
+     * @param port El puerto de conexión con el servidor
+     * @param username El nombre de usuario del cliente
+     * @param options Opciones del cliente
+     */
+    public ChatClientImpl(String server, int port, String username, ClientOptions options) {
         this.server = server;
         this.port = port;
         this.username = username;
+        this.options = options;
+    }
+
+    /**
+     * Crea unas opciones por defecto con el modo indicado.
+     * 
+     * @param mode Modo de ejecución del hilo que escucha al servidor
+     * @return Opciones del cliente
+     */
+    private static ClientOptions optionsFor(ExecutionMode mode) {
+        ClientOptions options = new ClientOptions();
+        options.setMode(mode);
+        return options;
     }
 
     /**
      * Clase interna que implementa la interfaz Runnable para escuchar los mensajes del servidor.
+     * Si se pierde la conexión y la reconexión está activada, vuelve a conectar con el servidor
+     * y sigue escuchando en la conexión nueva.
      *  
      * @version 1.0
      * @since 1.0
@@ -109,11 +183,35 @@ public class ChatClientImpl implements ChatClient {
         @Override
         public void run() {
             try {
-                String line;
+                do {
+                    listen();
+                } while (carryOn && reconnect());
+            } finally {
+                if (interactive) {
+                    System.exit(0);
+                }
+            }
+        }
+
+        /**
+         * Muestra los mensajes de la conexión actual hasta que se cierre.
+         */
+        private void listen() {
+            try {
+                if (binary) {
+                    ChatMessage message;
 
-                while (carryOn && (line = buffer.readLine()) != null) {
+                    while (carryOn && (message = ChatMessageCodec.read(binaryInput)) != null) {
 
-                    System.out.println(line);
+                        System.out.println(message.getMessage());
+                    }
+                } else {
+                    String line;
+
+                    while (carryOn && (line = buffer.readLine()) != null) {
+
+                        System.out.println(line);
+                    }
                 }
             
             } catch (IOException ioException) {
@@ -121,14 +219,7 @@ public class ChatClientImpl implements ChatClient {
                 /* Ignora las excepciones en este caso. */
 
             } finally {
-                try {
-                    if (socket != null && !socket.isClosed()) {
-                        socket.close();
-                    }
-                } catch (IOException ioException2) {
-                    /* Ignora las excepciones en este caso. */
-                }
-                System.exit(0);
+                closeSocket();
             }
         }
     }
@@ -136,31 +227,36 @@ public class ChatClientImpl implements ChatClient {
     @Override
     public boolean start() {
 
-        /* Flujo de entrada. */
-        BufferedReader input;
-        
         /* True = tarea exitosa, False en caso contrario. */
-        boolean success;
+        boolean success = connect();
 
-        try {
-            /* Se inicializan los elementos necesarios para la conexión. */
-            this.socket = new Socket(this.server, this.port);
+        if (success) {
+            this.interactive = true;
+            checkMsgType(new BufferedReader(new InputStreamReader(System.in)));
+        }
 
-            /* Se envía el nombre de usuario al servidor. */
-            PrintWriter output = new PrintWriter(this.socket.getOutputStream(), true);
-            output.println(this.username);
+        return success;
+    }
+
+    /**
+     * Conecta con el servidor, realiza el saludo y arranca el hilo que escucha sus mensajes,
+     * sin leer de la entrada estándar. Permite usar el cliente desde código con {@link #sendMessages(List)}.
+     * 
+     * @return true si la conexión se ha realizado con éxito, false en caso contrario
+     */
+    public boolean connect() {
+
+        /* True = tarea exitosa, False en caso contrario. */
+        boolean success;
 
-            input = new BufferedReader(new InputStreamReader(this.socket.getInputStream(), StandardCharsets.UTF_8));
+        try {
+            openConnection();
 
             /* Se inicializa el hilo que escucha los mensajes del servidor. */
-            this.buffer = input;
             ChatClientListener clientListener = new ChatClientListener();
-            Thread thread = new Thread(clientListener);
-            thread.setDaemon(true);
+            Thread thread = this.options.getMode().newThread(clientListener, "chat-client-listener", true);
             thread.start();
 
-            checkMsgType(new BufferedReader(new InputStreamReader(System.in)));
-
             success = true;
             
         } catch (IOException ioException) {
@@ -173,6 +269,145 @@ public class ChatClientImpl implements ChatClient {
         return success;
     }
 
+    /**
+     * Abre una conexión con el servidor y realiza el saludo. Si la reconexión está activada,
+     * pide una sesión reanudable presentando el testigo de la sesión anterior, si lo hay.
+     * 
+     * @throws IOException Si no se puede conectar o el servidor cierra la conexión en el saludo
+     */
+    private void openConnection() throws IOException {
+        /* El flujo de la conexión anterior tiene su propio hilo de vaciado: se cierra antes de sustituirlo. */
+        closeWriter();
+
+        /* Se inicializan los elementos necesarios para la conexión. */
+        Socket newSocket = new Socket(this.server, this.port);
+        this.socket = newSocket;
+        this.binary = false;
+        this.resumed = false;
+        this.writer = new BatchingWriter(newSocket.getOutputStream(), this.options.getBatchBytes(), 
+                                         this.options.getBatchMillis(), this.options.getMode());
+
+        /* Se envía el nombre de usuario al servidor, pidiendo el protocolo binario y la sesión reanudable si procede. */
+        boolean resumable = this.options.getReconnectAttempts() > 0;
+        String handshake = this.options.isBinary() ? ChatMessageCodec.HANDSHAKE + " " + this.username : this.username;
+        if (resumable) {
+            String token = this.resumeToken != null ? this.resumeToken : ChatMessageCodec.NO_TOKEN;
+            handshake = ChatMessageCodec.RESUME + " " + token + " " + handshake;
+        }
+        this.writer.append(encodeLine(handshake));
+        this.writer.flush();
+
+        InputStream rawInput = newSocket.getInputStream();
+        String reply = null;
+
+        if (resumable) {
+            /* Si el servidor no guarda sesiones, su primera línea es un aviso o la bienvenida, y se muestra. */
+            reply = ChatMessageCodec.readLine(rawInput);
+            if (reply == null) {
+                newSocket.close();
+                throw new EOFException("El servidor ha cerrado la conexión durante el saludo");
+            }
+            boolean resumedReply = reply.startsWith(ChatMessageCodec.RESUMED + " ");
+            if (resumedReply || reply.startsWith(ChatMessageCodec.NEW_SESSION + " ")) {
+                this.resumed = resumedReply;
+                this.resumeToken = reply.substring(reply.lastIndexOf(' ') + 1);
+                reply = null;
+            } else {
+                this.resumeToken = null;
+            }
+        }
+
+        if (this.options.isBinary()) {
+            /* Si el servidor no confirma, su primera línea es un aviso o la bienvenida y se sigue en texto. */
+            if (reply == null) {
+                reply = ChatMessageCodec.readLine(rawInput);
+            }
+            if (ChatMessageCodec.ACK.equals(reply)) {
+                this.binaryInput = new DataInputStream(new BufferedInputStream(rawInput));
+                this.binary = true;
+                reply = null;
+            }
+        }
+        if (reply != null) {
+            System.out.println(reply);
+        }
+
+        this.buffer = new BufferedReader(new InputStreamReader(rawInput, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Vuelve a conectar con el servidor tras perder la conexión, esperando entre intentos
+     * un tiempo que se duplica en cada uno, con un componente aleatorio para que los clientes
+     * de un mismo servidor caído no vuelvan todos a la vez.
+     * 
+     * @return true si se ha vuelto a conectar, false si se agotan los intentos o se cierra el cliente
+     */
+    private boolean reconnect() {
+        int attempts = this.options.getReconnectAttempts();
+        long delay = ChatClientImpl.RECONNECT_BASE_MILLIS;
+
+        if (attempts > 0) {
+            System.out.println(ChatClientImpl.YELLOW + "[*] " + ChatClientImpl.CYAN + "Se ha perdido la conexión con el servidor." 
+                                + ChatClientImpl.RESET);
+        }
+        for (int attempt = 1; attempt <= attempts && this.carryOn; attempt++) {
+            long wait = ThreadLocalRandom.current().nextLong(delay / 2, delay + 1);
+            System.out.printf(ChatClientImpl.YELLOW + "[*] " + ChatClientImpl.CYAN + "Reintentando en %d ms"
+                                + " (intento %d de %d)...\n" + ChatClientImpl.RESET, wait, attempt, attempts);
+            try {
+                Thread.sleep(wait);
+                openConnection();
+
+                System.out.println(ChatClientImpl.YELLOW + "[*] " + ChatClientImpl.CYAN 
+                                    + (this.resumed ? "Reconectado: se ha reanudado la sesión." : "Reconectado con una sesión nueva.")
+                                    + ChatClientImpl.RESET);
+                return true;
+
+            } catch (IOException ioException) {
+                closeWriter();
+                closeSocket();
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            delay = Math.min(delay * 2, ChatClientImpl.RECONNECT_MAX_MILLIS);
+        }
+
+        if (this.carryOn && attempts > 0) {
+            System.err.printf(ChatClientImpl.RED + "[!] No se ha podido reconectar con el servidor tras %d intentos.\n" 
+                                + ChatClientImpl.RESET, attempts);
+        }
+        return false;
+    }
+
+    /**
+     * Cierra el socket de la conexión actual, si sigue abierto.
+     */
+    private void closeSocket() {
+        Socket current = this.socket;
+        try {
+            if (current != null && !current.isClosed()) {
+                current.close();
+            }
+        } catch (IOException ioException) {
+            /* Ignora las excepciones en este caso. */
+        }
+    }
+
+    /**
+     * Cierra el flujo de salida de la conexión actual, si lo hay, y detiene su hilo de vaciado.
+     */
+    private void closeWriter() {
+        BatchingWriter current = this.writer;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException ioException) {
+                /* Ignora las excepciones en este caso: el socket puede estar ya cerrado. */
+            }
+        }
+    }
+
     /** 
      * Método que comprueba el tipo de mensaje recibido y actúa en consecuencia.
      * 
@@ -195,8 +430,8 @@ public class ChatClientImpl implements ChatClient {
                         break;
 
                     case ChatClientImpl.SHUTDOWN:
+                        /* El servidor lo rechaza: solo se apaga desde su consola. */
                         sendMessage(new ChatMessage(this.id, MessageType.SHUTDOWN, message));
-                        
 
                         break;
 
@@ -226,17 +461,17 @@ public class ChatClientImpl implements ChatClient {
             
             String messageToSend = message.getMessage();
 
-            PrintWriter output = new PrintWriter(socket.getOutputStream(), true);
-
             if (messageToSend.equalsIgnoreCase("logout") || messageToSend.equalsIgnoreCase("shutdown")) {
                 messageToSend = messageToSend.toUpperCase();
 
-                output.println(messageToSend);
+                /* Los comandos no esperan a la ventana de agrupación. */
+                this.writer.append(encode(new ChatMessage(message.getId(), message.getType(), messageToSend)));
+                this.writer.flush();
                 System.out.println(ChatClientImpl.YELLOW + "\r[*] " + timestamp + ChatClientImpl.GREEN + " " + this.username + ChatClientImpl.CYAN 
                                             + " envía el comando: " + ChatClientImpl.RESET + messageToSend);
             }else if (!messageToSend.isEmpty() && !messageToSend.equals("\n")) {
             
-                output.println(messageToSend);
+                this.writer.write(encode(message));
                 System.out.println(ChatClientImpl.YELLOW + "\r[*] " + timestamp + ChatClientImpl.GREEN + " " + this.username + ChatClientImpl.CYAN 
                                             + " envía el mensaje: " + ChatClientImpl.RESET + messageToSend);    
             }
@@ -247,11 +482,52 @@ public class ChatClientImpl implements ChatClient {
         }
     }
 
+    @Override
+    public int sendMessages(List<ChatMessage> messages) {
+        int sent = 0;
+        try {
+            for (ChatMessage message : messages) {
+                if (!message.getMessage().isEmpty()) {
+                    this.writer.append(encode(message));
+                    sent++;
+                }
+            }
+            this.writer.flush();
+
+        } catch (IOException ioException) {
+            System.err.printf(ChatClientImpl.RED + "[!] Error al enviar los mensajes: " + ChatClientImpl.RESET + "%s\n", ioException.getMessage());
+        }
+        return sent;
+    }
+
+    /**
+     * Codifica un mensaje con el protocolo negociado: una trama binaria con su tipo
+     * o, en el protocolo de texto, solo la línea.
+     * 
+     * @param message Mensaje a codificar
+     * @return Bytes a enviar
+     */
+    private byte[] encode(ChatMessage message) {
+        return this.binary ? ChatMessageCodec.encode(message).array() : encodeLine(message.getMessage());
+    }
+
+    /**
+     * Codifica una línea del protocolo de texto en UTF-8 con su salto de línea.
+     * 
+     * @param line Línea a codificar
+     * @return Bytes a enviar
+     */
+    private static byte[] encodeLine(String line) {
+        return (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+    }
+
     @Override
     public void disconnect() {
         System.out.println(ChatClientImpl.YELLOW + "[*]" + ChatClientImpl.CYAN + " Desconectando del sistema..." + ChatClientImpl.RESET);
         carryOn = false;
 
+        closeWriter();
+
         if (this.buffer != null) {
             try {
                 this.buffer.close();
@@ -259,6 +535,14 @@ public class ChatClientImpl implements ChatClient {
                 /* Ignoramos la excepción */
             }
         }
+
+        if (this.binaryInput != null) {
+            try {
+                this.binaryInput.close();
+            } catch (IOException iOException){
+                /* Ignoramos la excepción */
+            }
+        }
     }
 
     /**
@@ -267,10 +551,35 @@ public class ChatClientImpl implements ChatClient {
      * @param args Argumentos de la línea de comandos.
      */
     public static void main(String[] args) {
+        ClientOptions options;
+        try {
+            options = ClientOptions.parse(args);
+        } catch (IllegalArgumentException illegalArgumentException) {
+            System.err.printf(ChatClientImpl.RED + "[!] Error en el formato de entrada: %s\n" + ChatClientImpl.RESET, illegalArgumentException.getMessage());
+            System.out.println(ChatClientImpl.YELLOW + "[*] " + ChatClientImpl.CYAN + "Uso: \"$" + ClientOptions.USAGE + "\"\n" + ChatClientImpl.RESET);
+            System.exit(1);
+            return;
+        }
+
+        /* Las opciones --clave pueden ir en cualquier posición; el resto son argumentos posicionales. */
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                positional.add(arg);
+            }
+        }
+
+        if (options.getMode() == ExecutionMode.VIRTUAL && !ExecutionMode.virtualThreadsAvailable()) {
+            System.err.printf(ChatClientImpl.RED + "[!] Los hilos virtuales requieren Java 21 o superior.\n" + ChatClientImpl.RESET);
+            System.exit(1);
+        }
+
+        args = positional.toArray(new String[0]);
+
         if ((args.length != 3) && (args.length != 0)) {
             System.err.printf(ChatClientImpl.RED + "[!] Error en el formato de entrada.\n" + ChatClientImpl.RESET);
             System.out.println(ChatClientImpl.YELLOW + "[*] " + ChatClientImpl.CYAN 
-                                    + "Uso: \"$java es.ubu.lsi.client.ChatClientImpl <servidor> <puerto> <usuario>\"\n" + ChatClientImpl.RESET);
+                                    + "Uso: \"$" + ClientOptions.USAGE + "\"\n" + ChatClientImpl.RESET);
             System.out.println(ChatClientImpl.YELLOW + "[*] " + ChatClientImpl.CYAN + "En caso de no poner parámetros se usarán los valores por defecto.\n" 
                                     + ChatClientImpl.RESET);
             System.exit(1);
@@ -280,7 +589,7 @@ public class ChatClientImpl implements ChatClient {
 	    int port = args.length > 0 ? Integer.parseInt(args[1]) : ChatClientImpl.DEFAULT_PORT;
 	    String username = args.length > 0 ? args[2] : ChatClientImpl.DEFAULT_USER;
 	    
-	    ChatClientImpl cliente = new ChatClientImpl(server, port, username);
+	    ChatClientImpl cliente = new ChatClientImpl(server, port, username, options);
 	    
 	    if (!cliente.start()) {
             System.err.printf(ChatClientImpl.RED + "[!] ERROR: El cliente no se ha inicializado correctamente.\n" + ChatClientImpl.RESET);
@@ -0,0 +1,182 @@
+package es.ubu.lsi.client;
+
+import es.ubu.lsi.common.ExecutionMode;
+
+/**
+ * Opciones de arranque del cliente de chat.
+ * Se construyen a partir de las opciones --clave de la línea de comandos con {@link #parse(String[])}
+ * o se rellenan con sus setters cuando el cliente se crea desde código.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.client.ChatClientImpl
+ */
+public class ClientOptions {
+
+    /** Tamaño por defecto del buffer de salida, en bytes. */
+    public static final int DEFAULT_BATCH_BYTES = 8192;
+
+    /** Intentos de reconexión por defecto tras perder la conexión. */
+    public static final int DEFAULT_RECONNECT_ATTEMPTS = 10;
+
+    /** Sintaxis de uso del cliente. */
+    public static final String USAGE = "java es.ubu.lsi.client.ChatClientImpl <servidor> <puerto> <usuario> [--virtual] [--binary]"
+                                        + " [--batch-ms=ms] [--batch-bytes=n] [--reconnect=n]";
+
+    /** Modo de ejecución del hilo que escucha al servidor. */
+    private ExecutionMode mode = ExecutionMode.PLATFORM;
+
+    /** Si se pide el protocolo binario en el saludo. */
+    private boolean binary = false;
+
+    /** Ventana de agrupación de mensajes salientes, en milisegundos; 0 envía cada mensaje al momento. */
+    private long batchMillis = 0;
+
+    /** Tamaño del buffer de salida, que limita los bytes que se agrupan en un envío. */
+    private int batchBytes = ClientOptions.DEFAULT_BATCH_BYTES;
+
+    /** Intentos de reconexión tras perder la conexión, 0 para no reconectar. */
+    private int reconnectAttempts = ClientOptions.DEFAULT_RECONNECT_ATTEMPTS;
+
+    /**
+     * Construye las opciones a partir de los argumentos que empiezan por --.
+     * El resto de argumentos se ignoran.
+     *
+     * @param args Argumentos de la línea de comandos
+     * @return Opciones leídas
+     * @throws IllegalArgumentException Si alguna opción no es válida
+     */
+    public static ClientOptions parse(String[] args) {
+        ClientOptions options = new ClientOptions();
+
+        for (String arg : args) {
+            if (arg.equals("--virtual")) {
+                options.setMode(ExecutionMode.VIRTUAL);
+            } else if (arg.equals("--binary")) {
+                options.setBinary(true);
+            } else if (arg.startsWith("--batch-ms=")) {
+                options.setBatchMillis(Long.parseLong(value(arg)));
+            } else if (arg.startsWith("--batch-bytes=")) {
+                options.setBatchBytes(Integer.parseInt(value(arg)));
+            } else if (arg.startsWith("--reconnect=")) {
+                options.setReconnectAttempts(Integer.parseInt(value(arg)));
+            } else if (arg.startsWith("--")) {
+                throw new IllegalArgumentException("Opción desconocida: " + arg);
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Obtiene el valor de una opción con formato --clave=valor.
+     *
+     * @param arg Argumento completo
+     * @return Valor tras el signo igual
+     */
+    private static String value(String arg) {
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+
+    /**
+     * Obtiene el modo de ejecución.
+     *
+     * @return Modo de ejecución del hilo de escucha
+     */
+    public ExecutionMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Establece el modo de ejecución.
+     *
+     * @param mode Modo de ejecución del hilo de escucha
+     */
+    public void setMode(ExecutionMode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Indica si se pide el protocolo binario.
+     *
+     * @return true si el cliente pide tramas binarias en el saludo
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Establece si se pide el protocolo binario.
+     *
+     * @param binary true para pedir tramas binarias en el saludo
+     */
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    /**
+     * Obtiene la ventana de agrupación.
+     *
+     * @return Ventana de agrupación en milisegundos, 0 si no se agrupa
+     */
+    public long getBatchMillis() {
+        return batchMillis;
+    }
+
+    /**
+     * Establece la ventana de agrupación.
+     *
+     * @param batchMillis Ventana de agrupación en milisegundos, 0 para no agrupar
+     */
+    public void setBatchMillis(long batchMillis) {
+        if (batchMillis < 0) {
+            throw new IllegalArgumentException("La ventana de agrupación no puede ser negativa: " + batchMillis);
+        }
+        this.batchMillis = batchMillis;
+    }
+
+    /**
+     * Obtiene el tamaño del buffer de salida.
+     *
+     * @return Bytes que se agrupan como máximo en un envío
+     */
+    public int getBatchBytes() {
+        return batchBytes;
+    }
+
+    /**
+     * Establece el tamaño del buffer de salida.
+     *
+     * @param batchBytes Bytes que se agrupan como máximo en un envío
+     */
+    public void setBatchBytes(int batchBytes) {
+        if (batchBytes < 1) {
+            throw new IllegalArgumentException("El tamaño del buffer debe ser positivo: " + batchBytes);
+        }
+        this.batchBytes = batchBytes;
+    }
+
+    /**
+     * Obtiene los intentos de reconexión.
+     *
+     * @return Intentos tras perder la conexión, 0 si no se reconecta
+     */
+    public int getReconnectAttempts() {
+        return reconnectAttempts;
+    }
+
+    /**
+     * Establece los intentos de reconexión. Con más de 0, el cliente pide en el saludo una
+     * sesión reanudable y, si pierde la conexión, vuelve a conectarse esperando cada vez el doble.
+     *
+     * @param reconnectAttempts Intentos tras perder la conexión, 0 para no reconectar
+     */
+    public void setReconnectAttempts(int reconnectAttempts) {
+        if (reconnectAttempts < 0) {
+            throw new IllegalArgumentException("Los intentos de reconexión no pueden ser negativos: " + reconnectAttempts);
+        }
+        this.reconnectAttempts = reconnectAttempts;
+    }
+}
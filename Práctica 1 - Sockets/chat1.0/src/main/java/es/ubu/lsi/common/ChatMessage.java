@@ -27,7 +27,9 @@ public class ChatMessage implements Serializable {
 		/** Shutdown server. */
 		SHUTDOWN,		
 		/** Logout client. */
-		LOGOUT;		
+		LOGOUT,
+		/** Private message to a single client. */
+		PRIVATE;
 	}
 	
 	/** Type. */
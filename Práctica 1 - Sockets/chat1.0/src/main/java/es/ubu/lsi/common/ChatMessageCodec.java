@@ -0,0 +1,208 @@
+package es.ubu.lsi.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import es.ubu.lsi.common.ChatMessage.MessageType;
+
+/**
+ * Codificador y decodificador del protocolo binario de ChatMessage, común al cliente y al servidor.
+ * Cada trama tiene el formato:
+ * <pre>
+ * +--------+----------------+----------------+-------------------+
+ * | tipo   | id del emisor  | longitud (n)   | texto UTF-8       |
+ * | 1 byte | 4 bytes        | 4 bytes        | n bytes           |
+ * +--------+----------------+----------------+-------------------+
+ * </pre>
+ * El protocolo se negocia en el saludo: el cliente envía la línea de texto
+ * {@value #HANDSHAKE} seguida de su nombre de usuario y, si el servidor lo admite, responde
+ * con la línea {@value #ACK} y a partir de ahí ambos extremos usan tramas binarias.
+ * Si la respuesta es otra, el cliente sigue con el protocolo de texto de siempre.
+ * <p>
+ * Delante de todo lo anterior, el cliente puede pedir una sesión reanudable con
+ * {@value #RESUME} seguido de su testigo, o de {@value #NO_TOKEN} si aún no tiene. El servidor
+ * que lo admite responde con una línea {@value #RESUMED} o {@value #NEW_SESSION} seguida del
+ * testigo que debe presentar el cliente al reconectarse, antes de la confirmación binaria.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.common.ChatMessage
+ */
+public final class ChatMessageCodec {
+
+    /** Prefijo del saludo con el que el cliente pide el protocolo binario. */
+    public static final String HANDSHAKE = "BIN/1";
+
+    /** Respuesta del servidor que acepta el protocolo binario. */
+    public static final String ACK = "BIN/1 OK";
+
+    /** Prefijo del saludo con el que el cliente pide una sesión reanudable. */
+    public static final String RESUME = "RESUME/1";
+
+    /** Testigo que envía el cliente que aún no tiene sesión que reanudar. */
+    public static final String NO_TOKEN = "-";
+
+    /** Respuesta del servidor que ha reanudado la sesión del testigo, seguida del testigo. */
+    public static final String RESUMED = "RESUME/1 OK";
+
+    /** Respuesta del servidor que ha abierto una sesión nueva, seguida de su testigo. */
+    public static final String NEW_SESSION = "RESUME/1 NEW";
+
+    /** Identificador de emisor de los mensajes que genera el propio servidor. */
+    public static final int SERVER_ID = -1;
+
+    /** Tamaño de la cabecera de una trama. */
+    public static final int HEADER_SIZE = 1 + 4 + 4;
+
+    /** Longitud máxima del texto de una trama, en bytes. */
+    public static final int MAX_PAYLOAD = 64 * 1024;
+
+    /** Longitud máxima de una línea de saludo, en bytes. */
+    private static final int MAX_LINE = 1024;
+
+    /**
+     * Constructor privado, clase de utilidad.
+     */
+    private ChatMessageCodec() {
+    }
+
+    /**
+     * Obtiene el byte que identifica un tipo de mensaje en la trama.
+     * Los códigos son fijos para no depender del orden del enumerado.
+     *
+     * @param type Tipo de mensaje
+     * @return Código del tipo
+     */
+    public static byte typeCode(MessageType type) {
+        switch (type) {
+            case MESSAGE:
+                return 1;
+            case SHUTDOWN:
+                return 2;
+            case LOGOUT:
+                return 3;
+            case PRIVATE:
+                return 4;
+            default:
+                throw new IllegalArgumentException("Tipo de mensaje sin código: " + type);
+        }
+    }
+
+    /**
+     * Obtiene el tipo de mensaje a partir de su código en la trama.
+     *
+     * @param code Código del tipo
+     * @return Tipo de mensaje
+     * @throws IOException Si el código no corresponde a ningún tipo
+     */
+    public static MessageType typeOf(byte code) throws IOException {
+        switch (code) {
+            case 1:
+                return MessageType.MESSAGE;
+            case 2:
+                return MessageType.SHUTDOWN;
+            case 3:
+                return MessageType.LOGOUT;
+            case 4:
+                return MessageType.PRIVATE;
+            default:
+                throw new IOException("Tipo de trama desconocido: " + code);
+        }
+    }
+
+    /**
+     * Codifica un mensaje en una trama binaria.
+     *
+     * @param message Mensaje a codificar
+     * @return Trama lista para escribir, con la posición al inicio
+     */
+    public static ByteBuffer encode(ChatMessage message) {
+        return encode(message.getType(), message.getId(), message.getMessage());
+    }
+
+    /**
+     * Codifica un mensaje en una trama binaria sin crear un ChatMessage.
+     *
+     * @param type Tipo de mensaje
+     * @param id Identificador del emisor
+     * @param text Texto del mensaje
+     * @return Trama lista para escribir, con la posición al inicio
+     */
+    public static ByteBuffer encode(MessageType type, int id, String text) {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        if (payload.length > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Mensaje demasiado largo: " + payload.length + " bytes");
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        frame.put(typeCode(type)).putInt(id).putInt(payload.length).put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Lee una trama completa de un flujo bloqueante.
+     *
+     * @param input Flujo de entrada
+     * @return Mensaje leído, o null si el flujo termina limpiamente entre dos tramas
+     * @throws IOException Si la trama está incompleta o es inválida
+     */
+    public static ChatMessage read(DataInputStream input) throws IOException {
+        int code = input.read();
+        if (code < 0) {
+            return null;
+        }
+
+        MessageType type = typeOf((byte) code);
+        int id = input.readInt();
+        int length = input.readInt();
+        if (length < 0 || length > MAX_PAYLOAD) {
+            throw new IOException("Longitud de trama inválida: " + length);
+        }
+
+        byte[] payload = new byte[length];
+        input.readFully(payload);
+        return new ChatMessage(id, type, new String(payload, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Lee una línea de texto byte a byte, sin adelantar lectura más allá del salto de línea.
+     * Se usa en el saludo para que el resto del flujo quede intacto, sea texto o binario.
+     *
+     * @param input Flujo de entrada
+     * @return Línea leída sin el salto de línea, o null si el flujo termina antes
+     * @throws IOException Si ocurre un error de lectura o la línea es demasiado larga
+     */
+    public static String readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int current;
+
+        while ((current = input.read()) != '\n') {
+            if (current < 0) {
+                if (line.size() == 0) {
+                    return null;
+                }
+                throw new EOFException("Línea incompleta");
+            }
+            if (line.size() >= MAX_LINE) {
+                throw new IOException("Línea de saludo demasiado larga");
+            }
+            line.write(current);
+        }
+
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,114 @@
+package es.ubu.lsi.common;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Modo de ejecución de los manejadores de conexión del cliente y del servidor.
+ * El modo VIRTUAL usa hilos virtuales, que solo existen a partir de Java 21.
+ * Como el proyecto se compila para Java 1.8, la API se localiza por reflexión
+ * y solo se puede usar cuando la JVM en ejecución la ofrece (ver el perfil jdk21 del pom).
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ */
+public enum ExecutionMode {
+
+    /** Un hilo de plataforma por conexión. */
+    PLATFORM,
+
+    /** Un hilo virtual por conexión. */
+    VIRTUAL;
+
+    /**
+     * Indica si la JVM en ejecución soporta hilos virtuales.
+     *
+     * @return true si están disponibles, false en caso contrario
+     */
+    public static boolean virtualThreadsAvailable() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException noSuchMethodException) {
+            return false;
+        }
+    }
+
+    /**
+     * Crea una factoría de hilos con nombres numerados a partir de un prefijo.
+     * En modo PLATFORM los hilos son daemon si así se indica;
+     * los hilos virtuales siempre lo son.
+     *
+     * @param prefix Prefijo del nombre de los hilos
+     * @param daemon Si los hilos de plataforma deben ser daemon
+     * @return Factoría de hilos
+     * @throws UnsupportedOperationException Si se pide el modo VIRTUAL en una JVM que no lo soporta
+     */
+    public ThreadFactory threadFactory(String prefix, boolean daemon) {
+        if (this == VIRTUAL) {
+            return virtualThreadFactory(prefix);
+        }
+
+        AtomicLong counter = new AtomicLong();
+        return task -> {
+            Thread thread = new Thread(task, prefix + counter.getAndIncrement());
+            thread.setDaemon(daemon);
+            return thread;
+        };
+    }
+
+    /**
+     * Crea un hilo sin arrancar para la tarea indicada.
+     *
+     * @param task Tarea a ejecutar
+     * @param name Nombre del hilo
+     * @param daemon Si el hilo de plataforma debe ser daemon
+     * @return Hilo sin arrancar
+     */
+    public Thread newThread(Runnable task, String name, boolean daemon) {
+        Thread thread = threadFactory(name, daemon).newThread(task);
+        thread.setName(name);
+        return thread;
+    }
+
+    /**
+     * Crea un ejecutor que lanza un hilo nuevo por cada tarea.
+     *
+     * @param prefix Prefijo del nombre de los hilos
+     * @return Ejecutor de tareas
+     */
+    public ExecutorService newExecutor(String prefix) {
+        ThreadFactory factory = threadFactory(prefix, false);
+
+        if (this == VIRTUAL) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                                                          .invoke(null, factory);
+            } catch (ReflectiveOperationException reflectiveOperationException) {
+                throw new UnsupportedOperationException("Los hilos virtuales requieren Java 21 o superior.", reflectiveOperationException);
+            }
+        }
+        return Executors.newCachedThreadPool(factory);
+    }
+
+    /**
+     * Obtiene por reflexión Thread.ofVirtual().name(prefix, 0).factory().
+     *
+     * @param prefix Prefijo del nombre de los hilos
+     * @return Factoría de hilos virtuales
+     */
+    private static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException reflectiveOperationException) {
+            throw new UnsupportedOperationException("Los hilos virtuales requieren Java 21 o superior.", reflectiveOperationException);
+        }
+    }
+}
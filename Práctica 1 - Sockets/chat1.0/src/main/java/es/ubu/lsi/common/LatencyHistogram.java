@@ -0,0 +1,187 @@
+package es.ubu.lsi.common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias con cubetas log-lineales: exactas por debajo de 64 unidades y con
+ * un error relativo inferior al 3,2 % por encima. La unidad es la de quien lo alimenta
+ * (microsegundos en el generador de carga, nanosegundos en las métricas del servidor).
+ * Ocupa un array fijo de unos 15 KB sea cual sea el número de muestras.
+ * Se puede registrar desde varios hilos a la vez sin bloquear: cada cubeta se incrementa de
+ * forma atómica y la suma y el total se reparten entre celdas. Aun así, cuando cada hilo
+ * puede tener el suyo, como los lectores del generador de carga, es mejor combinarlos al final.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.load.LoadGenerator
+ * @see es.ubu.lsi.server.ServerMetrics
+ */
+public final class LatencyHistogram {
+
+    /** Valores por debajo de este umbral tienen una cubeta cada uno. */
+    private static final int LINEAR = 64;
+
+    /** Cubetas por cada potencia de dos a partir del umbral lineal. */
+    private static final int SUB_BUCKETS = 32;
+
+    /** Número total de cubetas, suficiente para cualquier valor positivo de un long. */
+    private static final int BUCKETS = LINEAR + (63 - 5) * SUB_BUCKETS;
+
+    /** Muestras de cada cubeta. */
+    private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKETS);
+
+    /** Número total de muestras. */
+    private final LongAdder total = new LongAdder();
+
+    /** Valor máximo registrado. */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /** Suma de los valores, para la media. */
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Registra una latencia.
+     *
+     * @param value Latencia; los valores negativos cuentan como 0
+     */
+    public void record(long value) {
+        long sample = Math.max(0, value);
+        this.counts.incrementAndGet(index(sample));
+        this.total.increment();
+        this.sum.add(sample);
+        this.max.accumulate(sample);
+    }
+
+    /**
+     * Suma las muestras de otro histograma a este.
+     *
+     * @param other Histograma a sumar
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                this.counts.addAndGet(i, count);
+            }
+        }
+        this.total.add(other.total.sum());
+        this.sum.add(other.sum.sum());
+        this.max.accumulate(other.max.get());
+    }
+
+    /**
+     * Obtiene el percentil indicado.
+     *
+     * @param percentile Percentil entre 0 y 100
+     * @return Límite superior de la cubeta que contiene el percentil; 0 si no hay muestras
+     */
+    public long percentile(double percentile) {
+        long total = this.total.sum();
+        long max = this.max.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Cuenta las muestras que no superan un valor. Es exacto cuando el valor es el límite
+     * superior de una cubeta, como cualquier valor menor que 64 o cualquier 2^k - 1;
+     * si no, cuenta también las de la cubeta del valor que lo superan.
+     *
+     * @param value Valor máximo
+     * @return Muestras menores o iguales que el valor
+     */
+    public long countAtMost(long value) {
+        if (value < 0) {
+            return 0;
+        }
+        int last = index(value);
+        long count = 0;
+        for (int i = 0; i <= last; i++) {
+            count += this.counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Número de muestras.
+     *
+     * @return Total de muestras registradas
+     */
+    public long getCount() {
+        return this.total.sum();
+    }
+
+    /**
+     * Latencia máxima.
+     *
+     * @return Máximo registrado
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Suma de las latencias.
+     *
+     * @return Suma de todas las muestras
+     */
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * Latencia media.
+     *
+     * @return Media, 0 si no hay muestras
+     */
+    public double getMean() {
+        long total = this.total.sum();
+        return total == 0 ? 0 : this.sum.sum() / (double) total;
+    }
+
+    /**
+     * Calcula la cubeta de un valor.
+     *
+     * @param value Valor no negativo
+     * @return Índice de la cubeta
+     */
+    private static int index(long value) {
+        if (value < LatencyHistogram.LINEAR) {
+            return (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - 5;
+        int mantissa = (int) (value >>> shift) - LatencyHistogram.SUB_BUCKETS;
+        return LatencyHistogram.LINEAR + (shift - 1) * LatencyHistogram.SUB_BUCKETS + mantissa;
+    }
+
+    /**
+     * Calcula el mayor valor que cae en una cubeta.
+     *
+     * @param index Índice de la cubeta
+     * @return Límite superior de la cubeta
+     */
+    private static long upperBound(int index) {
+        if (index < LatencyHistogram.LINEAR) {
+            return index;
+        }
+        int shift = (index - LatencyHistogram.LINEAR) / LatencyHistogram.SUB_BUCKETS + 1;
+        long mantissa = (index - LatencyHistogram.LINEAR) % LatencyHistogram.SUB_BUCKETS + LatencyHistogram.SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,344 @@
+package es.ubu.lsi.load;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.ChatMessage.MessageType;
+import es.ubu.lsi.common.ChatMessageCodec;
+import es.ubu.lsi.common.ExecutionMode;
+import es.ubu.lsi.common.LatencyHistogram;
+
+/**
+ * Generador de carga para el servidor de chat.
+ * Conecta N clientes simulados por loopback, cada uno hace el saludo y envía mensajes
+ * a un ritmo fijo. Cada mensaje lleva el instante de envío, de modo que cada cliente que
+ * lo recibe mide la latencia de difusión extremo a extremo. Al terminar se muestran los
+ * percentiles de latencia y el rendimiento, y se guardan en CSV o JSON si se indica un fichero.
+ *
+ * Uso: ver {@link LoadOptions#USAGE}, o mvn exec:java@load con el servidor arrancado.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.load.LoadOptions
+ * @see es.ubu.lsi.load.LoadResult
+ */
+public final class LoadGenerator {
+
+    /** Marca con la que empieza el texto de los mensajes de carga. */
+    private static final String MARKER = "LOAD ";
+
+    /** Espera tras conectar a todos los clientes para que se repartan los avisos de entrada, en milisegundos. */
+    private static final long SETTLE_MILLIS = 500;
+
+    /** Espera tras el último envío para recibir las entregas pendientes, en milisegundos. */
+    private static final long DRAIN_MILLIS = 2000;
+
+    /** Opciones de la ejecución. */
+    private final LoadOptions options;
+
+    /** Inicio de la ventana de medida, en System.nanoTime(). */
+    private volatile long measureStart = Long.MAX_VALUE;
+
+    /** Fin de la ventana de medida, en System.nanoTime(). */
+    private volatile long measureEnd = Long.MAX_VALUE;
+
+    /**
+     * Constructor de LoadGenerator.
+     *
+     * @param options Opciones de la ejecución
+     */
+    public LoadGenerator(LoadOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Ejecuta la carga completa: conexión, calentamiento, medida y desconexión.
+     *
+     * @return Resultado de la medida
+     * @throws IOException Si algún cliente no puede conectarse
+     * @throws InterruptedException Si se interrumpe la ejecución
+     */
+    public LoadResult run() throws IOException, InterruptedException {
+        int count = this.options.getClients();
+        String runId = Long.toString(System.currentTimeMillis() % 1_000_000, 36);
+        char[] padding = new char[Math.max(0, this.options.getMessageSize() - 40)];
+        Arrays.fill(padding, 'x');
+
+        List<SimulatedClient> clients = new ArrayList<>();
+        List<Thread> readers = new ArrayList<>();
+        ScheduledExecutorService senders = Executors.newScheduledThreadPool(
+                    Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())),
+                    ExecutionMode.PLATFORM.threadFactory("load-sender-", true));
+
+        try {
+            for (int i = 0; i < count; i++) {
+                SimulatedClient client = new SimulatedClient(i, "carga-" + runId + "-" + i, new String(padding));
+                clients.add(client);
+                client.connect();
+
+                Thread reader = this.options.getMode().newThread(client::readLoop, "load-reader-" + i, true);
+                readers.add(reader);
+                reader.start();
+            }
+            Thread.sleep(LoadGenerator.SETTLE_MILLIS);
+
+            long now = System.nanoTime();
+            this.measureStart = now + TimeUnit.SECONDS.toNanos(this.options.getWarmupSeconds());
+            this.measureEnd = this.measureStart + TimeUnit.SECONDS.toNanos(this.options.getDurationSeconds());
+
+            /* Los clientes empiezan escalonados para no enviar todos a la vez. */
+            long period = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / this.options.getRate()));
+            for (SimulatedClient client : clients) {
+                senders.scheduleAtFixedRate(client::sendOne, period * client.index / count, period, TimeUnit.NANOSECONDS);
+            }
+
+            TimeUnit.NANOSECONDS.sleep(this.measureEnd - System.nanoTime());
+            senders.shutdownNow();
+            senders.awaitTermination(5, TimeUnit.SECONDS);
+            Thread.sleep(LoadGenerator.DRAIN_MILLIS);
+
+        } finally {
+            senders.shutdownNow();
+            for (SimulatedClient client : clients) {
+                client.close();
+            }
+            for (Thread reader : readers) {
+                reader.join(1000);
+            }
+        }
+
+        long sent = 0;
+        int failed = 0;
+        LatencyHistogram latencies = new LatencyHistogram();
+        for (SimulatedClient client : clients) {
+            sent += client.sentInWindow;
+            failed += client.failed ? 1 : 0;
+            latencies.add(client.latencies);
+        }
+        return new LoadResult(this.options, sent, sent * (count - 1), latencies,
+                              (this.measureEnd - this.measureStart) / 1e9, failed);
+    }
+
+    /**
+     * Método principal del generador de carga.
+     *
+     * @param args Argumentos de la línea de comandos, ver {@link LoadOptions#USAGE}
+     */
+    public static void main(String[] args) {
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException illegalArgumentException) {
+            System.err.printf("[!] Error en el formato de entrada: %s%n", illegalArgumentException.getMessage());
+            System.out.println("[*] Uso: " + LoadOptions.USAGE);
+            System.exit(1);
+            return;
+        }
+
+        if (options.getMode() == ExecutionMode.VIRTUAL && !ExecutionMode.virtualThreadsAvailable()) {
+            System.err.println("[!] Los hilos virtuales requieren Java 21 o superior.");
+            System.exit(1);
+        }
+
+        try {
+            System.out.printf("[*] Conectando %d clientes a %s:%d...%n", options.getClients(), options.getHost(), options.getPort());
+            LoadResult result = new LoadGenerator(options).run();
+            System.out.println(result.summary());
+
+            if (options.getOutput() != null) {
+                result.write(options.getOutput());
+                System.out.println("[*] Resultados guardados en " + options.getOutput());
+            }
+        } catch (IOException ioException) {
+            System.err.printf("[!] Error durante la carga: %s%n", ioException.getMessage());
+            System.exit(1);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Cliente simulado: envía desde el planificador y recibe en su propio hilo lector,
+     * que es el único que escribe en su histograma.
+     */
+    private final class SimulatedClient {
+
+        /** Posición del cliente en la ejecución. */
+        private final int index;
+
+        /** Nombre de usuario. */
+        private final String username;
+
+        /** Relleno hasta el tamaño de mensaje pedido. */
+        private final String padding;
+
+        /** Latencias de los mensajes recibidos dentro de la ventana de medida. */
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        /** Socket del cliente. */
+        private Socket socket;
+
+        /** Flujo de salida con buffer. */
+        private OutputStream output;
+
+        /** Flujo de entrada tras el saludo. */
+        private InputStream input;
+
+        /** Si el servidor aceptó el protocolo binario. */
+        private boolean binary = false;
+
+        /** Número de secuencia del último mensaje enviado. */
+        private long sequence = 0;
+
+        /** Mensajes enviados dentro de la ventana de medida; solo lo modifica la tarea de envío. */
+        private long sentInWindow = 0;
+
+        /** Si el cliente ha dejado de poder enviar. */
+        private volatile boolean failed = false;
+
+        /**
+         * Constructor de SimulatedClient.
+         *
+         * @param index Posición del cliente
+         * @param username Nombre de usuario
+         * @param padding Relleno de los mensajes
+         */
+        SimulatedClient(int index, String username, String padding) {
+            this.index = index;
+            this.username = username;
+            this.padding = padding;
+        }
+
+        /**
+         * Conecta y realiza el saludo.
+         *
+         * @throws IOException Si no se puede conectar
+         */
+        void connect() throws IOException {
+            this.socket = new Socket(options.getHost(), options.getPort());
+            this.socket.setTcpNoDelay(true);
+            this.output = new BufferedOutputStream(this.socket.getOutputStream());
+
+            String handshake = options.isBinary() ? ChatMessageCodec.HANDSHAKE + " " + this.username : this.username;
+            this.output.write((handshake + "\n").getBytes(StandardCharsets.UTF_8));
+            this.output.flush();
+
+            InputStream rawInput = this.socket.getInputStream();
+            if (options.isBinary()) {
+                this.binary = ChatMessageCodec.ACK.equals(ChatMessageCodec.readLine(rawInput));
+            }
+            this.input = this.binary ? new DataInputStream(new BufferedInputStream(rawInput)) : rawInput;
+        }
+
+        /**
+         * Envía un mensaje con el instante actual. Lo invoca periódicamente el planificador.
+         */
+        void sendOne() {
+            long now = System.nanoTime();
+            String text = LoadGenerator.MARKER + this.index + " " + (++this.sequence) + " " + now + " " + this.padding;
+            try {
+                if (this.binary) {
+                    this.output.write(ChatMessageCodec.encode(MessageType.MESSAGE, this.index, text).array());
+                } else {
+                    this.output.write((text + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+                this.output.flush();
+                if (now >= measureStart && now < measureEnd) {
+                    this.sentInWindow++;
+                }
+            } catch (IOException ioException) {
+                /* La excepción cancela la tarea periódica de este cliente; el resto sigue. */
+                this.failed = true;
+                throw new IllegalStateException("El cliente " + this.username + " no puede enviar", ioException);
+            }
+        }
+
+        /**
+         * Bucle del hilo lector: registra la latencia de cada mensaje de carga recibido.
+         */
+        void readLoop() {
+            try {
+                if (this.binary) {
+                    DataInputStream frames = (DataInputStream) this.input;
+                    ChatMessage message;
+                    while ((message = ChatMessageCodec.read(frames)) != null) {
+                        received(message.getMessage());
+                    }
+                } else {
+                    BufferedReader lines = new BufferedReader(new InputStreamReader(this.input, StandardCharsets.UTF_8));
+                    String line;
+                    while ((line = lines.readLine()) != null) {
+                        received(line);
+                    }
+                }
+            } catch (IOException ioException) {
+                /* Conexión cerrada al terminar la ejecución. */
+            }
+        }
+
+        /**
+         * Procesa un mensaje recibido.
+         *
+         * @param text Texto del mensaje, con la cabecera que añade el servidor
+         */
+        private void received(String text) {
+            long now = System.nanoTime();
+            int start = text.indexOf(LoadGenerator.MARKER);
+            if (start < 0) {
+                return;
+            }
+
+            /* Formato: LOAD <cliente> <secuencia> <instante> <relleno> */
+            String[] fields = text.substring(start + LoadGenerator.MARKER.length()).split(" ", 4);
+            if (fields.length < 3) {
+                return;
+            }
+            long sentAt = Long.parseLong(fields[2]);
+            if (sentAt >= measureStart && sentAt < measureEnd) {
+                this.latencies.record(TimeUnit.NANOSECONDS.toMicros(now - sentAt));
+            }
+        }
+
+        /**
+         * Cierra la sesión con un logout y después el socket.
+         */
+        void close() {
+            if (this.socket == null) {
+                return;
+            }
+            try {
+                if (this.binary) {
+                    this.output.write(ChatMessageCodec.encode(MessageType.LOGOUT, this.index, "LOGOUT").array());
+                } else {
+                    this.output.write("LOGOUT\n".getBytes(StandardCharsets.UTF_8));
+                }
+                this.output.flush();
+            } catch (IOException ioException) {
+                /* Ignora las excepciones en este caso. */
+            }
+            try {
+                this.socket.close();
+            } catch (IOException ioException) {
+                /* Ignora las excepciones en este caso. */
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package es.ubu.lsi.load;
+
+import es.ubu.lsi.common.ExecutionMode;
+
+/**
+ * Opciones del generador de carga.
+ * Se construyen a partir de los argumentos de la línea de comandos con {@link #parse(String[])}.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.load.LoadGenerator
+ */
+public class LoadOptions {
+
+    /** Sintaxis de uso del generador de carga. */
+    public static final String USAGE = "java es.ubu.lsi.load.LoadGenerator [servidor] [puerto] [--clients=n] [--rate=msg/s]"
+                                        + " [--duration=s] [--warmup=s] [--size=bytes] [--binary] [--virtual]"
+                                        + " [--label=texto] [--output=fichero.csv|fichero.json]";
+
+    /** Servidor al que se conectan los clientes. */
+    private String host = "localhost";
+
+    /** Puerto del servidor. */
+    private int port = 1500;
+
+    /** Número de clientes simulados. */
+    private int clients = 50;
+
+    /** Mensajes por segundo que envía cada cliente. */
+    private double rate = 10;
+
+    /** Duración de la medida, en segundos. */
+    private int durationSeconds = 10;
+
+    /** Calentamiento previo a la medida, en segundos. */
+    private int warmupSeconds = 2;
+
+    /** Tamaño aproximado del texto de cada mensaje, en bytes. */
+    private int messageSize = 64;
+
+    /** Si los clientes piden el protocolo binario. */
+    private boolean binary = false;
+
+    /** Modo de ejecución de los hilos lectores. */
+    private ExecutionMode mode = ExecutionMode.PLATFORM;
+
+    /** Etiqueta de la ejecución en los resultados, por ejemplo la implementación del servidor. */
+    private String label = "";
+
+    /** Fichero de resultados, o null para mostrarlos solo por consola. */
+    private String output = null;
+
+    /**
+     * Construye las opciones a partir de los argumentos de la línea de comandos.
+     *
+     * @param args Argumentos de la línea de comandos
+     * @return Opciones leídas
+     * @throws IllegalArgumentException Si algún argumento no es válido
+     */
+    public static LoadOptions parse(String[] args) {
+        LoadOptions options = new LoadOptions();
+        int positional = 0;
+
+        for (String arg : args) {
+            if (arg.startsWith("--clients=")) {
+                options.clients = positive(Integer.parseInt(value(arg)), arg);
+            } else if (arg.startsWith("--rate=")) {
+                options.rate = Double.parseDouble(value(arg));
+                if (options.rate <= 0) {
+                    throw new IllegalArgumentException("El ritmo debe ser positivo: " + arg);
+                }
+            } else if (arg.startsWith("--duration=")) {
+                options.durationSeconds = positive(Integer.parseInt(value(arg)), arg);
+            } else if (arg.startsWith("--warmup=")) {
+                options.warmupSeconds = Math.max(0, Integer.parseInt(value(arg)));
+            } else if (arg.startsWith("--size=")) {
+                options.messageSize = positive(Integer.parseInt(value(arg)), arg);
+            } else if (arg.equals("--binary")) {
+                options.binary = true;
+            } else if (arg.equals("--virtual")) {
+                options.mode = ExecutionMode.VIRTUAL;
+            } else if (arg.startsWith("--label=")) {
+                options.label = value(arg);
+            } else if (arg.startsWith("--output=")) {
+                options.output = value(arg);
+            } else if (arg.startsWith("--")) {
+                throw new IllegalArgumentException("Opción desconocida: " + arg);
+            } else if (positional == 0) {
+                options.host = arg;
+                positional++;
+            } else if (positional == 1) {
+                options.port = Integer.parseInt(arg);
+                positional++;
+            } else {
+                throw new IllegalArgumentException("Argumento de más: " + arg);
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Obtiene el valor de una opción con formato --clave=valor.
+     *
+     * @param arg Argumento completo
+     * @return Valor tras el signo igual
+     */
+    private static String value(String arg) {
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+
+    /**
+     * Comprueba que un valor numérico es positivo.
+     *
+     * @param value Valor leído
+     * @param arg Argumento completo, para el mensaje de error
+     * @return El mismo valor
+     */
+    private static int positive(int value, String arg) {
+        if (value < 1) {
+            throw new IllegalArgumentException("El valor debe ser positivo: " + arg);
+        }
+        return value;
+    }
+
+    /**
+     * Obtiene el servidor.
+     *
+     * @return Nombre o dirección del servidor
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Obtiene el puerto.
+     *
+     * @return Puerto del servidor
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Obtiene el número de clientes.
+     *
+     * @return Número de clientes simulados
+     */
+    public int getClients() {
+        return clients;
+    }
+
+    /**
+     * Obtiene el ritmo de envío.
+     *
+     * @return Mensajes por segundo de cada cliente
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Obtiene la duración de la medida.
+     *
+     * @return Duración en segundos
+     */
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    /**
+     * Obtiene el calentamiento.
+     *
+     * @return Calentamiento en segundos
+     */
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    /**
+     * Obtiene el tamaño de los mensajes.
+     *
+     * @return Tamaño aproximado del texto en bytes
+     */
+    public int getMessageSize() {
+        return messageSize;
+    }
+
+    /**
+     * Indica si se usa el protocolo binario.
+     *
+     * @return true si los clientes piden tramas binarias
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Obtiene el modo de ejecución.
+     *
+     * @return Modo de ejecución de los hilos lectores
+     */
+    public ExecutionMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Obtiene la etiqueta.
+     *
+     * @return Etiqueta de la ejecución
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Obtiene el fichero de resultados.
+     *
+     * @return Ruta del fichero, o null si no se guardan
+     */
+    public String getOutput() {
+        return output;
+    }
+}
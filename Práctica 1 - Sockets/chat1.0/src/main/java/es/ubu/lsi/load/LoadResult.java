@@ -0,0 +1,195 @@
+package es.ubu.lsi.load;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+import es.ubu.lsi.common.LatencyHistogram;
+
+/**
+ * Resultado de una ejecución del generador de carga.
+ * Se guarda como una fila CSV que se añade al fichero (con cabecera si es nuevo),
+ * para comparar ejecuciones y versiones del servidor, o como un objeto JSON.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.load.LoadGenerator
+ */
+public final class LoadResult {
+
+    /** Columnas del CSV, en el mismo orden que {@link #values()}. */
+    private static final String[] COLUMNS = {
+        "timestamp", "label", "protocol", "clients", "rate", "size", "duration_s",
+        "sent", "expected", "received", "delivery_ratio", "sent_per_s", "received_per_s",
+        "latency_mean_us", "latency_p50_us", "latency_p90_us", "latency_p99_us", "latency_p999_us", "latency_max_us",
+        "failed_clients"
+    };
+
+    /** Opciones de la ejecución. */
+    private final LoadOptions options;
+
+    /** Mensajes enviados durante la medida. */
+    private final long sent;
+
+    /** Entregas esperadas: cada mensaje a todos los demás clientes. */
+    private final long expected;
+
+    /** Histograma de latencias de las entregas recibidas durante la medida. */
+    private final LatencyHistogram latencies;
+
+    /** Duración real de la medida, en segundos. */
+    private final double elapsedSeconds;
+
+    /** Clientes que dejaron de poder enviar durante la ejecución. */
+    private final int failedClients;
+
+    /** Momento de la ejecución. */
+    private final String timestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+
+    /**
+     * Constructor de LoadResult.
+     *
+     * @param options Opciones de la ejecución
+     * @param sent Mensajes enviados durante la medida
+     * @param expected Entregas esperadas
+     * @param latencies Latencias de las entregas recibidas
+     * @param elapsedSeconds Duración real de la medida
+     * @param failedClients Clientes que dejaron de poder enviar
+     */
+    LoadResult(LoadOptions options, long sent, long expected, LatencyHistogram latencies, double elapsedSeconds, int failedClients) {
+        this.options = options;
+        this.sent = sent;
+        this.expected = expected;
+        this.latencies = latencies;
+        this.elapsedSeconds = elapsedSeconds;
+        this.failedClients = failedClients;
+    }
+
+    /**
+     * Valores de la ejecución, en el orden de las columnas.
+     *
+     * @return Valores formateados
+     */
+    private String[] values() {
+        long received = this.latencies.getCount();
+        return new String[] {
+            this.timestamp, this.options.getLabel(), this.options.isBinary() ? "binary" : "text",
+            Integer.toString(this.options.getClients()), format(this.options.getRate()),
+            Integer.toString(this.options.getMessageSize()), format(this.elapsedSeconds),
+            Long.toString(this.sent), Long.toString(this.expected), Long.toString(received),
+            format(this.expected == 0 ? 0 : received / (double) this.expected),
+            format(this.sent / this.elapsedSeconds), format(received / this.elapsedSeconds),
+            format(this.latencies.getMean()), Long.toString(this.latencies.percentile(50)),
+            Long.toString(this.latencies.percentile(90)), Long.toString(this.latencies.percentile(99)),
+            Long.toString(this.latencies.percentile(99.9)), Long.toString(this.latencies.getMax()),
+            Integer.toString(this.failedClients)
+        };
+    }
+
+    /**
+     * Formatea un decimal con punto y tres cifras, independientemente de la configuración regional.
+     *
+     * @param value Valor a formatear
+     * @return Texto del valor
+     */
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * Resumen legible de la ejecución.
+     *
+     * @return Texto de varias líneas
+     */
+    String summary() {
+        long received = this.latencies.getCount();
+        return String.format(Locale.ROOT,
+                    "Clientes: %d, ritmo: %.1f msg/s por cliente, medida: %.1f s%n"
+                    + "Enviados: %d (%.1f msg/s), recibidos: %d de %d (%.2f %%, %.1f entregas/s)%n"
+                    + "Latencia de difusión (µs): media %.0f, p50 %d, p90 %d, p99 %d, p99.9 %d, máx %d%n"
+                    + "Clientes con errores de envío: %d",
+                    this.options.getClients(), this.options.getRate(), this.elapsedSeconds,
+                    this.sent, this.sent / this.elapsedSeconds, received, this.expected,
+                    this.expected == 0 ? 0 : 100.0 * received / this.expected, received / this.elapsedSeconds,
+                    this.latencies.getMean(), this.latencies.percentile(50), this.latencies.percentile(90),
+                    this.latencies.percentile(99), this.latencies.percentile(99.9), this.latencies.getMax(),
+                    this.failedClients);
+    }
+
+    /**
+     * Guarda el resultado: como objeto JSON si el fichero acaba en .json,
+     * o como fila CSV añadida al final en cualquier otro caso.
+     *
+     * @param path Ruta del fichero
+     * @throws IOException Si no se puede escribir
+     */
+    void write(String path) throws IOException {
+        File file = new File(path);
+        boolean json = path.toLowerCase(Locale.ROOT).endsWith(".json");
+        boolean header = !json && (!file.exists() || file.length() == 0);
+
+        try (PrintWriter output = new PrintWriter(new OutputStreamWriter(
+                    new FileOutputStream(file, !json), StandardCharsets.UTF_8))) {
+            if (json) {
+                output.println(toJson());
+            } else {
+                if (header) {
+                    output.println(String.join(",", LoadResult.COLUMNS));
+                }
+                output.println(toCsvRow());
+            }
+        }
+    }
+
+    /**
+     * Fila CSV con los valores de la ejecución.
+     *
+     * @return Fila sin salto de línea
+     */
+    String toCsvRow() {
+        String[] values = values();
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                row.append(',');
+            }
+            String value = values[i];
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0) {
+                value = '"' + value.replace("\"", "\"\"") + '"';
+            }
+            row.append(value);
+        }
+        return row.toString();
+    }
+
+    /**
+     * Objeto JSON con los valores de la ejecución. Los textos van entre comillas
+     * y los números sin ellas.
+     *
+     * @return Objeto JSON
+     */
+    String toJson() {
+        String[] values = values();
+        StringBuilder json = new StringBuilder("{\n");
+        for (int i = 0; i < values.length; i++) {
+            boolean text = i < 3;
+            json.append("  \"").append(LoadResult.COLUMNS[i]).append("\": ");
+            if (text) {
+                json.append('"').append(values[i].replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            } else {
+                json.append(values[i]);
+            }
+            json.append(i < values.length - 1 ? ",\n" : "\n");
+        }
+        return json.append('}').toString();
+    }
+}
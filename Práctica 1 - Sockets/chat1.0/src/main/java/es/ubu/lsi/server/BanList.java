@@ -0,0 +1,85 @@
+package es.ubu.lsi.server;
+
+import java.util.Arrays;
+
+/**
+ * Lista de usuarios vetados por un cliente, guardada como mapa de bits
+ * sobre los índices de {@link UserIndex}. Comprobar si un usuario está vetado
+ * es O(1) y no bloquea: se lee una palabra de un array inmutable.
+ * Vetar e indultar copian el array (copy-on-write) bajo el cerrojo del objeto,
+ * por lo que una difusión concurrente siempre ve una versión completa de la lista.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.server.UserIndex
+ */
+final class BanList {
+
+    /** Palabras vacías con las que empieza toda lista. */
+    private static final long[] EMPTY = new long[0];
+
+    /** Mapa de bits de usuarios vetados; nunca se modifica una vez publicado. */
+    private volatile long[] words = BanList.EMPTY;
+
+    /** Número de usuarios vetados. */
+    private volatile int size = 0;
+
+    /**
+     * Indica si un usuario está vetado.
+     *
+     * @param index Índice del usuario, o negativo si no tiene
+     * @return true si está vetado
+     */
+    boolean contains(int index) {
+        long[] current = this.words;
+        int word = index >>> 6;
+        return index >= 0 && word < current.length && (current[word] & (1L << index)) != 0;
+    }
+
+    /**
+     * Veta a un usuario.
+     *
+     * @param index Índice del usuario
+     * @return true si no estaba vetado
+     */
+    synchronized boolean add(int index) {
+        if (contains(index)) {
+            return false;
+        }
+        int word = index >>> 6;
+        long[] updated = Arrays.copyOf(this.words, Math.max(this.words.length, word + 1));
+        updated[word] |= 1L << index;
+        this.words = updated;
+        this.size++;
+        return true;
+    }
+
+    /**
+     * Quita el veto a un usuario.
+     *
+     * @param index Índice del usuario, o negativo si no tiene
+     * @return true si estaba vetado
+     */
+    synchronized boolean remove(int index) {
+        if (!contains(index)) {
+            return false;
+        }
+        long[] updated = this.words.clone();
+        updated[index >>> 6] &= ~(1L << index);
+        this.words = updated;
+        this.size--;
+        return true;
+    }
+
+    /**
+     * Número de usuarios vetados.
+     *
+     * @return Tamaño de la lista
+     */
+    int size() {
+        return this.size;
+    }
+}
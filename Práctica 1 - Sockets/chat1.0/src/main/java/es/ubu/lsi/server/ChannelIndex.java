@@ -0,0 +1,88 @@
+package es.ubu.lsi.server;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Índice de canales del servidor: para cada canal, el conjunto de sesiones suscritas.
+ * Permite que una difusión recorra solo a los miembros de su canal en lugar de a todos
+ * los clientes conectados. Los canales se crean al entrar el primer miembro y se
+ * eliminan al salir el último; ambas operaciones son atómicas respecto a las demás.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.server.SessionRegistry
+ */
+final class ChannelIndex {
+
+    /** Canal en el que entra todo cliente al conectarse. */
+    static final String DEFAULT_CHANNEL = "general";
+
+    /** Miembros de cada canal. */
+    private final ConcurrentMap<String, Set<ClientSession>> channels = new ConcurrentHashMap<>();
+
+    /**
+     * Normaliza el nombre de un canal: sin el prefijo # y en minúsculas.
+     *
+     * @param name Nombre escrito por el usuario
+     * @return Nombre normalizado, o null si no es válido
+     */
+    static String normalize(String name) {
+        String channel = name.startsWith("#") ? name.substring(1) : name;
+        return channel.isEmpty() ? null : channel.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Añade una sesión a un canal, creándolo si no existía.
+     *
+     * @param channel Nombre del canal
+     * @param session Sesión que entra
+     */
+    void add(String channel, ClientSession session) {
+        this.channels.compute(channel, (name, members) -> {
+            Set<ClientSession> updated = members != null ? members : ConcurrentHashMap.<ClientSession>newKeySet();
+            updated.add(session);
+            return updated;
+        });
+    }
+
+    /**
+     * Quita una sesión de un canal, eliminándolo si se queda vacío.
+     *
+     * @param channel Nombre del canal
+     * @param session Sesión que sale
+     */
+    void remove(String channel, ClientSession session) {
+        this.channels.computeIfPresent(channel, (name, members) -> {
+            members.remove(session);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    /**
+     * Devuelve los miembros de un canal. La iteración es débilmente consistente.
+     *
+     * @param channel Nombre del canal
+     * @return Sesiones suscritas, vacío si el canal no existe
+     */
+    Collection<ClientSession> members(String channel) {
+        Set<ClientSession> members = this.channels.get(channel);
+        return members != null ? members : Collections.<ClientSession>emptySet();
+    }
+
+    /**
+     * Número de canales con algún miembro.
+     *
+     * @return Número de canales
+     */
+    int size() {
+        return this.channels.size();
+    }
+}
@@ -1,19 +1,39 @@
 package es.ubu.lsi.server;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.text.SimpleDateFormat;
+import java.security.SecureRandom;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import es.ubu.lsi.common.ChatMessage;
 import es.ubu.lsi.common.ChatMessage.MessageType;
+import es.ubu.lsi.common.ChatMessageCodec;
+import es.ubu.lsi.common.ExecutionMode;
 
 /**
  *  Implementación de la interfaz ChatServer.
@@ -30,230 +50,938 @@ import es.ubu.lsi.common.ChatMessage.MessageType;
 public class ChatServerImpl implements ChatServer {
 
     /** Puerto por defecto del servidor. */	
-    private static final int DEFAULT_PORT = 1500;
+    static final int DEFAULT_PORT = 1500;
 
-    /** Formato de fecha para los mensajes. */
-    private final SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
+    /** Aviso que recibe cada cliente al vaciar el servidor. */
+    static final String RECONNECT_HINT = ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN 
+                                        + "El servidor se está reiniciando. Vuelve a conectarte en unos segundos." 
+                                        + ChatServerImpl.RESET;
+
+    /** Espera máxima a que termine el escritor de una sesión que se reanuda, en milisegundos. */
+    private static final long RESUME_TAKEOVER_MILLIS = 1000;
+
+    /** Generador de los testigos de reanudación. */
+    private static final SecureRandom TOKENS = new SecureRandom();
+
+    /** Formato de fecha para los mensajes (inmutable, seguro entre hilos). */
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
 
     /** Puerto de conexión con el servidor guardado en una variable . */
     private int port = ChatServerImpl.DEFAULT_PORT;
 
-    /** Identificador del cliente. */
-    private int clientId = 0;
-
     /** Flag para mantener la conexión. */
-    private boolean alive = true;
+    private volatile boolean alive = true;
+
+    /** Indica si ya se ha empezado a cerrar el servidor, para cerrarlo una sola vez. */
+    private final AtomicBoolean stopping = new AtomicBoolean(false);
+
+    /** Modo de ejecución de los hilos de cliente. */
+    private final ExecutionMode mode;
+
+    /** Opciones de arranque del servidor. */
+    private final ServerOptions options;
+
+    /** Ejecutor en el que corre cada conexión aceptada. */
+    private ExecutorService clientExecutor = null;
     
-    /** Mapa de clientes conectados al servidor. 
-     * La key serán los nombres de usuario.
-     * En la posición 0 del array estará la posición,
-     * en la 1 el socket, en la 2 la fecha de creación
-     * y en la 3 la lista de usuarios vetados.
-    */
-    private final Map<String, ArrayList<Object>> clientsMap = new HashMap<>();
+    /** Registro de clientes conectados al servidor, indexado por identificador y por nombre de usuario. */
+    private final SessionRegistry sessions = new SessionRegistry();
+
+    /** Últimos mensajes de chat difundidos, que se repiten a quien entra. */
+    private final MessageHistory history;
+
+    /** Diario en disco de mensajes y vetos, o null si no se guarda nada. */
+    private final Journal journal;
+
+    /** Federación con otros servidores, o null si el servidor va solo. */
+    private final Federation federation;
+
+    /** Registro asíncrono de los sucesos del servidor. */
+    private final ServerLog log;
 
-    /** Socket general del servidor. */
-    private ServerSocket generalSocket = null;
+    /** Métricas del servidor, que se cuentan siempre aunque no se sirvan. */
+    private final ServerMetrics metrics = new ServerMetrics();
+
+    /** Punto de acceso HTTP de las métricas, o null si no se sirven. */
+    private MetricsEndpoint metricsEndpoint = null;
+
+    /** Temporizador que da de baja las sesiones desconectadas que no se reanudan, o null si no se guardan. */
+    private final ScheduledExecutorService resumeTimer;
+
+    /** Canal general del servidor, en modo bloqueante para que cada socket aceptado tenga su canal. */
+    private ServerSocketChannel generalSocket = null;
 
     /** Color rojo. */
-    private static final String RED = "\u001B[31m";
+    static final String RED = "\u001B[31m";
 
     /** Color verde. */
-    private static final String GREEN = "\u001B[32m";
+    static final String GREEN = "\u001B[32m";
 
     /** Color amarillo. */
-    private static final String YELLOW = "\u001B[33m";
+    static final String YELLOW = "\u001B[33m";
 
     /** Color cian. */
-    private static final String CYAN = "\u001B[36m";
+    static final String CYAN = "\u001B[36m";
 
     /** Reset de color. */
-    private static final String RESET = "\u001B[0m";
+    static final String RESET = "\u001B[0m";
 
     /**
-     * Constructor de ChatServerImpl.
+     * Constructor de ChatServerImpl con hilos de plataforma.
+     * 
+     * @param port Puerto de escucha
      */
     public ChatServerImpl(int port) {
-        this.port = port;
+        this(port, ExecutionMode.PLATFORM);
+    }
+
+    /**
+     * Constructor de ChatServerImpl.
+     * 
+     * @param port Puerto de escucha
+     * @param mode Modo de ejecución de los hilos de cliente
+     */
+    public ChatServerImpl(int port, ExecutionMode mode) {
+        this(ChatServerImpl.optionsFor(port, mode));
+    }
+
+    /**
+     * Constructor de ChatServerImpl a partir de las opciones de arranque.
+     * 
+     * @param options Opciones del servidor
+     */
+    public ChatServerImpl(ServerOptions options) {
+        this.options = options;
+        this.port = options.getPort();
+        this.mode = options.getMode();
+        this.log = new ServerLog(options.getLogLevel());
+        this.history = new MessageHistory(options.getHistory());
+        this.journal = options.getJournalDirectory() == null ? null
+                        : new Journal(options.getJournalDirectory(), Journal.DEFAULT_SEGMENT_BYTES,
+                                      options.getHistory(), this.log);
+        this.federation = !options.isFederated() ? null
+                        : new Federation(this, options.getNodeId(), options.getPeerPort(), options.getPeers(), this.mode);
+        this.resumeTimer = options.getResumeWindow() == 0 ? null
+                        : Executors.newSingleThreadScheduledExecutor(ExecutionMode.PLATFORM.threadFactory("chat-resume-", true));
+    }
+
+    /**
+     * Crea unas opciones por defecto con el puerto y el modo indicados.
+     * 
+     * @param port Puerto de escucha
+     * @param mode Modo de ejecución de los hilos de cliente
+     * @return Opciones del servidor
+     */
+    private static ServerOptions optionsFor(int port, ExecutionMode mode) {
+        ServerOptions options = new ServerOptions();
+        options.setPort(port);
+        options.setMode(mode);
+        return options;
     }
 
     @Override
     public void startup() {
         try{
             this.alive = true;
-            System.out.printf(ChatServerImpl.YELLOW +  "+-----------------------------------------------------------------------------+\n"
-                                + "[*] " + ChatServerImpl.CYAN + "Iniciando servidor en el puerto" + 
-                                ChatServerImpl.GREEN + " %d" + ChatServerImpl.CYAN + "...\n" + ChatServerImpl.RESET, port); 
-                                this.generalSocket = new ServerSocket(this.port);
+            this.log.info("start", "Iniciando servidor en el puerto {port} (hilos {threads})...",
+                            this.port, mode == ExecutionMode.VIRTUAL ? "virtuales" : "de plataforma");
+            openJournal();
+            startFederation();
+            startMetrics();
+            this.generalSocket = ServerSocketChannel.open();
+            this.generalSocket.bind(new InetSocketAddress(this.port));
+            this.clientExecutor = this.mode.newExecutor("chat-client-");
             
+            /* El bucle solo acepta; el saludo y la atención del cliente se hacen en su propio hilo. */
             while(this.alive){
-                Socket socket = this.generalSocket.accept();  
+                Socket socket = this.generalSocket.accept().socket();  
+                this.clientExecutor.execute(() -> serveClient(socket));
+            }
+            } catch (IOException ioException) {
+                /* Si el servidor se está cerrando, la excepción es la del socket de escucha al cerrarse. */
+                if (this.alive) {
+                    this.alive = false;
+                    this.log.error("server.error", "Error en el servidor: {error}", ioException.getMessage());
+                }
+        } finally {
+            if (this.clientExecutor != null) {
+                awaitClientThreads();
+            }
+            stopFederation();
+            stopMetrics();
+            closeJournal();
+            /* Si se ha llegado aquí sin apagar el servidor (por un error), nadie más cierra el registro. */
+            if (!this.stopping.get()) {
+                this.log.close();
+            }
+        }
+    }
 
-                BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                
-                String username = input.readLine();
+    /**
+     * Reconstruye los vetos y el historial a partir del diario, si lo hay,
+     * y lo deja abierto para seguir escribiendo.
+     * 
+     * @throws IOException Si no se puede leer o abrir el diario
+     */
+    private void openJournal() throws IOException {
+        if (this.journal == null) {
+            return;
+        }
+        int recovered = this.journal.recover(this::applyJournalEvent);
+        this.journal.start(this.mode);
 
-                if (clientsMap.containsKey(username)){
-                   System.err.println(ChatServerImpl.RED + "[!] Este cliente ya está conectado.\n" + ChatServerImpl.RESET);
-                   socket.close();
+        this.log.info("journal.open", "Diario en {directory}: {recovered} sucesos recuperados.",
+                        this.options.getJournalDirectory(), recovered);
+    }
 
-                } else {
-                    ArrayList<Object> clientData = new ArrayList<>();
-                    int id = this.clientId;
+    /**
+     * Aplica al estado del servidor un suceso leído del diario.
+     * 
+     * @param event Suceso leído
+     */
+    private void applyJournalEvent(JournalEvent event) {
+        int userIndex = this.sessions.users().indexOf(event.getUsername());
+
+        switch (event.getKind()) {
+            case MESSAGE:
+                String time = LocalDateTime.ofInstant(Instant.ofEpochMilli(event.getTimestamp()), ZoneId.systemDefault())
+                                .format(TIME_FORMAT);
+                String text = formatChatMessage(event.getUsername(), event.getTarget(), time, event.getText());
+                this.history.record(new OutboundMessage(MessageType.MESSAGE, ChatMessageCodec.SERVER_ID, text),
+                                    event.getTarget(), userIndex);
+                break;
+
+            case BAN:
+                /* Solo se escriben en el diario los vetos a usuarios que existían al vetarlos,
+                   aunque al recuperar aún no se hayan visto. */
+                this.sessions.bansOf(userIndex).add(this.sessions.users().indexOf(event.getTarget()));
+                break;
+
+            case UNBAN:
+                this.sessions.bansOf(userIndex).remove(this.sessions.users().lookup(event.getTarget()));
+                break;
+
+            default:
+                break;
+        }
+    }
 
-                    clientData.add(id);
-                    clientData.add(socket);
-                    clientData.add(sdf.format(new Date()));
+    /**
+     * Empieza a enlazar con los otros nodos, si el servidor está federado.
+     * 
+     * @throws IOException Si no se puede abrir el puerto de nodos
+     */
+    private void startFederation() throws IOException {
+        if (this.federation == null) {
+            return;
+        }
+        this.federation.start();
 
-                    ArrayList<String> bannedUsersList = new ArrayList<>();
+        this.log.info("federation.start", "Nodo {node} de la federación (puerto de nodos {peerPort}, {peers} vecinos configurados).",
+                        this.federation.getNodeId(), this.options.getPeerPort(), this.options.getPeers().size());
+    }
 
-                    clientData.add(bannedUsersList);
+    /**
+     * Cierra los enlaces con los otros nodos, si los hay.
+     */
+    private void stopFederation() {
+        if (this.federation != null) {
+            this.federation.stop();
+        }
+    }
 
-                    clientsMap.put(username, clientData);
-                    this.clientId++;
+    /**
+     * Empieza a servir las métricas por HTTP, si se ha indicado un puerto.
+     * 
+     * @throws IOException Si no se puede abrir el puerto de métricas
+     */
+    private void startMetrics() throws IOException {
+        if (this.options.getMetricsPort() == 0) {
+            return;
+        }
+        this.metricsEndpoint = new MetricsEndpoint(this.options.getMetricsPort(), () -> this.metrics.render(this.sessions));
+        this.metricsEndpoint.start();
 
-                    ServerThreadForClient clientThread = new ServerThreadForClient(id, username);
-                    clientThread.start();
+        this.log.info("metrics.start", "Métricas en {url}.", "http://localhost:" + this.options.getMetricsPort() + MetricsEndpoint.PATH);
+    }
 
-                    String welcomeMsg = ChatServerImpl.YELLOW +"[*] " + ChatServerImpl.CYAN + "El usuario " +
-                                        ChatServerImpl.GREEN + username + ChatServerImpl.CYAN + " se ha unido al chat."
-                                        + ChatServerImpl.RESET;
+    /**
+     * Deja de servir las métricas, si se sirven.
+     */
+    private synchronized void stopMetrics() {
+        if (this.metricsEndpoint != null) {
+            this.metricsEndpoint.stop();
+            this.metricsEndpoint = null;
+        }
+    }
 
-                    /* Se anuncia que hay un nuevo usuario. */
-                    System.out.println(welcomeMsg);
-                    broadcast(new ChatMessage(id, MessageType.MESSAGE, welcomeMsg));
+    /**
+     * Escribe en el diario lo pendiente y lo cierra, si lo hay.
+     */
+    private void closeJournal() {
+        if (this.journal == null) {
+            return;
+        }
+        try {
+            this.journal.close();
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Guarda un suceso en el diario, si lo hay. Solo lo encola: la escritura es de otro hilo.
+     * 
+     * @param event Suceso a guardar
+     */
+    private void journal(JournalEvent event) {
+        if (this.journal != null) {
+            this.journal.append(event);
+        }
+    }
+
+    /**
+     * Realiza el saludo con un cliente recién aceptado y, si se registra con éxito,
+     * lo atiende en el hilo actual hasta que se desconecte.
+     * El saludo es una línea con el nombre de usuario; si va precedido de
+     * {@link ChatMessageCodec#HANDSHAKE}, el cliente pide el protocolo binario, y si va precedido
+     * de {@link ChatMessageCodec#RESUME} y un testigo, pide una sesión reanudable o reanudar la
+     * del testigo. A esta petición se responde con una línea antes de la confirmación del binario.
+     * 
+     * @param socket Socket del cliente
+     */
+    private void serveClient(Socket socket) {
+        try {
+            /* El saludo se lee sin buffer para no consumir tramas que vengan detrás. */
+            InputStream rawInput = socket.getInputStream();
+            String username = ChatMessageCodec.readLine(rawInput);
+
+            /* Si no se guardan sesiones, la petición de reanudar se ignora y el cliente no recibe respuesta. */
+            String token = null;
+            if (username != null && username.startsWith(ChatMessageCodec.RESUME + " ")) {
+                String[] parts = username.split(" ", 3);
+                token = this.resumeTimer == null ? null : parts[1];
+                username = parts.length == 3 ? parts[2] : null;
+            }
+
+            boolean binary = username != null && username.startsWith(ChatMessageCodec.HANDSHAKE + " ");
+            if (binary) {
+                username = username.substring(ChatMessageCodec.HANDSHAKE.length() + 1);
+            }
+
+            boolean reconnecting = token != null && !token.equals(ChatMessageCodec.NO_TOKEN);
+            if (reconnecting && username != null && resume(token, username, binary, socket, rawInput)) {
+                return;
+            }
+
+            /* Quien vuelve sin poder reanudar ocupa el sitio de su sesión desconectada. */
+            ClientSession stale = username == null ? null : this.sessions.byUsername(username);
+            if (stale != null && stale.isDetached()) {
+                expire(stale);
+            }
+
+            ClientSession session = null;
+
+            if (this.alive && username != null && this.sessions.byUsername(username) == null
+                    && (this.federation == null || !this.federation.isRemote(username))) {
+                session = new ClientSession(this.sessions.nextId(), username, socket, binary,
+                                            LocalDateTime.now().format(TIME_FORMAT), this.options);
+                session.setMetrics(this.metrics);
+                if (token != null) {
+                    session.setResumeToken(ChatServerImpl.newResumeToken());
+                }
+                if (!this.sessions.register(session)) {
+                    session = null;
+                } else if (this.federation != null && !this.federation.claim(username)) {
+                    /* Otro nodo tiene ese nombre: se deshace el registro sin anunciar nada. */
+                    this.sessions.remove(session.getId());
+                    session = null;
                 }
             }
-            } catch (IOException ioException) {
-                this.alive = false;
-        } 
+
+            if (session == null) {
+                this.log.warn("join.rejected", "Este cliente ya está conectado: {user}.", username);
+                socket.close();
+
+            } else {
+                /* Las respuestas del saludo se escriben antes que cualquier difusión ya encolada. */
+                try {
+                    if (token != null) {
+                        session.sendNow(ClientSession.encode(ChatMessageCodec.NEW_SESSION + " " + session.getResumeToken()));
+                    }
+                    if (binary) {
+                        /* La confirmación va en texto; a partir de ella todo son tramas binarias. */
+                        session.sendNow(ClientSession.encode(ChatMessageCodec.ACK));
+                    }
+                } catch (IOException ioException) {
+                    remove(session.getId());
+                    session.abort();
+                    throw ioException;
+                }
+                session.start(this.mode);
+                ServerThreadForClient clientThread = new ServerThreadForClient(session, rawInput, false);
+
+                String welcomeMsg = ChatServerImpl.YELLOW +"[*] " + ChatServerImpl.CYAN + "El usuario " +
+                                    ChatServerImpl.GREEN + username + ChatServerImpl.CYAN + " se ha unido al chat."
+                                    + ChatServerImpl.RESET;
+
+                /* Se anuncia que hay un nuevo usuario. Quien vuelve con un testigo que ya no existe
+                   (por ejemplo, tras reiniciar el servidor) solo se reconecta: no se anuncia, para que
+                   una avalancha de reconexiones no cueste un aviso a cada cliente por cada una. */
+                this.log.info("join", "El usuario {user} se ha unido al chat.", username);
+                if (!reconnecting) {
+                    announce(session.getId(), new OutboundMessage(MessageType.MESSAGE, session.getId(), welcomeMsg));
+                    relayNotice(username, "", welcomeMsg);
+                }
+
+                clientThread.run();
+            }
+        } catch (IOException ioException) {
+            this.log.error("join.error", "Error al tratar de inicializar el hilo para el cliente: {error}", ioException.getMessage());
+        }
+    }
+
+    /**
+     * Reanuda sobre una conexión nueva la sesión del testigo indicado, con su identificador, su canal,
+     * sus vetos y los mensajes que se le enviaron mientras estaba desconectada, y atiende al cliente
+     * en el hilo actual. Si el servidor aún no había notado la caída de la conexión anterior
+     * (conexión medio abierta), se cierra ahora. No se anuncia nada al resto de clientes.
+     * 
+     * @param token Testigo presentado por el cliente
+     * @param username Nombre de usuario del saludo, que debe ser el de la sesión
+     * @param binary Si el cliente pide el protocolo binario, que debe ser el de la sesión
+     * @param socket Socket de la conexión nueva
+     * @param rawInput Flujo de entrada del cliente, justo tras el saludo
+     * @return true si se ha reanudado la sesión, false si el testigo no vale y el cliente debe entrar como nuevo
+     * @throws IOException Si no se puede responder al saludo
+     */
+    private boolean resume(String token, String username, boolean binary, Socket socket, InputStream rawInput) throws IOException {
+        ClientSession previous = this.sessions.byToken(token);
+        if (!this.alive || previous == null || !previous.getUsername().equals(username) || previous.isBinary() != binary) {
+            return false;
+        }
+
+        /* Con la cola cerrada, el escritor de la sesión nueva la cerraría nada más empezar. */
+        if (!previous.isResumable()) {
+            return false;
+        }
+
+        /* La cola pasa a la sesión nueva cuando el escritor anterior ya no la vacía. */
+        previous.detach();
+        try {
+            previous.awaitClosed(ChatServerImpl.RESUME_TAKEOVER_MILLIS);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        ClientSession resumed = new ClientSession(previous, socket);
+        synchronized (previous) {
+            if (!this.sessions.replace(previous, resumed)) {
+                return false;
+            }
+        }
+
+        int missed = resumed.getQueueDepth();
+        try {
+            resumed.sendNow(ClientSession.encode(ChatMessageCodec.RESUMED + " " + token));
+            if (binary) {
+                resumed.sendNow(ClientSession.encode(ChatMessageCodec.ACK));
+            }
+            resumed.sendNow(resumed.frame(MessageType.MESSAGE, ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN 
+                                + "Sesión recuperada: " + missed + " mensajes pendientes." + ChatServerImpl.RESET));
+        } catch (IOException ioException) {
+            suspend(resumed);
+            throw ioException;
+        }
+        resumed.start(this.mode);
+
+        this.log.info("resume", "El usuario {user} ha recuperado su sesión ({missed} mensajes pendientes).", username, missed);
+        new ServerThreadForClient(resumed, rawInput, true).run();
+        return true;
     }
 
+    /**
+     * Guarda la sesión de un cliente que ha perdido la conexión hasta que la reanude o venza
+     * la ventana de reanudación. Mientras tanto sigue registrada y su cola sigue recibiendo mensajes.
+     * 
+     * @param session Sesión reanudable
+     */
+    private void suspend(ClientSession session) {
+        session.detach();
+        this.log.info("suspend", "El cliente {user} ha perdido la conexión; su sesión se guarda {seconds} s.",
+                        session.getUsername(), this.options.getResumeWindow());
+        try {
+            this.resumeTimer.schedule(() -> expire(session), this.options.getResumeWindow(), TimeUnit.SECONDS);
+        } catch (RejectedExecutionException rejectedExecutionException) {
+            /* El servidor se está cerrando: no hay nada que guardar. */
+            expire(session);
+        }
+    }
+
+    /**
+     * Da de baja una sesión desconectada, si nadie la ha reanudado, avisando de su salida.
+     * 
+     * @param session Sesión desconectada
+     */
+    private void expire(ClientSession session) {
+        synchronized (session) {
+            if (this.sessions.byId(session.getId()) != session || !session.isDetached()) {
+                return;
+            }
+            String serverMessage = ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "El usuario " 
+                                    + ChatServerImpl.GREEN + session.getUsername() + ChatServerImpl.CYAN 
+                                    + " ha abandonado el chat." + ChatServerImpl.RESET;
+            broadcast(new ChatMessage(session.getId(), MessageType.LOGOUT, serverMessage));
+            remove(session.getId());
+        }
+        session.abort();
+    }
+
+    /**
+     * Genera un testigo de reanudación aleatorio: 128 bits en hexadecimal.
+     * 
+     * @return Testigo nuevo
+     */
+    private static String newResumeToken() {
+        byte[] bytes = new byte[16];
+        ChatServerImpl.TOKENS.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(bytes.length * 2);
+        for (byte value : bytes) {
+            token.append(Character.forDigit((value >> 4) & 0xF, 16)).append(Character.forDigit(value & 0xF, 16));
+        }
+        return token.toString();
+    }
+
+    /**
+     * Espera a que terminen los hilos de cliente tras cerrar el servidor.
+     */
+    private void awaitClientThreads() {
+        this.clientExecutor.shutdown();
+        try {
+            if (!this.clientExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                this.clientExecutor.shutdownNow();
+            }
+        } catch (InterruptedException interruptedException) {
+            this.clientExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Vacía el servidor sin terminar la JVM: deja de aceptar conexiones, avisa a cada cliente
+     * de que puede volver a conectarse y espera, como mucho lo indicado en
+     * {@link ServerOptions#getDrainTimeoutMillis()}, a que cada escritor envíe lo pendiente.
+     * Las conexiones que sigan abiertas se cierran descartando lo que quede. Tras el vaciado,
+     * {@link #startup()} vuelve. Solo tiene efecto la primera llamada.
+     */
     @Override
     public void shutdown() {
+        if (!this.stopping.compareAndSet(false, true)) {
+            return;
+        }
         this.alive = false;
+        long start = System.nanoTime();
 
         /* 0 -> no hay errores, 1 -> ha ocurrido un error. */
         int successState = 0;
 
-        System.out.printf(ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Cerrando el servidor...\n");
+        if (this.resumeTimer != null) {
+            this.resumeTimer.shutdownNow();
+        }
 
-        /* Se cierran los sockets de los clientes. */
-        for (Map.Entry<String, ArrayList<Object>> user : clientsMap.entrySet()) {
-            try {
-                ((Socket) user.getValue().get(1)).close();
-            } catch (IOException ioException) {
-                System.err.printf(ChatServerImpl.RED + "[!] Error al cerrar el socket del cliente: " + ChatServerImpl.RESET + "%s\n", ioException.getMessage());
-                successState = 1;
+        /* Las sesiones desconectadas ya no tienen a quién enviar nada. */
+        Collection<ClientSession> open = new ArrayList<>();
+        for (ClientSession session : this.sessions.sessions()) {
+            if (session.isDetached()) {
+                session.abort();
+            } else {
+                open.add(session);
             }
         }
+        this.log.info("drain.start", "Cerrando el servidor: vaciando {connections} conexiones (espera máxima {timeoutMs} ms)...",
+                        open.size(), this.options.getDrainTimeoutMillis());
 
-        /* Cierra el socket del servidor. */
+        /* Primero se deja de aceptar, para que nadie entre durante el vaciado. */
         if (this.generalSocket != null) {
             try {
                 this.generalSocket.close();
             } catch (IOException ioException) {
-                System.err.printf(ChatServerImpl.RED + "[!] Error al cerrar el socket del servidor: " + ChatServerImpl.RESET + "%s\n", ioException.getMessage());
+                this.log.error("drain.error", "Error al cerrar el socket del servidor: {error}", ioException.getMessage());
                 successState = 1;
             }
         }
+        stopFederation();
+        stopMetrics();
+
+        /* El aviso es lo último que se encola; al cerrar la cola, el escritor envía lo pendiente y cierra el socket.
+           Con BLOCK, todos los avisos comparten el mismo plazo. */
+        OutboundMessage hint = new OutboundMessage(MessageType.SHUTDOWN, ChatMessageCodec.SERVER_ID, ChatServerImpl.RECONNECT_HINT);
+        long hintDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.options.getBlockTimeoutMillis());
+        for (ClientSession session : open) {
+            session.send(hint, hintDeadline);
+            session.close();
+        }
 
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(this.options.getDrainTimeoutMillis());
+        try {
+            for (ClientSession session : open) {
+                session.awaitClosed(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+            }
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+
+        long[] closeNanos = new long[open.size()];
+        int drained = 0;
+        for (ClientSession session : open) {
+            if (session.isClosed()) {
+                closeNanos[drained++] = session.getCloseNanos();
+            } else {
+                session.abort();
+            }
+        }
+
+        /* El diario se cierra al final para no perder lo que quede en la cola. */
+        closeJournal();
+
+        logDrainReport(this.log, System.nanoTime() - start, Arrays.copyOf(closeNanos, drained), open.size() - drained);
         if (successState == 0) {
-            System.out.printf(ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "¡Servidor cerrado correctamente!\n");
+            this.log.info("stop", "¡Servidor cerrado correctamente!");
         } else {
-            System.err.printf(ChatServerImpl.RED + "[!] Ha ocurrido un error al cerrar el servidor.\n");
-        }   
-        System.out.printf(ChatServerImpl.RESET);
-        System.exit(successState);
+            this.log.error("stop.error", "Ha ocurrido un error al cerrar el servidor.");
+        }
+
+        /* Lo último: se escribe todo lo pendiente del registro. */
+        this.log.close();
     }
 
+    /**
+     * Muestra lo que ha costado vaciar el servidor, para dimensionar las ventanas de reinicio.
+     * Lo usan las dos implementaciones del servidor.
+     * 
+     * @param log Registro del servidor
+     * @param totalNanos Duración total del vaciado
+     * @param closeNanos Duración del cierre de cada conexión vaciada a tiempo
+     * @param forced Conexiones cerradas a la fuerza al vencer la espera
+     */
+    static void logDrainReport(ServerLog log, long totalNanos, long[] closeNanos, int forced) {
+        if (!log.isEnabled(ServerLog.Level.INFO)) {
+            return;
+        }
+        Arrays.sort(closeNanos);
+        double median = closeNanos.length == 0 ? 0 : closeNanos[closeNanos.length / 2] / 1e6;
+        double max = closeNanos.length == 0 ? 0 : closeNanos[closeNanos.length - 1] / 1e6;
+
+        log.info("drain.report", "Vaciado en {totalMs} ms: {closed} conexiones cerradas (mediana {medianMs} ms,"
+                        + " máximo {maxMs} ms por conexión), {forced} cerradas a la fuerza.",
+                        String.format(Locale.ROOT, "%.1f", totalNanos / 1e6), closeNanos.length,
+                        String.format(Locale.ROOT, "%.2f", median), String.format(Locale.ROOT, "%.2f", max), forced);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Los mensajes de chat solo llegan a los miembros del canal del emisor;
+     * LOGOUT y SHUTDOWN llegan a todos los clientes.
+     */
     @Override
     public void broadcast(ChatMessage message) {
         int sourceId = message.getId();
-        String sourceUsername = findUserById(sourceId);
+        ClientSession source = this.sessions.byId(sourceId);
         
-        String time = sdf.format(new Date());
-
-        if (sourceUsername != null) {
-            String originalMessage = message.getMessage();
-            String messageToSend;
-
-            if(message.getType() != ChatMessage.MessageType.LOGOUT 
-                     && message.getType() != ChatMessage.MessageType.SHUTDOWN 
-                            && !originalMessage.contains("se ha unido al chat.")){
-            
-            messageToSend = ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Mensaje de " + ChatServerImpl.GREEN 
-                                + sourceUsername + ChatServerImpl.CYAN + " [" + time + "]: " + ChatServerImpl.RESET 
-                                + originalMessage + "\n" ;
-            
+        String time = LocalDateTime.now().format(TIME_FORMAT);
+
+        if (source != null) {
+            String messageToSend = message.getMessage();
+
+            /* Los mensajes de chat llevan la cabecera del emisor; LOGOUT y SHUTDOWN ya vienen formateados. */
+            if (message.getType() == MessageType.MESSAGE) {
+                String channel = source.getChannel();
+                messageToSend = formatChatMessage(source.getUsername(), channel, time, messageToSend);
+
+                OutboundMessage outbound = new OutboundMessage(message.getType(), sourceId, messageToSend);
+                this.history.record(outbound, channel, source.getUserIndex());
+                journal(JournalEvent.message(source.getUsername(), channel, message.getMessage()));
+                announce(sourceId, outbound, this.sessions.channels().members(channel));
+                if (this.federation != null) {
+                    this.federation.relayChat(source.getUsername(), channel, message.getMessage());
+                }
             } else {
-                messageToSend = originalMessage;
+                announce(sourceId, new OutboundMessage(message.getType(), sourceId, messageToSend));
+                /* El apagado es solo de este nodo; la salida de un usuario se avisa en todos. */
+                if (message.getType() == MessageType.LOGOUT) {
+                    relayNotice(source.getUsername(), "", messageToSend);
+                }
             }
-            for (Map.Entry<String, ArrayList<Object>> user : clientsMap.entrySet()) {
+        } else {
+            this.log.warn("client.missing", "No se ha encontrado el cliente con identificador {id}.", sourceId);
+        }
+    }
 
-                String recipient = user.getKey();
+    /**
+     * Da formato a un mensaje de chat con la cabecera del emisor, su canal si no es el
+     * de por defecto y la hora.
+     * 
+     * @param username Emisor
+     * @param channel Canal del mensaje
+     * @param time Hora del mensaje
+     * @param text Texto escrito por el emisor
+     * @return Mensaje formateado
+     */
+    private static String formatChatMessage(String username, String channel, String time, String text) {
+        String channelTag = channel.equals(ChannelIndex.DEFAULT_CHANNEL) ? "" : " en #" + channel;
 
-                if ((int) user.getValue().get(0) != sourceId) {
-                    @SuppressWarnings("unchecked")
-                    ArrayList<String> recipientBanned = (ArrayList<String>) clientsMap.get(recipient).get(3);
+        return ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Mensaje de " + ChatServerImpl.GREEN 
+                + username + ChatServerImpl.CYAN + channelTag + " [" + time + "]: " + ChatServerImpl.RESET 
+                + text + "\n";
+    }
 
-                    if (!recipientBanned.contains(sourceUsername)) {
-                        try {
-                            PrintWriter output = new PrintWriter(((Socket) user.getValue().get(1)).getOutputStream(), true);
-                            output.println(messageToSend);
-                        } catch (IOException ioException) {
-                            System.err.printf(ChatServerImpl.RED + "[!] Error al enviar el mensaje a " + ChatServerImpl.GREEN 
-                                                + recipient + ChatServerImpl.RESET + ": %s\n", ioException.getMessage());
-                        }
-                    }
-                }
+    /**
+     * Envía un mensaje ya formateado a todos los clientes conectados.
+     * 
+     * @param sourceId Identificador del emisor
+     * @param message Mensaje a difundir
+     */
+    private void announce(int sourceId, OutboundMessage message) {
+        announce(sourceId, message, this.sessions.sessions());
+    }
+
+    /**
+     * Envía un mensaje ya formateado a los destinatarios indicados salvo al emisor
+     * y a quienes lo tengan vetado. Se codifica como mucho una vez por protocolo
+     * y todos los destinatarios comparten la trama.
+     * 
+     * @param sourceId Identificador del emisor
+     * @param message Mensaje a difundir
+     * @param recipients Destinatarios candidatos: todos los clientes o los miembros de un canal
+     */
+    private void announce(int sourceId, OutboundMessage message, Collection<ClientSession> recipients) {
+        ClientSession source = this.sessions.byId(sourceId);
+        deliver(sourceId, source != null ? source.getUserIndex() : -1, message, recipients);
+    }
+
+    /**
+     * Envía un mensaje ya formateado a los destinatarios indicados salvo al emisor
+     * y a quienes tengan vetado su nombre. Con la política BLOCK, toda la difusión comparte
+     * un único plazo: cuando vence, las colas que sigan llenas descartan el mensaje sin esperar.
+     * 
+     * @param sourceId Identificador del emisor, o {@link ChatMessageCodec#SERVER_ID} si no es un cliente local
+     * @param sourceIndex Índice del nombre del emisor, o -1 si no tiene
+     * @param message Mensaje a difundir
+     * @param recipients Destinatarios candidatos
+     */
+    private void deliver(int sourceId, int sourceIndex, OutboundMessage message, Collection<ClientSession> recipients) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(this.options.getBlockTimeoutMillis());
+        int delivered = 0;
+
+        for (ClientSession recipient : recipients) {
+
+            if (recipient.getId() != sourceId && !recipient.getBans().contains(sourceIndex)) {
+                recipient.send(message, deadline);
+                delivered++;
             }
-        } else {
-            System.err.printf(ChatServerImpl.RED + "[!] No se ha encontrado el cliente con identificador %d.\n" + ChatServerImpl.RESET, sourceId);
         }
+        this.metrics.delivered(delivered, System.nanoTime() - start);
+    }
+
+    /**
+     * Reenvía a los otros nodos un aviso sobre un usuario local, si el servidor está federado.
+     * 
+     * @param username Usuario al que se refiere el aviso
+     * @param channel Canal del aviso, o vacío para todos los clientes
+     * @param notice Aviso formateado
+     */
+    private void relayNotice(String username, String channel, String notice) {
+        if (this.federation != null) {
+            this.federation.relayNotice(username, channel, notice);
+        }
+    }
+
+    /**
+     * Entrega a los clientes locales un mensaje de chat escrito en otro nodo.
+     * Se guarda en el historial y en el diario igual que uno local, y se filtra
+     * con los vetos locales por nombre de usuario.
+     * 
+     * @param username Emisor
+     * @param channel Canal del mensaje
+     * @param text Texto sin formato
+     */
+    void deliverRemoteChat(String username, String channel, String text) {
+        String formatted = formatChatMessage(username, channel, LocalDateTime.now().format(TIME_FORMAT), text);
+        OutboundMessage outbound = new OutboundMessage(MessageType.MESSAGE, ChatMessageCodec.SERVER_ID, formatted);
+        int userIndex = knownUserIndex(username);
+
+        this.history.record(outbound, channel, userIndex);
+        journal(JournalEvent.message(username, channel, text));
+        deliver(ChatMessageCodec.SERVER_ID, userIndex, outbound, this.sessions.channels().members(channel));
+    }
+
+    /**
+     * Obtiene el índice de un usuario que existe: uno que ya tiene índice o que está conectado
+     * en otro nodo. A los nombres que no son de nadie no se les da índice, para que un cliente
+     * o un vecino no pueda hacer crecer la tabla de usuarios ni las listas de vetados.
+     * 
+     * @param username Nombre de usuario
+     * @return Índice del usuario, o -1 si no existe
+     */
+    private int knownUserIndex(String username) {
+        int index = this.sessions.users().lookup(username);
+        if (index < 0 && this.federation != null && this.federation.isRemote(username)) {
+            index = this.sessions.users().indexOf(username);
+        }
+        return index;
+    }
+
+    /**
+     * Entrega a los clientes locales un aviso ya formateado de otro nodo.
+     * 
+     * @param username Usuario al que se refiere el aviso
+     * @param channel Canal del aviso, o vacío para todos los clientes
+     * @param notice Aviso formateado
+     */
+    void deliverRemoteNotice(String username, String channel, String notice) {
+        Collection<ClientSession> recipients = channel.isEmpty() ? this.sessions.sessions() : this.sessions.channels().members(channel);
+        deliver(ChatMessageCodec.SERVER_ID, this.sessions.users().lookup(username),
+                new OutboundMessage(MessageType.MESSAGE, ChatMessageCodec.SERVER_ID, notice), recipients);
+    }
+
+    /**
+     * Indica si un nombre de usuario está conectado a este nodo.
+     * 
+     * @param username Nombre de usuario
+     * @return true si hay una sesión local con ese nombre
+     */
+    boolean hasLocalUser(String username) {
+        return this.sessions.byUsername(username) != null;
+    }
+
+    /**
+     * Obtiene los nombres de los usuarios conectados a este nodo.
+     * 
+     * @return Nombres de usuario de las sesiones locales
+     */
+    List<String> localUsernames() {
+        List<String> usernames = new ArrayList<>();
+        for (ClientSession session : this.sessions.sessions()) {
+            usernames.add(session.getUsername());
+        }
+        return usernames;
     }
 
     @Override
     public void remove(int id) {
-        String username = findUserById(id);
-        if (username != null) {
-            clientsMap.remove(username);
-            System.out.printf(ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "El cliente " + ChatServerImpl.GREEN 
-                                + username + ChatServerImpl.CYAN + " ha salido del servidor.\n" + ChatServerImpl.RESET);
+        ClientSession session = this.sessions.remove(id);
+        if (session != null) {
+            String username = session.getUsername();
+            if (this.federation != null) {
+                this.federation.release(username);
+            }
+            this.log.info("leave", "El cliente {user} ha salido del servidor.", username);
+            if (session.getThrottledMessages() > 0 || session.getOversizedMessages() > 0) {
+                this.log.info("leave.dropped", "Mensajes de {user} descartados: {throttled} por ritmo, {oversized} por longitud.",
+                                username, session.getThrottledMessages(), session.getOversizedMessages());
+            }
         } else {
-            System.err.printf(ChatServerImpl.RED + "[!] No se ha encontrado el cliente con identificador %d.\n" + ChatServerImpl.RESET, id);
+            this.log.warn("client.missing", "No se ha encontrado el cliente con identificador {id}.", id);
         }
     }
 
     /**
-     * Método que busca un usuario por su identificador.
+     * Obtiene la profundidad actual de la cola de salida de cada cliente.
      * 
-     * @param id Identificador del usuario
-     * @return Nombre de usuario del cliente
+     * @return Mapa de nombre de usuario a mensajes pendientes de envío
      */
-    private String findUserById(int id) {
-        for (Map.Entry<String, ArrayList<Object>> user : clientsMap.entrySet()) {
-            if ((int) user.getValue().get(0) == id) {
-                return user.getKey();
-            }
+    public Map<String, Integer> queueDepths() {
+        Map<String, Integer> depths = new TreeMap<>();
+        for (ClientSession session : this.sessions.sessions()) {
+            depths.put(session.getUsername(), session.getQueueDepth());
         }
-        return null;
+        return depths;
     }
 
+    /**
+     * Obtiene el registro de sucesos del servidor.
+     * 
+     * @return Registro asíncrono
+     */
+    ServerLog getLog() {
+        return this.log;
+    }
+
+    /**
+     * Obtiene el registro de sesiones, para las pruebas de rendimiento.
+     * 
+     * @return Registro de sesiones del servidor
+     */
+    SessionRegistry getSessions() {
+        return this.sessions;
+    }
+
+    /**
+     * Método principal del servidor.
+     * Uso: java es.ubu.lsi.server.ChatServerImpl [puerto] [opciones], ver {@link ServerOptions#USAGE}.
+     * 
+     * @param args Argumentos de la línea de comandos
+     */
     public static void main(String[] args) {
 
-        int port = args.length > 0 ? Integer.parseInt(args[0]) : ChatServerImpl.DEFAULT_PORT;
+        ServerOptions options;
+        try {
+            options = ServerOptions.parse(args);
+        } catch (IllegalArgumentException illegalArgumentException) {
+            System.err.printf(ChatServerImpl.RED + "[!] Error en el formato de entrada: %s\n" + ChatServerImpl.RESET, illegalArgumentException.getMessage());
+            System.out.println(ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Uso: " + ServerOptions.USAGE + ChatServerImpl.RESET);
+            System.exit(1);
+            return;
+        }
 
-        ChatServerImpl server = new ChatServerImpl(port);
+        if (options.getMode() == ExecutionMode.VIRTUAL && !ExecutionMode.virtualThreadsAvailable()) {
+            System.err.printf(ChatServerImpl.RED + "[!] Los hilos virtuales requieren Java 21 o superior.\n" + ChatServerImpl.RESET);
+            System.exit(1);
+        }
+
+        ChatServer server = options.isNio() ? new ChatServerNioImpl(options) : new ChatServerImpl(options);
+
+        /* Con SIGTERM o Ctrl+C también se vacía el servidor antes de salir. */
+        Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown, "chat-drain"));
+        watchConsole(server);
         server.startup();
 
     }
 
     /**
-     * Clase interna que representa un hilo de ejecución para un cliente,
+     * Atiende la consola del servidor en un hilo aparte: el comando shutdown lo apaga.
+     * Es, junto con SIGTERM o Ctrl+C, la única forma de apagarlo; los clientes no pueden.
+     * 
+     * @param server Servidor a apagar
+     */
+    private static void watchConsole(ChatServer server) {
+        Thread console = new Thread(() -> {
+            BufferedReader input = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            try {
+                String line;
+                while ((line = input.readLine()) != null) {
+                    if (ServerCommand.of(line.trim()) == ServerCommand.SHUTDOWN) {
+                        server.shutdown();
+                        return;
+                    }
+                }
+            } catch (IOException ioException) {
+                /* Sin consola solo queda apagarlo con SIGTERM o Ctrl+C. */
+            }
+        }, "chat-console");
+        console.setDaemon(true);
+        console.start();
+    }
+
+    /**
+     * Clase interna que representa la tarea de atención de un cliente,
      * de esta forma permite controlar la comunicación con los clientes.
+     * Se ejecuta en un hilo de plataforma o virtual según el modo del servidor.
      */
-    private class ServerThreadForClient extends Thread {
+    private class ServerThreadForClient implements Runnable {
 
         /** Identificador del cliente. */
         private final int id;
@@ -261,48 +989,58 @@ public class ChatServerImpl implements ChatServer {
         /* Nombre de usuario del cliente. */
         private final String username;
 
-        /** Flujo de entrada para el cliente. */
-        private BufferedReader input;
+        /** Flujo de entrada del protocolo de texto, o null si el cliente usa el binario. */
+        private final LineReader input;
 
-        /** Flujo de salida para el cliente. */
-        private PrintWriter output;
-        
-        /** Sintaxis del comando logout. */
-        private static final String LOGOUT = "LOGOUT";
+        /** Flujo de entrada del protocolo binario, o null si el cliente usa el de texto. */
+        private final DataInputStream binaryInput;
 
-        /** Sintaxis del comando ban. */
-        private static final String BAN = "BAN";
+        /** Buffer reutilizado para el texto de las tramas binarias; crece hasta la longitud máxima de un mensaje. */
+        private byte[] payload;
 
-        /** Sintaxis del comando unban. */
-        private static final String PARDON = "UNBAN";
+        /** Límite de ritmo de los mensajes del cliente. */
+        private final RateLimiter limiter;
 
-        /** Mensaje de shudown. */
-        private static final String SHUTDOWN = "SHUTDOWN";
+        /** Si ya se ha avisado al cliente de que se están descartando sus mensajes. */
+        private boolean throttleWarned = false;
 
+        /** Sesión del cliente, que guarda su flujo de salida. */
+        private final ClientSession session;
 
         /**
          * Constructor de ServerThreadForClient.
          * 
-         * @param id Identificador del cliente
-         * @param username Nombre de usuario del cliente
+         * @param session Sesión registrada del cliente
+         * @param rawInput Flujo de entrada del cliente, justo tras el saludo
+         * @param resumed Si la sesión se ha reanudado, con lo pendiente ya en su cola
          */
-        public ServerThreadForClient(int id, String username) {
-            this.id = id;
-            this.username = username;  
-            Socket clientSocket = (Socket) clientsMap.get(this.username).get(1);
-
-            try {
-
-                this.input = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                this.output = new PrintWriter(clientSocket.getOutputStream(), true);
-
-                output.println(ChatServerImpl.YELLOW + "+-----------------------------------------------------------------------------+\n"  
-                                    + "[*] " + ChatServerImpl.CYAN + "¡Bienvenido al chat, " + ChatServerImpl.GREEN 
-                                    + username + ChatServerImpl.CYAN + "!" + ChatServerImpl.RESET);
+        public ServerThreadForClient(ClientSession session, InputStream rawInput, boolean resumed) {
+            this.id = session.getId();
+            this.username = session.getUsername();  
+            this.session = session;
+
+            if (session.isBinary()) {
+                this.input = null;
+                this.binaryInput = new DataInputStream(new BufferedInputStream(rawInput));
+                /* Empieza pequeño: la mayoría de los mensajes son cortos y el máximo puede ser de 64 KB. */
+                this.payload = new byte[Math.min(options.getMaxLineLength(), 256)];
+            } else {
+                this.input = new LineReader(new InputStreamReader(rawInput, StandardCharsets.UTF_8), options.getMaxLineLength());
+                this.binaryInput = null;
+                this.payload = null;
+            }
+            this.limiter = new RateLimiter(options.getRateLimit(), options.getBurst());
 
-            } catch (IOException ioException) {
-                System.err.printf(ChatServerImpl.RED + "[!] Error al tratar de inicializar el hilo para el cliente: " + ChatServerImpl.RESET + "%s\n", ioException.getMessage());
+            if (resumed) {
+                return;
             }
+            session.send(ChatServerImpl.YELLOW + "+-----------------------------------------------------------------------------+\n"  
+                            + "[*] " + ChatServerImpl.CYAN + "¡Bienvenido al chat, " + ChatServerImpl.GREEN 
+                            + username + ChatServerImpl.CYAN + "!" + ChatServerImpl.RESET);
+
+            /* Lo último que se dijo en su canal, con las tramas ya codificadas. Un mensaje difundido
+               justo mientras entra puede llegarle también en directo. */
+            history.replay(session);
         }
 
         @Override
@@ -310,28 +1048,62 @@ public class ChatServerImpl implements ChatServer {
 
             while (alive) {
                 try {
-                    String message = input.readLine();
-                    if (message == null) {
+                    ChatMessage received = readMessage();
+                    if (received == null) {
                         break;
                     }
-                    String[] words = message.split(" ");
-                  
-                    switch (words[0].toUpperCase()) {
-                        case ServerThreadForClient.LOGOUT:
+                    metrics.messageReceived();
+
+                    /* En el protocolo binario el tipo viaja en la trama; en el de texto todo es MESSAGE. */
+                    if (received.getType() == MessageType.LOGOUT) {
+                        logoutCase();
+                        continue;
+                    } else if (received.getType() == MessageType.SHUTDOWN) {
+                        if (admit()) {
+                            shutdownCase();
+                        }
+                        continue;
+                    }
+
+                    String message = received.getMessage();
+                    ServerCommand command = ServerCommand.of(message);
+
+                    /* Salir nunca se limita; el resto de mensajes, también los intentos de apagado, gasta una ficha. */
+                    if (command != ServerCommand.LOGOUT && !admit()) {
+                        continue;
+                    }
+
+                    /* Solo los comandos se trocean en palabras; los mensajes normales se difunden tal cual. */
+                    String[] words = command == ServerCommand.NONE ? null : message.split(" ");
+
+                    switch (command) {
+                        case LOGOUT:
                             logoutCase();
                             break;
 
-                        case ServerThreadForClient.BAN:
+                        case BAN:
                             banCase(words);
                             break;
 
-                        case ServerThreadForClient.PARDON: 
+                        case UNBAN:
                             pardonCase(words);
                             break;
 
-                        case ServerThreadForClient.SHUTDOWN:
+                        case SHUTDOWN:
                             shutdownCase();
                             break;
+
+                        case JOIN:
+                            joinCase(words);
+                            break;
+
+                        case PART:
+                            partCase(words);
+                            break;
+
+                        case MSG:
+                            privateCase(message);
+                            break;
                         
                         default:
                             if (!message.isEmpty() && !message.equals("\n")) {
@@ -344,6 +1116,112 @@ public class ChatServerImpl implements ChatServer {
                     break;
                 }
             }
+
+            /* Si el cliente se ha ido sin hacer logout, se le da de baja igualmente, salvo que pueda
+               reanudar la sesión: entonces se guarda hasta que vuelva o venza la ventana. */
+            boolean registered = sessions.byId(this.id) == this.session;
+            if (registered && alive && this.session.isResumable()) {
+                suspend(this.session);
+                return;
+            }
+            if (registered) {
+                remove(this.id);
+            }
+
+            /* Una sesión desconectada que ya se ha reanudado comparte su cola con la nueva: no se cierra. */
+            if (!this.session.isDetached()) {
+                this.session.close();
+            } else if (registered) {
+                this.session.abort();
+            }
+        }
+
+        /**
+         * Lee el siguiente mensaje del cliente según el protocolo negociado.
+         * El identificador del emisor siempre es el de la sesión, no el que indique la trama.
+         * 
+         * @return Mensaje recibido, o null si el cliente ha cerrado la conexión
+         * @throws IOException Si ocurre un error de lectura o la trama no es válida
+         */
+        private ChatMessage readMessage() throws IOException {
+            while (true) {
+                if (this.binaryInput != null) {
+                    int code = this.binaryInput.read();
+                    if (code < 0) {
+                        return null;
+                    }
+                    MessageType type = ChatMessageCodec.typeOf((byte) code);
+                    this.binaryInput.readInt();
+                    int length = this.binaryInput.readInt();
+                    if (length < 0 || length > ChatMessageCodec.MAX_PAYLOAD) {
+                        throw new IOException("Longitud de trama inválida: " + length);
+                    }
+                    if (length <= options.getMaxLineLength()) {
+                        if (length > this.payload.length) {
+                            this.payload = new byte[Math.min(options.getMaxLineLength(), Math.max(length, this.payload.length * 2))];
+                        }
+                        this.binaryInput.readFully(this.payload, 0, length);
+                        return new ChatMessage(this.id, type, new String(this.payload, 0, length, StandardCharsets.UTF_8));
+                    }
+                    skipFully(length);
+                } else {
+                    int length = this.input.read();
+                    if (length == LineReader.END_OF_STREAM) {
+                        return null;
+                    }
+                    if (length != LineReader.TOO_LONG) {
+                        return new ChatMessage(this.id, MessageType.MESSAGE, this.input.line());
+                    }
+                }
+
+                /* El mensaje era demasiado largo: ya se ha descartado sin guardarlo. */
+                this.session.countOversized();
+                metrics.messageOversized();
+                this.session.send(ChatServerImpl.RED + "[!] Mensaje descartado: supera la longitud máxima de " 
+                                    + options.getMaxLineLength() + (this.binaryInput != null ? " bytes." : " caracteres.") 
+                                    + ChatServerImpl.RESET);
+            }
+        }
+
+        /**
+         * Descarta el texto de una trama binaria sin guardarlo.
+         * 
+         * @param length Bytes a descartar
+         * @throws IOException Si el flujo termina antes
+         */
+        private void skipFully(int length) throws IOException {
+            int remaining = length;
+            while (remaining > 0) {
+                int skipped = this.binaryInput.skipBytes(remaining);
+                if (skipped <= 0) {
+                    if (this.binaryInput.read() < 0) {
+                        throw new EOFException("Trama incompleta");
+                    }
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+        }
+
+        /**
+         * Aplica el límite de ritmo a un mensaje recibido. Al primer mensaje descartado
+         * de una ráfaga se avisa al cliente; los siguientes solo se cuentan.
+         * 
+         * @return true si el mensaje se acepta
+         */
+        private boolean admit() {
+            if (this.limiter.tryAcquire()) {
+                this.throttleWarned = false;
+                return true;
+            }
+            this.session.countThrottled();
+            metrics.messageThrottled();
+            if (!this.throttleWarned) {
+                this.throttleWarned = true;
+                this.session.send(ChatServerImpl.RED + "[!] Estás enviando mensajes demasiado rápido: se descartarán hasta que bajes el ritmo." 
+                                    + ChatServerImpl.RESET);
+            }
+            return false;
         }
 
         /**
@@ -368,7 +1246,7 @@ public class ChatServerImpl implements ChatServer {
          */
         private void banCase(String[] words){
             if (words.length != 2){
-                output.println(ChatServerImpl.RED + "[!] Debes indicar el nombre de usuario a banear. " + ChatServerImpl.RESET
+                session.send(ChatServerImpl.RED + "[!] Debes indicar el nombre de usuario a banear. " + ChatServerImpl.RESET
                                + ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Uso: ban <nombre_usuario>" + ChatServerImpl.RESET);
             } else{
                 banUser(this.id, words[1]);
@@ -382,7 +1260,7 @@ public class ChatServerImpl implements ChatServer {
          */
         private void pardonCase( String[] words){
             if (words.length != 2){
-                output.println(ChatServerImpl.RED + "[!] Debes indicar el nombre de usuario a indultar. " + ChatServerImpl.RESET
+                session.send(ChatServerImpl.RED + "[!] Debes indicar el nombre de usuario a indultar. " + ChatServerImpl.RESET
                                + ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Uso: unban <nombre_usuario>" + ChatServerImpl.RESET);
             } else{
                 pardonUser(this.id, words[1]);
@@ -390,14 +1268,63 @@ public class ChatServerImpl implements ChatServer {
         }
 
         /**
-         * Caso del apagado.
+         * Caso de la entrada en un canal.
+         * 
+         * @param words Palabras del comando
          */
-        private void shutdownCase(){
-            String serverMessage = ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "El servidor se está apagando...\n" + ChatServerImpl.RESET;
-            broadcast(new ChatMessage(this.id, ChatMessage.MessageType.SHUTDOWN, serverMessage));
-            output.println(serverMessage);
+        private void joinCase(String[] words){
+            String channel = words.length == 2 ? ChannelIndex.normalize(words[1]) : null;
+
+            if (channel == null){
+                session.send(ChatServerImpl.RED + "[!] Debes indicar el canal al que unirte. " + ChatServerImpl.RESET
+                               + ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Uso: join <canal>" + ChatServerImpl.RESET);
+            } else{
+                changeChannel(this.id, channel);
+            }
+        }
+
+        /**
+         * Caso de la salida de un canal, que devuelve al cliente al canal por defecto.
+         * 
+         * @param words Palabras del comando
+         */
+        private void partCase(String[] words){
+            String current = session.getChannel();
+
+            if (words.length > 2 || (words.length == 2 && !current.equals(ChannelIndex.normalize(words[1])))){
+                session.send(ChatServerImpl.RED + "[!] Solo puedes salir del canal en el que estás: #" + current + ". " + ChatServerImpl.RESET
+                               + ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Uso: part [canal]" + ChatServerImpl.RESET);
+            } else if (current.equals(ChannelIndex.DEFAULT_CHANNEL)){
+                session.send(ChatServerImpl.RED + "[!] Ya estás en el canal por defecto #" + current + "." + ChatServerImpl.RESET);
+            } else{
+                changeChannel(this.id, ChannelIndex.DEFAULT_CHANNEL);
+            }
+        }
+
+        /**
+         * Caso del mensaje privado. El texto se separa con un límite para conservar
+         * sus espacios tal cual.
+         * 
+         * @param message Línea completa del comando
+         */
+        private void privateCase(String message){
+            String[] parts = message.split(" ", 3);
 
-            ChatServerImpl.this.shutdown();
+            if (parts.length != 3 || parts[1].isEmpty() || parts[2].isEmpty()){
+                session.send(ChatServerImpl.RED + "[!] Debes indicar el destinatario y el mensaje. " + ChatServerImpl.RESET
+                               + ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Uso: msg <nombre_usuario> <mensaje>" + ChatServerImpl.RESET);
+            } else{
+                sendPrivate(this.id, parts[1], parts[2]);
+            }
+        }
+
+        /**
+         * Caso del apagado. Un cliente no puede apagar el servidor: solo se apaga desde su
+         * consola o al terminar el proceso, así que se rechaza y se registra el intento.
+         */
+        private void shutdownCase(){
+            session.send(ChatServerImpl.RED + "[!] El servidor solo se puede apagar desde su consola." + ChatServerImpl.RESET);
+            log.warn("shutdown.rejected", "El usuario {user} ha intentado apagar el servidor.", this.username);
         }
     }    
 
@@ -407,50 +1334,132 @@ public class ChatServerImpl implements ChatServer {
          * @param idSource Identificador del usuario que banea
          * @param bannedUsername Nombre de usuario del usuario baneado
          */
-        @SuppressWarnings("unchecked")
         private void banUser(int idSource, String bannedUsername){
-            PrintWriter clientOutput;
-            try{
+            ClientSession source = this.sessions.byId(idSource);
 
-                String sourceUsername = findUserById(idSource); 
-                Socket socketCliente = (Socket) clientsMap.get(sourceUsername).get(1);
+            if (source == null || bannedUsername == null) return;
 
+            String sourceUsername = source.getUsername();
 
-                clientOutput = new PrintWriter(socketCliente.getOutputStream(), true);
+            int bannedIndex = knownUserIndex(bannedUsername);
 
-                if (bannedUsername == null) return;
+            if(sourceUsername.equals(bannedUsername)){
+                source.send(ChatServerImpl.RED + "[!] ¡No te puedes vetar a ti mismo!" + ChatServerImpl.RESET);
+            }else if(bannedIndex < 0){
+                source.send(ChatServerImpl.RED + "[!] El usuario " + ChatServerImpl.GREEN
+                                + bannedUsername + ChatServerImpl.RED + " no existe."
+                                + ChatServerImpl.RESET);
+            }else{
 
-                if(sourceUsername.equals(bannedUsername)){
-                    clientOutput.println(ChatServerImpl.RED + "[!] ¡No te puedes vetar a ti mismo!" + ChatServerImpl.RESET);
-                }else{
+                source.getBans().add(bannedIndex);
+                journal(JournalEvent.ban(JournalEvent.Kind.BAN, sourceUsername, bannedUsername));
 
-                    ((ArrayList<String>) clientsMap.get(sourceUsername).get(3)).add(bannedUsername);
+                String banMessage= ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "El usuario " + ChatServerImpl.GREEN 
+                                    + sourceUsername + ChatServerImpl.CYAN + " ha vetado a " + ChatServerImpl.GREEN
+                                    + bannedUsername + ChatServerImpl.CYAN + ".\n" + ChatServerImpl.RESET;
+                                    
+                /* Se avisa a todos los clientes y nodos; es un aviso del servidor, no un mensaje de chat. */
+                announce(idSource, new OutboundMessage(MessageType.MESSAGE, idSource, banMessage));
+                relayNotice(sourceUsername, "", banMessage);
 
-                    String banMessage= ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "El usuario " + ChatServerImpl.GREEN 
-                                        + sourceUsername + ChatServerImpl.CYAN + " ha vetado a " + ChatServerImpl.GREEN
-                                        + bannedUsername + ChatServerImpl.CYAN + ".\n" + ChatServerImpl.RESET;
-                                        
-                    /* Se difunde el mensaje a todos los clientes. */
-                    broadcast(new ChatMessage(idSource, ChatMessage.MessageType.MESSAGE, banMessage));
+                /* Se informa al cliente que ha ejecutado el indulto. */
+                source.send(ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Has vetado con éxito a "
+                                    + ChatServerImpl.GREEN + bannedUsername + ChatServerImpl.CYAN + "."
+                                    + ChatServerImpl.RESET + "\n");
 
-                    /* Se informa al cliente que ha ejecutado el indulto. */
-                    clientOutput.println(ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Has vetado con éxito a "
-                                        + ChatServerImpl.GREEN + bannedUsername + ChatServerImpl.CYAN + "."
-                                        + ChatServerImpl.RESET + "\n");
-
-                    /* Se muestra en la consola del servidor. */
-                    System.out.println(ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "El usuario "
-                                        + ChatServerImpl.GREEN + sourceUsername + ChatServerImpl.CYAN + " ha vetado a "
-                                        + ChatServerImpl.GREEN + bannedUsername + ChatServerImpl.CYAN + ". "
-                                        + ChatServerImpl.RESET + "\n");
-                }
-            } catch (IOException ioException){
-                System.err.printf(ChatServerImpl.RED + "[!] Error al informar del baneo a " + ChatServerImpl.GREEN 
-                + bannedUsername + ChatServerImpl.RESET + ": %s\n", ioException.getMessage());
-            } 
+                /* Se registra en el servidor. */
+                this.log.info("ban", "El usuario {user} ha vetado a {target}.", sourceUsername, bannedUsername);
+            }
         }
         
         
+        /**
+         * Método que envía un mensaje privado a un único usuario. El destinatario se busca
+         * por su nombre en el registro, sin recorrer el resto de sesiones, y el mensaje no se
+         * guarda en el historial ni en el diario. Si el destinatario ha vetado al emisor,
+         * no se le entrega y se avisa al emisor.
+         * 
+         * @param idSource Identificador del usuario que envía el mensaje
+         * @param targetUsername Nombre de usuario del destinatario
+         * @param text Texto escrito por el emisor
+         */
+        private void sendPrivate(int idSource, String targetUsername, String text) {
+            ClientSession source = this.sessions.byId(idSource);
+
+            if (source == null) return;
+
+            ClientSession target = this.sessions.byUsername(targetUsername);
+
+            if (target == source) {
+                source.send(ChatServerImpl.RED + "[!] ¡No te puedes enviar un mensaje privado a ti mismo!" + ChatServerImpl.RESET);
+            } else if (target == null) {
+                source.send(ChatServerImpl.RED + "[!] El usuario " + ChatServerImpl.GREEN 
+                                    + targetUsername + ChatServerImpl.RED + " no está conectado." 
+                                    + ChatServerImpl.RESET);
+            } else if (target.getBans().contains(source.getUserIndex())) {
+                source.send(ChatServerImpl.RED + "[!] El usuario " + ChatServerImpl.GREEN 
+                                    + targetUsername + ChatServerImpl.RED + " te ha vetado: no recibirá tu mensaje." 
+                                    + ChatServerImpl.RESET);
+            } else {
+                long start = System.nanoTime();
+                String time = LocalDateTime.now().format(TIME_FORMAT);
+
+                /* Si el destinatario está esperando a reanudar su sesión, lo recibirá al volver. */
+                target.send(MessageType.PRIVATE, ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Mensaje privado de " 
+                                    + ChatServerImpl.GREEN + source.getUsername() + ChatServerImpl.CYAN + " [" + time + "]: " 
+                                    + ChatServerImpl.RESET + text + "\n");
+                this.metrics.delivered(1, System.nanoTime() - start);
+
+                /* Se informa al emisor. */
+                source.send(MessageType.PRIVATE, ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Mensaje privado para " 
+                                    + ChatServerImpl.GREEN + targetUsername + ChatServerImpl.CYAN + " [" + time + "]: " 
+                                    + ChatServerImpl.RESET + text + "\n");
+            }
+        }
+
+
+        /**
+         * Método que cambia a un usuario de canal y lo anuncia en el canal
+         * que abandona y en el canal al que entra.
+         * 
+         * @param idSource Identificador del usuario
+         * @param channel Nombre normalizado del canal de destino
+         */
+        private void changeChannel(int idSource, String channel) {
+            ClientSession source = this.sessions.byId(idSource);
+
+            if (source == null || channel == null) return;
+
+            String sourceUsername = source.getUsername();
+
+            if (channel.equals(source.getChannel())) {
+                source.send(ChatServerImpl.RED + "[!] Ya estás en el canal #" + channel + "." + ChatServerImpl.RESET);
+            } else {
+                String previous = this.sessions.moveTo(source, channel);
+
+                String partMsg = ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "El usuario " + ChatServerImpl.GREEN 
+                                    + sourceUsername + ChatServerImpl.CYAN + " ha salido del canal #" + previous + "." 
+                                    + ChatServerImpl.RESET;
+                String joinMsg = ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "El usuario " + ChatServerImpl.GREEN 
+                                    + sourceUsername + ChatServerImpl.CYAN + " se ha unido al canal #" + channel + "." 
+                                    + ChatServerImpl.RESET;
+
+                /* Se avisa a los miembros de ambos canales. */
+                announce(idSource, new OutboundMessage(MessageType.MESSAGE, idSource, partMsg), this.sessions.channels().members(previous));
+                announce(idSource, new OutboundMessage(MessageType.MESSAGE, idSource, joinMsg), this.sessions.channels().members(channel));
+                relayNotice(sourceUsername, previous, partMsg);
+                relayNotice(sourceUsername, channel, joinMsg);
+
+                /* Se informa al cliente que ha cambiado de canal. */
+                source.send(ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Ahora estás en el canal #" 
+                                    + channel + "." + ChatServerImpl.RESET);
+
+                /* Se registra en el servidor. */
+                this.log.info("channel", "El usuario {user} se ha unido al canal #{channel}.", sourceUsername, channel);
+            }
+        }
+
+
         /**
          * Método que indulta a un usuario vetado del chat de la 
          * lista de vetados de otro usuario.
@@ -458,51 +1467,45 @@ public class ChatServerImpl implements ChatServer {
          * @param idSource Identificador del usuario que perdona
          * @param pardonedUsername Nombre de usuario del usuario perdonado
          */
-        @SuppressWarnings("unchecked")
         private void pardonUser(int idSource, String pardonedUsername) {
-            PrintWriter clientOutput;
-            try {
-                String sourceUsername = findUserById(idSource);
-                Socket socketCliente = (Socket) clientsMap.get(sourceUsername).get(1);
-                clientOutput = new PrintWriter(socketCliente.getOutputStream(), true);
-                        
-                if (pardonedUsername == null) return;
+            ClientSession source = this.sessions.byId(idSource);
+                    
+            if (source == null || pardonedUsername == null) return;
+
+            String sourceUsername = source.getUsername();
 
-                if (sourceUsername.equals(pardonedUsername)) {
-                    clientOutput.println(ChatServerImpl.RED + "[!] ¡No te puedes quitar el veto a ti mismo!" + ChatServerImpl.RESET);
+            if (sourceUsername.equals(pardonedUsername)) {
+                source.send(ChatServerImpl.RED + "[!] ¡No te puedes quitar el veto a ti mismo!" + ChatServerImpl.RESET);
+            } else {
+                /* Obtiene la lista de usuarios vetados del usuario que ejecuta la acción. */
+                BanList bannedList = source.getBans();
+                
+                if (!bannedList.remove(this.sessions.users().lookup(pardonedUsername))) {
+                    /* Si el usuario no está baneado, se informa al cliente. */
+                    source.send(ChatServerImpl.RED + "[!] El usuario " + ChatServerImpl.GREEN 
+                                            + pardonedUsername + ChatServerImpl.RED + " no está vetado." 
+                                            + ChatServerImpl.RESET);
                 } else {
-                    /* Obtiene la lista de usuarios vetados del usuario que ejecuta la acción. */
-                    ArrayList<String> bannedList = (ArrayList<String>) clientsMap.get(sourceUsername).get(3);
+                    /* El usuario estaba baneado y se le ha quitado el veto. */
+                    journal(JournalEvent.ban(JournalEvent.Kind.UNBAN, sourceUsername, pardonedUsername));
+
+                    String pardonMsg = ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "El usuario " 
+                                            + ChatServerImpl.GREEN + sourceUsername + ChatServerImpl.CYAN 
+                                            + " ha quitado su veto a " + ChatServerImpl.GREEN + pardonedUsername 
+                                            + ChatServerImpl.CYAN + ".\n" + ChatServerImpl.RESET;
                     
-                    if (!bannedList.contains(pardonedUsername)) {
-                        /* Si el usuario no está baneado, se informa al cliente. */
-                        clientOutput.println(ChatServerImpl.RED + "[!] El usuario " + ChatServerImpl.GREEN 
-                                                + pardonedUsername + ChatServerImpl.RED + " no está vetado." 
-                                                + ChatServerImpl.RESET);
-                    } else {
-                        /* El usuario está baneado, se procede a quitar el veto. */
-                        bannedList.remove(pardonedUsername);
-                        
-                        String pardonMsg = ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "El usuario " 
-                                                + ChatServerImpl.GREEN + sourceUsername + ChatServerImpl.CYAN 
-                                                + " ha quitado su veto a " + ChatServerImpl.GREEN + pardonedUsername 
-                                                + ChatServerImpl.CYAN + ".\n" + ChatServerImpl.RESET;
-                        
-                        /* Se difunde el mensaje a todos los clientes. */
-                        broadcast(new ChatMessage(idSource, ChatMessage.MessageType.MESSAGE, pardonMsg));
-                        
-                        /* Se informa al cliente que ha ejecutado el indulto. */
-                        clientOutput.println(ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Has quitado el veto a "
-                                                + ChatServerImpl.GREEN + pardonedUsername + ChatServerImpl.CYAN + ".\n" 
-                                                + ChatServerImpl.RESET);
-                        
-                        /* Se muestra en la consola del servidor. */
-                        System.out.println(pardonMsg);
-                    }
+                    /* Se avisa a todos los clientes y nodos; es un aviso del servidor, no un mensaje de chat. */
+                    announce(idSource, new OutboundMessage(MessageType.MESSAGE, idSource, pardonMsg));
+                    relayNotice(sourceUsername, "", pardonMsg);
+                    
+                    /* Se informa al cliente que ha ejecutado el indulto. */
+                    source.send(ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Has quitado el veto a "
+                                            + ChatServerImpl.GREEN + pardonedUsername + ChatServerImpl.CYAN + ".\n" 
+                                            + ChatServerImpl.RESET);
+                    
+                    /* Se registra en el servidor. */
+                    this.log.info("unban", "El usuario {user} ha quitado su veto a {target}.", sourceUsername, pardonedUsername);
                 }
-            } catch (IOException ioException) {
-                System.err.printf(ChatServerImpl.RED + "[!] Error al informar el indulto a " + ChatServerImpl.GREEN 
-                                    + pardonedUsername + ChatServerImpl.RESET + ": %s\n", ioException.getMessage());
-            } 
+            }
         }
 }
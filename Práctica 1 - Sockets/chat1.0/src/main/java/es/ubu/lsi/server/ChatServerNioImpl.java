@@ -0,0 +1,997 @@
+package es.ubu.lsi.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import es.ubu.lsi.common.ChatMessage;
+import es.ubu.lsi.common.ChatMessage.MessageType;
+import es.ubu.lsi.common.ChatMessageCodec;
+
+/**
+ * Implementación alternativa de la interfaz ChatServer basada en java.nio.
+ * En lugar de un hilo por cliente, un pequeño conjunto fijo de bucles de E/S
+ * (cada uno con su propio Selector) atiende todas las conexiones de forma no bloqueante.
+ * El protocolo de texto es el mismo que el de ChatServerImpl: la primera línea es el
+ * nombre de usuario y el resto son mensajes o los comandos LOGOUT, BAN y UNBAN; SHUTDOWN
+ * se rechaza, porque el servidor solo se apaga desde su consola.
+ * Cada conexión tiene una cola de salida acotada con la misma política de desbordamiento
+ * que ChatServerImpl, salvo BLOCK: un bucle de E/S no puede esperar por la cola de otro
+ * cliente, así que con BLOCK se descarta el mensaje nuevo sin esperar.
+ * No admite sesiones reanudables ni el protocolo binario: si el cliente los pide, se le
+ * avisa y entra con una sesión nueva de texto. El apagado vacía las conexiones igual que
+ * ChatServerImpl y registra lo mismo en el {@link ServerLog}.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.server.ChatServer
+ * @see es.ubu.lsi.server.ChatServerImpl
+ * @see es.ubu.lsi.common.ChatMessage
+ */
+public class ChatServerNioImpl implements ChatServer {
+
+    /** Número de bucles de E/S por defecto. */
+    static final int DEFAULT_LOOPS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /** Tamaño del buffer de lectura de cada conexión. */
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    /** Longitud máxima en bytes de una línea recibida. */
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    /** Formato de fecha para los mensajes. */
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    /** Puerto de conexión con el servidor. */
+    private final int port;
+
+    /** Número de bucles de E/S. */
+    private final int loopCount;
+
+    /** Capacidad de la cola de salida de cada conexión. */
+    private final int queueCapacity;
+
+    /** Política de desbordamiento de las colas de salida. */
+    private final OverflowPolicy overflowPolicy;
+
+    /** Opciones de arranque del servidor. */
+    private final ServerOptions options;
+
+    /** Registro de sucesos del servidor. */
+    private final ServerLog log;
+
+    /** Indica si ya se ha pedido el apagado, para vaciar el servidor una sola vez. */
+    private final AtomicBoolean stopping = new AtomicBoolean(false);
+
+    /** Se abre al terminar el vaciado, para que {@link #startup()} vuelva después. */
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /** Mensajes descartados por desbordamiento en conexiones ya cerradas. */
+    private final LongAdder droppedMessages = new LongAdder();
+
+    /** Identificador del siguiente cliente. */
+    private final AtomicInteger clientId = new AtomicInteger();
+
+    /** Flag para mantener la conexión. */
+    private volatile boolean alive = true;
+
+    /** Conexiones registradas indexadas por nombre de usuario. */
+    private final Map<String, Connection> clientsByUsername = new ConcurrentHashMap<>();
+
+    /** Conexiones registradas indexadas por identificador. */
+    private final Map<Integer, Connection> clientsById = new ConcurrentHashMap<>();
+
+    /** Canal general del servidor. */
+    private ServerSocketChannel generalChannel = null;
+
+    /** Bucles de E/S del servidor. */
+    private IoLoop[] loops;
+
+    /**
+     * Constructor de ChatServerNioImpl con el número de bucles por defecto.
+     *
+     * @param port Puerto de escucha
+     */
+    public ChatServerNioImpl(int port) {
+        this(port, ChatServerNioImpl.DEFAULT_LOOPS);
+    }
+
+    /**
+     * Constructor de ChatServerNioImpl con la cola de salida por defecto.
+     *
+     * @param port Puerto de escucha
+     * @param loopCount Número de bucles de E/S (hilos) que atienden las conexiones
+     */
+    public ChatServerNioImpl(int port, int loopCount) {
+        this(port, loopCount, ServerOptions.DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Constructor de ChatServerNioImpl.
+     *
+     * @param port Puerto de escucha
+     * @param loopCount Número de bucles de E/S (hilos) que atienden las conexiones
+     * @param queueCapacity Mensajes pendientes que admite la cola de salida de cada conexión
+     * @param overflowPolicy Política que se aplica cuando la cola de una conexión está llena
+     */
+    public ChatServerNioImpl(int port, int loopCount, int queueCapacity, OverflowPolicy overflowPolicy) {
+        this(ChatServerNioImpl.optionsFor(port, loopCount, queueCapacity, overflowPolicy));
+    }
+
+    /**
+     * Constructor de ChatServerNioImpl a partir de las opciones de arranque.
+     * Solo se usan el puerto, los bucles, la cola de salida, la espera del vaciado y el registro.
+     *
+     * @param options Opciones del servidor
+     */
+    public ChatServerNioImpl(ServerOptions options) {
+        this.options = options;
+        this.port = options.getPort();
+        this.loopCount = Math.max(1, options.getLoops());
+        this.queueCapacity = options.getQueueCapacity();
+        this.overflowPolicy = options.getOverflowPolicy();
+        this.log = new ServerLog(options.getLogLevel());
+    }
+
+    /**
+     * Crea unas opciones por defecto con el puerto, los bucles y la cola de salida indicados.
+     *
+     * @param port Puerto de escucha
+     * @param loopCount Número de bucles de E/S
+     * @param queueCapacity Capacidad de la cola de salida de cada conexión
+     * @param overflowPolicy Política de desbordamiento de las colas de salida
+     * @return Opciones del servidor
+     */
+    private static ServerOptions optionsFor(int port, int loopCount, int queueCapacity, OverflowPolicy overflowPolicy) {
+        ServerOptions options = new ServerOptions();
+        options.setPort(port);
+        options.setLoops(loopCount);
+        options.setQueueCapacity(queueCapacity);
+        options.setOverflowPolicy(overflowPolicy);
+        return options;
+    }
+
+    @Override
+    public void startup() {
+        try {
+            this.alive = true;
+            this.log.info("start", "Iniciando servidor NIO en el puerto {port} con {loops} bucles de E/S...",
+                            this.port, this.loopCount);
+
+            this.generalChannel = ServerSocketChannel.open();
+            this.generalChannel.bind(new InetSocketAddress(this.port));
+
+            this.loops = new IoLoop[this.loopCount];
+            for (int i = 0; i < this.loopCount; i++) {
+                this.loops[i] = new IoLoop(i);
+                this.loops[i].start();
+            }
+
+            /* El hilo que llama a startup se queda aceptando y reparte las conexiones por turnos. */
+            int next = 0;
+            while (this.alive) {
+                SocketChannel channel = this.generalChannel.accept();
+                channel.configureBlocking(false);
+                this.loops[next].register(channel);
+                next = (next + 1) % this.loopCount;
+            }
+        } catch (IOException ioException) {
+            /* Si el servidor se está cerrando, la excepción es la del canal de escucha al cerrarse. */
+            if (!this.stopping.get()) {
+                this.alive = false;
+                this.log.error("server.error", "Error en el servidor NIO: {error}", ioException.getMessage());
+                this.log.close();
+            }
+        }
+
+        /* Como en ChatServerImpl, se vuelve cuando ha terminado el vaciado. */
+        if (this.stopping.get()) {
+            try {
+                this.stopped.await();
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Vacía el servidor como {@link ChatServerImpl#shutdown()}: deja de aceptar conexiones,
+     * avisa a cada cliente de que puede volver a conectarse y espera, como mucho lo indicado en
+     * {@link ServerOptions#getDrainTimeoutMillis()}, a que cada bucle le envíe lo pendiente.
+     * Después se paran los bucles, que cierran las conexiones que sigan abiertas.
+     * Solo tiene efecto la primera llamada.
+     */
+    @Override
+    public void shutdown() {
+        if (!this.stopping.compareAndSet(false, true)) {
+            return;
+        }
+        long start = System.nanoTime();
+        boolean success = true;
+
+        Collection<Connection> open = new ArrayList<>(this.clientsById.values());
+        this.log.info("drain.start", "Cerrando el servidor: vaciando {connections} conexiones (espera máxima {timeoutMs} ms)...",
+                        open.size(), this.options.getDrainTimeoutMillis());
+
+        /* Cierra el canal del servidor, lo que desbloquea el accept de startup. */
+        if (this.generalChannel != null) {
+            try {
+                this.generalChannel.close();
+            } catch (IOException ioException) {
+                this.log.error("drain.error", "Error al cerrar el socket del servidor: {error}", ioException.getMessage());
+                success = false;
+            }
+        }
+
+        /* El aviso es lo último que se encola; cada bucle cierra la conexión al terminar de enviarlo. */
+        ByteBuffer hint = encodeLine(ChatServerImpl.RECONNECT_HINT);
+        for (Connection connection : open) {
+            connection.drain(hint.duplicate());
+        }
+
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(this.options.getDrainTimeoutMillis());
+        try {
+            for (Connection connection : open) {
+                connection.awaitClosed(deadline - System.nanoTime());
+            }
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+
+        long[] closeNanos = new long[open.size()];
+        int drained = 0;
+        for (Connection connection : open) {
+            if (connection.isClosed()) {
+                closeNanos[drained++] = connection.getCloseNanos();
+            }
+        }
+
+        /* Al pararse, cada bucle cierra a la fuerza sus conexiones, incluidas las que no han saludado. */
+        this.alive = false;
+        if (this.loops != null) {
+            for (IoLoop loop : this.loops) {
+                loop.wakeup();
+            }
+            try {
+                for (IoLoop loop : this.loops) {
+                    loop.join();
+                }
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        ChatServerImpl.logDrainReport(this.log, System.nanoTime() - start, Arrays.copyOf(closeNanos, drained), open.size() - drained);
+        if (success) {
+            this.log.info("stop", "¡Servidor cerrado correctamente!");
+        } else {
+            this.log.error("stop.error", "Ha ocurrido un error al cerrar el servidor.");
+        }
+
+        /* Lo último: se escribe todo lo pendiente del registro. */
+        this.log.close();
+        this.stopped.countDown();
+    }
+
+    @Override
+    public void broadcast(ChatMessage message) {
+        int sourceId = message.getId();
+        Connection source = this.clientsById.get(sourceId);
+
+        if (source == null) {
+            this.log.warn("client.missing", "No se ha encontrado el cliente con identificador {id}.", sourceId);
+            return;
+        }
+
+        String messageToSend = message.getMessage();
+
+        /* Los mensajes de chat llevan la cabecera del emisor; LOGOUT y SHUTDOWN ya vienen formateados. */
+        if (message.getType() == MessageType.MESSAGE) {
+
+            messageToSend = ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Mensaje de " + ChatServerImpl.GREEN
+                                + source.username + ChatServerImpl.CYAN + " [" + LocalTime.now().format(TIME_FORMAT) + "]: "
+                                + ChatServerImpl.RESET + messageToSend + "\n";
+        }
+        announce(source, messageToSend);
+    }
+
+    /**
+     * Envía un texto ya formateado a todas las conexiones salvo al emisor y a quienes lo tengan vetado.
+     *
+     * @param source Conexión de origen
+     * @param text Texto a difundir
+     */
+    private void announce(Connection source, String text) {
+        /* El mensaje se codifica una sola vez y cada destinatario recibe una vista del mismo buffer. */
+        ByteBuffer frame = encodeLine(text);
+
+        for (Connection recipient : this.clientsByUsername.values()) {
+            if (recipient.id != source.id && !recipient.bannedUsers.contains(source.username)) {
+                recipient.send(frame.duplicate());
+            }
+        }
+    }
+
+    @Override
+    public void remove(int id) {
+        Connection connection = this.clientsById.remove(id);
+        if (connection != null) {
+            this.clientsByUsername.remove(connection.username, connection);
+            this.log.info("leave", "El cliente {user} ha salido del servidor.", connection.username);
+        } else {
+            this.log.warn("client.missing", "No se ha encontrado el cliente con identificador {id}.", id);
+        }
+    }
+
+    /**
+     * Número de mensajes descartados por desbordamiento de las colas de salida,
+     * contando las conexiones abiertas y las ya cerradas.
+     *
+     * @return Mensajes descartados
+     */
+    long getDroppedMessages() {
+        long dropped = this.droppedMessages.sum();
+        for (Connection connection : this.clientsById.values()) {
+            dropped += connection.outbound.getDropped();
+        }
+        return dropped;
+    }
+
+    /**
+     * Codifica una línea de texto en UTF-8 añadiendo el salto de línea final.
+     *
+     * @param text Texto a codificar
+     * @return Buffer de solo lectura listo para escribir
+     */
+    private static ByteBuffer encodeLine(String text) {
+        return ByteBuffer.wrap((text + "\n").getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Procesa una línea completa recibida de una conexión.
+     * La primera línea de cada conexión es el nombre de usuario.
+     *
+     * @param connection Conexión de origen
+     * @param line Línea recibida sin el salto de línea
+     */
+    private void handleLine(Connection connection, String line) {
+        if (connection.username == null) {
+            handshake(connection, line);
+            return;
+        }
+
+        ServerCommand command = ServerCommand.of(line);
+
+        /* Solo los comandos se trocean en palabras; los mensajes normales se difunden tal cual. */
+        String[] words = command == ServerCommand.NONE ? null : line.split(" ");
+
+        /* Este servidor no tiene canales: join y part se difunden como mensajes normales. */
+        switch (command) {
+            case LOGOUT:
+                logoutCase(connection);
+                break;
+
+            case BAN:
+                banCase(connection, words);
+                break;
+
+            case UNBAN:
+                pardonCase(connection, words);
+                break;
+
+            case SHUTDOWN:
+                shutdownCase(connection);
+                break;
+
+            case MSG:
+                privateCase(connection, line);
+                break;
+
+            default:
+                if (!line.isEmpty()) {
+                    broadcast(new ChatMessage(connection.id, MessageType.MESSAGE, line));
+                }
+                break;
+        }
+    }
+
+    /**
+     * Registra el nombre de usuario de una conexión nueva.
+     *
+     * @param connection Conexión que realiza el saludo
+     * @param username Nombre de usuario recibido
+     */
+    private void handshake(Connection connection, String username) {
+        /* Este servidor no guarda sesiones: se avisa al cliente, que al no recibir RESUMED ni
+           NEW_SESSION muestra el aviso y entra como nuevo. */
+        if (username.startsWith(ChatMessageCodec.RESUME + " ")) {
+            String[] parts = username.split(" ", 3);
+            username = parts.length == 3 ? parts[2] : "";
+            connection.send(encodeLine(ChatServerImpl.RED + "[!] Este servidor no admite sesiones reanudables:"
+                                        + " entras con una sesión nueva." + ChatServerImpl.RESET));
+        }
+
+        /* Este servidor solo habla texto: se avisa al cliente, que al no recibir la confirmación
+           sigue con el protocolo de texto. */
+        if (username.startsWith(ChatMessageCodec.HANDSHAKE + " ")) {
+            username = username.substring(ChatMessageCodec.HANDSHAKE.length() + 1);
+            connection.send(encodeLine(ChatServerImpl.RED + "[!] Este servidor no admite el protocolo binario:"
+                                        + " se sigue con el de texto." + ChatServerImpl.RESET));
+        }
+
+        if (this.clientsByUsername.putIfAbsent(username, connection) != null) {
+            this.log.warn("join.rejected", "Este cliente ya está conectado: {user}.", username);
+            connection.close();
+            return;
+        }
+
+        connection.username = username;
+        connection.id = this.clientId.getAndIncrement();
+        this.clientsById.put(connection.id, connection);
+
+        connection.send(encodeLine(ChatServerImpl.YELLOW + "+-----------------------------------------------------------------------------+\n"
+                                    + "[*] " + ChatServerImpl.CYAN + "¡Bienvenido al chat, " + ChatServerImpl.GREEN
+                                    + username + ChatServerImpl.CYAN + "!" + ChatServerImpl.RESET));
+
+        String welcomeMsg = ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "El usuario "
+                                + ChatServerImpl.GREEN + username + ChatServerImpl.CYAN + " se ha unido al chat."
+                                + ChatServerImpl.RESET;
+
+        /* Se anuncia que hay un nuevo usuario. */
+        this.log.info("join", "El usuario {user} se ha unido al chat.", username);
+        announce(connection, welcomeMsg);
+    }
+
+    /**
+     * Caso del logout.
+     *
+     * @param connection Conexión que abandona el chat
+     */
+    private void logoutCase(Connection connection) {
+        String serverMessage = ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "El usuario "
+                                + ChatServerImpl.GREEN + connection.username + ChatServerImpl.CYAN + " ha abandonado el chat."
+                                + ChatServerImpl.RESET;
+
+        broadcast(new ChatMessage(connection.id, MessageType.LOGOUT, serverMessage));
+        remove(connection.id);
+    }
+
+    /**
+     * Caso del veto.
+     *
+     * @param connection Conexión que veta
+     * @param words Palabras del comando
+     */
+    private void banCase(Connection connection, String[] words) {
+        if (words.length != 2) {
+            connection.send(encodeLine(ChatServerImpl.RED + "[!] Debes indicar el nombre de usuario a banear. " + ChatServerImpl.RESET
+                                        + ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Uso: ban <nombre_usuario>" + ChatServerImpl.RESET));
+            return;
+        }
+
+        String bannedUsername = words[1];
+
+        if (connection.username.equals(bannedUsername)) {
+            connection.send(encodeLine(ChatServerImpl.RED + "[!] ¡No te puedes vetar a ti mismo!" + ChatServerImpl.RESET));
+            return;
+        }
+
+        connection.bannedUsers.add(bannedUsername);
+
+        String banMessage = ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "El usuario " + ChatServerImpl.GREEN
+                                + connection.username + ChatServerImpl.CYAN + " ha vetado a " + ChatServerImpl.GREEN
+                                + bannedUsername + ChatServerImpl.CYAN + ".\n" + ChatServerImpl.RESET;
+
+        /* Es un aviso del servidor, no un mensaje de chat: se envía a todos sin cabecera. */
+        announce(connection, banMessage);
+
+        /* Se informa al cliente que ha ejecutado el veto. */
+        connection.send(encodeLine(ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Has vetado con éxito a "
+                                    + ChatServerImpl.GREEN + bannedUsername + ChatServerImpl.CYAN + "."
+                                    + ChatServerImpl.RESET + "\n"));
+
+        this.log.info("ban", "El usuario {user} ha vetado a {target}.", connection.username, bannedUsername);
+    }
+
+    /**
+     * Caso del indulto.
+     *
+     * @param connection Conexión que indulta
+     * @param words Palabras del comando
+     */
+    private void pardonCase(Connection connection, String[] words) {
+        if (words.length != 2) {
+            connection.send(encodeLine(ChatServerImpl.RED + "[!] Debes indicar el nombre de usuario a indultar. " + ChatServerImpl.RESET
+                                        + ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Uso: unban <nombre_usuario>" + ChatServerImpl.RESET));
+            return;
+        }
+
+        String pardonedUsername = words[1];
+
+        if (connection.username.equals(pardonedUsername)) {
+            connection.send(encodeLine(ChatServerImpl.RED + "[!] ¡No te puedes quitar el veto a ti mismo!" + ChatServerImpl.RESET));
+            return;
+        }
+
+        if (!connection.bannedUsers.remove(pardonedUsername)) {
+            /* Si el usuario no está baneado, se informa al cliente. */
+            connection.send(encodeLine(ChatServerImpl.RED + "[!] El usuario " + ChatServerImpl.GREEN
+                                        + pardonedUsername + ChatServerImpl.RED + " no está vetado."
+                                        + ChatServerImpl.RESET));
+            return;
+        }
+
+        String pardonMsg = ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "El usuario "
+                                + ChatServerImpl.GREEN + connection.username + ChatServerImpl.CYAN
+                                + " ha quitado su veto a " + ChatServerImpl.GREEN + pardonedUsername
+                                + ChatServerImpl.CYAN + ".\n" + ChatServerImpl.RESET;
+
+        /* Es un aviso del servidor, no un mensaje de chat: se envía a todos sin cabecera. */
+        announce(connection, pardonMsg);
+
+        /* Se informa al cliente que ha ejecutado el indulto. */
+        connection.send(encodeLine(ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Has quitado el veto a "
+                                    + ChatServerImpl.GREEN + pardonedUsername + ChatServerImpl.CYAN + ".\n"
+                                    + ChatServerImpl.RESET));
+
+        this.log.info("unban", "El usuario {user} ha quitado su veto a {target}.", connection.username, pardonedUsername);
+    }
+
+    /**
+     * Caso del mensaje privado: se busca al destinatario por su nombre y se le envía solo a él,
+     * salvo que haya vetado al emisor.
+     *
+     * @param connection Conexión que envía el mensaje
+     * @param line Línea completa del comando
+     */
+    private void privateCase(Connection connection, String line) {
+        String[] parts = line.split(" ", 3);
+
+        if (parts.length != 3 || parts[1].isEmpty() || parts[2].isEmpty()) {
+            connection.send(encodeLine(ChatServerImpl.RED + "[!] Debes indicar el destinatario y el mensaje. " + ChatServerImpl.RESET
+                                        + ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Uso: msg <nombre_usuario> <mensaje>" + ChatServerImpl.RESET));
+            return;
+        }
+
+        String targetUsername = parts[1];
+        Connection target = this.clientsByUsername.get(targetUsername);
+
+        if (target == connection) {
+            connection.send(encodeLine(ChatServerImpl.RED + "[!] ¡No te puedes enviar un mensaje privado a ti mismo!" + ChatServerImpl.RESET));
+        } else if (target == null) {
+            connection.send(encodeLine(ChatServerImpl.RED + "[!] El usuario " + ChatServerImpl.GREEN
+                                        + targetUsername + ChatServerImpl.RED + " no está conectado."
+                                        + ChatServerImpl.RESET));
+        } else if (target.bannedUsers.contains(connection.username)) {
+            connection.send(encodeLine(ChatServerImpl.RED + "[!] El usuario " + ChatServerImpl.GREEN
+                                        + targetUsername + ChatServerImpl.RED + " te ha vetado: no recibirá tu mensaje."
+                                        + ChatServerImpl.RESET));
+        } else {
+            String time = LocalTime.now().format(TIME_FORMAT);
+
+            target.send(encodeLine(ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Mensaje privado de " + ChatServerImpl.GREEN
+                                    + connection.username + ChatServerImpl.CYAN + " [" + time + "]: "
+                                    + ChatServerImpl.RESET + parts[2] + "\n"));
+            connection.send(encodeLine(ChatServerImpl.YELLOW + "[*] " + ChatServerImpl.CYAN + "Mensaje privado para " + ChatServerImpl.GREEN
+                                        + targetUsername + ChatServerImpl.CYAN + " [" + time + "]: "
+                                        + ChatServerImpl.RESET + parts[2] + "\n"));
+        }
+    }
+
+    /**
+     * Caso del apagado: como en ChatServerImpl, un cliente no puede apagar el servidor,
+     * solo su consola.
+     *
+     * @param connection Conexión que solicita el apagado
+     */
+    private void shutdownCase(Connection connection) {
+        connection.send(encodeLine(ChatServerImpl.RED + "[!] El servidor solo se puede apagar desde su consola." + ChatServerImpl.RESET));
+        this.log.warn("shutdown.rejected", "El usuario {user} ha intentado apagar el servidor.", connection.username);
+    }
+
+    /**
+     * Bucle de E/S con su propio Selector.
+     * Todas las lecturas y escrituras de las conexiones registradas en él
+     * se realizan desde su hilo, por lo que el estado de lectura no necesita sincronización.
+     */
+    private class IoLoop implements Runnable {
+
+        /** Selector del bucle. */
+        private final Selector selector;
+
+        /** Tareas pendientes de ejecutar en el hilo del bucle. */
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        /** Hilo del bucle. */
+        private final Thread thread;
+
+        /**
+         * Constructor de IoLoop.
+         *
+         * @param index Índice del bucle, usado en el nombre del hilo
+         * @throws IOException Si no se puede abrir el selector
+         */
+        IoLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "chat-nio-" + index);
+        }
+
+        /**
+         * Arranca el hilo del bucle.
+         */
+        void start() {
+            this.thread.start();
+        }
+
+        /**
+         * Despierta el selector para que procese tareas pendientes o detecte el apagado.
+         */
+        void wakeup() {
+            this.selector.wakeup();
+        }
+
+        /**
+         * Espera a que termine el hilo del bucle.
+         *
+         * @throws InterruptedException Si se interrumpe la espera
+         */
+        void join() throws InterruptedException {
+            this.thread.join();
+        }
+
+        /**
+         * Ejecuta una tarea en el hilo del bucle.
+         * Si se llama desde el propio hilo se ejecuta directamente.
+         *
+         * @param task Tarea a ejecutar
+         */
+        void execute(Runnable task) {
+            if (Thread.currentThread() == this.thread) {
+                task.run();
+            } else {
+                this.tasks.add(task);
+                this.selector.wakeup();
+            }
+        }
+
+        /**
+         * Registra un canal nuevo en este bucle.
+         *
+         * @param channel Canal aceptado en modo no bloqueante
+         */
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    Connection connection = new Connection(this, channel);
+                    connection.key = channel.register(this.selector, SelectionKey.OP_READ, connection);
+                } catch (ClosedChannelException closedChannelException) {
+                    /* El cliente se ha ido antes de registrarse. */
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (alive) {
+                    this.selector.select();
+
+                    Runnable task;
+                    while ((task = this.tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Set<SelectionKey> selectedKeys = this.selector.selectedKeys();
+                    Iterator<SelectionKey> iterator = selectedKeys.iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+
+                        Connection connection = (Connection) key.attachment();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isWritable()) {
+                            connection.flush();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                    }
+                }
+            } catch (IOException ioException) {
+                log.error("io.error", "Error en el bucle de E/S: {error}", ioException.getMessage());
+            } finally {
+                /* Último intento de entregar lo pendiente antes de cerrar. */
+                for (SelectionKey key : this.selector.keys()) {
+                    Connection connection = (Connection) key.attachment();
+                    connection.flush();
+                    connection.close();
+                }
+                try {
+                    this.selector.close();
+                } catch (IOException ioException) {
+                    /* Ignora las excepciones en este caso. */
+                }
+            }
+        }
+    }
+
+    /**
+     * Estado de una conexión atendida por un bucle de E/S.
+     */
+    private class Connection {
+
+        /** Bucle al que pertenece la conexión. */
+        private final IoLoop loop;
+
+        /** Canal del cliente. */
+        private final SocketChannel channel;
+
+        /** Clave de registro en el selector. */
+        private SelectionKey key;
+
+        /** Buffer de lectura. */
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(ChatServerNioImpl.READ_BUFFER_SIZE);
+
+        /** Bytes acumulados de la línea en curso. */
+        private final byte[] line = new byte[ChatServerNioImpl.MAX_LINE_LENGTH];
+
+        /** Longitud de la línea en curso. */
+        private int lineLength = 0;
+
+        /** Indica si se está descartando una línea demasiado larga. */
+        private boolean discarding = false;
+
+        /** Identificador del cliente, asignado tras el saludo. */
+        private volatile int id = -1;
+
+        /** Nombre de usuario, asignado tras el saludo. */
+        private volatile String username = null;
+
+        /** Usuarios vetados por este cliente. */
+        private final Set<String> bannedUsers = ConcurrentHashMap.newKeySet();
+
+        /** Buffers pendientes de escribir; sin espera en BLOCK para no parar nunca un bucle. */
+        private final OutboundQueue<ByteBuffer> outbound = new OutboundQueue<>(queueCapacity, overflowPolicy, 0);
+
+        /** Buffer que se está escribiendo. Ya ha salido de la cola, así que no se descarta a medias. */
+        private ByteBuffer writing = null;
+
+        /** Indica si hay un vaciado de la cola programado o en curso. */
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+        /** Indica si la conexión se cierra en cuanto se vacíe su cola. Solo se usa en el hilo del bucle. */
+        private boolean closing = false;
+
+        /** Momento en que se pidió el cierre ordenado, o 0 si no se ha pedido. */
+        private volatile long closeRequestedNanos = 0;
+
+        /** Momento en que se cerró el canal, o 0 si sigue abierto. */
+        private volatile long closedNanos = 0;
+
+        /** Se abre al cerrar el canal. */
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        /**
+         * Constructor de Connection.
+         *
+         * @param loop Bucle propietario
+         * @param channel Canal del cliente
+         */
+        Connection(IoLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        /**
+         * Encola un buffer para el cliente aplicando la política de desbordamiento.
+         * Puede llamarse desde cualquier hilo.
+         *
+         * @param buffer Buffer a enviar
+         */
+        void send(ByteBuffer buffer) {
+            if (!this.outbound.offer(buffer)) {
+                /* Con DISCONNECT se cierra al cliente que no lee; con las demás el mensaje ya se ha contado como descartado. */
+                if (this.outbound.getPolicy() == OverflowPolicy.DISCONNECT && !this.outbound.isClosed()) {
+                    this.loop.execute(this::close);
+                }
+                return;
+            }
+            if (this.flushScheduled.compareAndSet(false, true)) {
+                this.loop.execute(this::flush);
+            }
+        }
+
+        /**
+         * Escribe en el canal todo lo que admita sin bloquear.
+         * Solo se ejecuta en el hilo del bucle.
+         */
+        void flush() {
+            try {
+                while (true) {
+                    if (this.writing == null) {
+                        this.writing = this.outbound.poll();
+                    }
+                    while (this.writing != null) {
+                        this.channel.write(this.writing);
+                        if (this.writing.hasRemaining()) {
+                            /* El socket está lleno, se espera a que el selector avise. */
+                            if (this.key != null && this.key.isValid()) {
+                                this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                            }
+                            return;
+                        }
+                        this.writing = this.outbound.poll();
+                    }
+
+                    /* En el vaciado del servidor, lo último enviado es el aviso de reconexión. */
+                    if (this.closing) {
+                        close();
+                        return;
+                    }
+                    if (this.key != null && this.key.isValid()) {
+                        this.key.interestOps(SelectionKey.OP_READ);
+                    }
+                    this.flushScheduled.set(false);
+
+                    /* Otro hilo pudo encolar entre el último poll y la bajada del flag. */
+                    if (this.outbound.size() == 0 || !this.flushScheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                }
+            } catch (IOException ioException) {
+                close();
+            }
+        }
+
+        /**
+         * Lee del canal y separa las líneas completas.
+         * Solo se ejecuta en el hilo del bucle.
+         */
+        void read() {
+            int read;
+            try {
+                read = this.channel.read(this.readBuffer);
+            } catch (IOException ioException) {
+                read = -1;
+            }
+
+            if (read < 0) {
+                close();
+                return;
+            }
+
+            this.readBuffer.flip();
+            while (this.readBuffer.hasRemaining() && this.channel.isOpen()) {
+                byte current = this.readBuffer.get();
+
+                if (current == '\n') {
+                    if (!this.discarding) {
+                        int length = this.lineLength;
+                        if (length > 0 && this.line[length - 1] == '\r') {
+                            length--;
+                        }
+                        handleLine(this, new String(this.line, 0, length, StandardCharsets.UTF_8));
+                    }
+                    this.lineLength = 0;
+                    this.discarding = false;
+
+                } else if (!this.discarding) {
+                    if (this.lineLength == this.line.length) {
+                        this.discarding = true;
+                        send(encodeLine(ChatServerImpl.RED + "[!] Línea demasiado larga, se ha descartado." + ChatServerImpl.RESET));
+                    } else {
+                        this.line[this.lineLength++] = current;
+                    }
+                }
+            }
+            this.readBuffer.clear();
+        }
+
+        /**
+         * Encola el último mensaje y pide al bucle que cierre la conexión cuando lo haya enviado.
+         * Puede llamarse desde cualquier hilo.
+         *
+         * @param last Último buffer a enviar
+         */
+        void drain(ByteBuffer last) {
+            this.closeRequestedNanos = System.nanoTime();
+            send(last);
+            this.loop.execute(() -> {
+                this.closing = true;
+                flush();
+            });
+        }
+
+        /**
+         * Espera a que se cierre el canal.
+         *
+         * @param nanos Espera máxima en nanosegundos
+         * @throws InterruptedException Si se interrumpe la espera
+         */
+        void awaitClosed(long nanos) throws InterruptedException {
+            if (nanos > 0) {
+                this.closed.await(nanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * Indica si el canal ya está cerrado.
+         *
+         * @return true si la conexión ha terminado
+         */
+        boolean isClosed() {
+            return this.closedNanos != 0;
+        }
+
+        /**
+         * Obtiene lo que tardó el cierre ordenado: desde {@link #drain(ByteBuffer)} hasta que
+         * se envió lo pendiente y se cerró el canal.
+         *
+         * @return Duración del cierre en nanosegundos, o -1 si no hubo cierre ordenado o no ha terminado
+         */
+        long getCloseNanos() {
+            long requested = this.closeRequestedNanos;
+            long closedAt = this.closedNanos;
+            return requested == 0 || closedAt == 0 ? -1 : Math.max(0, closedAt - requested);
+        }
+
+        /**
+         * Cierra la conexión y la elimina del registro si seguía en él.
+         */
+        void close() {
+            if (this.outbound.isClosed()) {
+                return;
+            }
+            this.outbound.close();
+            if (this.key != null) {
+                this.key.cancel();
+            }
+            try {
+                this.channel.close();
+            } catch (IOException ioException) {
+                /* Ignora las excepciones en este caso. */
+            }
+            this.closedNanos = System.nanoTime();
+            this.closed.countDown();
+            if (this.username != null && clientsById.remove(this.id, this)) {
+                clientsByUsername.remove(this.username, this);
+                log.info("leave", "El cliente {user} ha salido del servidor.", this.username);
+            }
+
+            long dropped = this.outbound.getDropped();
+            droppedMessages.add(dropped);
+            if (dropped > 0) {
+                log.info("leave.dropped", "Mensajes de {user} descartados: {dropped} por tener la cola de salida llena.",
+                            this.username, dropped);
+            }
+        }
+    }
+}
@@ -0,0 +1,580 @@
+package es.ubu.lsi.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import es.ubu.lsi.common.ChatMessage.MessageType;
+import es.ubu.lsi.common.ChatMessageCodec;
+import es.ubu.lsi.common.ExecutionMode;
+
+/**
+ * Sesión de un cliente conectado al servidor de chat.
+ * Sustituye a la antigua lista posicional de objetos (id, socket, fecha, vetados)
+ * por campos tipados. Los envíos no escriben en el socket: se depositan en una
+ * cola de salida acotada que vacía un hilo escritor propio de la sesión, por lo que
+ * un cliente lento solo se retrasa a sí mismo. Lo que se encola son tramas ya
+ * codificadas, de modo que una difusión codifica el texto una única vez por protocolo
+ * y todos los destinatarios comparten los mismos bytes. Cada sesión usa el protocolo
+ * negociado en el saludo: líneas de texto o tramas binarias de {@link ChatMessageCodec}.
+ * Si el cliente pidió una sesión reanudable y pierde la conexión, la sesión queda desconectada
+ * pero registrada, y su cola sigue recibiendo lo que se le envía, hasta su capacidad, para
+ * entregárselo a la sesión que la reanude.
+ * 
+ * @version 1.0
+ * @since 1.0
+ * 
+ * @author Ibai Moya Aroz
+ * 
+ * @see es.ubu.lsi.server.SessionRegistry
+ * @see es.ubu.lsi.server.OutboundQueue
+ */
+final class ClientSession {
+
+    /** Identificador del cliente. */
+    private final int id;
+
+    /** Nombre de usuario del cliente. */
+    private final String username;
+
+    /** Conexión del cliente, que se cierra al terminar la sesión. */
+    private final Closeable connection;
+
+    /** Fecha de conexión. */
+    private final String connectedAt;
+
+    /** Si el cliente negoció el protocolo binario. */
+    private final boolean binary;
+
+    /** Usuarios vetados por este cliente; al registrarse se sustituye por la lista de su nombre de usuario. */
+    private volatile BanList bans = new BanList();
+
+    /** Índice del nombre de usuario en el {@link UserIndex} del registro, asignado al registrarse. */
+    private volatile int userIndex = -1;
+
+    /** Canal en el que está el cliente. */
+    private volatile String channel = ChannelIndex.DEFAULT_CHANNEL;
+
+    /** Canal de salida hacia el cliente, usado solo por el escritor. */
+    private final GatheringByteChannel output;
+
+    /** Cola de tramas pendientes de enviar. */
+    private final OutboundQueue<ByteBuffer> outbound;
+
+    /** Hilo escritor de la sesión. */
+    private Thread writer;
+
+    /** Instante, en nanosegundos, en que se pidió el cierre ordenado, o 0 si no se ha pedido. */
+    private volatile long closeRequestedNanos = 0;
+
+    /** Instante, en nanosegundos, en que se cerró el socket, o 0 si sigue abierto. */
+    private volatile long closedNanos = 0;
+
+    /** Mensajes descartados por superar el límite de ritmo. Solo lo incrementa el hilo lector. */
+    private volatile long throttled = 0;
+
+    /** Mensajes descartados por superar la longitud máxima. Solo lo incrementa el hilo lector. */
+    private volatile long oversized = 0;
+
+    /** Testigo con el que el cliente puede reanudar la sesión, o null si no la pidió reanudable. */
+    private volatile String resumeToken = null;
+
+    /** Si se ha perdido la conexión y la sesión espera a que el cliente la reanude. */
+    private volatile boolean detached = false;
+
+    /** Métricas del servidor en las que el escritor cuenta lo enviado, o null si no se miden. */
+    private ServerMetrics metrics = null;
+
+    /**
+     * Constructor de ClientSession.
+     * 
+     * @param id Identificador del cliente
+     * @param username Nombre de usuario del cliente
+     * @param socket Socket del cliente, aceptado desde un ServerSocketChannel
+     * @param binary Si el cliente negoció el protocolo binario
+     * @param connectedAt Fecha de conexión
+     * @param options Opciones del servidor con la configuración de la cola de salida
+     */
+    ClientSession(int id, String username, Socket socket, boolean binary, String connectedAt, ServerOptions options) {
+        this(id, username, socket.getChannel(), socket, binary, connectedAt, options);
+    }
+
+    /**
+     * Constructor de ClientSession sobre un canal cualquiera, lo que permite
+     * usar sustitutos en memoria del socket en las pruebas de rendimiento.
+     * 
+     * @param id Identificador del cliente
+     * @param username Nombre de usuario del cliente
+     * @param output Canal de salida hacia el cliente
+     * @param connection Conexión que se cierra al terminar la sesión
+     * @param binary Si el cliente negoció el protocolo binario
+     * @param connectedAt Fecha de conexión
+     * @param options Opciones del servidor con la configuración de la cola de salida
+     */
+    ClientSession(int id, String username, GatheringByteChannel output, Closeable connection, 
+                  boolean binary, String connectedAt, ServerOptions options) {
+        this.id = id;
+        this.username = username;
+        this.output = output;
+        this.connection = connection;
+        this.binary = binary;
+        this.connectedAt = connectedAt;
+        this.outbound = new OutboundQueue<>(options.getQueueCapacity(), options.getOverflowPolicy(), options.getBlockTimeoutMillis());
+    }
+
+    /**
+     * Constructor de ClientSession que reanuda una sesión desconectada sobre una conexión nueva.
+     * Conserva su identificador, su canal, sus vetos, su testigo y su cola, con lo que se perdió
+     * mientras estaba desconectada. El escritor de la sesión anterior debe haber terminado.
+     * 
+     * @param previous Sesión desconectada
+     * @param socket Socket de la conexión nueva, con el mismo protocolo que la anterior
+     */
+    ClientSession(ClientSession previous, Socket socket) {
+        this.id = previous.id;
+        this.username = previous.username;
+        this.output = socket.getChannel();
+        this.connection = socket;
+        this.binary = previous.binary;
+        this.connectedAt = previous.connectedAt;
+        this.outbound = previous.outbound;
+        this.resumeToken = previous.resumeToken;
+        this.channel = previous.channel;
+        this.userIndex = previous.userIndex;
+        this.bans = previous.bans;
+        this.metrics = previous.metrics;
+    }
+
+    /**
+     * Arranca el hilo escritor de la sesión.
+     * 
+     * @param mode Modo de ejecución del hilo
+     */
+    void start(ExecutionMode mode) {
+        this.writer = mode.newThread(this::writeLoop, "chat-writer-" + this.username, true);
+        this.writer.start();
+    }
+
+    /**
+     * Codifica una línea de texto en UTF-8, con su salto de línea, en una trama de solo lectura
+     * que se puede compartir entre todos los destinatarios.
+     * 
+     * @param line Línea a codificar
+     * @return Trama codificada
+     */
+    static ByteBuffer encode(String line) {
+        return ByteBuffer.wrap((line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Codifica y encola una línea del servidor solo para este cliente.
+     * 
+     * @param line Línea a enviar
+     */
+    void send(String line) {
+        send(MessageType.MESSAGE, line);
+    }
+
+    /**
+     * Codifica y encola un mensaje del servidor del tipo indicado solo para este cliente.
+     * 
+     * @param type Tipo del mensaje
+     * @param text Texto a enviar
+     */
+    void send(MessageType type, String text) {
+        send(frame(type, text));
+    }
+
+    /**
+     * Codifica un mensaje del servidor con el protocolo de este cliente.
+     * 
+     * @param type Tipo del mensaje
+     * @param text Texto del mensaje
+     * @return Trama codificada
+     */
+    ByteBuffer frame(MessageType type, String text) {
+        return this.binary ? ChatMessageCodec.encode(type, ChatMessageCodec.SERVER_ID, text) : ClientSession.encode(text);
+    }
+
+    /**
+     * Encola un mensaje compartido con la trama del protocolo de este cliente.
+     * 
+     * @param message Mensaje a enviar
+     */
+    void send(OutboundMessage message) {
+        send(message.frame(this.binary));
+    }
+
+    /**
+     * Encola un mensaje compartido con un plazo de espera de BLOCK común a toda la difusión.
+     * 
+     * @param message Mensaje a enviar
+     * @param deadlineNanos Instante, según {@link System#nanoTime()}, en que vence la espera
+     */
+    void send(OutboundMessage message, long deadlineNanos) {
+        send(message.frame(this.binary), deadlineNanos);
+    }
+
+    /**
+     * Encola una trama ya codificada. Puede llamarse desde cualquier hilo y con la misma
+     * trama para muchos clientes: cada uno recibe una vista propia que no copia los bytes.
+     * Si la cola está llena se aplica la política de desbordamiento; con DISCONNECT
+     * se cierra la conexión del cliente lento. Si la sesión está desconectada se descarta
+     * siempre el más antiguo.
+     * 
+     * @param frame Trama compartida a enviar
+     */
+    void send(ByteBuffer frame) {
+        send(frame, this.outbound.deadline());
+    }
+
+    /**
+     * Encola una trama ya codificada como {@link #send(ByteBuffer)}, pero con BLOCK espera
+     * como mucho hasta el plazo indicado.
+     * 
+     * @param frame Trama compartida a enviar
+     * @param deadlineNanos Instante, según {@link System#nanoTime()}, en que vence la espera
+     */
+    void send(ByteBuffer frame, long deadlineNanos) {
+        /* Desconectada, nadie vacía la cola: se guardan los más recientes sin esperar ni expulsar. */
+        if (this.detached) {
+            this.outbound.offer(frame.duplicate(), OverflowPolicy.DROP_OLDEST);
+        } else if (!this.outbound.offer(frame.duplicate(), deadlineNanos) && this.outbound.getPolicy() == OverflowPolicy.DISCONNECT) {
+            abort();
+        }
+    }
+
+    /**
+     * Escribe una trama directamente en la conexión, por delante de todo lo encolado.
+     * Solo puede usarse antes de {@link #start(ExecutionMode)}, para las respuestas del saludo.
+     * 
+     * @param frame Trama a escribir
+     * @throws IOException Si falla la escritura
+     */
+    void sendNow(ByteBuffer frame) throws IOException {
+        ByteBuffer view = frame.duplicate();
+        while (view.hasRemaining()) {
+            this.output.write(view);
+        }
+    }
+
+    /**
+     * Bucle del hilo escritor: extrae por lotes todo lo pendiente y lo envía
+     * con una escritura agrupada (gathering) por lote, sin copiar las tramas.
+     */
+    private void writeLoop() {
+        List<ByteBuffer> batch = new ArrayList<>();
+        ByteBuffer[] buffers = new ByteBuffer[16];
+        boolean failed = false;
+        try {
+            while (this.outbound.drainTo(batch) >= 0) {
+                int count = batch.size();
+                if (buffers.length < count) {
+                    buffers = new ByteBuffer[Math.max(count, buffers.length * 2)];
+                }
+                batch.toArray(buffers);
+                long bytes = 0;
+                for (int i = 0; i < count; i++) {
+                    bytes += buffers[i].remaining();
+                }
+
+                /* Un canal bloqueante puede escribir solo parte en cada llamada. */
+                while (buffers[count - 1].hasRemaining()) {
+                    this.output.write(buffers, 0, count);
+                }
+
+                if (this.metrics != null) {
+                    this.metrics.written(count, bytes);
+                }
+                Arrays.fill(buffers, 0, count, null);
+                batch.clear();
+            }
+        } catch (IOException | InterruptedException exception) {
+            /* El cliente ya no es alcanzable; se cierra su conexión. */
+            failed = true;
+        } finally {
+            /* Si la sesión es reanudable, la cola se conserva para quien la reanude. */
+            if (failed && this.resumeToken != null) {
+                detach();
+            } else {
+                abort();
+            }
+        }
+    }
+
+    /**
+     * Cierra la sesión de forma ordenada: no admite más mensajes,
+     * y el escritor envía lo pendiente antes de cerrar el socket.
+     */
+    void close() {
+        if (this.closeRequestedNanos == 0) {
+            this.closeRequestedNanos = System.nanoTime();
+        }
+        this.outbound.close();
+        if (this.writer == null) {
+            abort();
+        }
+    }
+
+    /**
+     * Espera a que el escritor termine de enviar lo pendiente tras {@link #close()}.
+     * 
+     * @param millis Espera máxima en milisegundos
+     * @throws InterruptedException Si se interrumpe la espera
+     */
+    void awaitClosed(long millis) throws InterruptedException {
+        if (this.writer != null && millis > 0) {
+            this.writer.join(millis);
+        }
+    }
+
+    /**
+     * Cierra inmediatamente el socket, descartando lo pendiente.
+     */
+    void abort() {
+        this.outbound.close();
+        closeConnection();
+    }
+
+    /**
+     * Cierra la conexión pero conserva la cola, que sigue recibiendo mensajes hasta que
+     * la sesión se reanude o caduque. Detiene el escritor si sigue en marcha.
+     */
+    void detach() {
+        this.detached = true;
+        closeConnection();
+        Thread current = this.writer;
+        if (current != null && current != Thread.currentThread()) {
+            current.interrupt();
+        }
+    }
+
+    /**
+     * Cierra el socket sin tocar la cola.
+     */
+    private void closeConnection() {
+        try {
+            this.connection.close();
+        } catch (IOException ioException) {
+            /* Ignora las excepciones en este caso. */
+        }
+        if (this.closedNanos == 0) {
+            this.closedNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Indica si el socket de la sesión ya está cerrado.
+     * 
+     * @return true si la sesión ha terminado
+     */
+    boolean isClosed() {
+        return this.closedNanos != 0;
+    }
+
+    /**
+     * Obtiene lo que tardó el cierre ordenado: desde {@link #close()} hasta que se
+     * envió lo pendiente y se cerró el socket.
+     * 
+     * @return Duración del cierre en nanosegundos, o -1 si no hubo cierre ordenado o no ha terminado
+     */
+    long getCloseNanos() {
+        long requested = this.closeRequestedNanos;
+        long closed = this.closedNanos;
+        return requested == 0 || closed == 0 ? -1 : Math.max(0, closed - requested);
+    }
+
+    /**
+     * Obtiene el identificador.
+     * 
+     * @return Identificador del cliente
+     */
+    int getId() {
+        return this.id;
+    }
+
+    /**
+     * Obtiene el nombre de usuario.
+     * 
+     * @return Nombre de usuario del cliente
+     */
+    String getUsername() {
+        return this.username;
+    }
+
+    /**
+     * Indica si el cliente usa el protocolo binario.
+     * 
+     * @return true si negoció tramas binarias, false si usa líneas de texto
+     */
+    boolean isBinary() {
+        return this.binary;
+    }
+
+    /**
+     * Obtiene la fecha de conexión.
+     * 
+     * @return Fecha de conexión formateada
+     */
+    String getConnectedAt() {
+        return this.connectedAt;
+    }
+
+    /**
+     * Obtiene la lista de usuarios vetados.
+     * 
+     * @return Lista de vetados, segura para leer mientras otro hilo la modifica
+     */
+    BanList getBans() {
+        return this.bans;
+    }
+
+    /**
+     * Establece la lista de vetados, que se conserva entre conexiones del mismo usuario.
+     * 
+     * @param bans Lista de vetados del nombre de usuario
+     */
+    void setBans(BanList bans) {
+        this.bans = bans;
+    }
+
+    /**
+     * Obtiene el índice del nombre de usuario.
+     * 
+     * @return Índice en el UserIndex del registro, o -1 si no está registrada
+     */
+    int getUserIndex() {
+        return this.userIndex;
+    }
+
+    /**
+     * Establece el índice del nombre de usuario.
+     * 
+     * @param userIndex Índice en el UserIndex del registro
+     */
+    void setUserIndex(int userIndex) {
+        this.userIndex = userIndex;
+    }
+
+    /**
+     * Obtiene el canal.
+     * 
+     * @return Nombre del canal en el que está el cliente
+     */
+    String getChannel() {
+        return this.channel;
+    }
+
+    /**
+     * Establece el canal. Solo debe llamarlo el registro, que mantiene el índice de canales.
+     * 
+     * @param channel Nombre del canal
+     */
+    void setChannel(String channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Número de mensajes pendientes en la cola de salida.
+     * 
+     * @return Profundidad de la cola
+     */
+    int getQueueDepth() {
+        return this.outbound.size();
+    }
+
+    /**
+     * Número de mensajes descartados por desbordamiento de la cola.
+     * 
+     * @return Mensajes descartados
+     */
+    long getDroppedMessages() {
+        return this.outbound.getDropped();
+    }
+
+    /**
+     * Cuenta un mensaje descartado por superar el límite de ritmo.
+     */
+    void countThrottled() {
+        this.throttled++;
+    }
+
+    /**
+     * Número de mensajes descartados por superar el límite de ritmo.
+     * 
+     * @return Mensajes descartados
+     */
+    long getThrottledMessages() {
+        return this.throttled;
+    }
+
+    /**
+     * Cuenta un mensaje descartado por superar la longitud máxima.
+     */
+    void countOversized() {
+        this.oversized++;
+    }
+
+    /**
+     * Número de mensajes descartados por superar la longitud máxima.
+     * 
+     * @return Mensajes descartados
+     */
+    long getOversizedMessages() {
+        return this.oversized;
+    }
+
+    /**
+     * Establece las métricas en las que se cuenta lo enviado. Debe hacerse antes de
+     * {@link #start(ExecutionMode)}.
+     * 
+     * @param metrics Métricas del servidor
+     */
+    void setMetrics(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Obtiene el testigo de reanudación.
+     * 
+     * @return Testigo, o null si la sesión no es reanudable
+     */
+    String getResumeToken() {
+        return this.resumeToken;
+    }
+
+    /**
+     * Indica si la sesión se puede guardar para reanudarla: tiene testigo y su cola sigue
+     * abierta. Una sesión expulsada con {@link #abort()}, por ejemplo por desbordar su cola
+     * con la política DISCONNECT, ya no puede recibir nada y no se reanuda.
+     * 
+     * @return true si la sesión es reanudable
+     */
+    boolean isResumable() {
+        return this.resumeToken != null && !this.outbound.isClosed();
+    }
+
+    /**
+     * Establece el testigo de reanudación. Debe hacerse antes de registrar la sesión.
+     * 
+     * @param resumeToken Testigo con el que el cliente podrá reanudar la sesión
+     */
+    void setResumeToken(String resumeToken) {
+        this.resumeToken = resumeToken;
+    }
+
+    /**
+     * Indica si la sesión ha perdido la conexión y espera a ser reanudada.
+     * 
+     * @return true si está desconectada
+     */
+    boolean isDetached() {
+        return this.detached;
+    }
+}
@@ -0,0 +1,455 @@
+package es.ubu.lsi.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import es.ubu.lsi.common.ExecutionMode;
+
+/**
+ * Federación de varios servidores de chat enlazados por TCP.
+ *
+ * Cada nodo escucha a los demás en su puerto de nodos y llama a los configurados, reintentando
+ * cada pocos segundos. Los enlaces deben formar una malla completa: cada nodo reenvía a todos
+ * sus vecinos solo lo que originan sus propios clientes, y nadie reenvía lo que recibe de otro
+ * nodo, así que los mensajes no dan vueltas. Cada trama lleva su nodo de origen, y se descarta
+ * la que vuelva a él. Si dos nodos se llaman mutuamente, ambos conservan el enlace abierto por
+ * el de identificador menor.
+ *
+ * Los nombres de usuario son únicos en toda la federación: antes de aceptar una conexión,
+ * el nodo pide el nombre a todos sus vecinos (CLAIM) y solo lo acepta si ninguno lo deniega.
+ * Cada nodo recuerda qué nombres están conectados en cada vecino hasta que se desconectan
+ * o se cae el enlace. Un vecino que no responde a tiempo no bloquea la entrada.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.server.PeerLink
+ * @see es.ubu.lsi.server.PeerFrame
+ */
+final class Federation {
+
+    /** Espera máxima a las respuestas de una petición de nombre, en milisegundos. */
+    private static final long CLAIM_TIMEOUT_MILLIS = 1000;
+
+    /** Intervalo entre intentos de conexión con los vecinos caídos, en milisegundos. */
+    private static final long RECONNECT_MILLIS = 2000;
+
+    /** Servidor local. */
+    private final ChatServerImpl server;
+
+    /** Identificador de este nodo. */
+    private final String nodeId;
+
+    /** Puerto en el que se aceptan enlaces de otros nodos, o 0 si solo se llama. */
+    private final int peerPort;
+
+    /** Direcciones de los vecinos a los que se llama. */
+    private final List<InetSocketAddress> peers;
+
+    /** Modo de ejecución de los hilos de los enlaces. */
+    private final ExecutionMode mode;
+
+    /** Enlaces activos por identificador del otro nodo. */
+    private final ConcurrentMap<String, PeerLink> links = new ConcurrentHashMap<>();
+
+    /** Nodo al que corresponde cada dirección llamada, conocido tras el primer saludo. */
+    private final ConcurrentMap<InetSocketAddress, String> peerIds = new ConcurrentHashMap<>();
+
+    /** Usuarios conectados en otros nodos, con el nodo en el que están. */
+    private final ConcurrentMap<String, String> remoteUsers = new ConcurrentHashMap<>();
+
+    /** Peticiones de nombre en curso, por secuencia. */
+    private final ConcurrentMap<Long, PendingClaim> claims = new ConcurrentHashMap<>();
+
+    /** Secuencia de las tramas de este nodo. */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /** Socket de escucha de los enlaces. */
+    private ServerSocket peerSocket = null;
+
+    /** Planificador de las llamadas a los vecinos. */
+    private ScheduledExecutorService dialer = null;
+
+    /** Indica si la federación está en marcha. */
+    private volatile boolean running = false;
+
+    /**
+     * Constructor de Federation.
+     *
+     * @param server Servidor local
+     * @param nodeId Identificador de este nodo, único en la federación
+     * @param peerPort Puerto de escucha de los enlaces, o 0 para no escuchar
+     * @param peers Direcciones de los vecinos a los que llamar
+     * @param mode Modo de ejecución de los hilos de los enlaces
+     */
+    Federation(ChatServerImpl server, String nodeId, int peerPort, List<InetSocketAddress> peers, ExecutionMode mode) {
+        this.server = server;
+        this.nodeId = nodeId;
+        this.peerPort = peerPort;
+        this.peers = peers;
+        this.mode = mode;
+    }
+
+    /**
+     * Empieza a escuchar y a llamar a los vecinos.
+     *
+     * @throws IOException Si no se puede abrir el puerto de nodos
+     */
+    void start() throws IOException {
+        this.running = true;
+
+        if (this.peerPort > 0) {
+            this.peerSocket = new ServerSocket(this.peerPort);
+            this.mode.newThread(this::acceptLoop, "chat-peer-acceptor", true).start();
+        }
+        if (!this.peers.isEmpty()) {
+            this.dialer = Executors.newSingleThreadScheduledExecutor(ExecutionMode.PLATFORM.threadFactory("chat-peer-dialer-", true));
+            this.dialer.scheduleWithFixedDelay(this::dialPeers, 0, Federation.RECONNECT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Cierra todos los enlaces y deja de escuchar y de llamar.
+     */
+    void stop() {
+        this.running = false;
+        if (this.dialer != null) {
+            this.dialer.shutdownNow();
+        }
+        if (this.peerSocket != null) {
+            try {
+                this.peerSocket.close();
+            } catch (IOException ioException) {
+                /* Ignora las excepciones en este caso. */
+            }
+        }
+        for (PeerLink link : this.links.values()) {
+            link.close();
+        }
+    }
+
+    /**
+     * Reenvía a los vecinos un mensaje de chat de un usuario local.
+     *
+     * @param username Emisor
+     * @param channel Canal del mensaje
+     * @param text Texto sin formato
+     */
+    void relayChat(String username, String channel, String text) {
+        sendToAll(new PeerFrame(PeerFrame.Kind.CHAT, this.nodeId, this.sequence.incrementAndGet(), username, channel, text));
+    }
+
+    /**
+     * Reenvía a los vecinos un aviso ya formateado sobre un usuario local.
+     *
+     * @param username Usuario al que se refiere el aviso, para filtrar por vetos
+     * @param channel Canal del aviso, o vacío para todos los clientes
+     * @param text Aviso formateado
+     */
+    void relayNotice(String username, String channel, String text) {
+        sendToAll(new PeerFrame(PeerFrame.Kind.NOTICE, this.nodeId, this.sequence.incrementAndGet(), username, channel, text));
+    }
+
+    /**
+     * Indica si un nombre de usuario está conectado en otro nodo.
+     *
+     * @param username Nombre de usuario
+     * @return true si algún vecino lo tiene conectado
+     */
+    boolean isRemote(String username) {
+        return this.remoteUsers.containsKey(username);
+    }
+
+    /**
+     * Pide un nombre de usuario a todos los vecinos para una conexión local nueva,
+     * que ya debe estar registrada en este nodo. Si alguno lo deniega, se libera en todos.
+     *
+     * @param username Nombre de usuario
+     * @return true si ningún vecino lo tiene conectado ni lo ha concedido a otro nodo
+     */
+    boolean claim(String username) {
+        Collection<PeerLink> targets = new ArrayList<>(this.links.values());
+        if (targets.isEmpty()) {
+            return true;
+        }
+
+        long claimId = this.sequence.incrementAndGet();
+        PendingClaim pending = new PendingClaim(targets.size());
+        this.claims.put(claimId, pending);
+        boolean granted;
+        try {
+            PeerFrame frame = new PeerFrame(PeerFrame.Kind.CLAIM, this.nodeId, claimId, username, "", "");
+            for (PeerLink link : targets) {
+                link.send(frame);
+            }
+            granted = pending.await(Federation.CLAIM_TIMEOUT_MILLIS);
+        } finally {
+            this.claims.remove(claimId);
+        }
+
+        if (!granted) {
+            release(username);
+        }
+        return granted;
+    }
+
+    /**
+     * Avisa a los vecinos de que un usuario local se ha desconectado.
+     *
+     * @param username Nombre de usuario
+     */
+    void release(String username) {
+        sendToAll(new PeerFrame(PeerFrame.Kind.RELEASE, this.nodeId, this.sequence.incrementAndGet(), username, "", ""));
+    }
+
+    /**
+     * Obtiene el identificador de este nodo.
+     *
+     * @return Identificador del nodo
+     */
+    String getNodeId() {
+        return this.nodeId;
+    }
+
+    /**
+     * Envía una trama a todos los enlaces activos.
+     *
+     * @param frame Trama a enviar
+     */
+    private void sendToAll(PeerFrame frame) {
+        for (PeerLink link : this.links.values()) {
+            link.send(frame);
+        }
+    }
+
+    /**
+     * Bucle del hilo que acepta enlaces de otros nodos.
+     */
+    private void acceptLoop() {
+        while (this.running) {
+            try {
+                Socket socket = this.peerSocket.accept();
+                this.mode.newThread(() -> connect(socket, false, null), "chat-peer-handshake", true).start();
+            } catch (IOException ioException) {
+                if (this.running) {
+                    this.server.getLog().error("federation.error", "Error al aceptar un enlace de nodo: {error}", ioException.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Llama a los vecinos configurados con los que no hay enlace.
+     */
+    private void dialPeers() {
+        for (InetSocketAddress address : this.peers) {
+            String peerId = this.peerIds.get(address);
+            if (!this.running || (peerId != null && (peerId.equals(this.nodeId) || this.links.containsKey(peerId)))) {
+                continue;
+            }
+            try {
+                Socket socket = new Socket();
+                socket.connect(address, (int) Federation.RECONNECT_MILLIS);
+                connect(socket, true, address);
+            } catch (IOException ioException) {
+                /* El vecino aún no está en marcha; se reintenta más tarde. */
+            }
+        }
+    }
+
+    /**
+     * Saluda a otro nodo y, si el enlace se conserva, lo arranca y le presenta los usuarios locales.
+     *
+     * @param socket Socket conectado
+     * @param dialed Si este nodo abrió la conexión
+     * @param address Dirección llamada, o null si el enlace se ha aceptado
+     */
+    private void connect(Socket socket, boolean dialed, InetSocketAddress address) {
+        PeerLink link;
+        try {
+            link = PeerLink.handshake(socket, this.nodeId, dialed);
+        } catch (IOException ioException) {
+            try {
+                socket.close();
+            } catch (IOException closeException) {
+                /* Ignora las excepciones en este caso. */
+            }
+            return;
+        }
+
+        String remoteId = link.getRemoteId();
+        if (address != null) {
+            this.peerIds.put(address, remoteId);
+        }
+        if (remoteId.equals(this.nodeId)) {
+            /* La lista de vecinos puede incluir al propio nodo, así se comparte entre todos; no se vuelve a llamar. */
+            link.close();
+            return;
+        }
+
+        PeerLink kept = this.links.merge(remoteId, link, (existing, candidate) -> {
+            if (!existing.isOpen()) {
+                return candidate;
+            }
+            /* Si ya hay enlace con ese nodo, ambos lados conservan el que abrió el de identificador menor. */
+            boolean keepCandidate = candidate.getDialerId().compareTo(existing.getDialerId()) < 0;
+            (keepCandidate ? existing : candidate).close();
+            return keepCandidate ? candidate : existing;
+        });
+        if (kept != link) {
+            return;
+        }
+
+        link.start(this.mode, frame -> onFrame(link, frame), () -> onClose(link));
+        for (String username : this.server.localUsernames()) {
+            link.send(new PeerFrame(PeerFrame.Kind.USER, this.nodeId, this.sequence.incrementAndGet(), username, "", ""));
+        }
+        this.server.getLog().info("federation.link", "Enlazado con el nodo {node}.", remoteId);
+    }
+
+    /**
+     * Atiende una trama recibida de un vecino.
+     *
+     * @param link Enlace por el que llega
+     * @param frame Trama recibida
+     */
+    private void onFrame(PeerLink link, PeerFrame frame) {
+        if (frame.getOrigin().equals(this.nodeId)) {
+            return;
+        }
+
+        switch (frame.getKind()) {
+            case CHAT:
+                this.server.deliverRemoteChat(frame.getUsername(), frame.getChannel(), frame.getText());
+                break;
+
+            case NOTICE:
+                this.server.deliverRemoteNotice(frame.getUsername(), frame.getChannel(), frame.getText());
+                break;
+
+            case CLAIM:
+                boolean granted = grant(frame.getUsername(), frame.getOrigin());
+                link.send(new PeerFrame(granted ? PeerFrame.Kind.GRANT : PeerFrame.Kind.DENY, this.nodeId,
+                                        frame.getSequence(), frame.getUsername(), "", ""));
+                break;
+
+            case GRANT:
+            case DENY:
+                PendingClaim pending = this.claims.get(frame.getSequence());
+                if (pending != null) {
+                    pending.answer(frame.getKind() == PeerFrame.Kind.GRANT);
+                }
+                break;
+
+            case RELEASE:
+                this.remoteUsers.remove(frame.getUsername(), frame.getOrigin());
+                break;
+
+            case USER:
+                this.remoteUsers.putIfAbsent(frame.getUsername(), frame.getOrigin());
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Decide si se concede un nombre a otro nodo. Se reserva primero y se comprueba después
+     * el registro local, mientras que una entrada local se registra primero y comprueba
+     * después las reservas: en una carrera, al menos uno de los dos ve al otro.
+     *
+     * @param username Nombre pedido
+     * @param claimant Nodo que lo pide
+     * @return true si se concede
+     */
+    private boolean grant(String username, String claimant) {
+        String owner = this.remoteUsers.putIfAbsent(username, claimant);
+        if (owner != null && !owner.equals(claimant)) {
+            return false;
+        }
+        if (this.server.hasLocalUser(username)) {
+            this.remoteUsers.remove(username, claimant);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Olvida un enlace cerrado y los usuarios del nodo al otro lado.
+     *
+     * @param link Enlace cerrado
+     */
+    private void onClose(PeerLink link) {
+        String remoteId = link.getRemoteId();
+        if (this.links.remove(remoteId, link)) {
+            this.remoteUsers.values().removeIf(remoteId::equals);
+            if (this.running) {
+                this.server.getLog().info("federation.unlink", "Se ha perdido el enlace con el nodo {node}.", remoteId);
+            }
+        }
+    }
+
+    /**
+     * Petición de nombre en curso: espera la respuesta de cada vecino consultado.
+     */
+    private static final class PendingClaim {
+
+        /** Respuestas pendientes. */
+        private final CountDownLatch answers;
+
+        /** Si algún vecino ha denegado el nombre. */
+        private volatile boolean denied = false;
+
+        /**
+         * Constructor de PendingClaim.
+         *
+         * @param peers Vecinos consultados
+         */
+        PendingClaim(int peers) {
+            this.answers = new CountDownLatch(peers);
+        }
+
+        /**
+         * Registra la respuesta de un vecino.
+         *
+         * @param granted Si la respuesta es afirmativa
+         */
+        void answer(boolean granted) {
+            if (!granted) {
+                this.denied = true;
+            }
+            this.answers.countDown();
+        }
+
+        /**
+         * Espera las respuestas. Los vecinos que no responden a tiempo cuentan como afirmativos.
+         *
+         * @param timeoutMillis Espera máxima
+         * @return true si ningún vecino ha denegado el nombre
+         */
+        boolean await(long timeoutMillis) {
+            try {
+                this.answers.await(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return !this.denied;
+        }
+    }
+}
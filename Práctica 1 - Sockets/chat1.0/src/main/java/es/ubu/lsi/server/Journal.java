@@ -0,0 +1,629 @@
+package es.ubu.lsi.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import es.ubu.lsi.common.ExecutionMode;
+
+/**
+ * Diario de solo escritura al final con los mensajes de chat, vetos e indultos del servidor,
+ * para reconstruir su estado tras un reinicio.
+ *
+ * Se escribe en segmentos de tamaño fijo proyectados en memoria; cuando uno se llena se pasa
+ * al siguiente. Quien difunde solo encola el suceso, y un único hilo escritor vacía la cola
+ * por lotes y fuerza cada lote a disco de una vez (commit en grupo), de modo que la persistencia
+ * no añade latencia a la difusión.
+ *
+ * Cada registro es: longitud del cuerpo (int), CRC32 del cuerpo (int) y el cuerpo con el tipo
+ * (byte), el instante (long), el usuario y el objetivo (short + UTF-8) y el texto (int + UTF-8).
+ * Una longitud 0 marca el final; la lectura también se detiene en el primer registro con la
+ * suma de control incorrecta, que es lo que deja una escritura a medias.
+ *
+ * Para que ni el disco ni el arranque crezcan sin límite, el diario lleva la cuenta de lo único
+ * que se recupera: los vetos vigentes y los últimos mensajes que caben en el historial. Al pasar
+ * a un segmento nuevo lo empieza con ese estado (una marca {@link JournalEvent.Kind#SNAPSHOT}
+ * seguida de los vetos y los mensajes), escrito aparte y renombrado de una vez, y borra los
+ * segmentos anteriores. Al recuperar se lee desde el último segmento compactado.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.server.JournalEvent
+ */
+final class Journal {
+
+    /** Tamaño por defecto de cada segmento, en bytes. */
+    static final int DEFAULT_SEGMENT_BYTES = 8 * 1024 * 1024;
+
+    /** Tamaño mínimo de un segmento: le tiene que caber el mensaje más largo. */
+    static final int MIN_SEGMENT_BYTES = 1024 * 1024;
+
+    /** Sucesos pendientes de escribir como máximo; si se llena, quien difunde espera un poco. */
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+
+    /** Espera máxima de quien difunde cuando la cola está llena, en milisegundos. */
+    private static final long QUEUE_TIMEOUT_MILLIS = 1000;
+
+    /** Longitud y suma de control de cada registro. */
+    private static final int HEADER_SIZE = 8;
+
+    /** Marca de final tras el último registro. */
+    private static final int END_MARK_SIZE = 4;
+
+    /** Prefijo de los ficheros de segmento. */
+    private static final String PREFIX = "segment-";
+
+    /** Extensión de los ficheros de segmento. */
+    private static final String SUFFIX = ".journal";
+
+    /** Extensión del segmento compactado mientras se escribe. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** Directorio del diario. */
+    private final File directory;
+
+    /** Tamaño de los segmentos nuevos. */
+    private final int segmentBytes;
+
+    /** Sucesos pendientes de escribir. */
+    private final OutboundQueue<JournalEvent> pending;
+
+    /** Registro del servidor, para los errores del hilo escritor. */
+    private final ServerLog log;
+
+    /** Mensajes que se recuperan como máximo, los del historial del servidor. */
+    private final int historyCapacity;
+
+    /** Vetos vigentes de cada usuario, con el suceso que los creó. Lo usa la recuperación y después el hilo escritor. */
+    private final Map<String, Map<String, JournalEvent>> bans = new LinkedHashMap<>();
+
+    /** Últimos mensajes, como mucho {@link #historyCapacity}. Lo usa la recuperación y después el hilo escritor. */
+    private final ArrayDeque<JournalEvent> recent = new ArrayDeque<>();
+
+    /** Suma de control, usada solo por el hilo escritor. */
+    private final CRC32 crc = new CRC32();
+
+    /** Número del segmento actual. */
+    private int segmentNumber = 0;
+
+    /** Posición de escritura en el segmento actual tras la recuperación. */
+    private int recoveredPosition = 0;
+
+    /** Segmentos leídos en la recuperación. */
+    private int recoveredSegments = 0;
+
+    /** Fichero del segmento actual. */
+    private RandomAccessFile file = null;
+
+    /** Segmento actual proyectado en memoria. */
+    private MappedByteBuffer segment = null;
+
+    /** Hilo escritor. */
+    private Thread writer = null;
+
+    /** Sucesos escritos desde el arranque. */
+    private volatile long written = 0;
+
+    /**
+     * Constructor de Journal.
+     *
+     * @param directory Directorio del diario, que se crea si no existe
+     * @param segmentBytes Tamaño de los segmentos nuevos
+     * @param historyCapacity Mensajes que se recuperan como máximo, 0 para no recuperar ninguno
+     * @param log Registro del servidor
+     */
+    Journal(String directory, int segmentBytes, int historyCapacity, ServerLog log) {
+        this.directory = new File(directory);
+        this.segmentBytes = Math.max(Journal.MIN_SEGMENT_BYTES, segmentBytes);
+        this.historyCapacity = Math.max(0, historyCapacity);
+        this.log = log;
+        this.pending = new OutboundQueue<>(Journal.QUEUE_CAPACITY, OverflowPolicy.BLOCK, Journal.QUEUE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Lee los sucesos guardados desde el último segmento compactado y entrega, en orden, los
+     * vetos vigentes y los últimos mensajes, no todo lo leído. Deja el diario listo para seguir
+     * escribiendo tras el último registro válido. Se llama una vez, antes de {@link #start}.
+     *
+     * @param consumer Receptor de cada suceso recuperado
+     * @return Número de sucesos leídos
+     * @throws IOException Si no se puede crear el directorio o leer un segmento
+     */
+    int recover(Consumer<JournalEvent> consumer) throws IOException {
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("No se puede crear el directorio del diario " + this.directory);
+        }
+        deleteTempFiles();
+
+        /* Lo anterior al último segmento compactado ya está resumido en él; solo queda si se
+           cortó el borrado tras compactar. */
+        File[] files = segmentFiles();
+        int first = 0;
+        for (int i = files.length - 1; i > 0; i--) {
+            if (startsWithSnapshot(files[i])) {
+                first = i;
+                break;
+            }
+        }
+        for (int i = 0; i < first; i++) {
+            delete(files[i]);
+        }
+
+        int count = 0;
+        for (int i = first; i < files.length; i++) {
+            this.segmentNumber = segmentNumber(files[i]);
+            try (RandomAccessFile input = new RandomAccessFile(files[i], "r")) {
+                MappedByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+                count += readSegment(buffer);
+                this.recoveredPosition = buffer.position();
+            }
+        }
+        this.recoveredSegments = files.length - first;
+
+        for (Map<String, JournalEvent> userBans : this.bans.values()) {
+            userBans.values().forEach(consumer);
+        }
+        this.recent.forEach(consumer);
+        return count;
+    }
+
+    /**
+     * Abre el segmento actual para escribir y arranca el hilo escritor.
+     *
+     * @param mode Modo de ejecución del hilo escritor
+     * @throws IOException Si no se puede abrir el segmento
+     */
+    void start(ExecutionMode mode) throws IOException {
+        /* Si se ha leído más de un segmento, se compacta ya para no volver a leerlos. */
+        if (this.recoveredSegments > 1) {
+            compact(this.segmentNumber + 1);
+        } else {
+            openSegment(Math.max(1, this.segmentNumber), this.recoveredPosition);
+        }
+        this.writer = mode.newThread(this::writeLoop, "chat-journal", true);
+        this.writer.start();
+    }
+
+    /**
+     * Encola un suceso para escribirlo. No toca el disco.
+     *
+     * @param event Suceso a guardar
+     * @return true si ha quedado encolado; false si el diario está cerrado o saturado
+     */
+    boolean append(JournalEvent event) {
+        return this.pending.offer(event);
+    }
+
+    /**
+     * Escribe los sucesos pendientes, los fuerza a disco y cierra el diario.
+     *
+     * @throws InterruptedException Si se interrumpe la espera al escritor
+     */
+    void close() throws InterruptedException {
+        this.pending.close();
+        if (this.writer != null) {
+            this.writer.join();
+        }
+    }
+
+    /**
+     * Obtiene los sucesos escritos desde el arranque.
+     *
+     * @return Sucesos escritos
+     */
+    long getWritten() {
+        return this.written;
+    }
+
+    /**
+     * Obtiene los sucesos descartados porque la cola estaba llena o el diario cerrado.
+     *
+     * @return Sucesos descartados
+     */
+    long getDropped() {
+        return this.pending.getDropped();
+    }
+
+    /**
+     * Bucle del hilo escritor: cada lote se escribe en el segmento y se fuerza a disco una sola vez.
+     */
+    private void writeLoop() {
+        List<JournalEvent> batch = new ArrayList<>();
+        try {
+            while (this.pending.drainTo(batch) != -1) {
+                for (JournalEvent event : batch) {
+                    write(event);
+                }
+                if (this.segment.remaining() >= Journal.END_MARK_SIZE) {
+                    this.segment.putInt(this.segment.position(), 0);
+                }
+                this.segment.force();
+                this.written += batch.size();
+                batch.clear();
+            }
+        } catch (IOException ioException) {
+            this.log.error("journal.error", "Error al escribir el diario, se deja de guardar: {error}", ioException.getMessage());
+            this.pending.close();
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeSegment();
+        }
+    }
+
+    /**
+     * Escribe un suceso en el segmento actual, pasando al siguiente si no cabe.
+     *
+     * @param event Suceso a escribir
+     * @throws IOException Si no se puede abrir el segmento siguiente
+     */
+    private void write(JournalEvent event) throws IOException {
+        byte[] body = encode(event);
+
+        if (body == null || Journal.HEADER_SIZE + body.length + Journal.END_MARK_SIZE > this.segmentBytes) {
+            this.log.warn("journal.oversized", "Mensaje de {user} demasiado largo para el diario, no se guarda.", event.getUsername());
+            return;
+        }
+
+        if (!fits(body)) {
+            this.segment.force();
+            closeSegment();
+            compact(this.segmentNumber + 1);
+
+            /* Si tras el resumen no queda sitio para el suceso, va en un segmento más. */
+            if (!fits(body)) {
+                this.segment.force();
+                closeSegment();
+                openSegment(this.segmentNumber + 1, 0);
+            }
+        }
+
+        put(body);
+        apply(event);
+    }
+
+    /**
+     * Empieza un segmento nuevo con los vetos vigentes y los últimos mensajes, y borra los
+     * anteriores. El segmento se escribe con otro nombre y se renombra al terminar, así que
+     * si existe está completo. Si el resumen ocupa más de medio segmento, no se compacta.
+     *
+     * @param number Número del segmento nuevo
+     * @throws IOException Si no se puede escribir o renombrar el segmento
+     */
+    private void compact(int number) throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        records.add(encode(JournalEvent.snapshot()));
+        for (Map<String, JournalEvent> userBans : this.bans.values()) {
+            for (JournalEvent ban : userBans.values()) {
+                records.add(encode(ban));
+            }
+        }
+        for (JournalEvent message : this.recent) {
+            records.add(encode(message));
+        }
+
+        long size = Journal.END_MARK_SIZE;
+        for (byte[] record : records) {
+            size += Journal.HEADER_SIZE + record.length;
+        }
+        if (size > this.segmentBytes / 2) {
+            this.log.warn("journal.compact", "El estado del diario ocupa {bytes} bytes, demasiado para compactarlo; se conservan los segmentos.",
+                            size);
+            openSegment(number, 0);
+            return;
+        }
+
+        File target = segmentFile(number);
+        File temp = new File(this.directory, target.getName() + Journal.TEMP_SUFFIX);
+        openSegment(temp, number, 0);
+        for (byte[] record : records) {
+            put(record);
+        }
+        int position = this.segment.position();
+        this.segment.putInt(position, 0);
+        this.segment.force();
+        closeSegment();
+
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        openSegment(number, position);
+
+        for (File segmentFile : segmentFiles()) {
+            if (segmentNumber(segmentFile) < number) {
+                delete(segmentFile);
+            }
+        }
+    }
+
+    /**
+     * Codifica el cuerpo de un registro.
+     *
+     * @param event Suceso a codificar
+     * @return Cuerpo del registro, o null si el usuario o el objetivo son demasiado largos
+     */
+    private static byte[] encode(JournalEvent event) {
+        byte[] username = event.getUsername().getBytes(StandardCharsets.UTF_8);
+        byte[] target = event.getTarget().getBytes(StandardCharsets.UTF_8);
+        byte[] text = event.getText().getBytes(StandardCharsets.UTF_8);
+        if (username.length > 0xFFFF || target.length > 0xFFFF) {
+            return null;
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(1 + 8 + 2 + username.length + 2 + target.length + 4 + text.length);
+        body.put(event.getKind().getCode());
+        body.putLong(event.getTimestamp());
+        body.putShort((short) username.length).put(username);
+        body.putShort((short) target.length).put(target);
+        body.putInt(text.length).put(text);
+        return body.array();
+    }
+
+    /**
+     * Indica si un registro cabe en lo que queda del segmento actual, con la marca de final.
+     *
+     * @param body Cuerpo del registro
+     * @return true si cabe
+     */
+    private boolean fits(byte[] body) {
+        return Journal.HEADER_SIZE + body.length + Journal.END_MARK_SIZE <= this.segment.remaining();
+    }
+
+    /**
+     * Escribe un registro en la posición actual del segmento, que debe tener sitio.
+     *
+     * @param body Cuerpo del registro
+     */
+    private void put(byte[] body) {
+        int start = this.segment.position();
+        this.segment.position(start + Journal.HEADER_SIZE);
+        this.segment.put(body);
+        this.crc.reset();
+        this.crc.update(body, 0, body.length);
+
+        /* La longitud va la última: hasta que se escribe, el registro no existe para la lectura. */
+        this.segment.putInt(start + 4, (int) this.crc.getValue());
+        this.segment.putInt(start, body.length);
+    }
+
+    /**
+     * Aplica un suceso al estado que se recupera: los vetos vigentes y los últimos mensajes.
+     *
+     * @param event Suceso leído o escrito
+     */
+    private void apply(JournalEvent event) {
+        switch (event.getKind()) {
+            case MESSAGE:
+                if (this.historyCapacity > 0) {
+                    if (this.recent.size() == this.historyCapacity) {
+                        this.recent.pollFirst();
+                    }
+                    this.recent.addLast(event);
+                }
+                break;
+
+            case BAN:
+                this.bans.computeIfAbsent(event.getUsername(), username -> new LinkedHashMap<>()).put(event.getTarget(), event);
+                break;
+
+            case UNBAN:
+                Map<String, JournalEvent> userBans = this.bans.get(event.getUsername());
+                if (userBans != null) {
+                    userBans.remove(event.getTarget());
+                    if (userBans.isEmpty()) {
+                        this.bans.remove(event.getUsername());
+                    }
+                }
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Lee los registros válidos de un segmento y los aplica al estado que se recupera.
+     *
+     * @param buffer Segmento proyectado; queda en la posición tras el último registro válido
+     * @return Número de sucesos leídos
+     */
+    private int readSegment(ByteBuffer buffer) {
+        CRC32 check = new CRC32();
+        int count = 0;
+
+        while (buffer.remaining() >= Journal.HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if (length <= 0 || length > buffer.remaining() - Journal.HEADER_SIZE) {
+                break;
+            }
+
+            ByteBuffer body = buffer.duplicate();
+            body.position(start + Journal.HEADER_SIZE).limit(start + Journal.HEADER_SIZE + length);
+            check.reset();
+            check.update(body.duplicate());
+            if ((int) check.getValue() != buffer.getInt(start + 4)) {
+                break;
+            }
+
+            JournalEvent event = decode(body);
+            if (event == null) {
+                break;
+            }
+            apply(event);
+            count++;
+            buffer.position(start + Journal.HEADER_SIZE + length);
+        }
+        return count;
+    }
+
+    /**
+     * Decodifica el cuerpo de un registro.
+     *
+     * @param body Cuerpo del registro
+     * @return Suceso leído, o null si el cuerpo no es válido
+     */
+    private static JournalEvent decode(ByteBuffer body) {
+        try {
+            JournalEvent.Kind kind = JournalEvent.Kind.of(body.get());
+            long timestamp = body.getLong();
+            String username = readString(body, body.getShort() & 0xFFFF);
+            String target = readString(body, body.getShort() & 0xFFFF);
+            String text = readString(body, body.getInt());
+            return kind == null ? null : new JournalEvent(kind, timestamp, username, target, text);
+        } catch (BufferUnderflowException | IllegalArgumentException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * Lee una cadena UTF-8 de la longitud indicada.
+     *
+     * @param body Cuerpo del registro
+     * @param length Longitud en bytes
+     * @return Cadena leída
+     */
+    private static String readString(ByteBuffer body, int length) {
+        if (length < 0 || length > body.remaining()) {
+            throw new IllegalArgumentException("Longitud no válida: " + length);
+        }
+        byte[] bytes = new byte[length];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Indica si un segmento empieza por la marca de segmento compactado.
+     *
+     * @param segmentFile Fichero de segmento
+     * @return true si su primer registro es la marca
+     * @throws IOException Si no se puede leer
+     */
+    private static boolean startsWithSnapshot(File segmentFile) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(segmentFile, "r")) {
+            if (input.length() < Journal.HEADER_SIZE + 1) {
+                return false;
+            }
+            int length = input.readInt();
+            input.seek(Journal.HEADER_SIZE);
+            return length > 0 && input.readByte() == JournalEvent.Kind.SNAPSHOT.getCode();
+        }
+    }
+
+    /**
+     * Abre un segmento para escribir, creándolo con el tamaño fijo si no existe.
+     *
+     * @param number Número del segmento
+     * @param position Posición de escritura
+     * @throws IOException Si no se puede abrir o proyectar
+     */
+    private void openSegment(int number, int position) throws IOException {
+        openSegment(segmentFile(number), number, position);
+    }
+
+    /**
+     * Abre un fichero como segmento para escribir, creándolo con el tamaño fijo si no existe.
+     *
+     * @param segmentFile Fichero del segmento
+     * @param number Número del segmento
+     * @param position Posición de escritura
+     * @throws IOException Si no se puede abrir o proyectar
+     */
+    private void openSegment(File segmentFile, int number, int position) throws IOException {
+        this.file = new RandomAccessFile(segmentFile, "rw");
+        if (this.file.length() < this.segmentBytes) {
+            this.file.setLength(this.segmentBytes);
+        }
+        this.segment = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.file.length());
+        this.segment.position(position);
+        this.segmentNumber = number;
+    }
+
+    /**
+     * Cierra el fichero del segmento actual. La proyección se libera cuando la recoge el recolector.
+     */
+    private void closeSegment() {
+        if (this.file != null) {
+            try {
+                this.file.close();
+            } catch (IOException ioException) {
+                /* Ignora las excepciones en este caso. */
+            }
+            this.file = null;
+        }
+    }
+
+    /**
+     * Obtiene el fichero de un segmento.
+     *
+     * @param number Número del segmento
+     * @return Fichero del segmento
+     */
+    private File segmentFile(int number) {
+        return new File(this.directory, String.format("%s%08d%s", Journal.PREFIX, number, Journal.SUFFIX));
+    }
+
+    /**
+     * Borra un segmento que ya no hace falta. Si no se puede, se vuelve a intentar en el siguiente arranque.
+     *
+     * @param segmentFile Fichero de segmento
+     */
+    private void delete(File segmentFile) {
+        if (!segmentFile.delete()) {
+            this.log.warn("journal.delete", "No se ha podido borrar el segmento {file} del diario.", segmentFile.getName());
+        }
+    }
+
+    /**
+     * Borra los segmentos compactados que no se llegaron a terminar.
+     */
+    private void deleteTempFiles() {
+        File[] files = this.directory.listFiles((dir, name) -> name.endsWith(Journal.SUFFIX + Journal.TEMP_SUFFIX));
+        if (files != null) {
+            for (File temp : files) {
+                delete(temp);
+            }
+        }
+    }
+
+    /**
+     * Obtiene los ficheros de segmento del directorio, en orden.
+     *
+     * @return Segmentos ordenados por número
+     */
+    private File[] segmentFiles() {
+        File[] files = this.directory.listFiles((dir, name) -> name.matches(Journal.PREFIX + "\\d+\\" + Journal.SUFFIX));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Obtiene el número de un fichero de segmento a partir de su nombre.
+     *
+     * @param segmentFile Fichero de segmento
+     * @return Número del segmento
+     */
+    private static int segmentNumber(File segmentFile) {
+        String name = segmentFile.getName();
+        return Integer.parseInt(name.substring(Journal.PREFIX.length(), name.length() - Journal.SUFFIX.length()));
+    }
+}
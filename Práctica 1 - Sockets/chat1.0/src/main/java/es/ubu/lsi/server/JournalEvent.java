@@ -0,0 +1,180 @@
+package es.ubu.lsi.server;
+
+/**
+ * Suceso que el servidor guarda en el diario: un mensaje de chat difundido,
+ * o un veto o un indulto. Los usuarios se guardan por nombre, que es lo único
+ * estable entre arranques del servidor.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.server.Journal
+ */
+final class JournalEvent {
+
+    /**
+     * Tipos de suceso. El código es el byte que se escribe en el diario y no debe cambiar.
+     */
+    enum Kind {
+
+        /** Mensaje de chat: el objetivo es el canal. */
+        MESSAGE(1),
+
+        /** Veto: el objetivo es el usuario vetado. */
+        BAN(2),
+
+        /** Indulto: el objetivo es el usuario indultado. */
+        UNBAN(3),
+
+        /** Principio de un segmento compactado: lo siguen los vetos vigentes y los mensajes recientes. */
+        SNAPSHOT(4);
+
+        /** Código en el diario. */
+        private final byte code;
+
+        /**
+         * Constructor de Kind.
+         *
+         * @param code Código en el diario
+         */
+        Kind(int code) {
+            this.code = (byte) code;
+        }
+
+        /**
+         * Obtiene el código en el diario.
+         *
+         * @return Código del tipo
+         */
+        byte getCode() {
+            return this.code;
+        }
+
+        /**
+         * Obtiene el tipo de un código leído del diario.
+         *
+         * @param code Código leído
+         * @return Tipo correspondiente, o null si el código no es válido
+         */
+        static Kind of(byte code) {
+            for (Kind kind : Kind.values()) {
+                if (kind.code == code) {
+                    return kind;
+                }
+            }
+            return null;
+        }
+    }
+
+    /** Tipo del suceso. */
+    private final Kind kind;
+
+    /** Instante del suceso, en milisegundos desde la época. */
+    private final long timestamp;
+
+    /** Usuario que lo origina. */
+    private final String username;
+
+    /** Canal del mensaje, o usuario vetado o indultado. */
+    private final String target;
+
+    /** Texto del mensaje sin formato, vacío en vetos e indultos. */
+    private final String text;
+
+    /**
+     * Constructor de JournalEvent.
+     *
+     * @param kind Tipo del suceso
+     * @param timestamp Instante en milisegundos desde la época
+     * @param username Usuario que lo origina
+     * @param target Canal del mensaje, o usuario vetado o indultado
+     * @param text Texto del mensaje sin formato, vacío en vetos e indultos
+     */
+    JournalEvent(Kind kind, long timestamp, String username, String target, String text) {
+        this.kind = kind;
+        this.timestamp = timestamp;
+        this.username = username;
+        this.target = target;
+        this.text = text;
+    }
+
+    /**
+     * Crea el suceso de un mensaje de chat difundido ahora.
+     *
+     * @param username Emisor
+     * @param channel Canal del mensaje
+     * @param text Texto sin formato
+     * @return Suceso nuevo
+     */
+    static JournalEvent message(String username, String channel, String text) {
+        return new JournalEvent(Kind.MESSAGE, System.currentTimeMillis(), username, channel, text);
+    }
+
+    /**
+     * Crea el suceso de un veto o un indulto hecho ahora.
+     *
+     * @param kind BAN o UNBAN
+     * @param username Usuario que veta o indulta
+     * @param target Usuario vetado o indultado
+     * @return Suceso nuevo
+     */
+    static JournalEvent ban(Kind kind, String username, String target) {
+        return new JournalEvent(kind, System.currentTimeMillis(), username, target, "");
+    }
+
+    /**
+     * Crea la marca que abre un segmento compactado.
+     *
+     * @return Suceso nuevo
+     */
+    static JournalEvent snapshot() {
+        return new JournalEvent(Kind.SNAPSHOT, System.currentTimeMillis(), "", "", "");
+    }
+
+    /**
+     * Obtiene el tipo.
+     *
+     * @return Tipo del suceso
+     */
+    Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Obtiene el instante.
+     *
+     * @return Milisegundos desde la época
+     */
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Obtiene el usuario que origina el suceso.
+     *
+     * @return Nombre de usuario
+     */
+    String getUsername() {
+        return username;
+    }
+
+    /**
+     * Obtiene el objetivo.
+     *
+     * @return Canal del mensaje, o usuario vetado o indultado
+     */
+    String getTarget() {
+        return target;
+    }
+
+    /**
+     * Obtiene el texto.
+     *
+     * @return Texto del mensaje sin formato
+     */
+    String getText() {
+        return text;
+    }
+}
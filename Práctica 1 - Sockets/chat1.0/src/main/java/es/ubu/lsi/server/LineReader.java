@@ -0,0 +1,143 @@
+package es.ubu.lsi.server;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Lector de líneas de texto con longitud máxima.
+ * A diferencia de {@link java.io.BufferedReader#readLine()}, no acumula sin límite una línea
+ * muy larga: lee en un buffer que se reutiliza y solo crece, hasta la longitud máxima, cuando
+ * llega una línea más larga que las anteriores; si la línea no cabe la descarta hasta el salto
+ * de línea sin crear ningún objeto. Solo se crea la cadena de las líneas aceptadas,
+ * al pedirla con {@link #line()}.
+ * No es seguro entre hilos: lo usa solo el hilo lector de la sesión.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.server.ServerOptions#getMaxLineLength()
+ */
+final class LineReader {
+
+    /** Resultado de {@link #read()} cuando el flujo ha terminado. */
+    static final int END_OF_STREAM = -1;
+
+    /** Resultado de {@link #read()} cuando la línea supera la longitud máxima y se ha descartado. */
+    static final int TOO_LONG = -2;
+
+    /** Tamaño del buffer de lectura. */
+    private static final int CHUNK_SIZE = 8192;
+
+    /** Tamaño inicial del buffer de la línea en curso. */
+    private static final int INITIAL_LINE_SIZE = 256;
+
+    /** Flujo de entrada. */
+    private final Reader input;
+
+    /** Buffer de lectura. */
+    private final char[] chunk = new char[LineReader.CHUNK_SIZE];
+
+    /** Línea en curso; crece hasta {@link #capacity}. */
+    private char[] line;
+
+    /** Tamaño máximo del buffer de la línea: la longitud máxima más el retorno de carro. */
+    private final int capacity;
+
+    /** Posición de lectura en el buffer. */
+    private int position = 0;
+
+    /** Caracteres válidos en el buffer. */
+    private int limit = 0;
+
+    /** Longitud de la última línea leída. */
+    private int length = 0;
+
+    /**
+     * Constructor de LineReader.
+     *
+     * @param input Flujo de entrada, sin buffer propio
+     * @param maxLength Longitud máxima de una línea, en caracteres
+     */
+    LineReader(Reader input, int maxLength) {
+        this.input = input;
+        /* Un carácter más para el retorno de carro que precede al salto. */
+        this.capacity = maxLength + 1;
+        this.line = new char[Math.min(this.capacity, LineReader.INITIAL_LINE_SIZE)];
+    }
+
+    /**
+     * Lee la siguiente línea sin el salto de línea.
+     *
+     * @return Longitud de la línea, {@link #END_OF_STREAM} o {@link #TOO_LONG}
+     * @throws IOException Si ocurre un error de lectura
+     */
+    int read() throws IOException {
+        int count = 0;
+        boolean tooLong = false;
+
+        while (true) {
+            if (this.position == this.limit) {
+                this.limit = this.input.read(this.chunk, 0, this.chunk.length);
+                this.position = 0;
+                if (this.limit <= 0) {
+                    this.limit = 0;
+                    /* Como BufferedReader, la última línea sin salto también cuenta. */
+                    if (count == 0 && !tooLong) {
+                        return LineReader.END_OF_STREAM;
+                    }
+                    break;
+                }
+            }
+
+            /* Se busca el salto en lo leído y se copia de una vez lo que quepa. */
+            int end = this.position;
+            while (end < this.limit && this.chunk[end] != '\n') {
+                end++;
+            }
+            if (count + end - this.position > this.line.length && this.line.length < this.capacity) {
+                grow(count + end - this.position);
+            }
+            int copied = Math.min(end - this.position, this.line.length - count);
+            System.arraycopy(this.chunk, this.position, this.line, count, copied);
+            count += copied;
+            tooLong |= copied < end - this.position;
+
+            if (end < this.limit) {
+                this.position = end + 1;
+                break;
+            }
+            this.position = end;
+        }
+
+        if (count > 0 && this.line[count - 1] == '\r') {
+            count--;
+        }
+        if (tooLong || count > this.capacity - 1) {
+            return LineReader.TOO_LONG;
+        }
+        this.length = count;
+        return count;
+    }
+
+    /**
+     * Agranda el buffer de la línea conservando lo copiado, como mucho hasta {@link #capacity}.
+     *
+     * @param needed Caracteres que deberían caber
+     */
+    private void grow(int needed) {
+        int size = Math.min(this.capacity, Math.max(needed, this.line.length * 2));
+        this.line = Arrays.copyOf(this.line, size);
+    }
+
+    /**
+     * Obtiene la última línea leída con éxito.
+     *
+     * @return Línea sin el salto de línea
+     */
+    String line() {
+        return new String(this.line, 0, this.length);
+    }
+}
@@ -0,0 +1,114 @@
+package es.ubu.lsi.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Historial acotado de los últimos mensajes de chat difundidos, para repetirlos a quien entra.
+ * Es un búfer circular sin cerrojos: cada difusión reserva un número de secuencia con un
+ * incremento atómico y publica su entrada en la casilla correspondiente, pisando la más antigua.
+ * Se guardan los mensajes ya formateados, con sus tramas en caché, así que repetirlos
+ * no vuelve a formatear ni a codificar nada.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.server.OutboundMessage
+ */
+final class MessageHistory {
+
+    /** Casillas del búfer; la entrada con secuencia s va en la casilla s % capacidad. */
+    private final AtomicReferenceArray<Entry> slots;
+
+    /** Número de mensajes que caben en el historial. */
+    private final int capacity;
+
+    /** Secuencia del siguiente mensaje. */
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * Constructor de MessageHistory.
+     *
+     * @param capacity Número de mensajes que caben, 0 para no guardar ninguno
+     */
+    MessageHistory(int capacity) {
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(Math.max(1, capacity));
+    }
+
+    /**
+     * Guarda un mensaje difundido.
+     *
+     * @param message Mensaje ya formateado
+     * @param channel Canal en el que se difundió
+     * @param senderIndex Índice interno del emisor, para filtrar por vetos al repetirlo
+     */
+    void record(OutboundMessage message, String channel, int senderIndex) {
+        if (this.capacity == 0) {
+            return;
+        }
+        long sequence = this.next.getAndIncrement();
+        this.slots.set((int) (sequence % this.capacity), new Entry(sequence, message, channel, senderIndex));
+    }
+
+    /**
+     * Envía a una sesión los mensajes guardados de su canal, del más antiguo al más reciente,
+     * salvo los de usuarios que tiene vetados. Las casillas que otra difusión está
+     * sobrescribiendo en ese momento se saltan: ese mensaje le llega al cliente en directo.
+     *
+     * @param session Sesión que acaba de entrar
+     * @return Mensajes enviados
+     */
+    int replay(ClientSession session) {
+        long end = this.next.get();
+        String channel = session.getChannel();
+        BanList bans = session.getBans();
+        int sent = 0;
+
+        for (long sequence = Math.max(0, end - this.capacity); sequence < end; sequence++) {
+            Entry entry = this.slots.get((int) (sequence % this.capacity));
+
+            if (entry != null && entry.sequence == sequence && entry.channel.equals(channel)
+                    && !bans.contains(entry.senderIndex)) {
+                session.send(entry.message);
+                sent++;
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Entrada del historial.
+     */
+    private static final class Entry {
+
+        /** Secuencia del mensaje, para detectar casillas ya sobrescritas. */
+        private final long sequence;
+
+        /** Mensaje ya formateado. */
+        private final OutboundMessage message;
+
+        /** Canal en el que se difundió. */
+        private final String channel;
+
+        /** Índice interno del emisor. */
+        private final int senderIndex;
+
+        /**
+         * Constructor de Entry.
+         *
+         * @param sequence Secuencia del mensaje
+         * @param message Mensaje ya formateado
+         * @param channel Canal en el que se difundió
+         * @param senderIndex Índice interno del emisor
+         */
+        Entry(long sequence, OutboundMessage message, String channel, int senderIndex) {
+            this.sequence = sequence;
+            this.message = message;
+            this.channel = channel;
+            this.senderIndex = senderIndex;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package es.ubu.lsi.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Punto de acceso HTTP mínimo que sirve las métricas del servidor en {@value #PATH},
+ * con el servidor HTTP que incluye el JDK. Atiende las peticiones en un único hilo propio,
+ * así que leer las métricas no quita tiempo a los hilos de los clientes.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.server.ServerMetrics
+ */
+final class MetricsEndpoint {
+
+    /** Ruta de las métricas. */
+    static final String PATH = "/metrics";
+
+    /** Tipo de contenido del formato de texto de Prometheus. */
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** Servidor HTTP. */
+    private final HttpServer server;
+
+    /** Generador del informe. */
+    private final Supplier<String> report;
+
+    /**
+     * Constructor de MetricsEndpoint. Reserva el puerto, pero no atiende hasta {@link #start()}.
+     *
+     * @param port Puerto HTTP
+     * @param report Generador del informe de métricas
+     * @throws IOException Si no se puede abrir el puerto
+     */
+    MetricsEndpoint(int port, Supplier<String> report) throws IOException {
+        this.report = report;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.createContext(MetricsEndpoint.PATH, this::handle);
+    }
+
+    /**
+     * Empieza a atender peticiones.
+     */
+    void start() {
+        this.server.start();
+    }
+
+    /**
+     * Deja de atender peticiones y libera el puerto.
+     */
+    void stop() {
+        this.server.stop(0);
+    }
+
+    /**
+     * Responde a una petición con el informe, o con 405 si no es GET.
+     *
+     * @param exchange Petición HTTP
+     * @throws IOException Si falla la respuesta
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = this.report.get().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", MetricsEndpoint.CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package es.ubu.lsi.server;
+
+import java.nio.ByteBuffer;
+
+import es.ubu.lsi.common.ChatMessage.MessageType;
+import es.ubu.lsi.common.ChatMessageCodec;
+
+/**
+ * Mensaje ya formateado que el servidor envía a uno o varios clientes.
+ * Guarda la trama de cada protocolo la primera vez que se pide, de forma que
+ * una difusión codifica el texto como mucho una vez para los clientes de texto
+ * y otra para los clientes binarios, y todos los destinatarios comparten los bytes.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.common.ChatMessageCodec
+ * @see es.ubu.lsi.server.ClientSession
+ */
+final class OutboundMessage {
+
+    /** Tipo del mensaje. */
+    private final MessageType type;
+
+    /** Identificador del emisor. */
+    private final int senderId;
+
+    /** Texto formateado del mensaje. */
+    private final String text;
+
+    /** Trama del protocolo de texto, creada bajo demanda. */
+    private volatile ByteBuffer textFrame = null;
+
+    /** Trama del protocolo binario, creada bajo demanda. */
+    private volatile ByteBuffer binaryFrame = null;
+
+    /**
+     * Constructor de OutboundMessage.
+     *
+     * @param type Tipo del mensaje
+     * @param senderId Identificador del emisor
+     * @param text Texto formateado del mensaje
+     */
+    OutboundMessage(MessageType type, int senderId, String text) {
+        this.type = type;
+        this.senderId = senderId;
+        this.text = text;
+    }
+
+    /**
+     * Obtiene la trama compartida del protocolo indicado. Si dos hilos la piden a la vez
+     * puede codificarse dos veces, pero ambas tramas son equivalentes.
+     *
+     * @param binary true para el protocolo binario, false para el de texto
+     * @return Trama de solo lectura
+     */
+    ByteBuffer frame(boolean binary) {
+        ByteBuffer frame;
+        if (binary) {
+            frame = this.binaryFrame;
+            if (frame == null) {
+                frame = ChatMessageCodec.encode(this.type, this.senderId, this.text).asReadOnlyBuffer();
+                this.binaryFrame = frame;
+            }
+        } else {
+            frame = this.textFrame;
+            if (frame == null) {
+                frame = ClientSession.encode(this.text);
+                this.textFrame = frame;
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Obtiene el tipo.
+     *
+     * @return Tipo del mensaje
+     */
+    MessageType getType() {
+        return this.type;
+    }
+
+    /**
+     * Obtiene el identificador del emisor.
+     *
+     * @return Identificador del emisor
+     */
+    int getSenderId() {
+        return this.senderId;
+    }
+
+    /**
+     * Obtiene el texto.
+     *
+     * @return Texto formateado del mensaje
+     */
+    String getText() {
+        return this.text;
+    }
+}
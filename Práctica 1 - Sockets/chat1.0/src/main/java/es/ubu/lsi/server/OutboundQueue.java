@@ -0,0 +1,278 @@
+package es.ubu.lsi.server;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cola de salida acotada de un cliente.
+ * Los hilos que difunden mensajes solo encolan, y un único hilo escritor por cliente
+ * la vacía por lotes, de modo que un cliente lento no frena al resto.
+ * Cuando se llena se aplica la política de desbordamiento configurada.
+ * 
+ * @param <T> Tipo de los elementos encolados
+ * 
+ * @version 1.0
+ * @since 1.0
+ * 
+ * @author Ibai Moya Aroz
+ * 
+ * @see es.ubu.lsi.server.OverflowPolicy
+ */
+final class OutboundQueue<T> {
+
+    /** Elementos pendientes. */
+    private final ArrayDeque<T> items;
+
+    /** Capacidad máxima. */
+    private final int capacity;
+
+    /** Política de desbordamiento. */
+    private final OverflowPolicy policy;
+
+    /** Tiempo máximo de espera de la política BLOCK, en nanosegundos. */
+    private final long blockTimeoutNanos;
+
+    /** Cerrojo que protege la cola. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Condición de cola no vacía. */
+    private final Condition notEmpty = this.lock.newCondition();
+
+    /** Condición de cola no llena. */
+    private final Condition notFull = this.lock.newCondition();
+
+    /** Indica si la cola se ha cerrado. */
+    private boolean closed = false;
+
+    /** Número de elementos descartados por desbordamiento. */
+    private long dropped = 0;
+
+    /**
+     * Constructor de OutboundQueue.
+     * 
+     * @param capacity Capacidad máxima
+     * @param policy Política de desbordamiento
+     * @param blockTimeoutMillis Tiempo máximo de espera de la política BLOCK, en milisegundos
+     */
+    OutboundQueue(int capacity, OverflowPolicy policy, long blockTimeoutMillis) {
+        this.capacity = Math.max(1, capacity);
+        this.items = new ArrayDeque<>(Math.min(this.capacity, 64));
+        this.policy = policy;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+    }
+
+    /**
+     * Encola un elemento aplicando la política de desbordamiento si la cola está llena.
+     * 
+     * @param item Elemento a encolar
+     * @return true si el elemento ha quedado encolado; false si la cola está cerrada,
+     *         si vence la espera de BLOCK o si la política es DISCONNECT y no había sitio
+     */
+    boolean offer(T item) {
+        return offer(item, this.policy, deadline());
+    }
+
+    /**
+     * Encola un elemento con un plazo ya calculado para la política BLOCK. Quien difunde
+     * a muchos clientes calcula el plazo una sola vez y lo comparte entre todas las colas,
+     * de modo que la difusión entera espera como mucho el tiempo de BLOCK y no ese tiempo
+     * por cada cola llena.
+     * 
+     * @param item Elemento a encolar
+     * @param deadlineNanos Instante, según {@link System#nanoTime()}, en que vence la espera
+     * @return true si el elemento ha quedado encolado, en las mismas condiciones que {@link #offer(Object)}
+     */
+    boolean offer(T item, long deadlineNanos) {
+        return offer(item, this.policy, deadlineNanos);
+    }
+
+    /**
+     * Encola un elemento aplicando la política indicada en lugar de la configurada,
+     * por ejemplo para no esperar por una cola que ahora no vacía nadie.
+     * 
+     * @param item Elemento a encolar
+     * @param policy Política de desbordamiento para este elemento
+     * @return true si el elemento ha quedado encolado, en las mismas condiciones que {@link #offer(Object)}
+     */
+    boolean offer(T item, OverflowPolicy policy) {
+        return offer(item, policy, deadline());
+    }
+
+    /**
+     * Calcula el plazo de la espera de BLOCK para un envío que empieza ahora.
+     * 
+     * @return Instante, según {@link System#nanoTime()}, en que vencería la espera
+     */
+    long deadline() {
+        return System.nanoTime() + this.blockTimeoutNanos;
+    }
+
+    /**
+     * Encola un elemento con la política y el plazo indicados.
+     * 
+     * @param item Elemento a encolar
+     * @param policy Política de desbordamiento para este elemento
+     * @param deadlineNanos Instante en que vence la espera de BLOCK
+     * @return true si el elemento ha quedado encolado
+     */
+    private boolean offer(T item, OverflowPolicy policy, long deadlineNanos) {
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                return false;
+            }
+
+            if (this.items.size() >= this.capacity) {
+                switch (policy) {
+                    case DROP_OLDEST:
+                        this.items.pollFirst();
+                        this.dropped++;
+                        break;
+
+                    case BLOCK:
+                        long remaining = deadlineNanos - System.nanoTime();
+                        while (this.items.size() >= this.capacity && !this.closed && remaining > 0) {
+                            remaining = this.notFull.awaitNanos(remaining);
+                        }
+                        if (this.closed || this.items.size() >= this.capacity) {
+                            this.dropped++;
+                            return false;
+                        }
+                        break;
+
+                    case DISCONNECT:
+                    default:
+                        this.dropped++;
+                        return false;
+                }
+            }
+
+            this.items.addLast(item);
+            this.notEmpty.signal();
+            return true;
+
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            this.dropped++;
+            return false;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Espera a que haya elementos y los pasa todos a la lista indicada.
+     * 
+     * @param batch Lista en la que se depositan los elementos
+     * @return Número de elementos extraídos, o -1 si la cola está cerrada y vacía
+     * @throws InterruptedException Si se interrumpe la espera
+     */
+    int drainTo(List<T> batch) throws InterruptedException {
+        this.lock.lock();
+        try {
+            while (this.items.isEmpty()) {
+                if (this.closed) {
+                    return -1;
+                }
+                this.notEmpty.await();
+            }
+
+            int count = this.items.size();
+            T item;
+            while ((item = this.items.pollFirst()) != null) {
+                batch.add(item);
+            }
+            this.notFull.signalAll();
+            return count;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Extrae el elemento más antiguo sin esperar, para quien vacía la cola desde un bucle
+     * que no puede bloquearse.
+     * 
+     * @return El elemento extraído, o null si la cola está vacía
+     */
+    T poll() {
+        this.lock.lock();
+        try {
+            T item = this.items.pollFirst();
+            if (item != null) {
+                this.notFull.signalAll();
+            }
+            return item;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Cierra la cola. Los elementos ya encolados se pueden seguir extrayendo.
+     */
+    void close() {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.notEmpty.signalAll();
+            this.notFull.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Indica si la cola se ha cerrado.
+     * 
+     * @return true si ya no admite elementos
+     */
+    boolean isClosed() {
+        this.lock.lock();
+        try {
+            return this.closed;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Número de elementos pendientes.
+     * 
+     * @return Profundidad actual de la cola
+     */
+    int size() {
+        this.lock.lock();
+        try {
+            return this.items.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Número de elementos descartados por desbordamiento.
+     * 
+     * @return Elementos descartados
+     */
+    long getDropped() {
+        this.lock.lock();
+        try {
+            return this.dropped;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Obtiene la política de desbordamiento.
+     * 
+     * @return Política de desbordamiento
+     */
+    OverflowPolicy getPolicy() {
+        return this.policy;
+    }
+}
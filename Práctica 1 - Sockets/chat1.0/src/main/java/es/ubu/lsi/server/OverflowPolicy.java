@@ -0,0 +1,37 @@
+package es.ubu.lsi.server;
+
+import java.util.Locale;
+
+/**
+ * Política que se aplica cuando la cola de salida de un cliente está llena,
+ * es decir, cuando el cliente lee más despacio de lo que se le envía.
+ * 
+ * @version 1.0
+ * @since 1.0
+ * 
+ * @author Ibai Moya Aroz
+ * 
+ * @see es.ubu.lsi.server.OutboundQueue
+ */
+public enum OverflowPolicy {
+
+    /** Descarta el mensaje más antiguo de la cola para hacer sitio al nuevo. */
+    DROP_OLDEST,
+
+    /** Desconecta al cliente lento. */
+    DISCONNECT,
+
+    /** Bloquea al emisor hasta que haya sitio o venza el tiempo de espera; si vence, descarta el mensaje nuevo. */
+    BLOCK;
+
+    /**
+     * Obtiene la política a partir de su nombre en la línea de comandos (drop-oldest, disconnect, block).
+     * 
+     * @param name Nombre de la política, sin distinguir mayúsculas
+     * @return La política correspondiente
+     * @throws IllegalArgumentException Si el nombre no corresponde a ninguna política
+     */
+    public static OverflowPolicy fromName(String name) {
+        return OverflowPolicy.valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+}
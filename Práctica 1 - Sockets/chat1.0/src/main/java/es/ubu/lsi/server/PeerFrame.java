@@ -0,0 +1,219 @@
+package es.ubu.lsi.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Trama del enlace entre servidores de una federación.
+ * Todas las tramas tienen los mismos campos, vacíos cuando el tipo no los usa:
+ * tipo (byte), nodo de origen (UTF), secuencia (long), usuario (UTF), canal (UTF)
+ * y texto (int + UTF-8). El nodo de origen evita que un mensaje vuelva a quien lo creó.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.server.Federation
+ */
+final class PeerFrame {
+
+    /** Tamaño máximo del texto de una trama, en bytes. */
+    private static final int MAX_TEXT = 1024 * 1024;
+
+    /**
+     * Tipos de trama. El código es el byte que viaja por el enlace y no debe cambiar.
+     */
+    enum Kind {
+
+        /** Mensaje de chat de un usuario del nodo de origen, sin formato. */
+        CHAT(1),
+
+        /** Aviso ya formateado para un canal, o para todos si el canal va vacío. */
+        NOTICE(2),
+
+        /** Petición de un nombre de usuario para una conexión nueva. */
+        CLAIM(3),
+
+        /** Respuesta afirmativa a CLAIM, con su misma secuencia. */
+        GRANT(4),
+
+        /** Respuesta negativa a CLAIM, con su misma secuencia. */
+        DENY(5),
+
+        /** Un usuario del nodo de origen se ha desconectado. */
+        RELEASE(6),
+
+        /** Un usuario ya conectado en el nodo de origen, enviado al establecer el enlace. */
+        USER(7);
+
+        /** Código en el enlace. */
+        private final byte code;
+
+        /**
+         * Constructor de Kind.
+         *
+         * @param code Código en el enlace
+         */
+        Kind(int code) {
+            this.code = (byte) code;
+        }
+
+        /**
+         * Obtiene el tipo de un código recibido.
+         *
+         * @param code Código recibido
+         * @return Tipo correspondiente
+         * @throws IOException Si el código no es válido
+         */
+        static Kind of(byte code) throws IOException {
+            for (Kind kind : Kind.values()) {
+                if (kind.code == code) {
+                    return kind;
+                }
+            }
+            throw new IOException("Tipo de trama de nodo desconocido: " + code);
+        }
+    }
+
+    /** Tipo de la trama. */
+    private final Kind kind;
+
+    /** Nodo que creó la trama. */
+    private final String origin;
+
+    /** Secuencia de la trama en su nodo de origen; las respuestas repiten la de la petición. */
+    private final long sequence;
+
+    /** Usuario al que se refiere la trama. */
+    private final String username;
+
+    /** Canal del mensaje o del aviso. */
+    private final String channel;
+
+    /** Texto del mensaje o del aviso. */
+    private final String text;
+
+    /**
+     * Constructor de PeerFrame.
+     *
+     * @param kind Tipo de la trama
+     * @param origin Nodo que la crea
+     * @param sequence Secuencia en el nodo de origen
+     * @param username Usuario al que se refiere
+     * @param channel Canal, vacío si no aplica
+     * @param text Texto, vacío si no aplica
+     */
+    PeerFrame(Kind kind, String origin, long sequence, String username, String channel, String text) {
+        this.kind = kind;
+        this.origin = origin;
+        this.sequence = sequence;
+        this.username = username;
+        this.channel = channel;
+        this.text = text;
+    }
+
+    /**
+     * Escribe la trama en el enlace, sin vaciar el flujo.
+     *
+     * @param output Flujo del enlace
+     * @throws IOException Si falla la escritura
+     */
+    void write(DataOutputStream output) throws IOException {
+        byte[] textBytes = this.text.getBytes(StandardCharsets.UTF_8);
+        output.writeByte(this.kind.code);
+        output.writeUTF(this.origin);
+        output.writeLong(this.sequence);
+        output.writeUTF(this.username);
+        output.writeUTF(this.channel);
+        output.writeInt(textBytes.length);
+        output.write(textBytes);
+    }
+
+    /**
+     * Lee la siguiente trama del enlace.
+     *
+     * @param input Flujo del enlace
+     * @return Trama leída, o null si el otro nodo ha cerrado el enlace
+     * @throws IOException Si la trama no es válida o se corta a medias
+     */
+    static PeerFrame read(DataInputStream input) throws IOException {
+        int code = input.read();
+        if (code < 0) {
+            return null;
+        }
+        try {
+            Kind kind = Kind.of((byte) code);
+            String origin = input.readUTF();
+            long sequence = input.readLong();
+            String username = input.readUTF();
+            String channel = input.readUTF();
+            int length = input.readInt();
+            if (length < 0 || length > PeerFrame.MAX_TEXT) {
+                throw new IOException("Longitud de texto no válida: " + length);
+            }
+            byte[] textBytes = new byte[length];
+            input.readFully(textBytes);
+            return new PeerFrame(kind, origin, sequence, username, channel, new String(textBytes, StandardCharsets.UTF_8));
+        } catch (EOFException eofException) {
+            throw new IOException("Trama de nodo incompleta.", eofException);
+        }
+    }
+
+    /**
+     * Obtiene el tipo.
+     *
+     * @return Tipo de la trama
+     */
+    Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Obtiene el nodo de origen.
+     *
+     * @return Identificador del nodo que creó la trama
+     */
+    String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Obtiene la secuencia.
+     *
+     * @return Secuencia en el nodo de origen
+     */
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Obtiene el usuario.
+     *
+     * @return Usuario al que se refiere la trama
+     */
+    String getUsername() {
+        return username;
+    }
+
+    /**
+     * Obtiene el canal.
+     *
+     * @return Canal, vacío si no aplica
+     */
+    String getChannel() {
+        return channel;
+    }
+
+    /**
+     * Obtiene el texto.
+     *
+     * @return Texto, vacío si no aplica
+     */
+    String getText() {
+        return text;
+    }
+}
@@ -0,0 +1,208 @@
+package es.ubu.lsi.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import es.ubu.lsi.common.ExecutionMode;
+
+/**
+ * Enlace TCP con otro servidor de la federación.
+ * Como las sesiones de cliente, tiene una cola de salida acotada que vacía su propio
+ * hilo escritor, de modo que un nodo lento no frena las difusiones; si la cola se llena,
+ * el enlace se cierra y se vuelve a establecer más tarde. Otro hilo lee las tramas entrantes.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.server.Federation
+ * @see es.ubu.lsi.server.PeerFrame
+ */
+final class PeerLink {
+
+    /** Saludo del enlace, seguido del identificador del nodo. */
+    static final String HANDSHAKE = "PEER/1";
+
+    /** Tramas pendientes de enviar como máximo antes de dar el enlace por perdido. */
+    private static final int QUEUE_CAPACITY = 4096;
+
+    /** Espera máxima al saludo del otro nodo, en milisegundos. */
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+
+    /** Socket del enlace. */
+    private final Socket socket;
+
+    /** Flujo de entrada. */
+    private final DataInputStream input;
+
+    /** Flujo de salida, usado solo por el escritor. */
+    private final DataOutputStream output;
+
+    /** Identificador del otro nodo. */
+    private final String remoteId;
+
+    /** Identificador del nodo que abrió la conexión. */
+    private final String dialerId;
+
+    /** Tramas pendientes de enviar. */
+    private final OutboundQueue<PeerFrame> outbound = new OutboundQueue<>(PeerLink.QUEUE_CAPACITY, OverflowPolicy.DISCONNECT, 0);
+
+    /** Indica si el enlace sigue abierto. */
+    private volatile boolean open = true;
+
+    /**
+     * Constructor de PeerLink.
+     *
+     * @param socket Socket del enlace
+     * @param input Flujo de entrada tras el saludo
+     * @param output Flujo de salida tras el saludo
+     * @param remoteId Identificador del otro nodo
+     * @param dialerId Identificador del nodo que abrió la conexión
+     */
+    private PeerLink(Socket socket, DataInputStream input, DataOutputStream output, String remoteId, String dialerId) {
+        this.socket = socket;
+        this.input = input;
+        this.output = output;
+        this.remoteId = remoteId;
+        this.dialerId = dialerId;
+    }
+
+    /**
+     * Intercambia el saludo con el otro nodo.
+     *
+     * @param socket Socket recién conectado o aceptado
+     * @param localId Identificador de este nodo
+     * @param dialed Si este nodo abrió la conexión
+     * @return Enlace sin arrancar
+     * @throws IOException Si el saludo falla o no es válido
+     */
+    static PeerLink handshake(Socket socket, String localId, boolean dialed) throws IOException {
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(PeerLink.HANDSHAKE_TIMEOUT_MILLIS);
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        output.writeUTF(PeerLink.HANDSHAKE + " " + localId);
+        output.flush();
+
+        String greeting = input.readUTF();
+        if (!greeting.startsWith(PeerLink.HANDSHAKE + " ")) {
+            throw new IOException("Saludo de nodo no válido: " + greeting);
+        }
+        socket.setSoTimeout(0);
+
+        String remoteId = greeting.substring(PeerLink.HANDSHAKE.length() + 1);
+        return new PeerLink(socket, input, output, remoteId, dialed ? localId : remoteId);
+    }
+
+    /**
+     * Arranca los hilos lector y escritor.
+     *
+     * @param mode Modo de ejecución de los hilos
+     * @param onFrame Receptor de cada trama entrante, llamado desde el hilo lector
+     * @param onClose Acción al cerrarse el enlace, llamada una vez desde el hilo lector
+     */
+    void start(ExecutionMode mode, Consumer<PeerFrame> onFrame, Runnable onClose) {
+        mode.newThread(this::writeLoop, "chat-peer-writer-" + this.remoteId, true).start();
+        mode.newThread(() -> readLoop(onFrame, onClose), "chat-peer-reader-" + this.remoteId, true).start();
+    }
+
+    /**
+     * Encola una trama. Si la cola está llena, el enlace se cierra.
+     *
+     * @param frame Trama a enviar
+     */
+    void send(PeerFrame frame) {
+        if (!this.outbound.offer(frame)) {
+            close();
+        }
+    }
+
+    /**
+     * Cierra el enlace. Las tramas pendientes se descartan.
+     */
+    void close() {
+        this.open = false;
+        this.outbound.close();
+        try {
+            this.socket.close();
+        } catch (IOException ioException) {
+            /* Ignora las excepciones en este caso. */
+        }
+    }
+
+    /**
+     * Bucle del hilo lector.
+     *
+     * @param onFrame Receptor de cada trama entrante
+     * @param onClose Acción al cerrarse el enlace
+     */
+    private void readLoop(Consumer<PeerFrame> onFrame, Runnable onClose) {
+        try {
+            PeerFrame frame;
+            while ((frame = PeerFrame.read(this.input)) != null) {
+                onFrame.accept(frame);
+            }
+        } catch (IOException ioException) {
+            /* Enlace cortado: se trata igual que un cierre ordenado. */
+        } finally {
+            close();
+            onClose.run();
+        }
+    }
+
+    /**
+     * Bucle del hilo escritor: envía las tramas por lotes y vacía el flujo una vez por lote.
+     */
+    private void writeLoop() {
+        List<PeerFrame> batch = new ArrayList<>();
+        try {
+            while (this.outbound.drainTo(batch) != -1) {
+                for (PeerFrame frame : batch) {
+                    frame.write(this.output);
+                }
+                this.output.flush();
+                batch.clear();
+            }
+        } catch (IOException ioException) {
+            close();
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Indica si el enlace sigue abierto.
+     *
+     * @return true si el enlace está abierto
+     */
+    boolean isOpen() {
+        return this.open;
+    }
+
+    /**
+     * Obtiene el identificador del otro nodo.
+     *
+     * @return Identificador del otro nodo
+     */
+    String getRemoteId() {
+        return this.remoteId;
+    }
+
+    /**
+     * Obtiene el identificador del nodo que abrió la conexión.
+     *
+     * @return Identificador del nodo que llamó
+     */
+    String getDialerId() {
+        return this.dialerId;
+    }
+}
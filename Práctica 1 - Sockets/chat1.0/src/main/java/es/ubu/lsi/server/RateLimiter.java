@@ -0,0 +1,67 @@
+package es.ubu.lsi.server;
+
+/**
+ * Cubo de fichas que limita los mensajes que acepta el servidor de un cliente.
+ * El cubo admite hasta {@code burst} mensajes seguidos y se rellena a razón de {@code rate}
+ * fichas por segundo. En lugar de guardar las fichas y rellenarlas, se guarda solo el instante
+ * teórico en que el cubo volvería a estar lleno (algoritmo GCRA, equivalente), de modo que
+ * cada comprobación es una resta y una comparación sin reservar memoria.
+ * No es seguro entre hilos: cada sesión tiene el suyo y solo lo usa su hilo lector.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.server.ServerOptions#getRateLimit()
+ */
+final class RateLimiter {
+
+    /** Nanosegundos que tarda en reponerse una ficha, o 0 si no hay límite. */
+    private final long intervalNanos;
+
+    /** Adelanto máximo sobre el ritmo permitido, que da la ráfaga. */
+    private final long toleranceNanos;
+
+    /** Instante en que el cubo volvería a estar lleno si no llegan más mensajes. */
+    private long theoreticalArrival;
+
+    /**
+     * Constructor de RateLimiter.
+     *
+     * @param rate Fichas que se reponen por segundo, 0 para no limitar
+     * @param burst Capacidad del cubo: mensajes que se aceptan seguidos
+     */
+    RateLimiter(int rate, int burst) {
+        this.intervalNanos = rate == 0 ? 0 : 1_000_000_000L / rate;
+        this.toleranceNanos = (Math.max(burst, 1) - 1) * this.intervalNanos;
+        this.theoreticalArrival = System.nanoTime();
+    }
+
+    /**
+     * Intenta gastar una ficha ahora.
+     *
+     * @return true si el mensaje se acepta, false si supera el límite
+     */
+    boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    /**
+     * Intenta gastar una ficha en el instante indicado.
+     *
+     * @param now Instante actual según {@link System#nanoTime()}
+     * @return true si el mensaje se acepta, false si supera el límite
+     */
+    boolean tryAcquire(long now) {
+        if (this.intervalNanos == 0) {
+            return true;
+        }
+        long arrival = now - this.theoreticalArrival > 0 ? now : this.theoreticalArrival;
+        if (arrival - now > this.toleranceNanos) {
+            return false;
+        }
+        this.theoreticalArrival = arrival + this.intervalNanos;
+        return true;
+    }
+}
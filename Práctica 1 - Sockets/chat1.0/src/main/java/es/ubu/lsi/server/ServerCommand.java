@@ -0,0 +1,82 @@
+package es.ubu.lsi.server;
+
+/**
+ * Comandos que un cliente puede escribir en el chat, identificados por la primera palabra
+ * de la línea sin distinguir mayúsculas. Reconocer el comando no crea objetos, así que
+ * los mensajes normales, que son la inmensa mayoría, no se trocean ni se pasan a mayúsculas.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.server.ChatServerImpl
+ * @see es.ubu.lsi.server.ChatServerNioImpl
+ */
+enum ServerCommand {
+
+    /** Cierre de sesión: logout. */
+    LOGOUT("LOGOUT"),
+
+    /** Veto: ban &lt;usuario&gt;. */
+    BAN("BAN"),
+
+    /** Indulto: unban &lt;usuario&gt;. */
+    UNBAN("UNBAN"),
+
+    /** Apagado del servidor: shutdown. */
+    SHUTDOWN("SHUTDOWN"),
+
+    /** Entrada en un canal: join &lt;canal&gt;. */
+    JOIN("JOIN"),
+
+    /** Salida del canal actual: part [canal]. */
+    PART("PART"),
+
+    /** Mensaje privado: msg &lt;usuario&gt; &lt;texto&gt;. */
+    MSG("MSG"),
+
+    /** Mensaje normal, sin comando. */
+    NONE(null);
+
+    /** Comandos con palabra clave, para no copiar values() en cada línea. */
+    private static final ServerCommand[] COMMANDS = { LOGOUT, BAN, UNBAN, SHUTDOWN, JOIN, PART, MSG };
+
+    /** Longitud de la palabra clave más larga. */
+    private static final int MAX_KEYWORD = 8;
+
+    /** Palabra clave del comando. */
+    private final String keyword;
+
+    /**
+     * Constructor de ServerCommand.
+     *
+     * @param keyword Palabra clave del comando
+     */
+    ServerCommand(String keyword) {
+        this.keyword = keyword;
+    }
+
+    /**
+     * Identifica el comando de una línea por su primera palabra, hasta el primer espacio.
+     *
+     * @param line Línea recibida del cliente
+     * @return El comando, o NONE si la línea es un mensaje normal
+     */
+    static ServerCommand of(String line) {
+        int end = line.indexOf(' ');
+        if (end < 0) {
+            end = line.length();
+        }
+        if (end == 0 || end > ServerCommand.MAX_KEYWORD) {
+            return NONE;
+        }
+
+        for (ServerCommand command : ServerCommand.COMMANDS) {
+            if (command.keyword.length() == end && line.regionMatches(true, 0, command.keyword, 0, end)) {
+                return command;
+            }
+        }
+        return NONE;
+    }
+}
@@ -0,0 +1,507 @@
+package es.ubu.lsi.server;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Registro asíncrono de sucesos del servidor.
+ * Quien registra un suceso solo comprueba el nivel y deja el registro en una cola sin cerrojos;
+ * un único hilo consumidor le da formato y lo escribe, agrupando en una sola escritura todo lo
+ * que encuentre pendiente. Así, ni el formato ni la consola retrasan a los hilos de los clientes.
+ * Cada registro tiene un nivel, un suceso y una plantilla con campos con nombre, como
+ * {@code "El usuario {user} se ha unido al chat."}. En una terminal se escribe como siempre,
+ * con colores; si la salida se redirige, se escribe una línea estructurada (logfmt) por registro:
+ * {@code time=... level=INFO event=join user=pio msg="El usuario pio se ha unido al chat."}.
+ * Con el nivel {@link Level#OFF} registrar no cuesta más que una comparación. Si la cola se llena,
+ * los registros nuevos se descartan y se cuentan.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.server.ServerOptions#getLogLevel()
+ */
+final class ServerLog {
+
+    /** Niveles de registro, de menor a mayor gravedad. */
+    enum Level {
+
+        /** Sucesos normales: entradas, salidas, vetos. */
+        INFO,
+
+        /** Situaciones anómalas que no impiden seguir. */
+        WARN,
+
+        /** Errores. */
+        ERROR,
+
+        /** No se registra nada. */
+        OFF;
+
+        /**
+         * Obtiene el nivel a partir de su nombre en la línea de comandos.
+         *
+         * @param name Nombre del nivel, sin distinguir mayúsculas
+         * @return Nivel correspondiente
+         * @throws IllegalArgumentException Si el nombre no es válido
+         */
+        static Level fromName(String name) {
+            for (Level level : Level.values()) {
+                if (level.name().equalsIgnoreCase(name)) {
+                    return level;
+                }
+            }
+            throw new IllegalArgumentException("Nivel de registro desconocido: " + name);
+        }
+    }
+
+    /** Valores de un registro sin campos. */
+    private static final Object[] NO_ARGS = new Object[0];
+
+    /** Registros pendientes que admite la cola por defecto. */
+    static final int DEFAULT_CAPACITY = 8192;
+
+    /** Espera máxima del consumidor dormido, por si se pierde un aviso. */
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /** Espera máxima al cerrar para escribir lo pendiente, en milisegundos. */
+    private static final long CLOSE_TIMEOUT_MILLIS = 1000;
+
+    /** Formato de la hora de las líneas estructuradas. */
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS");
+
+    /** Nivel mínimo que se registra. */
+    private final Level level;
+
+    /** Si se escribe con colores para una terminal en lugar de líneas estructuradas. */
+    private final boolean color;
+
+    /** Salida de los registros INFO. */
+    private final PrintStream out;
+
+    /** Salida de los registros WARN y ERROR. */
+    private final PrintStream err;
+
+    /** Registros pendientes de escribir. */
+    private final Queue<Record> pending = new ConcurrentLinkedQueue<>();
+
+    /** Registros en la cola, para acotarla sin recorrerla. */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /** Registros pendientes que admite la cola. */
+    private final int capacity;
+
+    /** Registros descartados por tener la cola llena. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Hilo consumidor. */
+    private final Thread consumer;
+
+    /** Si el consumidor está dormido esperando registros. */
+    private volatile boolean sleeping = false;
+
+    /** Si se ha cerrado el registro; a partir de entonces se escribe en el hilo que registra. */
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor de ServerLog sobre la consola. Los colores se usan solo si hay una terminal.
+     *
+     * @param level Nivel mínimo que se registra
+     */
+    ServerLog(Level level) {
+        this(level, System.console() != null, ServerLog.DEFAULT_CAPACITY, System.out, System.err);
+    }
+
+    /**
+     * Constructor de ServerLog.
+     *
+     * @param level Nivel mínimo que se registra
+     * @param color Si se escribe con colores en lugar de líneas estructuradas
+     * @param capacity Registros pendientes que admite la cola
+     * @param out Salida de los registros INFO
+     * @param err Salida de los registros WARN y ERROR
+     */
+    ServerLog(Level level, boolean color, int capacity, PrintStream out, PrintStream err) {
+        this.level = level;
+        this.color = color;
+        this.capacity = capacity;
+        this.out = out;
+        this.err = err;
+        this.consumer = new Thread(this::drainLoop, "chat-log");
+        this.consumer.setDaemon(true);
+        if (level != Level.OFF) {
+            this.consumer.start();
+        }
+    }
+
+    /**
+     * Indica si se registra un nivel. Sirve para no preparar los campos de un suceso
+     * que no se va a registrar.
+     *
+     * @param level Nivel a comprobar
+     * @return true si los registros de ese nivel se escriben
+     */
+    boolean isEnabled(Level level) {
+        return level.compareTo(this.level) >= 0 && level != Level.OFF;
+    }
+
+    /**
+     * Registra un suceso normal sin campos.
+     *
+     * @param event Nombre del suceso
+     * @param template Mensaje
+     */
+    void info(String event, String template) {
+        if (isEnabled(Level.INFO)) {
+            enqueue(Level.INFO, event, template, ServerLog.NO_ARGS);
+        }
+    }
+
+    /**
+     * Registra un suceso normal con un campo.
+     *
+     * @param event Nombre del suceso
+     * @param template Plantilla con un campo
+     * @param first Valor del campo
+     */
+    void info(String event, String template, Object first) {
+        if (isEnabled(Level.INFO)) {
+            enqueue(Level.INFO, event, template, new Object[] {first});
+        }
+    }
+
+    /**
+     * Registra un suceso normal con dos campos.
+     *
+     * @param event Nombre del suceso
+     * @param template Plantilla con dos campos
+     * @param first Valor del primer campo
+     * @param second Valor del segundo campo
+     */
+    void info(String event, String template, Object first, Object second) {
+        if (isEnabled(Level.INFO)) {
+            enqueue(Level.INFO, event, template, new Object[] {first, second});
+        }
+    }
+
+    /**
+     * Registra un suceso normal con tres o más campos.
+     *
+     * @param event Nombre del suceso
+     * @param template Plantilla con los campos
+     * @param first Valor del primer campo
+     * @param second Valor del segundo campo
+     * @param rest Valores del resto de campos
+     */
+    void info(String event, String template, Object first, Object second, Object... rest) {
+        if (isEnabled(Level.INFO)) {
+            enqueue(Level.INFO, event, template, concat(first, second, rest));
+        }
+    }
+
+    /**
+     * Registra una situación anómala.
+     *
+     * @param event Nombre del suceso
+     * @param template Plantilla con los campos
+     * @param args Valores de los campos, en orden
+     */
+    void warn(String event, String template, Object... args) {
+        if (isEnabled(Level.WARN)) {
+            enqueue(Level.WARN, event, template, args);
+        }
+    }
+
+    /**
+     * Registra un error.
+     *
+     * @param event Nombre del suceso
+     * @param template Plantilla con los campos
+     * @param args Valores de los campos, en orden
+     */
+    void error(String event, String template, Object... args) {
+        if (isEnabled(Level.ERROR)) {
+            enqueue(Level.ERROR, event, template, args);
+        }
+    }
+
+    /**
+     * Escribe lo pendiente y detiene el consumidor. Lo que se registre después se escribe
+     * directamente en el hilo que lo registra.
+     */
+    void close() {
+        this.closed = true;
+        LockSupport.unpark(this.consumer);
+        try {
+            this.consumer.join(ServerLog.CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Número de registros descartados por tener la cola llena.
+     *
+     * @return Registros descartados
+     */
+    long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Deja un registro en la cola y despierta al consumidor si duerme.
+     *
+     * @param level Nivel
+     * @param event Nombre del suceso
+     * @param template Plantilla
+     * @param args Valores de los campos
+     */
+    private void enqueue(Level level, String event, String template, Object[] args) {
+        Record record = new Record(System.currentTimeMillis(), level, event, template, args);
+        if (this.closed) {
+            synchronized (this) {
+                write(render(record, new StringBuilder()), level);
+            }
+            return;
+        }
+        if (this.size.incrementAndGet() > this.capacity) {
+            this.size.decrementAndGet();
+            this.dropped.incrementAndGet();
+            return;
+        }
+        this.pending.offer(record);
+        if (this.sleeping) {
+            LockSupport.unpark(this.consumer);
+        }
+    }
+
+    /**
+     * Bucle del consumidor: vacía la cola escribiendo cada tanda de una vez y duerme
+     * cuando no hay nada pendiente.
+     */
+    private void drainLoop() {
+        StringBuilder info = new StringBuilder(1024);
+        StringBuilder errors = new StringBuilder(256);
+        long reportedDrops = 0;
+
+        while (true) {
+            Record record;
+            while ((record = this.pending.poll()) != null) {
+                this.size.decrementAndGet();
+                render(record, record.level == Level.INFO ? info : errors);
+            }
+
+            long drops = this.dropped.get();
+            if (drops != reportedDrops) {
+                render(new Record(System.currentTimeMillis(), Level.WARN, "log.dropped",
+                                  "Registro saturado: {dropped} registros descartados.", new Object[] {drops - reportedDrops}), errors);
+                reportedDrops = drops;
+            }
+
+            synchronized (this) {
+                if (info.length() > 0) {
+                    write(info, Level.INFO);
+                    info.setLength(0);
+                }
+                if (errors.length() > 0) {
+                    write(errors, Level.ERROR);
+                    errors.setLength(0);
+                }
+            }
+
+            if (this.closed && this.pending.isEmpty()) {
+                return;
+            }
+            this.sleeping = true;
+            if (this.pending.isEmpty() && !this.closed) {
+                LockSupport.parkNanos(this, ServerLog.PARK_NANOS);
+            }
+            this.sleeping = false;
+        }
+    }
+
+    /**
+     * Escribe texto ya formateado en la salida de su nivel.
+     *
+     * @param text Texto con sus saltos de línea
+     * @param level Nivel, que elige la salida
+     */
+    private void write(CharSequence text, Level level) {
+        PrintStream stream = level == Level.INFO ? this.out : this.err;
+        stream.print(text);
+        stream.flush();
+    }
+
+    /**
+     * Da formato a un registro y lo añade a un texto.
+     *
+     * @param record Registro
+     * @param target Texto en el que se añade, con su salto de línea
+     * @return El mismo texto
+     */
+    private StringBuilder render(Record record, StringBuilder target) {
+        if (this.color) {
+            renderColor(record, target);
+        } else {
+            renderStructured(record, target);
+        }
+        return target.append(System.lineSeparator());
+    }
+
+    /**
+     * Formato de terminal: el mensaje con los valores resaltados, como la consola de siempre.
+     *
+     * @param record Registro
+     * @param target Texto en el que se añade
+     */
+    private static void renderColor(Record record, StringBuilder target) {
+        boolean info = record.level == Level.INFO;
+        String text = info ? ChatServerImpl.CYAN : ChatServerImpl.RED;
+        target.append(info ? ChatServerImpl.YELLOW + "[*] " : ChatServerImpl.RED + "[!] ").append(text);
+
+        String template = record.template;
+        int field = 0;
+        int position = 0;
+        int open;
+        while ((open = template.indexOf('{', position)) >= 0) {
+            int close = template.indexOf('}', open);
+            if (close < 0) {
+                break;
+            }
+            target.append(template, position, open)
+                  .append(ChatServerImpl.GREEN).append(field < record.args.length ? record.args[field++] : "").append(text);
+            position = close + 1;
+        }
+        target.append(template, position, template.length()).append(ChatServerImpl.RESET);
+    }
+
+    /**
+     * Formato estructurado (logfmt): hora, nivel, suceso, un par clave=valor por campo
+     * y el mensaje completo.
+     *
+     * @param record Registro
+     * @param target Texto en el que se añade
+     */
+    private static void renderStructured(Record record, StringBuilder target) {
+        target.append("time=").append(LocalDateTime.ofInstant(Instant.ofEpochMilli(record.timeMillis), ZoneId.systemDefault())
+                                        .format(ServerLog.TIME_FORMAT))
+              .append(" level=").append(record.level)
+              .append(" event=").append(record.event);
+
+        StringBuilder message = new StringBuilder(record.template.length() + 32);
+        String template = record.template;
+        int field = 0;
+        int position = 0;
+        int open;
+        while ((open = template.indexOf('{', position)) >= 0) {
+            int close = template.indexOf('}', open);
+            if (close < 0) {
+                break;
+            }
+            String value = field < record.args.length ? String.valueOf(record.args[field++]) : "";
+            target.append(' ').append(template, open + 1, close).append('=');
+            quote(value, target);
+            message.append(template, position, open).append(value);
+            position = close + 1;
+        }
+        message.append(template, position, template.length());
+
+        target.append(" msg=");
+        quote(message.toString(), target);
+    }
+
+    /**
+     * Añade un valor de logfmt, entre comillas si lleva espacios, comillas o signos igual.
+     *
+     * @param value Valor
+     * @param target Texto en el que se añade
+     */
+    private static void quote(String value, StringBuilder target) {
+        boolean plain = !value.isEmpty();
+        for (int i = 0; i < value.length() && plain; i++) {
+            char c = value.charAt(i);
+            plain = c > ' ' && c != '"' && c != '=' && c != '\\';
+        }
+        if (plain) {
+            target.append(value);
+            return;
+        }
+        target.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                target.append('\\').append(c);
+            } else if (c == '\n') {
+                target.append("\\n");
+            } else {
+                target.append(c);
+            }
+        }
+        target.append('"');
+    }
+
+    /**
+     * Une los valores de los campos en un único array.
+     *
+     * @param first Primer valor
+     * @param second Segundo valor
+     * @param rest Resto de valores
+     * @return Todos los valores, en orden
+     */
+    private static Object[] concat(Object first, Object second, Object[] rest) {
+        Object[] args = new Object[rest.length + 2];
+        args[0] = first;
+        args[1] = second;
+        System.arraycopy(rest, 0, args, 2, rest.length);
+        return args;
+    }
+
+    /**
+     * Registro pendiente de escribir. Guarda la plantilla y los valores sin formatear:
+     * el formato lo hace el consumidor.
+     */
+    private static final class Record {
+
+        /** Instante del suceso, en milisegundos desde la época. */
+        private final long timeMillis;
+
+        /** Nivel. */
+        private final Level level;
+
+        /** Nombre del suceso. */
+        private final String event;
+
+        /** Plantilla con los campos entre llaves. */
+        private final String template;
+
+        /** Valores de los campos, en orden. */
+        private final Object[] args;
+
+        /**
+         * Constructor de Record.
+         *
+         * @param timeMillis Instante del suceso
+         * @param level Nivel
+         * @param event Nombre del suceso
+         * @param template Plantilla
+         * @param args Valores de los campos
+         */
+        Record(long timeMillis, Level level, String event, String template, Object[] args) {
+            this.timeMillis = timeMillis;
+            this.level = level;
+            this.event = event;
+            this.template = template;
+            this.args = args;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package es.ubu.lsi.server;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import es.ubu.lsi.common.LatencyHistogram;
+
+/**
+ * Métricas del servidor de chat: mensajes recibidos y enviados, bytes escritos, latencia
+ * del reparto de cada difusión, mensajes descartados, sesiones, vetos y profundidad de la cola
+ * de cada cliente. Los contadores son {@link LongAdder}, que no bloquean y reparten las
+ * actualizaciones concurrentes entre celdas, de modo que medir no frena la difusión.
+ * Los valores que ya tiene el registro (sesiones, vetos, colas) no se cuentan aparte:
+ * se leen al generar el informe.
+ * El informe sigue el formato de texto de Prometheus y lo sirve {@link MetricsEndpoint}.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.server.MetricsEndpoint
+ * @see es.ubu.lsi.common.LatencyHistogram
+ */
+final class ServerMetrics {
+
+    /**
+     * Potencia de dos del primer límite de las cubetas de Prometheus del reparto: 2^10 - 1 ns,
+     * algo más de 1 µs. Los límites 2^k - 1 coinciden con el final de una cubeta del
+     * histograma, así que las cuentas de cada uno son exactas.
+     */
+    private static final int FIRST_BOUND_BITS = 10;
+
+    /** Potencia de dos del último límite de las cubetas de Prometheus del reparto: 2^30 - 1 ns, algo más de 1 s. */
+    private static final int LAST_BOUND_BITS = 30;
+
+    /** Mensajes recibidos de los clientes. */
+    private final LongAdder received = new LongAdder();
+
+    /** Tramas escritas en los sockets de los clientes. */
+    private final LongAdder written = new LongAdder();
+
+    /** Bytes escritos en los sockets de los clientes. */
+    private final LongAdder bytesWritten = new LongAdder();
+
+    /** Destinatarios a los que se ha repartido alguna difusión. */
+    private final LongAdder recipients = new LongAdder();
+
+    /** Mensajes descartados por superar el límite de ritmo. */
+    private final LongAdder throttled = new LongAdder();
+
+    /** Mensajes descartados por superar la longitud máxima. */
+    private final LongAdder oversized = new LongAdder();
+
+    /** Tiempo que tarda cada difusión en encolarse a todos sus destinatarios, en nanosegundos. */
+    private final LatencyHistogram fanOut = new LatencyHistogram();
+
+    /** Instante del informe anterior, para calcular los ritmos por segundo. */
+    private long lastReportNanos = System.nanoTime();
+
+    /** Mensajes recibidos hasta el informe anterior. */
+    private long lastReceived = 0;
+
+    /** Tramas escritas hasta el informe anterior. */
+    private long lastWritten = 0;
+
+    /**
+     * Cuenta un mensaje recibido de un cliente.
+     */
+    void messageReceived() {
+        this.received.increment();
+    }
+
+    /**
+     * Cuenta un lote escrito por el hilo escritor de una sesión.
+     *
+     * @param frames Tramas del lote
+     * @param bytes Bytes del lote
+     */
+    void written(int frames, long bytes) {
+        this.written.add(frames);
+        this.bytesWritten.add(bytes);
+    }
+
+    /**
+     * Registra el reparto de una difusión.
+     *
+     * @param count Destinatarios a los que se ha encolado
+     * @param nanos Tiempo que ha tardado el reparto
+     */
+    void delivered(int count, long nanos) {
+        this.recipients.add(count);
+        this.fanOut.record(nanos);
+    }
+
+    /**
+     * Cuenta un mensaje descartado por superar el límite de ritmo.
+     */
+    void messageThrottled() {
+        this.throttled.increment();
+    }
+
+    /**
+     * Cuenta un mensaje descartado por superar la longitud máxima.
+     */
+    void messageOversized() {
+        this.oversized.increment();
+    }
+
+    /**
+     * Genera el informe de métricas en el formato de texto de Prometheus.
+     * Los ritmos por segundo se calculan desde el informe anterior.
+     *
+     * @param sessions Registro de sesiones del servidor
+     * @return Informe completo
+     */
+    synchronized String render(SessionRegistry sessions) {
+        long now = System.nanoTime();
+        long received = this.received.sum();
+        long written = this.written.sum();
+        double seconds = Math.max(now - this.lastReportNanos, 1) / 1e9;
+
+        StringBuilder report = new StringBuilder(4096);
+
+        int connected = 0;
+        int detached = 0;
+        for (ClientSession session : sessions.sessions()) {
+            if (session.isDetached()) {
+                detached++;
+            } else {
+                connected++;
+            }
+        }
+        header(report, "chat_sessions", "gauge", "Sesiones registradas, conectadas o esperando a reanudarse.");
+        report.append("chat_sessions{state=\"connected\"} ").append(connected).append('\n');
+        report.append("chat_sessions{state=\"detached\"} ").append(detached).append('\n');
+
+        counter(report, "chat_messages_received_total", "Mensajes recibidos de los clientes.", received);
+        gauge(report, "chat_messages_received_per_second", "Mensajes recibidos por segundo desde el informe anterior.",
+              (received - this.lastReceived) / seconds);
+        counter(report, "chat_frames_written_total", "Tramas escritas a los clientes.", written);
+        gauge(report, "chat_frames_written_per_second", "Tramas escritas por segundo desde el informe anterior.",
+              (written - this.lastWritten) / seconds);
+        counter(report, "chat_bytes_written_total", "Bytes escritos a los clientes.", this.bytesWritten.sum());
+        counter(report, "chat_fanout_recipients_total", "Destinatarios a los que se han repartido difusiones.", this.recipients.sum());
+
+        header(report, "chat_messages_dropped_total", "counter", "Mensajes de clientes descartados por el servidor.");
+        report.append("chat_messages_dropped_total{reason=\"rate\"} ").append(this.throttled.sum()).append('\n');
+        report.append("chat_messages_dropped_total{reason=\"length\"} ").append(this.oversized.sum()).append('\n');
+
+        header(report, "chat_fanout_seconds", "histogram", "Tiempo que tarda una difusión en encolarse a todos sus destinatarios.");
+        /* El total se lee antes que las cubetas para que ninguna lo supere con difusiones en curso. */
+        long count = this.fanOut.getCount();
+        long sumNanos = this.fanOut.getSum();
+        for (int bits = ServerMetrics.FIRST_BOUND_BITS; bits <= ServerMetrics.LAST_BOUND_BITS; bits++) {
+            long bound = (1L << bits) - 1;
+            report.append("chat_fanout_seconds_bucket{le=\"").append(String.format(Locale.ROOT, "%.9f", bound / 1e9))
+                  .append("\"} ").append(Math.min(this.fanOut.countAtMost(bound), count)).append('\n');
+        }
+        report.append("chat_fanout_seconds_bucket{le=\"+Inf\"} ").append(count).append('\n');
+        report.append("chat_fanout_seconds_sum ").append(String.format(Locale.ROOT, "%.9f", sumNanos / 1e9)).append('\n');
+        report.append("chat_fanout_seconds_count ").append(count).append('\n');
+
+        header(report, "chat_bans", "gauge", "Vetos vigentes entre todos los usuarios.");
+        report.append("chat_bans ").append(sessions.banCount()).append('\n');
+
+        header(report, "chat_session_queue_depth", "gauge", "Mensajes pendientes en la cola de salida de cada cliente.");
+        for (ClientSession session : sessions.sessions()) {
+            report.append("chat_session_queue_depth{user=\"").append(escape(session.getUsername())).append("\"} ")
+                  .append(session.getQueueDepth()).append('\n');
+        }
+        header(report, "chat_session_dropped_total", "counter", "Mensajes descartados por desbordamiento de la cola de cada cliente.");
+        for (ClientSession session : sessions.sessions()) {
+            report.append("chat_session_dropped_total{user=\"").append(escape(session.getUsername())).append("\"} ")
+                  .append(session.getDroppedMessages()).append('\n');
+        }
+
+        this.lastReportNanos = now;
+        this.lastReceived = received;
+        this.lastWritten = written;
+        return report.toString();
+    }
+
+    /**
+     * Escribe la ayuda y el tipo de una métrica.
+     *
+     * @param report Informe en construcción
+     * @param name Nombre de la métrica
+     * @param type Tipo de Prometheus
+     * @param help Descripción
+     */
+    private static void header(StringBuilder report, String name, String type, String help) {
+        report.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        report.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Escribe un contador sin etiquetas.
+     *
+     * @param report Informe en construcción
+     * @param name Nombre de la métrica
+     * @param help Descripción
+     * @param value Valor
+     */
+    private static void counter(StringBuilder report, String name, String help, long value) {
+        header(report, name, "counter", help);
+        report.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Escribe un indicador sin etiquetas.
+     *
+     * @param report Informe en construcción
+     * @param name Nombre de la métrica
+     * @param help Descripción
+     * @param value Valor
+     */
+    private static void gauge(StringBuilder report, String name, String help, double value) {
+        header(report, name, "gauge", help);
+        report.append(name).append(' ').append(String.format(Locale.ROOT, "%.2f", value)).append('\n');
+    }
+
+    /**
+     * Escapa el valor de una etiqueta: barras invertidas, comillas y saltos de línea.
+     *
+     * @param value Valor sin escapar
+     * @return Valor escapado
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
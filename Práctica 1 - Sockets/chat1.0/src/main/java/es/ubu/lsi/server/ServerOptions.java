@@ -0,0 +1,585 @@
+package es.ubu.lsi.server;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import es.ubu.lsi.common.ChatMessageCodec;
+import es.ubu.lsi.common.ExecutionMode;
+
+/**
+ * Opciones de arranque del servidor de chat.
+ * Se construyen a partir de los argumentos de la línea de comandos con {@link #parse(String[])}
+ * o se rellenan con sus setters cuando el servidor se crea desde código.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.server.ChatServerImpl
+ */
+public class ServerOptions {
+
+    /** Capacidad por defecto de la cola de salida de cada cliente. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /** Espera máxima por defecto de la política BLOCK, en milisegundos. */
+    public static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 200;
+
+    /** Espera máxima por defecto para vaciar las colas de los clientes al cerrar, en milisegundos. */
+    public static final long DEFAULT_DRAIN_TIMEOUT_MILLIS = 1000;
+
+    /** Mensajes por segundo que se aceptan por defecto de cada cliente: 0, sin límite salvo que se pida con --rate. */
+    public static final int DEFAULT_RATE_LIMIT = 0;
+
+    /** Mensajes seguidos que se aceptan por defecto de cada cliente antes de aplicar el límite de --rate. */
+    public static final int DEFAULT_BURST = 40;
+
+    /** Longitud máxima por defecto de un mensaje de cliente: la de una trama binaria, salvo que se reduzca con --max-line. */
+    public static final int DEFAULT_MAX_LINE_LENGTH = ChatMessageCodec.MAX_PAYLOAD;
+
+    /** Segundos que se guarda por defecto la sesión de un cliente que pierde la conexión. */
+    public static final int DEFAULT_RESUME_WINDOW = 60;
+
+    /** Mensajes recientes que se guardan por defecto para repetirlos a quien entra. */
+    public static final int DEFAULT_HISTORY = 100;
+
+    /** Sintaxis de uso del servidor. */
+    public static final String USAGE = "java es.ubu.lsi.server.ChatServerImpl [puerto] [--nio] [--loops=n] [--virtual]"
+                                        + " [--queue=n] [--overflow=drop-oldest|disconnect|block] [--block-timeout=ms]"
+                                        + " [--history=n] [--journal=directorio] [--node=id] [--peer-port=n]"
+                                        + " [--peers=host:puerto,...] [--drain-timeout=ms] [--rate=n] [--burst=n] [--max-line=n]"
+                                        + " [--resume-window=s] [--metrics-port=n] [--log=info|warn|error|off]";
+
+    /** Puerto de escucha. */
+    private int port = ChatServerImpl.DEFAULT_PORT;
+
+    /** Si se usa la implementación NIO. */
+    private boolean nio = false;
+
+    /** Número de bucles de E/S de la implementación NIO. */
+    private int loops = ChatServerNioImpl.DEFAULT_LOOPS;
+
+    /** Modo de ejecución de los hilos de cliente. */
+    private ExecutionMode mode = ExecutionMode.PLATFORM;
+
+    /** Capacidad de la cola de salida de cada cliente. */
+    private int queueCapacity = ServerOptions.DEFAULT_QUEUE_CAPACITY;
+
+    /** Política de desbordamiento de las colas de salida. */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+    /** Espera máxima de la política BLOCK, en milisegundos. */
+    private long blockTimeoutMillis = ServerOptions.DEFAULT_BLOCK_TIMEOUT_MILLIS;
+
+    /** Mensajes recientes que se repiten a quien entra, 0 para desactivar el historial. */
+    private int history = ServerOptions.DEFAULT_HISTORY;
+
+    /** Directorio del diario en disco, o null para no guardar nada. */
+    private String journalDirectory = null;
+
+    /** Identificador del nodo en la federación, o null para derivarlo del puerto. */
+    private String nodeId = null;
+
+    /** Puerto en el que se aceptan enlaces de otros nodos, 0 para no escuchar. */
+    private int peerPort = 0;
+
+    /** Direcciones de los nodos a los que se llama. */
+    private List<InetSocketAddress> peers = Collections.emptyList();
+
+    /** Espera máxima para vaciar las colas de los clientes al cerrar, en milisegundos. */
+    private long drainTimeoutMillis = ServerOptions.DEFAULT_DRAIN_TIMEOUT_MILLIS;
+
+    /** Mensajes por segundo que se aceptan de cada cliente, 0 para no limitar. */
+    private int rateLimit = ServerOptions.DEFAULT_RATE_LIMIT;
+
+    /** Mensajes seguidos que se aceptan de cada cliente. */
+    private int burst = ServerOptions.DEFAULT_BURST;
+
+    /** Longitud máxima de un mensaje de cliente. */
+    private int maxLineLength = ServerOptions.DEFAULT_MAX_LINE_LENGTH;
+
+    /** Segundos que se guarda la sesión de un cliente que pierde la conexión, 0 para no guardarla. */
+    private int resumeWindow = ServerOptions.DEFAULT_RESUME_WINDOW;
+
+    /** Puerto HTTP de las métricas, 0 para no servirlas. */
+    private int metricsPort = 0;
+
+    /** Nivel mínimo de los sucesos que se registran. */
+    private ServerLog.Level logLevel = ServerLog.Level.INFO;
+
+    /**
+     * Construye las opciones a partir de los argumentos de la línea de comandos.
+     *
+     * @param args Argumentos de la línea de comandos
+     * @return Opciones leídas
+     * @throws IllegalArgumentException Si algún argumento no es válido
+     */
+    public static ServerOptions parse(String[] args) {
+        ServerOptions options = new ServerOptions();
+
+        for (String arg : args) {
+            if (arg.equals("--nio")) {
+                options.setNio(true);
+            } else if (arg.equals("--virtual")) {
+                options.setMode(ExecutionMode.VIRTUAL);
+            } else if (arg.startsWith("--loops=")) {
+                options.setLoops(Integer.parseInt(value(arg)));
+            } else if (arg.startsWith("--queue=")) {
+                options.setQueueCapacity(Integer.parseInt(value(arg)));
+            } else if (arg.startsWith("--overflow=")) {
+                options.setOverflowPolicy(OverflowPolicy.fromName(value(arg)));
+            } else if (arg.startsWith("--block-timeout=")) {
+                options.setBlockTimeoutMillis(Long.parseLong(value(arg)));
+            } else if (arg.startsWith("--history=")) {
+                options.setHistory(Integer.parseInt(value(arg)));
+            } else if (arg.startsWith("--journal=")) {
+                options.setJournalDirectory(value(arg));
+            } else if (arg.startsWith("--node=")) {
+                options.setNodeId(value(arg));
+            } else if (arg.startsWith("--peer-port=")) {
+                options.setPeerPort(Integer.parseInt(value(arg)));
+            } else if (arg.startsWith("--peers=")) {
+                options.setPeers(parsePeers(value(arg)));
+            } else if (arg.startsWith("--drain-timeout=")) {
+                options.setDrainTimeoutMillis(Long.parseLong(value(arg)));
+            } else if (arg.startsWith("--rate=")) {
+                options.setRateLimit(Integer.parseInt(value(arg)));
+            } else if (arg.startsWith("--burst=")) {
+                options.setBurst(Integer.parseInt(value(arg)));
+            } else if (arg.startsWith("--max-line=")) {
+                options.setMaxLineLength(Integer.parseInt(value(arg)));
+            } else if (arg.startsWith("--resume-window=")) {
+                options.setResumeWindow(Integer.parseInt(value(arg)));
+            } else if (arg.startsWith("--metrics-port=")) {
+                options.setMetricsPort(Integer.parseInt(value(arg)));
+            } else if (arg.startsWith("--log=")) {
+                options.setLogLevel(ServerLog.Level.fromName(value(arg)));
+            } else if (arg.startsWith("--")) {
+                throw new IllegalArgumentException("Opción desconocida: " + arg);
+            } else {
+                options.setPort(Integer.parseInt(arg));
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Obtiene el valor de una opción con formato --clave=valor.
+     *
+     * @param arg Argumento completo
+     * @return Valor tras el signo igual
+     */
+    private static String value(String arg) {
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+
+    /**
+     * Lee una lista de direcciones con formato host:puerto separadas por comas.
+     *
+     * @param list Lista de direcciones
+     * @return Direcciones leídas
+     * @throws IllegalArgumentException Si alguna dirección no es válida
+     */
+    private static List<InetSocketAddress> parsePeers(String list) {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (String peer : list.split(",")) {
+            int colon = peer.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Dirección de nodo no válida: " + peer);
+            }
+            peers.add(new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+        }
+        return peers;
+    }
+
+    /**
+     * Obtiene el puerto.
+     *
+     * @return Puerto de escucha
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Establece el puerto.
+     *
+     * @param port Puerto de escucha
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Indica si se usa la implementación NIO.
+     *
+     * @return true si se usa ChatServerNioImpl
+     */
+    public boolean isNio() {
+        return nio;
+    }
+
+    /**
+     * Establece si se usa la implementación NIO.
+     *
+     * @param nio true para usar ChatServerNioImpl
+     */
+    public void setNio(boolean nio) {
+        this.nio = nio;
+    }
+
+    /**
+     * Obtiene el número de bucles de E/S.
+     *
+     * @return Número de bucles de la implementación NIO
+     */
+    public int getLoops() {
+        return loops;
+    }
+
+    /**
+     * Establece el número de bucles de E/S.
+     *
+     * @param loops Número de bucles de la implementación NIO
+     */
+    public void setLoops(int loops) {
+        this.loops = loops;
+    }
+
+    /**
+     * Obtiene el modo de ejecución.
+     *
+     * @return Modo de ejecución de los hilos de cliente
+     */
+    public ExecutionMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Establece el modo de ejecución.
+     *
+     * @param mode Modo de ejecución de los hilos de cliente
+     */
+    public void setMode(ExecutionMode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Obtiene la capacidad de las colas de salida.
+     *
+     * @return Capacidad de la cola de salida de cada cliente
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Establece la capacidad de las colas de salida.
+     *
+     * @param queueCapacity Capacidad de la cola de salida de cada cliente
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("La capacidad de la cola debe ser positiva: " + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Obtiene la política de desbordamiento.
+     *
+     * @return Política de desbordamiento
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Establece la política de desbordamiento.
+     *
+     * @param overflowPolicy Política de desbordamiento
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Obtiene la espera máxima de la política BLOCK.
+     *
+     * @return Espera máxima en milisegundos
+     */
+    public long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+
+    /**
+     * Establece la espera máxima de la política BLOCK.
+     *
+     * @param blockTimeoutMillis Espera máxima en milisegundos
+     */
+    public void setBlockTimeoutMillis(long blockTimeoutMillis) {
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    /**
+     * Obtiene el tamaño del historial.
+     *
+     * @return Mensajes recientes que se repiten a quien entra
+     */
+    public int getHistory() {
+        return history;
+    }
+
+    /**
+     * Establece el tamaño del historial.
+     *
+     * @param history Mensajes recientes que se repiten a quien entra, 0 para desactivarlo
+     */
+    public void setHistory(int history) {
+        if (history < 0) {
+            throw new IllegalArgumentException("El tamaño del historial no puede ser negativo: " + history);
+        }
+        this.history = history;
+    }
+
+    /**
+     * Obtiene el directorio del diario.
+     *
+     * @return Directorio del diario, o null si no se guarda nada en disco
+     */
+    public String getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    /**
+     * Establece el directorio del diario.
+     *
+     * @param journalDirectory Directorio del diario, o null para no guardar nada en disco
+     */
+    public void setJournalDirectory(String journalDirectory) {
+        if (journalDirectory != null && journalDirectory.isEmpty()) {
+            throw new IllegalArgumentException("El directorio del diario no puede estar vacío.");
+        }
+        this.journalDirectory = journalDirectory;
+    }
+
+    /**
+     * Obtiene el identificador del nodo.
+     *
+     * @return Identificador del nodo en la federación, derivado del puerto si no se ha indicado
+     */
+    public String getNodeId() {
+        return nodeId != null ? nodeId : "nodo-" + port;
+    }
+
+    /**
+     * Establece el identificador del nodo.
+     *
+     * @param nodeId Identificador del nodo, único en la federación
+     */
+    public void setNodeId(String nodeId) {
+        if (nodeId != null && (nodeId.isEmpty() || nodeId.contains(" "))) {
+            throw new IllegalArgumentException("El identificador del nodo no puede estar vacío ni tener espacios.");
+        }
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Obtiene el puerto de los enlaces entre nodos.
+     *
+     * @return Puerto de escucha de otros nodos, 0 si no se escucha
+     */
+    public int getPeerPort() {
+        return peerPort;
+    }
+
+    /**
+     * Establece el puerto de los enlaces entre nodos.
+     *
+     * @param peerPort Puerto de escucha de otros nodos, 0 para no escuchar
+     */
+    public void setPeerPort(int peerPort) {
+        if (peerPort < 0) {
+            throw new IllegalArgumentException("El puerto de nodos no puede ser negativo: " + peerPort);
+        }
+        this.peerPort = peerPort;
+    }
+
+    /**
+     * Obtiene los nodos a los que se llama.
+     *
+     * @return Direcciones de los otros nodos
+     */
+    public List<InetSocketAddress> getPeers() {
+        return peers;
+    }
+
+    /**
+     * Establece los nodos a los que se llama.
+     *
+     * @param peers Direcciones de los otros nodos
+     */
+    public void setPeers(List<InetSocketAddress> peers) {
+        this.peers = peers;
+    }
+
+    /**
+     * Indica si el servidor forma parte de una federación.
+     *
+     * @return true si escucha o llama a otros nodos
+     */
+    public boolean isFederated() {
+        return peerPort > 0 || !peers.isEmpty();
+    }
+
+    /**
+     * Obtiene la espera máxima del vaciado al cerrar.
+     *
+     * @return Espera máxima en milisegundos
+     */
+    public long getDrainTimeoutMillis() {
+        return drainTimeoutMillis;
+    }
+
+    /**
+     * Establece la espera máxima del vaciado al cerrar. Pasado ese tiempo,
+     * las conexiones que sigan abiertas se cierran descartando lo pendiente.
+     *
+     * @param drainTimeoutMillis Espera máxima en milisegundos
+     */
+    public void setDrainTimeoutMillis(long drainTimeoutMillis) {
+        if (drainTimeoutMillis < 0) {
+            throw new IllegalArgumentException("La espera del vaciado no puede ser negativa: " + drainTimeoutMillis);
+        }
+        this.drainTimeoutMillis = drainTimeoutMillis;
+    }
+
+    /**
+     * Obtiene el límite de mensajes por segundo.
+     *
+     * @return Mensajes por segundo que se aceptan de cada cliente, 0 si no hay límite
+     */
+    public int getRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * Establece el límite de mensajes por segundo.
+     *
+     * @param rateLimit Mensajes por segundo que se aceptan de cada cliente, 0 para no limitar
+     */
+    public void setRateLimit(int rateLimit) {
+        if (rateLimit < 0) {
+            throw new IllegalArgumentException("El límite de mensajes no puede ser negativo: " + rateLimit);
+        }
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * Obtiene la ráfaga.
+     *
+     * @return Mensajes seguidos que se aceptan de cada cliente
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Establece la ráfaga.
+     *
+     * @param burst Mensajes seguidos que se aceptan de cada cliente
+     */
+    public void setBurst(int burst) {
+        if (burst < 1) {
+            throw new IllegalArgumentException("La ráfaga debe ser positiva: " + burst);
+        }
+        this.burst = burst;
+    }
+
+    /**
+     * Obtiene la longitud máxima de un mensaje.
+     *
+     * @return Caracteres por línea en el protocolo de texto, bytes por trama en el binario
+     */
+    public int getMaxLineLength() {
+        return maxLineLength;
+    }
+
+    /**
+     * Establece la longitud máxima de un mensaje.
+     *
+     * @param maxLineLength Caracteres por línea en el protocolo de texto, bytes por trama en el binario
+     */
+    public void setMaxLineLength(int maxLineLength) {
+        if (maxLineLength < 1 || maxLineLength > ChatMessageCodec.MAX_PAYLOAD) {
+            throw new IllegalArgumentException("La longitud máxima debe estar entre 1 y " + ChatMessageCodec.MAX_PAYLOAD + ": " + maxLineLength);
+        }
+        this.maxLineLength = maxLineLength;
+    }
+
+    /**
+     * Obtiene la ventana de reanudación.
+     *
+     * @return Segundos que se guarda la sesión de un cliente que pierde la conexión, 0 si no se guarda
+     */
+    public int getResumeWindow() {
+        return resumeWindow;
+    }
+
+    /**
+     * Establece la ventana de reanudación. Mientras dura, la sesión de un cliente que pierde
+     * la conexión sigue registrada y acumulando mensajes en su cola, y el cliente la recupera
+     * al volver a conectar con su testigo.
+     *
+     * @param resumeWindow Segundos que se guarda la sesión, 0 para no guardarla
+     */
+    public void setResumeWindow(int resumeWindow) {
+        if (resumeWindow < 0) {
+            throw new IllegalArgumentException("La ventana de reanudación no puede ser negativa: " + resumeWindow);
+        }
+        this.resumeWindow = resumeWindow;
+    }
+
+    /**
+     * Obtiene el puerto de las métricas.
+     *
+     * @return Puerto HTTP en el que se sirven las métricas, 0 si no se sirven
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * Establece el puerto de las métricas.
+     *
+     * @param metricsPort Puerto HTTP en el que se sirven las métricas, 0 para no servirlas
+     */
+    public void setMetricsPort(int metricsPort) {
+        if (metricsPort < 0 || metricsPort > 65535) {
+            throw new IllegalArgumentException("Puerto de métricas no válido: " + metricsPort);
+        }
+        this.metricsPort = metricsPort;
+    }
+
+    /**
+     * Obtiene el nivel de registro.
+     *
+     * @return Nivel mínimo de los sucesos que se registran
+     */
+    public ServerLog.Level getLogLevel() {
+        return logLevel;
+    }
+
+    /**
+     * Establece el nivel de registro. Con {@link ServerLog.Level#OFF} no se registra nada
+     * y registrar un suceso no cuesta más que una comparación.
+     *
+     * @param logLevel Nivel mínimo de los sucesos que se registran
+     */
+    public void setLogLevel(ServerLog.Level logLevel) {
+        this.logLevel = logLevel;
+    }
+}
@@ -0,0 +1,223 @@
+package es.ubu.lsi.server;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registro concurrente de las sesiones conectadas al servidor.
+ * Mantiene índices por identificador, por nombre de usuario y por testigo de
+ * reanudación, para que todas las búsquedas sean O(1). Las lecturas no bloquean y se
+ * pueden recorrer las sesiones mientras otros hilos conectan o desconectan clientes.
+ * 
+ * @version 1.0
+ * @since 1.0
+ * 
+ * @author Ibai Moya Aroz
+ * 
+ * @see es.ubu.lsi.server.ClientSession
+ */
+final class SessionRegistry {
+
+    /** Sesiones indexadas por identificador. */
+    private final ConcurrentMap<Integer, ClientSession> byId = new ConcurrentHashMap<>();
+
+    /** Sesiones indexadas por nombre de usuario. */
+    private final ConcurrentMap<String, ClientSession> byUsername = new ConcurrentHashMap<>();
+
+    /** Sesiones reanudables indexadas por su testigo. */
+    private final ConcurrentMap<String, ClientSession> byToken = new ConcurrentHashMap<>();
+
+    /** Identificador del siguiente cliente. */
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    /** Índices de los nombres de usuario, usados por las listas de vetados. */
+    private final UserIndex users = new UserIndex();
+
+    /** Miembros de cada canal. */
+    private final ChannelIndex channels = new ChannelIndex();
+
+    /** Vetos de cada usuario por su índice, para que sobrevivan a sus desconexiones. */
+    private final ConcurrentMap<Integer, BanList> bans = new ConcurrentHashMap<>();
+
+    /**
+     * Reserva el identificador del siguiente cliente.
+     * 
+     * @return Identificador nuevo
+     */
+    int nextId() {
+        return this.nextId.getAndIncrement();
+    }
+
+    /**
+     * Registra una sesión si su nombre de usuario no está en uso
+     * y la añade al canal por defecto.
+     * 
+     * @param session Sesión a registrar
+     * @return true si se ha registrado, false si el nombre ya estaba conectado
+     */
+    boolean register(ClientSession session) {
+        /* Se asigna antes de publicar la sesión para que toda difusión vea su índice. */
+        int userIndex = this.users.indexOf(session.getUsername());
+        session.setUserIndex(userIndex);
+        session.setBans(bansOf(userIndex));
+
+        /* El índice por nombre es el que decide si el registro gana la carrera. */
+        if (this.byUsername.putIfAbsent(session.getUsername(), session) != null) {
+            return false;
+        }
+        session.setChannel(ChannelIndex.DEFAULT_CHANNEL);
+        this.channels.add(ChannelIndex.DEFAULT_CHANNEL, session);
+        this.byId.put(session.getId(), session);
+        if (session.getResumeToken() != null) {
+            this.byToken.put(session.getResumeToken(), session);
+        }
+        return true;
+    }
+
+    /**
+     * Sustituye una sesión registrada por la que la reanuda, con el mismo identificador,
+     * nombre, canal y testigo. La nueva entra en el canal antes de que salga la anterior
+     * para que ninguna difusión se pierda durante el cambio.
+     * 
+     * @param previous Sesión registrada
+     * @param resumed Sesión que la reanuda
+     * @return true si se ha sustituido, false si la anterior ya no estaba registrada
+     */
+    boolean replace(ClientSession previous, ClientSession resumed) {
+        if (!this.byUsername.replace(previous.getUsername(), previous, resumed)) {
+            return false;
+        }
+        this.channels.add(resumed.getChannel(), resumed);
+        this.byId.put(resumed.getId(), resumed);
+        this.byToken.put(resumed.getResumeToken(), resumed);
+        this.channels.remove(previous.getChannel(), previous);
+        return true;
+    }
+
+    /**
+     * Obtiene la lista de vetados de un usuario, esté conectado o no.
+     * 
+     * @param userIndex Índice del usuario en el {@link UserIndex}
+     * @return Lista de vetados, creada vacía la primera vez
+     */
+    BanList bansOf(int userIndex) {
+        BanList list = this.bans.get(userIndex);
+        return list != null ? list : this.bans.computeIfAbsent(userIndex, index -> new BanList());
+    }
+
+    /**
+     * Cuenta los vetos vigentes de todos los usuarios, conectados o no.
+     * 
+     * @return Número total de vetos
+     */
+    int banCount() {
+        int count = 0;
+        for (BanList list : this.bans.values()) {
+            count += list.size();
+        }
+        return count;
+    }
+
+    /**
+     * Elimina una sesión de ambos índices y de su canal.
+     * 
+     * @param id Identificador del cliente
+     * @return La sesión eliminada, o null si no existía
+     */
+    ClientSession remove(int id) {
+        ClientSession session = this.byId.remove(id);
+        if (session != null) {
+            this.byUsername.remove(session.getUsername(), session);
+            this.channels.remove(session.getChannel(), session);
+            if (session.getResumeToken() != null) {
+                this.byToken.remove(session.getResumeToken(), session);
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Cambia una sesión de canal. Entra en el nuevo antes de salir del anterior
+     * para que ninguna difusión la pierda durante el cambio.
+     * 
+     * @param session Sesión que cambia de canal
+     * @param channel Nombre normalizado del canal de destino
+     * @return Canal que ha abandonado
+     */
+    String moveTo(ClientSession session, String channel) {
+        String previous = session.getChannel();
+        this.channels.add(channel, session);
+        session.setChannel(channel);
+        this.channels.remove(previous, session);
+        return previous;
+    }
+
+    /**
+     * Busca una sesión por identificador.
+     * 
+     * @param id Identificador del cliente
+     * @return La sesión, o null si no existe
+     */
+    ClientSession byId(int id) {
+        return this.byId.get(id);
+    }
+
+    /**
+     * Busca una sesión reanudable por su testigo.
+     * 
+     * @param token Testigo de reanudación
+     * @return La sesión, o null si no existe o ha caducado
+     */
+    ClientSession byToken(String token) {
+        return this.byToken.get(token);
+    }
+
+    /**
+     * Busca una sesión por nombre de usuario.
+     * 
+     * @param username Nombre de usuario
+     * @return La sesión, o null si no existe
+     */
+    ClientSession byUsername(String username) {
+        return this.byUsername.get(username);
+    }
+
+    /**
+     * Devuelve una vista de las sesiones registradas.
+     * La iteración es débilmente consistente y nunca lanza ConcurrentModificationException.
+     * 
+     * @return Sesiones registradas
+     */
+    Collection<ClientSession> sessions() {
+        return this.byId.values();
+    }
+
+    /**
+     * Obtiene la tabla de índices de nombres de usuario.
+     * 
+     * @return Índices de los usuarios
+     */
+    UserIndex users() {
+        return this.users;
+    }
+
+    /**
+     * Obtiene el índice de canales.
+     * 
+     * @return Miembros de cada canal
+     */
+    ChannelIndex channels() {
+        return this.channels;
+    }
+
+    /**
+     * Número de sesiones registradas.
+     * 
+     * @return Número de sesiones
+     */
+    int size() {
+        return this.byId.size();
+    }
+}
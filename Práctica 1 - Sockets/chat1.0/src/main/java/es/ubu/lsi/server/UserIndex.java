@@ -0,0 +1,63 @@
+package es.ubu.lsi.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tabla que asigna a cada nombre de usuario un índice entero denso y estable.
+ * Un nombre conserva su índice aunque el cliente se desconecte, de forma que los
+ * vetos sobre usuarios que se han ido siguen siendo válidos.
+ * Los índices permiten guardar las listas de vetados como mapas de bits.
+ *
+ * @version 1.0
+ * @since 1.0
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @see es.ubu.lsi.server.BanList
+ */
+final class UserIndex {
+
+    /** Índice asignado a cada nombre de usuario. */
+    private final ConcurrentMap<String, Integer> indexes = new ConcurrentHashMap<>();
+
+    /** Siguiente índice libre. */
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Obtiene el índice de un nombre de usuario, asignándole uno nuevo si no lo tenía.
+     * Como los índices no se liberan, solo debe usarse con usuarios que existen; para los
+     * nombres que escribe un cliente está {@link #lookup}.
+     *
+     * @param username Nombre de usuario
+     * @return Índice del usuario
+     */
+    int indexOf(String username) {
+        Integer index = this.indexes.get(username);
+        if (index == null) {
+            index = this.indexes.computeIfAbsent(username, name -> this.next.getAndIncrement());
+        }
+        return index;
+    }
+
+    /**
+     * Obtiene el índice de un nombre de usuario sin asignar uno nuevo.
+     *
+     * @param username Nombre de usuario
+     * @return Índice del usuario, o -1 si nunca se ha visto
+     */
+    int lookup(String username) {
+        Integer index = this.indexes.get(username);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Número de nombres de usuario con índice asignado.
+     *
+     * @return Número de usuarios conocidos
+     */
+    int size() {
+        return this.next.get();
+    }
+}
@@ -0,0 +1,117 @@
+package es.ubu.lsi.common;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import es.ubu.lsi.common.ChatMessage.MessageType;
+
+class ChatMessageCodecTest {
+
+    @Test
+    void testEncodeAndRead() throws IOException {
+        // Comprueba que una trama codificada se lee con el mismo tipo, emisor y texto.
+        ByteBuffer frame = ChatMessageCodec.encode(new ChatMessage(7, MessageType.MESSAGE, "hola, ñandú"));
+        ChatMessage message = ChatMessageCodec.read(input(frame));
+
+        assertEquals(MessageType.MESSAGE, message.getType());
+        assertEquals(7, message.getId());
+        assertEquals("hola, ñandú", message.getMessage());
+    }
+
+    @Test
+    void testEveryTypeRoundTrips() throws IOException {
+        // Comprueba que todos los tipos de mensaje tienen un código propio que se decodifica igual.
+        for (MessageType type : MessageType.values()) {
+            assertEquals(type, ChatMessageCodec.typeOf(ChatMessageCodec.typeCode(type)));
+        }
+    }
+
+    @Test
+    void testReadReturnsNullBetweenFrames() throws IOException {
+        // Comprueba que el final del flujo entre dos tramas no es un error.
+        DataInputStream input = input(ChatMessageCodec.encode(MessageType.LOGOUT, 1, ""));
+
+        assertEquals(MessageType.LOGOUT, ChatMessageCodec.read(input).getType());
+        assertNull(ChatMessageCodec.read(input));
+    }
+
+    @Test
+    void testTruncatedFrameFails() {
+        // Comprueba que una trama cortada a mitad del texto da un error.
+        ByteBuffer frame = ChatMessageCodec.encode(MessageType.MESSAGE, 1, "mensaje");
+        byte[] bytes = Arrays.copyOf(frame.array(), frame.limit() - 2);
+
+        assertThrows(EOFException.class, () -> ChatMessageCodec.read(new DataInputStream(new ByteArrayInputStream(bytes))));
+    }
+
+    @Test
+    void testInvalidHeaderFails() {
+        // Comprueba que se rechazan un tipo desconocido y una longitud fuera de rango.
+        ByteBuffer unknownType = ByteBuffer.allocate(ChatMessageCodec.HEADER_SIZE).put((byte) 99).putInt(1).putInt(0);
+        ByteBuffer tooLong = ByteBuffer.allocate(ChatMessageCodec.HEADER_SIZE).put((byte) 1).putInt(1).putInt(ChatMessageCodec.MAX_PAYLOAD + 1);
+
+        assertThrows(IOException.class, () -> ChatMessageCodec.read(input(unknownType.array())));
+        assertThrows(IOException.class, () -> ChatMessageCodec.read(input(tooLong.array())));
+    }
+
+    @Test
+    void testEncodeRejectsOversizedText() {
+        // Comprueba que no se codifica un texto mayor que el máximo de la trama.
+        char[] text = new char[ChatMessageCodec.MAX_PAYLOAD + 1];
+        Arrays.fill(text, 'x');
+
+        assertThrows(IllegalArgumentException.class, () -> ChatMessageCodec.encode(MessageType.MESSAGE, 1, new String(text)));
+    }
+
+    @Test
+    void testReadLineLeavesRestOfStream() throws IOException {
+        // Comprueba que la línea de saludo se lee sin el retorno de carro y sin consumir lo que sigue.
+        byte[] frame = ChatMessageCodec.encode(MessageType.MESSAGE, 2, "binario").array();
+        byte[] greeting = (ChatMessageCodec.HANDSHAKE + " pio\r\n").getBytes("UTF-8");
+        byte[] bytes = Arrays.copyOf(greeting, greeting.length + frame.length);
+        System.arraycopy(frame, 0, bytes, greeting.length, frame.length);
+        DataInputStream input = input(bytes);
+
+        assertEquals(ChatMessageCodec.HANDSHAKE + " pio", ChatMessageCodec.readLine(input));
+        assertEquals("binario", ChatMessageCodec.read(input).getMessage());
+    }
+
+    @Test
+    void testReadLineLimits() throws IOException {
+        // Comprueba que una línea sin terminar y una demasiado larga dan error, y el flujo vacío null.
+        char[] longLine = new char[2000];
+        Arrays.fill(longLine, 'x');
+
+        assertNull(ChatMessageCodec.readLine(input(new byte[0])));
+        assertThrows(EOFException.class, () -> ChatMessageCodec.readLine(input("BIN/1".getBytes("UTF-8"))));
+        assertThrows(IOException.class, () -> ChatMessageCodec.readLine(input((new String(longLine) + "\n").getBytes("UTF-8"))));
+    }
+
+    /**
+     * Crea un flujo de entrada con el contenido de una trama.
+     *
+     * @param frame Trama codificada
+     * @return Flujo de entrada
+     */
+    private static DataInputStream input(ByteBuffer frame) {
+        return input(Arrays.copyOfRange(frame.array(), frame.position(), frame.limit()));
+    }
+
+    /**
+     * Crea un flujo de entrada con unos bytes.
+     *
+     * @param bytes Contenido del flujo
+     * @return Flujo de entrada
+     */
+    private static DataInputStream input(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,214 @@
+package es.ubu.lsi.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import es.ubu.lsi.common.ExecutionMode;
+
+class JournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testStateRebuiltAfterRestart() throws Exception {
+        // Comprueba que tras reiniciar se recuperan los vetos vigentes y los mensajes en orden.
+        Journal journal = open(10);
+        journal.append(JournalEvent.message("pio", "general", "hola"));
+        journal.append(JournalEvent.ban(JournalEvent.Kind.BAN, "pio", "blas"));
+        journal.append(JournalEvent.ban(JournalEvent.Kind.BAN, "pio", "ana"));
+        journal.append(JournalEvent.ban(JournalEvent.Kind.UNBAN, "pio", "ana"));
+        journal.append(JournalEvent.message("blas", "general", "adiós"));
+        journal.close();
+
+        List<JournalEvent> events = new ArrayList<>();
+        new Journal(dir.toString(), Journal.MIN_SEGMENT_BYTES, 10, log()).recover(events::add);
+
+        assertEquals(3, events.size());
+        assertEquals(JournalEvent.Kind.BAN, events.get(0).getKind());
+        assertEquals("pio", events.get(0).getUsername());
+        assertEquals("blas", events.get(0).getTarget());
+        assertEquals("hola", events.get(1).getText());
+        assertEquals("adiós", events.get(2).getText());
+        assertEquals("blas", events.get(2).getUsername());
+        assertEquals("general", events.get(2).getTarget());
+    }
+
+    @Test
+    void testRecoverKeepsOnlyHistoryTail() throws Exception {
+        // Comprueba que solo se recuperan los últimos mensajes que caben en el historial.
+        Journal journal = open(3);
+        for (int i = 0; i < 10; i++) {
+            journal.append(JournalEvent.message("pio", "general", "mensaje " + i));
+        }
+        journal.close();
+
+        List<JournalEvent> events = new ArrayList<>();
+        int read = new Journal(dir.toString(), Journal.MIN_SEGMENT_BYTES, 3, log()).recover(events::add);
+
+        assertEquals(10, read);
+        assertEquals(3, events.size());
+        assertEquals("mensaje 7", events.get(0).getText());
+        assertEquals("mensaje 9", events.get(2).getText());
+    }
+
+    @Test
+    void testCorruptRecordStopsRecovery() throws Exception {
+        // Comprueba que la lectura se detiene en el registro con la suma de control incorrecta
+        // y que lo siguiente se escribe encima.
+        Journal journal = open(10);
+        journal.append(JournalEvent.message("pio", "general", "primero"));
+        journal.append(JournalEvent.message("pio", "general", "segundo"));
+        journal.append(JournalEvent.message("pio", "general", "tercero"));
+        journal.close();
+
+        File segment = segments()[0];
+        byte[] content = Files.readAllBytes(segment.toPath());
+        int offset = indexOf(content, "segundo".getBytes(StandardCharsets.UTF_8));
+        content[offset] ^= 1;
+        Files.write(segment.toPath(), content);
+
+        journal = new Journal(dir.toString(), Journal.MIN_SEGMENT_BYTES, 10, log());
+        List<JournalEvent> events = new ArrayList<>();
+        assertEquals(1, journal.recover(events::add));
+        assertEquals("primero", events.get(0).getText());
+
+        journal.start(ExecutionMode.PLATFORM);
+        journal.append(JournalEvent.message("blas", "general", "cuarto"));
+        journal.close();
+
+        events.clear();
+        new Journal(dir.toString(), Journal.MIN_SEGMENT_BYTES, 10, log()).recover(events::add);
+        assertEquals(2, events.size());
+        assertEquals("cuarto", events.get(1).getText());
+    }
+
+    @Test
+    void testTornRecordStopsRecovery() throws Exception {
+        // Comprueba que un registro cortado a mitad, con la longitud escrita pero sin cuerpo, no se lee.
+        Journal journal = open(10);
+        journal.append(JournalEvent.message("pio", "general", "primero"));
+        journal.append(JournalEvent.message("pio", "general", "segundo"));
+        journal.close();
+
+        File segment = segments()[0];
+        byte[] content = Files.readAllBytes(segment.toPath());
+        int end = indexOf(content, "segundo".getBytes(StandardCharsets.UTF_8)) + "segundo".length();
+        Arrays.fill(content, end - 4, end, (byte) 0);
+        Files.write(segment.toPath(), content);
+
+        List<JournalEvent> events = new ArrayList<>();
+        assertEquals(1, new Journal(dir.toString(), Journal.MIN_SEGMENT_BYTES, 10, log()).recover(events::add));
+        assertEquals("primero", events.get(0).getText());
+    }
+
+    @Test
+    void testRollOverCompactsOldSegments() throws Exception {
+        // Comprueba que al pasar de segmento se resumen los vetos y el historial y se borran los anteriores.
+        char[] padding = new char[100 * 1024];
+        Arrays.fill(padding, 'x');
+        String text = new String(padding);
+
+        Journal journal = open(2);
+        journal.append(JournalEvent.ban(JournalEvent.Kind.BAN, "pio", "blas"));
+        for (int i = 0; i < 30; i++) {
+            journal.append(JournalEvent.message("pio", "general", i + text));
+        }
+        journal.close();
+
+        File[] segments = segments();
+        assertEquals(1, segments.length);
+        assertNotEquals("segment-00000001.journal", segments[0].getName());
+
+        List<JournalEvent> events = new ArrayList<>();
+        new Journal(dir.toString(), Journal.MIN_SEGMENT_BYTES, 2, log()).recover(events::add);
+
+        assertEquals(3, events.size());
+        assertEquals(JournalEvent.Kind.BAN, events.get(0).getKind());
+        assertEquals("blas", events.get(0).getTarget());
+        assertEquals(28 + text, events.get(1).getText());
+        assertEquals(29 + text, events.get(2).getText());
+    }
+
+    @Test
+    void testRestartCompactsLeftoverSegments() throws Exception {
+        // Comprueba que al arrancar se compactan los segmentos que quedaron sin resumir.
+        Journal journal = open(5);
+        journal.append(JournalEvent.message("pio", "general", "primero"));
+        journal.close();
+        File first = segments()[0];
+        Files.copy(first.toPath(), dir.resolve("segment-00000002.journal"));
+
+        journal = new Journal(dir.toString(), Journal.MIN_SEGMENT_BYTES, 5, log());
+        List<JournalEvent> events = new ArrayList<>();
+        assertEquals(2, journal.recover(events::add));
+        journal.start(ExecutionMode.PLATFORM);
+        journal.close();
+
+        assertEquals(1, segments().length);
+        events.clear();
+        new Journal(dir.toString(), Journal.MIN_SEGMENT_BYTES, 5, log()).recover(events::add);
+        assertEquals(2, events.size());
+    }
+
+    /**
+     * Abre un diario vacío en el directorio temporal y arranca su escritor.
+     *
+     * @param history Mensajes que se recuperan como máximo
+     * @return Diario listo para escribir
+     * @throws IOException Si no se puede abrir
+     */
+    private Journal open(int history) throws IOException {
+        Journal journal = new Journal(dir.toString(), Journal.MIN_SEGMENT_BYTES, history, log());
+        journal.recover(event -> { });
+        journal.start(ExecutionMode.PLATFORM);
+        return journal;
+    }
+
+    /**
+     * Obtiene los segmentos del directorio temporal, en orden.
+     *
+     * @return Ficheros de segmento
+     */
+    private File[] segments() {
+        File[] files = dir.toFile().listFiles((directory, name) -> name.endsWith(".journal"));
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * Busca la primera aparición de unos bytes.
+     *
+     * @param content Contenido donde buscar
+     * @param pattern Bytes buscados
+     * @return Posición de la primera aparición
+     */
+    private static int indexOf(byte[] content, byte[] pattern) {
+        for (int i = 0; i + pattern.length <= content.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(content, i, i + pattern.length), pattern)) {
+                return i;
+            }
+        }
+        throw new AssertionError("No se encuentra el patrón");
+    }
+
+    /**
+     * Crea un registro que no escribe nada.
+     *
+     * @return Registro desactivado
+     */
+    private static ServerLog log() {
+        return new ServerLog(ServerLog.Level.OFF);
+    }
+}
@@ -0,0 +1,112 @@
+package es.ubu.lsi.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class LineReaderTest {
+
+    @Test
+    void testReadsLinesWithoutTerminators() throws IOException {
+        // Comprueba que se quitan el salto y el retorno de carro y que la última línea sin salto cuenta.
+        LineReader reader = new LineReader(new StringReader("uno\r\ndos\n\ntres"), 10);
+
+        assertEquals(3, reader.read());
+        assertEquals("uno", reader.line());
+        assertEquals(3, reader.read());
+        assertEquals("dos", reader.line());
+        assertEquals(0, reader.read());
+        assertEquals("", reader.line());
+        assertEquals(4, reader.read());
+        assertEquals("tres", reader.line());
+        assertEquals(LineReader.END_OF_STREAM, reader.read());
+    }
+
+    @Test
+    void testTooLongLineIsDiscarded() throws IOException {
+        // Comprueba que una línea demasiado larga se descarta entera y se sigue con la siguiente.
+        LineReader reader = new LineReader(new StringReader("12345\n123456\nfin\n"), 5);
+
+        assertEquals(5, reader.read());
+        assertEquals("12345", reader.line());
+        assertEquals(LineReader.TOO_LONG, reader.read());
+        assertEquals(3, reader.read());
+        assertEquals("fin", reader.line());
+        assertEquals(LineReader.END_OF_STREAM, reader.read());
+    }
+
+    @Test
+    void testCarriageReturnDoesNotCountAsLength() throws IOException {
+        // Comprueba que una línea de la longitud máxima terminada en retorno de carro se acepta.
+        LineReader reader = new LineReader(new StringReader("12345\r\n"), 5);
+
+        assertEquals(5, reader.read());
+        assertEquals("12345", reader.line());
+    }
+
+    @Test
+    void testLinesAcrossReads() throws IOException {
+        // Comprueba que se leen bien las líneas partidas entre varias lecturas del flujo.
+        char[] longLine = new char[20000];
+        Arrays.fill(longLine, 'x');
+        String text = "a\n" + new String(longLine) + "\nb\n";
+        LineReader reader = new LineReader(new TrickleReader(text, 7), 30000);
+
+        assertEquals(1, reader.read());
+        assertEquals(longLine.length, reader.read());
+        assertEquals(new String(longLine), reader.line());
+        assertEquals(1, reader.read());
+        assertEquals("b", reader.line());
+        assertEquals(LineReader.END_OF_STREAM, reader.read());
+    }
+
+    @Test
+    void testLongLineAcrossReadsIsDiscarded() throws IOException {
+        // Comprueba que una línea demasiado larga repartida en varias lecturas también se descarta.
+        char[] longLine = new char[20000];
+        Arrays.fill(longLine, 'x');
+        LineReader reader = new LineReader(new TrickleReader(new String(longLine) + "\nok", 3000), 100);
+
+        assertEquals(LineReader.TOO_LONG, reader.read());
+        assertEquals(2, reader.read());
+        assertEquals("ok", reader.line());
+    }
+
+    /**
+     * Flujo que entrega como mucho unos pocos caracteres en cada lectura, como un socket.
+     */
+    private static final class TrickleReader extends Reader {
+
+        /** Flujo con el texto completo. */
+        private final StringReader input;
+
+        /** Caracteres que se entregan como mucho en cada lectura. */
+        private final int step;
+
+        /**
+         * Constructor de TrickleReader.
+         *
+         * @param text Texto del flujo
+         * @param step Caracteres por lectura
+         */
+        TrickleReader(String text, int step) {
+            this.input = new StringReader(text);
+            this.step = step;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            return this.input.read(buffer, offset, Math.min(length, this.step));
+        }
+
+        @Override
+        public void close() {
+            this.input.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package es.ubu.lsi.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class OutboundQueueTest {
+
+    /** Espera de BLOCK de las pruebas, en milisegundos. */
+    private static final long TIMEOUT_MILLIS = 200;
+
+    @Test
+    void testBlockWaitsForRoom() throws InterruptedException {
+        // Comprueba que con BLOCK el mensaje entra si alguien vacía la cola antes de que venza la espera.
+        OutboundQueue<String> queue = full(1);
+        Thread reader = new Thread(() -> {
+            sleep(50);
+            queue.poll();
+        });
+        reader.start();
+
+        assertTrue(queue.offer("nuevo"));
+        reader.join();
+        assertEquals("nuevo", queue.poll());
+        assertEquals(0, queue.getDropped());
+    }
+
+    @Test
+    void testBlockDropsNewestAfterTimeout() {
+        // Comprueba que con BLOCK, si nadie vacía la cola, se descarta el mensaje nuevo al vencer la espera.
+        OutboundQueue<String> queue = full(1);
+
+        assertFalse(queue.offer("nuevo"));
+        assertEquals("viejo", queue.poll());
+        assertEquals(1, queue.getDropped());
+    }
+
+    @Test
+    void testSharedDeadlineBoundsTotalWait() {
+        // Comprueba que varias colas llenas con el mismo plazo esperan en total lo de una sola.
+        OutboundQueue<String>[] queues = fullQueues(4);
+        long start = System.nanoTime();
+        long deadline = queues[0].deadline();
+
+        for (OutboundQueue<String> queue : queues) {
+            assertFalse(queue.offer("nuevo", deadline));
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMillis >= TIMEOUT_MILLIS - 20, "Ha esperado " + elapsedMillis + " ms");
+        assertTrue(elapsedMillis < 2 * TIMEOUT_MILLIS, "Ha esperado " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void testExpiredDeadlineDoesNotWait() {
+        // Comprueba que con el plazo ya vencido una cola llena descarta el mensaje sin esperar.
+        OutboundQueue<String> queue = full(1);
+        long start = System.nanoTime();
+
+        assertFalse(queue.offer("nuevo", start - 1));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < TIMEOUT_MILLIS / 2);
+        assertEquals(1, queue.getDropped());
+    }
+
+    /**
+     * Crea una cola con BLOCK llena hasta su capacidad.
+     *
+     * @param capacity Capacidad de la cola
+     * @return Cola llena
+     */
+    private static OutboundQueue<String> full(int capacity) {
+        OutboundQueue<String> queue = new OutboundQueue<>(capacity, OverflowPolicy.BLOCK, TIMEOUT_MILLIS);
+        for (int i = 0; i < capacity; i++) {
+            assertTrue(queue.offer("viejo"));
+        }
+        return queue;
+    }
+
+    /**
+     * Crea varias colas con BLOCK llenas, de un elemento.
+     *
+     * @param count Número de colas
+     * @return Colas llenas
+     */
+    @SuppressWarnings("unchecked")
+    private static OutboundQueue<String>[] fullQueues(int count) {
+        OutboundQueue<String>[] queues = new OutboundQueue[count];
+        for (int i = 0; i < count; i++) {
+            queues[i] = full(1);
+        }
+        return queues;
+    }
+
+    /**
+     * Duerme el hilo actual sin propagar la interrupción.
+     *
+     * @param millis Milisegundos a dormir
+     */
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
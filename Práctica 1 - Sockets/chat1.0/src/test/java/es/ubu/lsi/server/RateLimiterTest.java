@@ -0,0 +1,70 @@
+package es.ubu.lsi.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class RateLimiterTest {
+
+    /** Un segundo en nanosegundos. */
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void testBurstThenLimit() {
+        // Comprueba que se aceptan tantos mensajes seguidos como la ráfaga y el siguiente no.
+        RateLimiter limiter = new RateLimiter(2, 3);
+        long now = System.nanoTime();
+
+        assertTrue(limiter.tryAcquire(now));
+        assertTrue(limiter.tryAcquire(now));
+        assertTrue(limiter.tryAcquire(now));
+        assertFalse(limiter.tryAcquire(now));
+    }
+
+    @Test
+    void testTokensRefillAtRate() {
+        // Comprueba que tras gastar la ráfaga se repone una ficha cada 1/rate segundos.
+        RateLimiter limiter = new RateLimiter(2, 1);
+        long now = System.nanoTime();
+
+        assertTrue(limiter.tryAcquire(now));
+        assertFalse(limiter.tryAcquire(now + SECOND / 4));
+        assertTrue(limiter.tryAcquire(now + SECOND / 2));
+        assertFalse(limiter.tryAcquire(now + SECOND / 2));
+    }
+
+    @Test
+    void testIdleTimeRefillsOnlyUpToBurst() {
+        // Comprueba que un rato sin mensajes no acumula más fichas que la ráfaga.
+        RateLimiter limiter = new RateLimiter(10, 2);
+        long later = System.nanoTime() + 60 * SECOND;
+
+        assertTrue(limiter.tryAcquire(later));
+        assertTrue(limiter.tryAcquire(later));
+        assertFalse(limiter.tryAcquire(later));
+    }
+
+    @Test
+    void testRejectedMessagesDoNotSpendTokens() {
+        // Comprueba que los mensajes rechazados no retrasan la reposición.
+        RateLimiter limiter = new RateLimiter(1, 1);
+        long now = System.nanoTime();
+
+        assertTrue(limiter.tryAcquire(now));
+        for (int i = 0; i < 100; i++) {
+            assertFalse(limiter.tryAcquire(now));
+        }
+        assertTrue(limiter.tryAcquire(now + SECOND));
+    }
+
+    @Test
+    void testZeroRateDoesNotLimit() {
+        // Comprueba que con ritmo 0 se aceptan todos los mensajes.
+        RateLimiter limiter = new RateLimiter(0, 1);
+        long now = System.nanoTime();
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(limiter.tryAcquire(now));
+        }
+    }
+}
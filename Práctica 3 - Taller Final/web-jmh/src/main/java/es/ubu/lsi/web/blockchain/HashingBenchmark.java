@@ -0,0 +1,94 @@
+package es.ubu.lsi.web.blockchain;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Coste de un intento de minado: el hash de un bloque con un nonce nuevo. Compara
+ * {@link BlockHasher}, que reutiliza la cabecera serializada, el digest del hilo y el array
+ * del resultado, con el cálculo anterior, que buscaba el digest, concatenaba la entrada y
+ * pasaba el hash a hexadecimal en cada intento. Con {@code -prof gc}, la métrica
+ * {@code gc.alloc.rate.norm} da los bytes reservados por hash.
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @version 1.0
+ * @since 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashingBenchmark {
+
+    /** Bloque de una valoración. */
+    private Block block;
+
+    /** Calculador de hashes del bloque. */
+    private BlockHasher hasher;
+
+    /** Hash del último intento. */
+    private final byte[] hash = new byte[BlockHasher.HASH_LENGTH];
+
+    /** Nonce del siguiente intento. */
+    private int nonce = 0;
+
+    /**
+     * Crea el bloque y su calculador.
+     */
+    @Setup
+    public void setUp() {
+        this.block = new Block(1, Blockchain.ratingRecord(1L, 1L, 1, 5), "0");
+        this.hasher = new BlockHasher(BlockHasher.header(this.block.getIndex(), this.block.getTimestamp(),
+                                                         this.block.getMerkleRoot(), this.block.getPreviousHash()));
+    }
+
+    /**
+     * Un intento con {@link BlockHasher}.
+     *
+     * @return el hash
+     */
+    @Benchmark
+    public byte[] hasher() {
+        this.hasher.hash(this.nonce++ & Integer.MAX_VALUE, this.hash);
+        return this.hash;
+    }
+
+    /**
+     * Un intento con el cálculo anterior a {@link BlockHasher}.
+     *
+     * @return el hash en hexadecimal
+     * @throws NoSuchAlgorithmException si no hay SHA-256
+     * @throws UnsupportedEncodingException si no hay UTF-8
+     */
+    @Benchmark
+    public String legacy() throws NoSuchAlgorithmException, UnsupportedEncodingException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        String input = this.block.getIndex() + this.block.getTimestamp() + this.block.getMerkleRoot()
+                       + this.block.getPreviousHash() + (this.nonce++ & Integer.MAX_VALUE);
+        byte[] hashBytes = digest.digest(input.getBytes("UTF-8"));
+
+        StringBuilder hexString = new StringBuilder();
+        for (byte b : hashBytes) {
+            String hex = Integer.toHexString(0xff & b);
+            if (hex.length() == 1) hexString.append('0');
+            hexString.append(hex);
+        }
+        return hexString.toString();
+    }
+}
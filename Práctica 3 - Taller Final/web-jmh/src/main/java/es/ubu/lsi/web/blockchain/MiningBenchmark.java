@@ -0,0 +1,68 @@
+package es.ubu.lsi.web.blockchain;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tiempo de minar un bloque según la dificultad y el número de hilos del minero.
+ * Cada operación mina un bloque nuevo con un registro distinto, así que el nonce
+ * ganador cambia en cada una; con dificultad d hacen falta unos 16^d hashes de media.
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @version 1.0
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MiningBenchmark {
+
+    /** Ceros hexadecimales que debe tener el hash al principio. */
+    @Param({"2", "3", "4", "5"})
+    public int difficulty;
+
+    /** Hilos del minero. */
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    /** Minero con los hilos indicados. */
+    private ParallelMiner miner;
+
+    /** Identificador de la siguiente valoración. */
+    private long nextRating = 0;
+
+    /**
+     * Crea el minero.
+     */
+    @Setup
+    public void setUp() {
+        this.miner = new ParallelMiner(this.threads);
+    }
+
+    /**
+     * Mina un bloque nuevo.
+     *
+     * @return el bloque minado
+     */
+    @Benchmark
+    public Block mine() {
+        Block block = new Block(1, Blockchain.ratingRecord(this.nextRating++, 1L, 1, 5), "0");
+        this.miner.mine(block, this.difficulty);
+        return block;
+    }
+}
@@ -0,0 +1,73 @@
+package es.ubu.lsi.web.blockchain;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hashes por segundo de la búsqueda del nonce según el número de hilos del minero.
+ * Cada operación recorre una ventana fija de nonces con una dificultad que no se puede
+ * cumplir, así que siempre se calculan todos los hashes de la ventana y el resultado,
+ * en operaciones por segundo, son directamente hashes por segundo.
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @version 1.0
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NonceSearchBenchmark {
+
+    /** Nonces de cada operación. */
+    private static final int WINDOW = 1 << 16;
+
+    /** Dificultad imposible: los 64 dígitos del hash a cero. */
+    private static final int UNREACHABLE = 64;
+
+    /** Hilos del minero. */
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    /** Minero con los hilos indicados. */
+    private ParallelMiner miner;
+
+    /** Cabecera de un bloque de una valoración. */
+    private byte[] header;
+
+    /**
+     * Crea el minero y el bloque.
+     */
+    @Setup
+    public void setUp() {
+        this.miner = new ParallelMiner(this.threads);
+        Block block = new Block(1, Blockchain.ratingRecord(1L, 1L, 1, 5), "0");
+        this.header = BlockHasher.header(block.getIndex(), block.getTimestamp(), block.getMerkleRoot(), block.getPreviousHash());
+    }
+
+    /**
+     * Recorre la ventana de nonces.
+     *
+     * @return -1, para que no se descarte la búsqueda
+     */
+    @Benchmark
+    @OperationsPerInvocation(WINDOW)
+    public int search() {
+        return this.miner.search(this.header, 0, WINDOW - 1, UNREACHABLE);
+    }
+}
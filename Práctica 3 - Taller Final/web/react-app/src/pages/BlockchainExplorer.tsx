@@ -7,6 +7,8 @@ interface Block {
   index:        number;
   timestamp:    number;
   data:         string;
+  records:      string[];
+  merkleRoot:   string;
   hash:         string;
   previousHash: string;
   nonce:        number;
@@ -259,7 +261,8 @@ export default function BlockchainExplorer() {
             <h2 className="text-2xl font-bold mb-4">Cadena de Bloques</h2>
             
             {blocks.map((block, index) => {
-              const blockData = parseBlockData(block.data);
+              const blockData = parseBlockData(block.records?.[0] ?? block.data);
+              const extraRecords = (block.records?.length ?? 1) - 1;
               const isGenesis = blockData.type === 'genesis';
               
               return (
@@ -304,6 +307,11 @@ export default function BlockchainExplorer() {
                           <span className="text-gray-400">Película ID:</span>
                           <span className="ml-2">{blockData.movieId}</span>
                         </div>
+                        {extraRecords > 0 && (
+                          <div className="col-span-2 text-gray-400">
+                            +{extraRecords} valoraciones más en este bloque
+                          </div>
+                        )}
                       </div>
                     )}
                     
@@ -366,7 +374,12 @@ export default function BlockchainExplorer() {
 
                       <div className="bg-black/20 rounded-lg p-4">
                         <p className="text-sm text-gray-400 mb-1">Datos</p>
-                        <p className="font-mono text-sm break-all">{selectedBlock.data}</p>
+                        <p className="font-mono text-sm break-all whitespace-pre-line">{selectedBlock.data}</p>
+                      </div>
+
+                      <div className="bg-black/20 rounded-lg p-4">
+                        <p className="text-sm text-gray-400 mb-1">Raíz de Merkle ({selectedBlock.records?.length ?? 1} registros)</p>
+                        <p className="font-mono text-xs break-all">{selectedBlock.merkleRoot}</p>
                       </div>
 
                       <div className="bg-black/20 rounded-lg p-4">
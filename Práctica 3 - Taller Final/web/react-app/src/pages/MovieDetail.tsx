@@ -55,6 +55,7 @@ const MovieDetail: React.FC = () => {
   const [showTrailerModal, setShowTrailerModal] = useState(false);
   const [selectedTrailer, setSelectedTrailer] = useState<Video | null>(null);
   const [blockHash, setBlockHash] = useState<string>('');
+  const [isBlockPending, setIsBlockPending] = useState(false);
 
   const iso = movie?.production_countries?.[0]?.iso_3166_1;
   const coords = COUNTRY_COORDS[iso ?? ""] ?? { lat: 20, lng: 0 };
@@ -119,12 +120,35 @@ const MovieDetail: React.FC = () => {
       
       setRatingData(data);
       setUserRating(data.userRating);
+      setBlockHash(data.blockHash || '');
+      setIsBlockPending(!!data.blockPending);
       
     } catch (error) {
       console.error('Error loading user rating:', error);
     }
   };
 
+  // La valoración se mina en segundo plano: se consulta hasta que tenga bloque.
+  const waitForBlock = async (attempts = 30) => {
+    for (let i = 0; i < attempts; i++) {
+      await new Promise(resolve => setTimeout(resolve, 1000));
+      try {
+        const response = await fetch(`/api/movies/${id}/rating`, {
+          credentials: 'include'
+        });
+        const data = await response.json();
+        if (data.blockHash) {
+          setBlockHash(data.blockHash);
+          setIsBlockPending(false);
+          return;
+        }
+      } catch (error) {
+        console.error('Error checking rating block:', error);
+      }
+    }
+    setIsBlockPending(false);
+  };
+
   const handleRating = async (rating: number) => {
     if (isRatingLoading) return;
     
@@ -152,8 +176,10 @@ const MovieDetail: React.FC = () => {
           totalRatings: data.totalRatings
         });
         
-        if (data.blockHash) {
-          setBlockHash(data.blockHash);
+        if (data.blockPending) {
+          setBlockHash('');
+          setIsBlockPending(true);
+          waitForBlock();
         }
         
         if (data.action === 'updated') {
@@ -462,7 +488,7 @@ const MovieDetail: React.FC = () => {
                     )}
                   </AnimatePresence>
 
-                  {blockHash && (
+                  {(blockHash || isBlockPending) && (
                     <motion.div
                       initial={{ opacity: 0, y: 10 }}
                       animate={{ opacity: 1, y: 0 }}
@@ -470,11 +496,15 @@ const MovieDetail: React.FC = () => {
                     >
                       <div className="flex items-center space-x-2 mb-1">
                         <Shield size={16} className="text-[#1db954]" />
-                        <span className="text-xs font-semibold text-[#1db954]">Registrado en Blockchain</span>
+                        <span className="text-xs font-semibold text-[#1db954]">
+                          {blockHash ? 'Registrado en Blockchain' : 'Minando bloque...'}
+                        </span>
                       </div>
-                      <p className="text-xs text-gray-400 break-all font-mono">
-                        Hash: {blockHash.substring(0, 32)}...
-                      </p>
+                      {blockHash && (
+                        <p className="text-xs text-gray-400 break-all font-mono">
+                          Hash: {blockHash.substring(0, 32)}...
+                        </p>
+                      )}
                     </motion.div>
                   )}
                 </div>
@@ -1,16 +1,19 @@
 package es.ubu.lsi.web.blockchain;
 
-import java.io.UnsupportedEncodingException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
 /**
  * Representa un bloque en la blockchain.
- * Cada bloque contiene datos de valoración y está enlazado al bloque anterior.
+ * Cada bloque contiene uno o varios registros de valoración y está enlazado al bloque anterior.
+ * El hash del bloque solo incluye la raíz de Merkle de los registros, así que minar
+ * no cuesta más por llevar más registros. El hash se guarda en bytes y solo se pasa a
+ * hexadecimal para mostrarlo.
  * 
  * @author Ibai Moya Aroz
  * 
@@ -27,86 +30,152 @@ public class Block {
     /** Timestamp de cuando se creó el bloque */
     private long timestamp;
     
-    /** Datos de la valoración (formato: usuarioId:movieId:rating) */
+    /** Datos del bloque: sus registros, uno por línea */
     private String data;
+
+    /** Registros de valoración (formato: VALORACION:id|USER:id|MOVIE:id|RATING:n|TIME:ms) */
+    private List<String> records;
+
+    /** Raíz de Merkle de los registros */
+    private String merkleRoot;
     
     /** Hash del bloque anterior */
     private String previousHash;
     
-    /** Hash de este bloque */
-    private String hash;
+    /** Hash de este bloque, en bytes */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private byte[] hash;
     
     /** Número usado para el proof of work */
     private int nonce;
     
     /**
-     * Constructor del bloque.
+     * Constructor del bloque con un único registro.
      * 
      * @param index índice del bloque
-     * @param data datos de la valoración
+     * @param data datos del registro
      * @param previousHash hash del bloque anterior
      */
     public Block(int index, String data, String previousHash) {
+        this(index, List.of(data), previousHash);
+    }
+
+    /**
+     * Constructor del bloque con varios registros.
+     * 
+     * @param index índice del bloque
+     * @param records registros del bloque, al menos uno
+     * @param previousHash hash del bloque anterior
+     */
+    public Block(int index, List<String> records, String previousHash) {
         this.index = index;
         this.timestamp = Instant.now().toEpochMilli();
-        this.data = data;
+        this.records = List.copyOf(records);
+        this.merkleRoot = MerkleTree.root(this.records);
+        this.data = String.join("\n", this.records);
         this.previousHash = previousHash;
         this.nonce = 0;
-        this.hash = calculateHash();
+        this.hash = computeHash();
     }
-    
+
+    /**
+     * Constructor de un bloque ya minado, tal como se guardó en un {@link BlockStore}.
+     * No recalcula nada: comprobar el hash y la raíz de Merkle es tarea de la validación.
+     *
+     * @param index índice del bloque
+     * @param timestamp timestamp con el que se minó
+     * @param records registros del bloque
+     * @param merkleRoot raíz de Merkle guardada
+     * @param previousHash hash del bloque anterior
+     * @param nonce nonce encontrado
+     * @param hash hash guardado, en bytes
+     */
+    Block(int index, long timestamp, List<String> records, String merkleRoot, String previousHash, int nonce, byte[] hash) {
+        this.index = index;
+        this.timestamp = timestamp;
+        this.records = List.copyOf(records);
+        this.merkleRoot = merkleRoot;
+        this.data = String.join("\n", this.records);
+        this.previousHash = previousHash;
+        this.nonce = nonce;
+        this.hash = hash.clone();
+    }
+
+    /**
+     * Obtiene el hash del bloque en hexadecimal.
+     *
+     * @return el hash
+     */
+    public String getHash() {
+        return BlockHasher.toHex(hash);
+    }
+
+    /**
+     * Obtiene una copia del hash del bloque en bytes.
+     *
+     * @return el hash
+     */
+    byte[] hashBytes() {
+        return hash.clone();
+    }
+
     /**
      * Calcula el hash del bloque usando SHA-256.
      * 
-     * @return el hash calculado
+     * @return el hash calculado, en hexadecimal
      */
     public final String calculateHash() {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            String input = index + timestamp + data + previousHash + nonce;
-            byte[] hashBytes = digest.digest(input.getBytes("UTF-8"));
+        return BlockHasher.toHex(computeHash());
+    }
+
+    /**
+     * Comprueba que el hash guardado corresponde al contenido actual del bloque.
+     *
+     * @return true si el hash es correcto
+     */
+    public boolean hasValidHash() {
+        return Arrays.equals(hash, computeHash());
+    }
+
+    /**
+     * Comprueba que el hash guardado empieza por tantos ceros hexadecimales como la dificultad.
+     *
+     * @param difficulty número de ceros que debe tener el hash al principio
+     * @return true si el hash cumple la dificultad
+     */
+    public boolean meetsDifficulty(int difficulty) {
+        return ParallelMiner.hasLeadingZeros(hash, Math.min(difficulty, 2 * BlockHasher.HASH_LENGTH));
+    }
+
+    /**
+     * Calcula el hash del bloque en bytes.
+     *
+     * @return el hash calculado
+     */
+    private byte[] computeHash() {
+        return new BlockHasher(BlockHasher.header(index, timestamp, merkleRoot, previousHash)).hash(nonce);
+    }
 
-            /* Convvierte bytes a hexadecimal. */
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hashBytes) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) hexString.append('0');
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (UnsupportedEncodingException | NoSuchAlgorithmException e) {
-            throw new RuntimeException("Error calculando hash", e);
-        }
+    /**
+     * Fija el resultado del minado y recalcula el hash.
+     *
+     * @param timestamp timestamp con el que se ha minado
+     * @param nonce nonce encontrado
+     */
+    void mined(long timestamp, int nonce) {
+        this.timestamp = timestamp;
+        this.nonce = nonce;
+        this.hash = computeHash();
     }
     
     /**
      * Mina el bloque hasta encontrar un hash que cumpla con la dificultad.
-     * 
+     * La búsqueda del nonce se reparte entre los núcleos con {@link ParallelMiner}.
+     *
      * @param difficulty número de ceros que debe tener el hash al principio
      */
     public void mineBlock(int difficulty) {
-        String target = new String(new char[difficulty]).replace('\0', '0');
-        
-        while (true) {
-            /* Verifica que el hash tiene suficiente longitud. */
-            if (hash.length() >= difficulty) {
-                String hashPrefix = hash.substring(0, difficulty);
-                if (hashPrefix.equals(target)) {
-                    System.out.println("Bloque minado: " + hash + " con nonce: " + nonce);
-                    break;
-                }
-            }
-            
-            nonce++;
-            hash = calculateHash();
-
-            /* Evita overflow del nonce */
-            if (nonce < 0) {
-                nonce = 0;
-
-                /* Cambia el timestamp para obtener un hash diferent. */
-                timestamp = Instant.now().toEpochMilli();
-            }
-        }
+        ParallelMiner.shared().mine(this, difficulty);
     }
 }
\ No newline at end of file
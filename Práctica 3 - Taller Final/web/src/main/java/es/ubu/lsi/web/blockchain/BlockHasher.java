@@ -0,0 +1,189 @@
+package es.ubu.lsi.web.blockchain;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Calcula el hash SHA-256 de un bloque para distintos nonces sin reservar memoria en cada intento.
+ * La entrada del hash es la cabecera del bloque (índice más timestamp, raíz de Merkle y hash
+ * anterior) seguida del nonce en decimal. La cabecera se serializa una sola vez y en cada
+ * intento solo se reescriben los dígitos del nonce al final del mismo buffer; el hash se
+ * escribe en un array de 32 bytes del llamante. Cada hilo usa su propia copia de un digest
+ * prototipo, así que una instancia solo debe usarse desde un hilo. El digest del hilo y la
+ * conversión a hexadecimal también los usa {@link MerkleTree}.
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @version 1.0
+ * @since 1.0
+ */
+final class BlockHasher {
+
+    /** Longitud de un hash SHA-256 en bytes. */
+    static final int HASH_LENGTH = 32;
+
+    /** Dígitos máximos de un int en decimal, con el signo. */
+    private static final int MAX_NONCE_LENGTH = 11;
+
+    /** Dígitos hexadecimales. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** Digest del que se copian los de cada hilo. */
+    private static final MessageDigest PROTOTYPE = newDigest();
+
+    /** Digest de cada hilo, reutilizado en todos sus hashes. */
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(BlockHasher::cloneDigest);
+
+    /** Entrada del hash: la cabecera y, a continuación, sitio para el nonce. */
+    private final byte[] input;
+
+    /** Posición del primer dígito del nonce. */
+    private final int nonceOffset;
+
+    /**
+     * Constructor a partir de una cabecera ya serializada.
+     *
+     * @param header cabecera del bloque sin el nonce, obtenida con {@link #header}
+     */
+    BlockHasher(byte[] header) {
+        this.input = Arrays.copyOf(header, header.length + MAX_NONCE_LENGTH);
+        this.nonceOffset = header.length;
+    }
+
+    /**
+     * Serializa la cabecera de un bloque, la parte de la entrada del hash anterior al nonce.
+     * Coincide con la entrada histórica del hash, donde el índice y el timestamp se suman.
+     *
+     * @param index índice del bloque
+     * @param timestamp timestamp del bloque
+     * @param merkleRoot raíz de Merkle de los registros
+     * @param previousHash hash del bloque anterior
+     * @return la cabecera en UTF-8
+     */
+    static byte[] header(int index, long timestamp, String merkleRoot, String previousHash) {
+        return (index + timestamp + merkleRoot + previousHash).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Calcula el hash del bloque con un nonce.
+     *
+     * @param nonce el nonce
+     * @param out array donde se escriben los {@link #HASH_LENGTH} bytes del hash
+     */
+    void hash(int nonce, byte[] out) {
+        int length = writeNonce(nonce);
+        MessageDigest digest = sha256();
+        digest.update(input, 0, length);
+        try {
+            digest.digest(out, 0, HASH_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalStateException("Error calculando hash", e);
+        }
+    }
+
+    /**
+     * Calcula el hash del bloque con un nonce en un array nuevo.
+     *
+     * @param nonce el nonce
+     * @return el hash
+     */
+    byte[] hash(int nonce) {
+        byte[] out = new byte[HASH_LENGTH];
+        hash(nonce, out);
+        return out;
+    }
+
+    /**
+     * Escribe el nonce en decimal tras la cabecera, como {@link Integer#toString(int)}.
+     *
+     * @param nonce el nonce
+     * @return longitud total de la entrada
+     */
+    private int writeNonce(int nonce) {
+        long value = nonce;
+        int position = nonceOffset;
+        if (value < 0) {
+            input[position++] = '-';
+            value = -value;
+        }
+
+        int digits = 1;
+        for (long limit = 10; limit <= value; limit *= 10) {
+            digits++;
+        }
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            input[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * Convierte un hash a hexadecimal, solo para mostrarlo o guardarlo como texto.
+     *
+     * @param hash el hash
+     * @return texto hexadecimal en minúsculas
+     */
+    static String toHex(byte[] hash) {
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX[(hash[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Convierte hexadecimal a bytes, la operación inversa de {@link #toHex}.
+     *
+     * @param hex texto hexadecimal
+     * @return los bytes
+     */
+    static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex, 2 * i, 2 * i + 2, 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * Obtiene el digest SHA-256 del hilo actual. Cada hash debe terminarse con
+     * {@link MessageDigest#digest} antes de volver a pedirlo, lo que además lo deja listo.
+     *
+     * @return el digest del hilo
+     */
+    static MessageDigest sha256() {
+        return DIGEST.get();
+    }
+
+    /**
+     * Crea el digest prototipo.
+     *
+     * @return un digest SHA-256
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    /**
+     * Copia el digest prototipo para un hilo, más barato que buscar de nuevo el proveedor.
+     *
+     * @return un digest SHA-256 propio del hilo
+     */
+    private static MessageDigest cloneDigest() {
+        try {
+            return (MessageDigest) PROTOTYPE.clone();
+        } catch (CloneNotSupportedException e) {
+            return newDigest();
+        }
+    }
+}
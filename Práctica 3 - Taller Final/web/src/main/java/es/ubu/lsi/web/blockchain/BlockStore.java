@@ -0,0 +1,441 @@
+package es.ubu.lsi.web.blockchain;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Almacén en disco de los bloques de la blockchain, solo de añadir.
+ * Los bloques se guardan uno tras otro en {@value #DATA_FILE}, y {@value #INDEX_FILE} tiene
+ * una entrada de {@value #ENTRY_SIZE} bytes por bloque con su posición, su longitud, un CRC32
+ * y su hash. Así, leer el bloque i es ir a la entrada i del índice y de ahí a sus bytes, sin
+ * recorrer la cadena ni tenerla en memoria. Las lecturas se hacen sobre los ficheros mapeados
+ * en memoria por regiones: cuando un fichero se queda corto se mapea una región más, tan grande
+ * como todo lo mapeado hasta entonces, y las anteriores se conservan. Así un fichero se mapea
+ * unas pocas veces en toda su vida y puede pasar de 2 GiB.
+ * Al abrir se descarta lo que dejara a medias una escritura interrumpida: las entradas del
+ * índice incompletas o que apuntan a datos que no llegaron a escribirse. Solo un hilo debe
+ * añadir bloques; leer se puede desde cualquier hilo.
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @version 1.0
+ * @since 1.0
+ */
+@Slf4j
+public class BlockStore implements Closeable {
+
+    /** Fichero con los bloques serializados. */
+    static final String DATA_FILE = "blocks.dat";
+
+    /** Fichero con una entrada de tamaño fijo por bloque. */
+    static final String INDEX_FILE = "blocks.idx";
+
+    /** Bytes de una entrada del índice: posición, longitud, CRC32 y hash. */
+    static final int ENTRY_SIZE = Long.BYTES + Integer.BYTES + Integer.BYTES + BlockHasher.HASH_LENGTH;
+
+    /** Bytes de la primera región mapeada de cada fichero. */
+    static final long FIRST_REGION_SIZE = 64L * 1024;
+
+    /** Bytes máximos de una región mapeada. */
+    static final long MAX_REGION_SIZE = 1L << 30;
+
+    /**
+     * Trozo mapeado de un fichero.
+     *
+     * @param start posición del fichero donde empieza
+     * @param buffer bytes mapeados
+     */
+    private record Region(long start, MappedByteBuffer buffer) {
+
+        /**
+         * Obtiene la posición del fichero donde termina la región.
+         *
+         * @return posición siguiente al último byte mapeado
+         */
+        long end() {
+            return start + buffer.capacity();
+        }
+    }
+
+    /**
+     * Regiones mapeadas de los ficheros y número de bloques que cubren. Se sustituye entero
+     * al añadir, así que quien lo lee ve siempre un índice y unos datos coherentes entre sí.
+     *
+     * @param index regiones del índice, en orden y contiguas
+     * @param data regiones de los datos, en orden y contiguas
+     * @param count bloques cubiertos
+     */
+    private record Snapshot(List<Region> index, List<Region> data, int count) {
+    }
+
+    /** Carpeta de los ficheros. */
+    private final Path directory;
+
+    /** Fichero de datos, abierto para añadir. */
+    private FileChannel data;
+
+    /** Fichero de índice, abierto para añadir. */
+    private FileChannel index;
+
+    /** Posición donde se escribirá el siguiente bloque en el fichero de datos. */
+    private long dataEnd;
+
+    /** Vista actual de los ficheros para las lecturas. */
+    private volatile Snapshot snapshot;
+
+    /**
+     * Abre el almacén de una carpeta, creándola si no existe.
+     *
+     * @param directory carpeta de los ficheros
+     * @throws IOException si no se pueden abrir o reparar los ficheros
+     */
+    public BlockStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        open();
+    }
+
+    /**
+     * Abre los ficheros y descarta lo que dejara a medias una escritura interrumpida.
+     *
+     * @throws IOException si no se pueden abrir o reparar los ficheros
+     */
+    private void open() throws IOException {
+        data = FileChannel.open(directory.resolve(DATA_FILE),
+                                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = FileChannel.open(directory.resolve(INDEX_FILE),
+                                 StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        /* Solo cuentan las entradas completas cuyos datos se escribieron del todo, y en orden.
+           Las entradas a cero son espacio que reservó el mapeo y nunca llegó a escribirse. */
+        int count = (int) (index.size() / ENTRY_SIZE);
+        dataEnd = 0;
+        ByteBuffer entry = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+        for (int i = 0; i < count; i++) {
+            entry.clear();
+            index.read(entry, (long) i * ENTRY_SIZE);
+            long offset = entry.getLong(0);
+            int length = entry.getInt(Long.BYTES);
+            if (offset == 0 && length == 0) {
+                count = i;
+                break;
+            }
+            if (offset != dataEnd || length <= 0 || offset + length > data.size()) {
+                log.warn("Almacén de bloques: se descartan {} entradas del índice incompletas", count - i);
+                count = i;
+                break;
+            }
+            dataEnd = offset + length;
+        }
+        index.truncate((long) count * ENTRY_SIZE);
+        data.truncate(dataEnd);
+
+        snapshot = new Snapshot(grow(index, List.of(), (long) count * ENTRY_SIZE),
+                                grow(data, List.of(), dataEnd),
+                                count);
+        log.info("Almacén de bloques abierto en {} con {} bloques", directory, count);
+    }
+
+    /**
+     * Obtiene el número de bloques guardados.
+     *
+     * @return número de bloques
+     */
+    public int size() {
+        return snapshot.count();
+    }
+
+    /**
+     * Lee un bloque por su índice, sin leer los demás.
+     *
+     * @param position índice del bloque
+     * @return el bloque
+     * @throws IndexOutOfBoundsException si no hay bloque con ese índice
+     * @throws IllegalStateException si los bytes del bloque no corresponden a su CRC
+     */
+    public Block read(int position) {
+        Snapshot current = snapshot;
+        if (position < 0 || position >= current.count()) {
+            throw new IndexOutOfBoundsException("No hay bloque " + position + " en el almacén");
+        }
+
+        ByteBuffer entry = ByteBuffer.wrap(copy(current.index(), (long) position * ENTRY_SIZE, ENTRY_SIZE));
+        long offset = entry.getLong();
+        int length = entry.getInt();
+        int crc = entry.getInt();
+        byte[] hash = new byte[BlockHasher.HASH_LENGTH];
+        entry.get(hash);
+
+        byte[] bytes = copy(current.data(), offset, length);
+        if (crc(bytes) != crc) {
+            throw new IllegalStateException("El bloque " + position + " está dañado en disco");
+        }
+        return decode(ByteBuffer.wrap(bytes), hash);
+    }
+
+    /**
+     * Añade un bloque al final y lo lleva a disco antes de volver.
+     * Los datos se escriben antes que la entrada del índice, así que si la escritura
+     * se interrumpe el bloque simplemente no cuenta al volver a abrir. Lo que haya que mapear
+     * se mapea antes de escribir, de modo que una vez el bloque está en disco ya nada puede
+     * fallar antes de que las lecturas lo vean; si algo falla antes, el siguiente intento
+     * vuelve a escribir en la misma posición.
+     *
+     * @param block el bloque, con el índice siguiente al último guardado
+     */
+    public synchronized void append(Block block) {
+        Snapshot current = snapshot;
+        int count = current.count();
+        if (block.getIndex() != count) {
+            throw new IllegalArgumentException("Se esperaba el bloque " + count + " y se ha recibido el " + block.getIndex());
+        }
+
+        try {
+            byte[] bytes = encode(block);
+            long offset = dataEnd;
+            long entryPosition = (long) count * ENTRY_SIZE;
+            List<Region> indexRegions = grow(index, current.index(), entryPosition + ENTRY_SIZE);
+            List<Region> dataRegions = grow(data, current.data(), offset + bytes.length);
+
+            writeFully(data, ByteBuffer.wrap(bytes), offset);
+            data.force(false);
+
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+            entry.putLong(offset).putInt(bytes.length).putInt(crc(bytes)).put(block.hashBytes()).flip();
+            writeFully(index, entry, entryPosition);
+            index.force(false);
+
+            dataEnd = offset + bytes.length;
+            snapshot = new Snapshot(indexRegions, dataRegions, count + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se ha podido guardar el bloque " + count, e);
+        }
+    }
+
+    /**
+     * Descarta los bloques a partir de uno. Solo debe usarse mientras nadie lee del almacén,
+     * como al cargar la cadena, porque leer de lo que queda mapeado más allá del final de un
+     * fichero recortado falla.
+     *
+     * @param count bloques que se conservan
+     */
+    public synchronized void truncate(int count) {
+        Snapshot current = snapshot;
+        if (count < 0 || count > current.count()) {
+            throw new IndexOutOfBoundsException("No se pueden conservar " + count + " bloques");
+        }
+
+        try {
+            long end = 0;
+            if (count > 0) {
+                ByteBuffer last = ByteBuffer.wrap(copy(current.index(), (long) (count - 1) * ENTRY_SIZE, ENTRY_SIZE));
+                end = last.getLong() + last.getInt();
+            }
+            index.truncate((long) count * ENTRY_SIZE);
+            data.truncate(end);
+            dataEnd = end;
+            snapshot = new Snapshot(current.index(), current.data(), count);
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se ha podido recortar el almacén de bloques", e);
+        }
+    }
+
+    /**
+     * Borra todos los bloques. Los ficheros se sustituyen por otros nuevos en lugar de
+     * recortarse, para que quien aún lea de la vista anterior no acceda fuera del fichero.
+     */
+    public synchronized void clear() {
+        try {
+            data.close();
+            index.close();
+            Files.delete(directory.resolve(DATA_FILE));
+            Files.delete(directory.resolve(INDEX_FILE));
+            open();
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se ha podido vaciar el almacén de bloques", e);
+        }
+    }
+
+    /**
+     * Cierra los ficheros, quitándoles antes el espacio que reservó el mapeo sin llegar a usarse.
+     *
+     * @throws IOException si falla el cierre
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            index.truncate((long) snapshot.count() * ENTRY_SIZE);
+            data.truncate(dataEnd);
+        } finally {
+            try {
+                data.close();
+            } finally {
+                index.close();
+            }
+        }
+    }
+
+    /**
+     * Añade regiones mapeadas hasta cubrir una posición del fichero. Cada región nueva es tan
+     * grande como todo lo mapeado antes, con un mínimo de {@value #FIRST_REGION_SIZE} bytes y un
+     * máximo de {@value #MAX_REGION_SIZE}. Mapear más allá del final alarga el fichero con ceros.
+     *
+     * @param channel fichero
+     * @param regions regiones ya mapeadas
+     * @param required posición hasta la que hay que cubrir
+     * @return las regiones, las mismas si ya cubrían la posición
+     * @throws IOException si falla el mapeo
+     */
+    private static List<Region> grow(FileChannel channel, List<Region> regions, long required) throws IOException {
+        long mapped = regions.isEmpty() ? 0 : regions.get(regions.size() - 1).end();
+        if (required <= mapped) {
+            return regions;
+        }
+
+        List<Region> grown = new ArrayList<>(regions);
+        while (mapped < required) {
+            long size = Math.min(Math.max(FIRST_REGION_SIZE, mapped), MAX_REGION_SIZE);
+            grown.add(new Region(mapped, channel.map(FileChannel.MapMode.READ_ONLY, mapped, size)));
+            mapped += size;
+        }
+        return List.copyOf(grown);
+    }
+
+    /**
+     * Copia bytes de las regiones mapeadas de un fichero, aunque caigan en más de una.
+     *
+     * @param regions regiones del fichero, en orden y contiguas
+     * @param position posición del primer byte
+     * @param length número de bytes
+     * @return los bytes
+     */
+    private static byte[] copy(List<Region> regions, long position, int length) {
+        byte[] bytes = new byte[length];
+        int copied = 0;
+        for (Region region : regions) {
+            long at = position + copied;
+            if (copied == length) {
+                break;
+            }
+            if (at < region.end()) {
+                int count = (int) Math.min(length - copied, region.end() - at);
+                region.buffer().get((int) (at - region.start()), bytes, copied, count);
+                copied += count;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Serializa un bloque: índice, timestamp, nonce, hash anterior, raíz de Merkle y registros.
+     * El hash no se incluye porque va en la entrada del índice.
+     *
+     * @param block el bloque
+     * @return los bytes del bloque
+     */
+    private static byte[] encode(Block block) {
+        List<byte[]> strings = new ArrayList<>(block.getRecords().size() + 2);
+        strings.add(block.getPreviousHash().getBytes(StandardCharsets.UTF_8));
+        strings.add(block.getMerkleRoot().getBytes(StandardCharsets.UTF_8));
+        for (String record : block.getRecords()) {
+            strings.add(record.getBytes(StandardCharsets.UTF_8));
+        }
+
+        int length = Integer.BYTES + Long.BYTES + Integer.BYTES + Integer.BYTES;
+        for (byte[] string : strings) {
+            length += Integer.BYTES + string.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(block.getIndex()).putLong(block.getTimestamp()).putInt(block.getNonce());
+        putString(buffer, strings.get(0));
+        putString(buffer, strings.get(1));
+        buffer.putInt(block.getRecords().size());
+        for (int i = 2; i < strings.size(); i++) {
+            putString(buffer, strings.get(i));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Reconstruye un bloque a partir de sus bytes y su hash.
+     *
+     * @param buffer bytes del bloque
+     * @param hash hash guardado en el índice
+     * @return el bloque
+     */
+    private static Block decode(ByteBuffer buffer, byte[] hash) {
+        int blockIndex = buffer.getInt();
+        long timestamp = buffer.getLong();
+        int nonce = buffer.getInt();
+        String previousHash = getString(buffer);
+        String merkleRoot = getString(buffer);
+        int recordCount = buffer.getInt();
+        List<String> records = new ArrayList<>(recordCount);
+        for (int i = 0; i < recordCount; i++) {
+            records.add(getString(buffer));
+        }
+        return new Block(blockIndex, timestamp, records, merkleRoot, previousHash, nonce, hash);
+    }
+
+    /**
+     * Escribe un texto precedido de su longitud.
+     *
+     * @param buffer destino
+     * @param string texto en UTF-8
+     */
+    private static void putString(ByteBuffer buffer, byte[] string) {
+        buffer.putInt(string.length).put(string);
+    }
+
+    /**
+     * Lee un texto precedido de su longitud.
+     *
+     * @param buffer origen
+     * @return el texto
+     */
+    private static String getString(ByteBuffer buffer) {
+        byte[] string = new byte[buffer.getInt()];
+        buffer.get(string);
+        return new String(string, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Calcula el CRC32 de unos bytes.
+     *
+     * @param bytes los bytes
+     * @return el CRC32, truncado a int
+     */
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Escribe todo un buffer en una posición de un fichero.
+     *
+     * @param channel fichero
+     * @param buffer bytes a escribir
+     * @param position posición en el fichero
+     * @throws IOException si falla la escritura
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package es.ubu.lsi.web.blockchain;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import lombok.Getter;
@@ -8,194 +7,262 @@ import lombok.extern.slf4j.Slf4j;
 
 /**
  * Implementación de una blockchain para almacenar valoraciones de películas.
- * Cada valoración se registra como un bloque inmutable en la cadena.
- * 
+ * Cada lote de valoraciones se registra como un bloque inmutable en la cadena.
+ * Los bloques viven en un {@link BlockStore} en disco, así que la cadena sobrevive a los
+ * reinicios y en memoria solo se guarda el último bloque; cualquier otro se lee por su
+ * índice sin recorrer la cadena. La cadena se valida entera al cargarla y cuando se pide
+ * con {@link #isChainValid()}; al añadir solo se valida cada bloque nuevo contra el anterior.
+ * Solo un hilo debe añadir bloques; leer se puede desde cualquier hilo.
+ *
  * @author Ibai Moya Aroz
  * @version 1.0
  * @since 1.0
  */
-@Getter
 @Slf4j
 public class Blockchain {
-    
-    /** Lista de bloques en la cadena */
-    private final List<Block> chain;
-    
+
+    /** Bloques de la cadena, en disco */
+    private final BlockStore store;
+
     /** Dificultad para minar bloques (número de ceros al principio del hash) */
+    @Getter
     private final int difficulty;
-    
+
+    /** Último bloque de la cadena */
+    private volatile Block latestBlock;
+
+    /** Bloques del principio de la cadena que ya se han validado */
+    private volatile int validatedBlocks;
+
     /**
      * Constructor de la blockchain.
-     * Crea el bloque génesis automáticamente.
+     * Carga los bloques guardados validándolos uno a uno contra el anterior, y descarta
+     * los que siguen al primero que no sea válido. Si no queda ninguno, crea el bloque génesis.
+     *
+     * @param store almacén de los bloques
      */
-    public Blockchain() {
-        this.chain = new ArrayList<>();
+    public Blockchain(BlockStore store) {
+        this.store = store;
         this.difficulty = 3; // Dificultad baja para demostración
-        
+
+        int stored = store.size();
+        if (stored > 0) {
+            int valid = validPrefix();
+            validatedBlocks = valid;
+            if (valid < stored) {
+                log.error("Se descartan {} bloques inválidos del disco a partir del bloque {}", stored - valid, valid);
+                store.truncate(valid);
+            }
+            log.info("Blockchain cargada del disco con {} bloques", valid);
+        }
+
         /* Crea y mina el bloque génesis. */
-        Block genesis = createGenesisBlock();
-        genesis.mineBlock(difficulty);
-        chain.add(genesis);
-        
-        log.info("Bloque génesis creado con hash: {}", genesis.getHash());
+        if (store.size() == 0) {
+            Block genesis = createGenesisBlock();
+            addBlock(genesis);
+            log.info("Bloque génesis creado con hash: {}", genesis.getHash());
+        }
+        this.latestBlock = store.read(store.size() - 1);
     }
-    
+
     /**
      * Crea el primer bloque de la cadena (génesis).
-     * 
+     *
      * @return el bloque génesis
      */
     private Block createGenesisBlock() {
         return new Block(0, "Genesis Block", "0000000000000000");
     }
-    
+
     /**
      * Obtiene el último bloque de la cadena.
-     * 
+     *
      * @return el último bloque
      */
     public Block getLatestBlock() {
-        if (chain.isEmpty()) {
-            throw new IllegalStateException("La blockchain está vacía");
+        return latestBlock;
+    }
+
+    /**
+     * Obtiene el número de bloques de la cadena.
+     *
+     * @return número de bloques
+     */
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * Obtiene un bloque por su índice, leyéndolo del disco sin leer los demás.
+     *
+     * @param index índice del bloque
+     * @return el bloque, o null si no existe
+     */
+    public Block getBlock(int index) {
+        if (index < 0 || index >= store.size()) {
+            return null;
         }
-        return chain.get(chain.size() - 1);
+        return store.read(index);
     }
-    
+
     /**
-     * Añade un nuevo bloque a la cadena.
-     * 
+     * Mina un bloque, lo valida contra el último y lo añade a la cadena.
+     *
      * @param block el bloque a añadir
+     * @throws IllegalStateException si el bloque minado no es válido
      */
     private void addBlock(Block block) {
         block.mineBlock(difficulty);
-        chain.add(block);
+        int position = store.size();
+        if (!isValidBlock(block, position == 0 ? null : latestBlock, position)) {
+            throw new IllegalStateException("El bloque " + position + " no es válido y no se añade");
+        }
+        store.append(block);
+        latestBlock = block;
+        validatedBlocks = position + 1;
     }
-    
+
     /**
-     * Crea y añade un nuevo bloque con datos de valoración.
-     * 
+     * Genera el registro de una valoración para guardarlo en un bloque.
+     *
+     * @param valoracionId ID de la valoración
      * @param userId ID del usuario
      * @param movieId ID de la película
      * @param rating valoración (1-5)
-     * @return el bloque creado
+     * @return el registro
      */
-    public Block addRating(Long userId, Integer movieId, Integer rating) {
-        String data = String.format("USER:%d|MOVIE:%d|RATING:%d|TIME:%d", 
-                                    userId, movieId, rating, System.currentTimeMillis());
+    public static String ratingRecord(Long valoracionId, Long userId, Integer movieId, Integer rating) {
+        return String.format("VALORACION:%d|USER:%d|MOVIE:%d|RATING:%d|TIME:%d",
+                             valoracionId, userId, movieId, rating, System.currentTimeMillis());
+    }
 
-        /* Si no hay bloques, crea el génesis primero. */
-        if (chain.isEmpty()) {
-            log.warn("Blockchain vacía, creando bloque génesis");
-            Block genesis = createGenesisBlock();
-            genesis.mineBlock(difficulty);
-            chain.add(genesis);
-        }
-        
+    /**
+     * Crea, mina y añade un nuevo bloque con un lote de registros de valoración.
+     *
+     * @param records registros del lote, al menos uno
+     * @return el bloque creado
+     */
+    public Block addRatings(List<String> records) {
         Block previousBlock = getLatestBlock();
         Block newBlock = new Block(
             previousBlock.getIndex() + 1,
-            data,
+            records,
             previousBlock.getHash()
         );
-        
+
         addBlock(newBlock);
-        log.info("Nuevo bloque añadido: índice={}, hash={}", newBlock.getIndex(), newBlock.getHash());
+        log.info("Nuevo bloque añadido: índice={}, registros={}, hash={}",
+                 newBlock.getIndex(), records.size(), newBlock.getHash());
         return newBlock;
     }
-    
+
     /**
-     * Valida la integridad de toda la blockchain.
-     * 
+     * Valida la blockchain recorriéndola de nuevo en disco, de modo que detecta también
+     * los bloques dañados después de cargarla.
+     *
      * @return true si la cadena es válida, false si hay algún problema
      */
     public boolean isChainValid() {
+        return validPrefix() == store.size();
+    }
 
-        /* Si no hay bloques, la cadena es técnicamente válida pero vacía. */
-        if (chain.isEmpty()) {
-            log.warn("Blockchain vacía");
-            return true;
-        }
+    /**
+     * Recorre la cadena desde el génesis comprobando cada bloque solo contra el anterior,
+     * de modo que en memoria nunca hay más de dos bloques.
+     *
+     * @return número de bloques del principio de la cadena que son válidos
+     */
+    private int validPrefix() {
+        int size = store.size();
+        Block previousBlock = null;
 
-        /* Si solo hay un bloque (génesis), verifica solo ese. */
-        if (chain.size() == 1) {
-            Block genesis = chain.get(0);
-            String calculatedHash = genesis.calculateHash();
-            if (!genesis.getHash().equals(calculatedHash)) {
-                log.error("Hash del bloque génesis no coincide");
-                return false;
+        for (int i = 0; i < size; i++) {
+            Block currentBlock;
+            try {
+                currentBlock = store.read(i);
+            } catch (IllegalStateException e) {
+                log.error(e.getMessage());
+                return i;
             }
 
-            /* Verifica que cumple con la dificultad. */
-            String target = new String(new char[difficulty]).replace('\0', '0');
-            int hashLength = genesis.getHash().length();
-            int checkLength = Math.min(difficulty, hashLength);
-            String hashPrefix = genesis.getHash().substring(0, checkLength);
-            if (!hashPrefix.equals(target.substring(0, checkLength))) {
-                log.error("Hash del génesis no cumple con la dificultad. Hash: {}, Prefijo: {}", 
-                         genesis.getHash(), hashPrefix);
-                return false;
+            if (!isValidBlock(currentBlock, previousBlock, i)) {
+                return i;
             }
-            
-            return true;
+            previousBlock = currentBlock;
         }
+        return size;
+    }
 
-        /* Verifica el resto de la cadena. */
-        for (int i = 1; i < chain.size(); i++) {
-            Block currentBlock = chain.get(i);
-            Block previousBlock = chain.get(i - 1);
-
-            /* Verifica que el hash del bloque actual es correcto. */
-            String calculatedHash = currentBlock.calculateHash();
-            if (!currentBlock.getHash().equals(calculatedHash)) {
-                log.error("Hash del bloque {} no coincide. Esperado: {}, Calculado: {}", 
-                         i, currentBlock.getHash(), calculatedHash);
-                return false;
-            }
+    /**
+     * Comprueba un bloque: su posición, su hash, su raíz de Merkle, su enlace con el
+     * anterior y la dificultad.
+     *
+     * @param currentBlock el bloque
+     * @param previousBlock el bloque anterior, o null si es el génesis
+     * @param i posición del bloque en la cadena
+     * @return true si el bloque es válido
+     */
+    private boolean isValidBlock(Block currentBlock, Block previousBlock, int i) {
+        if (currentBlock.getIndex() != i) {
+            log.error("El bloque en la posición {} tiene el índice {}", i, currentBlock.getIndex());
+            return false;
+        }
 
-            /* Verifica que el hash del bloque anterior coincide. */
-            if (!currentBlock.getPreviousHash().equals(previousBlock.getHash())) {
-                log.error("Hash previo del bloque {} no coincide con el hash del bloque {}", 
-                         i, i-1);
-                return false;
-            }
+        /* Verifica que el hash del bloque actual es correcto. */
+        if (!currentBlock.hasValidHash()) {
+            log.error("Hash del bloque {} no coincide. Esperado: {}, Calculado: {}",
+                     i, currentBlock.getHash(), currentBlock.calculateHash());
+            return false;
+        }
 
-            /* Verifica que el hash cumple con la dificultad. */
-            String target = new String(new char[difficulty]).replace('\0', '0');
-            int hashLength = currentBlock.getHash().length();
-            int checkLength = Math.min(difficulty, hashLength);
-            String hashPrefix = currentBlock.getHash().substring(0, checkLength);
-            if (!hashPrefix.equals(target.substring(0, checkLength))) {
-                log.error("Hash del bloque {} no cumple con la dificultad {}. Prefijo: {}", 
-                         i, difficulty, hashPrefix);
-                return false;
-            }
+        /* Verifica que los registros son los que resume la raíz de Merkle. */
+        if (!hasValidMerkleRoot(currentBlock)) {
+            return false;
+        }
+
+        /* Verifica que el hash del bloque anterior coincide. */
+        if (previousBlock != null && !currentBlock.getPreviousHash().equals(previousBlock.getHash())) {
+            log.error("Hash previo del bloque {} no coincide con el hash del bloque {}",
+                     i, i-1);
+            return false;
+        }
+
+        /* Verifica que el hash cumple con la dificultad. */
+        if (!currentBlock.meetsDifficulty(difficulty)) {
+            log.error("Hash del bloque {} no cumple con la dificultad {}. Hash: {}",
+                     i, difficulty, currentBlock.getHash());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Comprueba que la raíz de Merkle de un bloque corresponde a sus registros.
+     *
+     * @param block el bloque
+     * @return true si la raíz coincide
+     */
+    private boolean hasValidMerkleRoot(Block block) {
+        if (!block.getMerkleRoot().equals(MerkleTree.root(block.getRecords()))) {
+            log.error("La raíz de Merkle del bloque {} no coincide con sus registros", block.getIndex());
+            return false;
         }
-        
-        log.info("Blockchain válida con {} bloques", chain.size());
         return true;
     }
-    
+
     /**
-     * Obtiene información resumida de la blockchain.
-     * 
+     * Obtiene información resumida de la blockchain. No vuelve a leer los bloques: indica
+     * si todos se validaron al cargar la cadena o al añadirlos; para recorrerla de nuevo
+     * está {@link #isChainValid()}.
+     *
      * @return información de la cadena
      */
     public BlockchainInfo getInfo() {
-        String latestHash = "N/A";
-        
-        try {
-            if (!chain.isEmpty()) {
-                latestHash = getLatestBlock().getHash();
-            }
-        } catch (Exception e) {
-            log.error("Error obteniendo el último bloque: ", e);
-        }
-        
         return BlockchainInfo.builder()
-            .totalBlocks(chain.size())
+            .totalBlocks(store.size())
             .difficulty(difficulty)
-            .valid(isChainValid())
-            .latestBlockHash(latestHash)
+            .valid(validatedBlocks == store.size())
+            .latestBlockHash(latestBlock.getHash())
             .build();
     }
-}
\ No newline at end of file
+}
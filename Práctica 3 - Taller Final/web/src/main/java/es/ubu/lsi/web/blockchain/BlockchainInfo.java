@@ -32,4 +32,7 @@ public class BlockchainInfo {
     
     /** Hash del último bloque. */
     private String latestBlockHash;
+
+    /** Valoraciones en cola a la espera de minarse. */
+    private int pendingRatings;
 }
\ No newline at end of file
@@ -0,0 +1,169 @@
+package es.ubu.lsi.web.blockchain;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Árbol de Merkle sobre los registros de un bloque.
+ * Cada hoja es el SHA-256 de un registro y cada nodo interno el SHA-256 de sus dos hijos;
+ * un nodo sin pareja sube sin cambios al nivel siguiente. Las hojas y los nodos internos
+ * llevan un prefijo distinto (0x00 y 0x01) para que un nodo interno no pueda hacerse
+ * pasar por una hoja. Así, el hash del bloque solo necesita la raíz, y se puede demostrar
+ * que un registro está en el bloque con un hash por nivel, sin el resto de registros.
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @version 1.0
+ * @since 1.0
+ */
+public final class MerkleTree {
+
+    /** Prefijo de las hojas. */
+    private static final byte LEAF_PREFIX = 0x00;
+
+    /** Prefijo de los nodos internos. */
+    private static final byte NODE_PREFIX = 0x01;
+
+    /**
+     * Paso de una prueba de inclusión: el hash hermano en un nivel del árbol.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Step {
+
+        /** Hash hermano, en hexadecimal. */
+        private final String hash;
+
+        /** Indica si el hermano va a la izquierda del nodo que se está calculando. */
+        private final boolean left;
+    }
+
+    /**
+     * Constructor privado, clase de utilidad.
+     */
+    private MerkleTree() {
+    }
+
+    /**
+     * Calcula la raíz de Merkle de una lista de registros.
+     *
+     * @param records registros, al menos uno
+     * @return la raíz en hexadecimal
+     */
+    public static String root(List<String> records) {
+        List<byte[]> level = leaves(records);
+        while (level.size() > 1) {
+            level = nextLevel(level);
+        }
+        return BlockHasher.toHex(level.get(0));
+    }
+
+    /**
+     * Genera la prueba de inclusión de un registro: los hashes hermanos desde la hoja hasta la raíz.
+     *
+     * @param records registros del bloque
+     * @param position posición del registro en el bloque
+     * @return los pasos de la prueba, del nivel de las hojas hacia arriba
+     */
+    public static List<Step> proof(List<String> records, int position) {
+        if (position < 0 || position >= records.size()) {
+            throw new IndexOutOfBoundsException("Posición fuera del bloque: " + position);
+        }
+
+        List<Step> steps = new ArrayList<>();
+        List<byte[]> level = leaves(records);
+        int current = position;
+
+        while (level.size() > 1) {
+            int sibling = current ^ 1;
+
+            /* Sin hermano, el nodo sube tal cual y este nivel no aporta paso. */
+            if (sibling < level.size()) {
+                steps.add(new Step(BlockHasher.toHex(level.get(sibling)), sibling < current));
+            }
+            level = nextLevel(level);
+            current /= 2;
+        }
+        return steps;
+    }
+
+    /**
+     * Comprueba una prueba de inclusión recalculando la raíz desde el registro.
+     *
+     * @param record registro que se quiere comprobar
+     * @param proof pasos de la prueba
+     * @param root raíz esperada, en hexadecimal
+     * @return true si el registro está en el árbol de esa raíz
+     */
+    public static boolean verify(String record, List<Step> proof, String root) {
+        byte[] hash = leaf(record);
+        for (Step step : proof) {
+            byte[] sibling = BlockHasher.fromHex(step.getHash());
+            hash = step.isLeft() ? node(sibling, hash) : node(hash, sibling);
+        }
+        return BlockHasher.toHex(hash).equals(root);
+    }
+
+    /**
+     * Calcula las hojas de una lista de registros.
+     *
+     * @param records registros, al menos uno
+     * @return los hashes de las hojas
+     */
+    private static List<byte[]> leaves(List<String> records) {
+        if (records == null || records.isEmpty()) {
+            throw new IllegalArgumentException("Un árbol de Merkle necesita al menos un registro");
+        }
+
+        List<byte[]> leaves = new ArrayList<>(records.size());
+        for (String record : records) {
+            leaves.add(leaf(record));
+        }
+        return leaves;
+    }
+
+    /**
+     * Calcula el nivel superior de un nivel del árbol.
+     *
+     * @param level nivel actual
+     * @return nivel superior, con la mitad de nodos redondeada hacia arriba
+     */
+    private static List<byte[]> nextLevel(List<byte[]> level) {
+        List<byte[]> next = new ArrayList<>((level.size() + 1) / 2);
+        for (int i = 0; i < level.size(); i += 2) {
+            next.add(i + 1 < level.size() ? node(level.get(i), level.get(i + 1)) : level.get(i));
+        }
+        return next;
+    }
+
+    /**
+     * Calcula el hash de una hoja.
+     *
+     * @param record registro de la hoja
+     * @return hash de la hoja
+     */
+    private static byte[] leaf(String record) {
+        MessageDigest digest = BlockHasher.sha256();
+        digest.update(LEAF_PREFIX);
+        return digest.digest(record.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Calcula el hash de un nodo interno.
+     *
+     * @param left hijo izquierdo
+     * @param right hijo derecho
+     * @return hash del nodo
+     */
+    private static byte[] node(byte[] left, byte[] right) {
+        MessageDigest digest = BlockHasher.sha256();
+        digest.update(NODE_PREFIX);
+        digest.update(left);
+        return digest.digest(right);
+    }
+}
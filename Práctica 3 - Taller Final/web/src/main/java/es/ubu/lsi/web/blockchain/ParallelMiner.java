@@ -0,0 +1,169 @@
+package es.ubu.lsi.web.blockchain;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minero que reparte la búsqueda del nonce entre varios hilos.
+ * Con n hilos, el hilo i prueba los nonces i, i + n, i + 2n... del rango, con su propio
+ * {@link BlockHasher}, y compara los ceros iniciales directamente en los bytes del hash,
+ * sin pasarlo a hexadecimal ni reservar memoria en cada intento. En cuanto un hilo encuentra
+ * un nonce válido, los demás paran. Si se agota el rango de nonces sin encontrarlo, se cambia
+ * el timestamp del bloque y se vuelve a empezar desde 0, igual que en el minado secuencial.
+ *
+ * @author Ibai Moya Aroz
+ *
+ * @version 1.0
+ * @since 1.0
+ */
+public final class ParallelMiner {
+
+    /** Minero compartido, con un hilo por núcleo. */
+    private static final ParallelMiner SHARED = new ParallelMiner(Runtime.getRuntime().availableProcessors());
+
+    /** Nonces que prueba cada hilo entre dos consultas de si otro ya ha terminado. */
+    private static final int CANCEL_CHECK_INTERVAL = 256;
+
+    /** Número de hilos que buscan a la vez. */
+    private final int parallelism;
+
+    /** Hilos de la búsqueda, o null si se busca en el hilo que mina. */
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructor del minero.
+     *
+     * @param parallelism número de hilos; con 1 se busca en el hilo que llama
+     */
+    public ParallelMiner(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("El minero necesita al menos un hilo");
+        }
+        this.parallelism = parallelism;
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    /**
+     * Obtiene el minero compartido, con un hilo por núcleo.
+     *
+     * @return el minero compartido
+     */
+    public static ParallelMiner shared() {
+        return SHARED;
+    }
+
+    /**
+     * Obtiene el número de hilos del minero.
+     *
+     * @return número de hilos
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Mina un bloque: busca un nonce cuyo hash empiece por tantos ceros como la dificultad
+     * y deja en el bloque el nonce, el timestamp y el hash encontrados.
+     *
+     * @param block el bloque a minar
+     * @param difficulty número de ceros hexadecimales que debe tener el hash al principio
+     */
+    public void mine(Block block, int difficulty) {
+        long timestamp = block.getTimestamp();
+        long first = Math.max(block.getNonce(), 0);
+
+        while (true) {
+            byte[] header = BlockHasher.header(block.getIndex(), timestamp, block.getMerkleRoot(), block.getPreviousHash());
+            int nonce = search(header, first, Integer.MAX_VALUE, difficulty);
+            if (nonce >= 0) {
+                block.mined(timestamp, nonce);
+                return;
+            }
+
+            /* Sin nonce válido en todo el rango: cambia el timestamp para obtener hashes diferentes. */
+            first = 0;
+            timestamp = Instant.now().toEpochMilli();
+        }
+    }
+
+    /**
+     * Busca un nonce válido en un rango, repartido entre los hilos del minero.
+     *
+     * @param header cabecera del bloque sin el nonce, de {@link BlockHasher#header}
+     * @param first primer nonce del rango
+     * @param last último nonce del rango, incluido
+     * @param difficulty número de ceros hexadecimales que debe tener el hash al principio
+     * @return un nonce válido, o -1 si no hay ninguno en el rango
+     */
+    int search(byte[] header, long first, long last, int difficulty) {
+        AtomicInteger found = new AtomicInteger(-1);
+
+        if (pool == null) {
+            return scan(header, first, last, 1, difficulty, found);
+        }
+
+        List<Callable<Integer>> workers = new ArrayList<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            long start = first + i;
+            workers.add(() -> scan(header, start, last, parallelism, difficulty, found));
+        }
+        pool.invokeAll(workers);
+        return found.get();
+    }
+
+    /**
+     * Recorre una parte del rango de nonces hasta encontrar uno válido o hasta que otro
+     * hilo lo encuentre.
+     *
+     * @param header cabecera del bloque sin el nonce
+     * @param start primer nonce de este hilo
+     * @param last último nonce del rango, incluido
+     * @param stride distancia entre dos nonces de este hilo
+     * @param difficulty número de ceros hexadecimales que debe tener el hash al principio
+     * @param found nonce encontrado por cualquier hilo, o -1
+     * @return el nonce encontrado por cualquier hilo, o -1
+     */
+    private static int scan(byte[] header, long start, long last, int stride, int difficulty, AtomicInteger found) {
+        BlockHasher hasher = new BlockHasher(header);
+        byte[] hash = new byte[BlockHasher.HASH_LENGTH];
+        int sinceCheck = 0;
+
+        for (long nonce = start; nonce <= last; nonce += stride) {
+            hasher.hash((int) nonce, hash);
+
+            if (hasLeadingZeros(hash, difficulty)) {
+                found.compareAndSet(-1, (int) nonce);
+                return found.get();
+            }
+            if (++sinceCheck == CANCEL_CHECK_INTERVAL) {
+                sinceCheck = 0;
+                if (found.get() >= 0) {
+                    break;
+                }
+            }
+        }
+        return found.get();
+    }
+
+    /**
+     * Comprueba si un hash empieza por un número de ceros hexadecimales, mirando los bytes:
+     * cada byte son dos dígitos, y con dificultad impar se mira la mitad alta del siguiente.
+     *
+     * @param hash el hash
+     * @param difficulty número de ceros hexadecimales
+     * @return true si el hash cumple la dificultad
+     */
+    static boolean hasLeadingZeros(byte[] hash, int difficulty) {
+        int fullBytes = difficulty / 2;
+        for (int i = 0; i < fullBytes; i++) {
+            if (hash[i] != 0) {
+                return false;
+            }
+        }
+        return difficulty % 2 == 0 || (hash[fullBytes] & 0xF0) == 0;
+    }
+}
@@ -77,6 +77,22 @@ public class BlockchainController {
         return ResponseEntity.ok(block);
     }
     
+    /**
+     * Obtiene la prueba de inclusión de Merkle de una valoración en su bloque,
+     * para verificarla sin descargar el bloque entero.
+     * 
+     * @param valoracionId ID de la valoración
+     * @return la prueba o 404 si la valoración no está en la cadena
+     */
+    @GetMapping("/ratings/{valoracionId}/proof")
+    public ResponseEntity<Map<String, Object>> getRatingProof(@PathVariable Long valoracionId) {
+        Map<String, Object> proof = blockchainService.getRatingProof(valoracionId);
+        if (proof == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(proof);
+    }
+    
     /**
      * Valida la integridad de toda la blockchain.
      * 
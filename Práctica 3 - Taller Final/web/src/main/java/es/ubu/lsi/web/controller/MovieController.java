@@ -310,9 +310,11 @@ public class MovieController {
     /**
      * Obtiene la valoración de una película por su ID.
      * Devuelve la valoración del usuario autenticado y las estadísticas globales.
+     * Si el usuario ha valorado, indica también el bloque de la blockchain en el que se ha
+     * registrado, o si aún se está minando, de modo que se puede consultar hasta que esté.
      *
      * @param movieId el ID de la película
-     * @return un mapa con la valoración del usuario, si ha valorado, la media y el total de valoraciones
+     * @return un mapa con la valoración del usuario, si ha valorado, su bloque, la media y el total de valoraciones
      */
     @GetMapping("/movies/{movieId}/rating")
     public ResponseEntity<Object> getRating(@PathVariable int movieId) {
@@ -323,14 +325,9 @@ public class MovieController {
                         : null;
 
         /* Obtiene los datos del usuario (si está logeado). */
-        final int[] userRating = {0};
-        boolean hasRated  = false;
-        if (usuario != null) {
-            hasRated = valoracionRepository
-                    .findByUsuarioAndMovieId(usuario, movieId)
-                    .map(v -> { userRating[0] = v.getRating(); return true; })
-                    .orElse(false);
-        }
+        Valoracion propia = usuario != null
+                        ? valoracionRepository.findByUsuarioAndMovieId(usuario, movieId).orElse(null)
+                        : null;
 
         /* Obtiene los datos globales. */
         List<Valoracion> todas = valoracionRepository.findByMovieId(movieId);
@@ -339,10 +336,15 @@ public class MovieController {
         long total = todas.size();
 
         Map<String,Object> res = new HashMap<>();
-        res.put("userRating",    userRating[0]);
-        res.put("hasRated",      hasRated);
+        res.put("userRating",    propia != null ? propia.getRating() : 0);
+        res.put("hasRated",      propia != null);
         res.put("averageRating", Math.round(average * 10) / 10.0);
         res.put("totalRatings",  total);
+        if (propia != null) {
+            res.put("blockHash",    propia.getBlockHash());
+            res.put("blockIndex",   propia.getBlockIndex());
+            res.put("blockPending", propia.getBlockHash() == null);
+        }
 
         return ResponseEntity.ok(res);
     }
@@ -351,7 +353,9 @@ public class MovieController {
      * Permite al usuario valorar una película.
      * Si ya ha valorado, actualiza la valoración; si no, crea una nueva.
      * Devuelve la media y el total de valoraciones de la película.
-     * También registra la valoración en la blockchain.
+     * La valoración se guarda al momento y se encola para registrarla en la blockchain:
+     * el bloque se mina en segundo plano y se anota en la valoración al terminar
+     * (consultable en {@code GET /movies/{movieId}/rating} y publicado por STOMP).
      *
      * @param movieId el ID de la película a valorar
      * @param body    el cuerpo de la solicitud con la valoración (rating)
@@ -390,15 +394,13 @@ public class MovieController {
             action = "created";
         }
         
-        /* Registrar en blockchain */
-        Map<String, Object> blockInfo = blockchainService.addRatingToBlockchain(
-            usuario.getId(), movieId, rating
-        );
-        
-        /* Guardar información del bloque en la valoración */
-        valoracion.setBlockHash((String) blockInfo.get("blockHash"));
-        valoracion.setBlockIndex((Integer) blockInfo.get("blockIndex"));
-        valoracionRepository.save(valoracion);
+        /* La nueva puntuación aún no está en ningún bloque. */
+        valoracion.setBlockHash(null);
+        valoracion.setBlockIndex(null);
+        valoracion = valoracionRepository.save(valoracion);
+
+        /* Encola el minado; el bloque se anotará en la valoración al terminar. */
+        blockchainService.queueRating(valoracion.getId(), usuario.getId(), movieId, rating);
 
         /* Calcula la media y el total. */
         double average = valoracionRepository.findByMovieId(movieId)
@@ -410,8 +412,8 @@ public class MovieController {
         res.put("action",  action);
         res.put("averageRating", Math.round(average * 10) / 10.0);
         res.put("totalRatings",  total);
-        res.put("blockHash", blockInfo.get("blockHash"));
-        res.put("blockIndex", blockInfo.get("blockIndex"));
+        res.put("valoracionId", valoracion.getId());
+        res.put("blockPending", true);
 
         return ResponseEntity.ok(res);
     }
@@ -4,6 +4,10 @@ import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import es.ubu.lsi.web.entity.Usuario;
 import es.ubu.lsi.web.entity.Valoracion;
@@ -42,4 +46,48 @@ public interface ValoracionRepository extends JpaRepository<Valoracion, Long> {
      * @return el número de valoraciones para la película especificada
      */
     long countByMovieId(Integer movieId);
+
+    /**
+     * Encuentra las valoraciones que aún no tienen bloque, en el orden en que se guardaron.
+     * 
+     * @return las valoraciones sin minar
+     */
+    List<Valoracion> findByBlockIndexIsNullOrderByIdAsc();
+
+    /**
+     * Encuentra las valoraciones que ya tienen bloque, en el orden en que se guardaron.
+     * 
+     * @return las valoraciones minadas
+     */
+    List<Valoracion> findByBlockIndexIsNotNullOrderByIdAsc();
+
+    /**
+     * Anota en una valoración el bloque en el que se ha minado, solo si sigue pendiente y con
+     * la puntuación minada. Si el usuario la ha cambiado mientras se minaba, no se toca: la
+     * valoración nueva ya está encolada y se anotará con su propio bloque.
+     * 
+     * @param id el ID de la valoración
+     * @param blockHash el hash del bloque
+     * @param blockIndex el índice del bloque
+     * @param rating la puntuación guardada en el bloque
+     * @return el número de valoraciones actualizadas (0 si se ha borrado o cambiado)
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Valoracion v SET v.blockHash = :blockHash, v.blockIndex = :blockIndex "
+            + "WHERE v.id = :id AND v.rating = :rating AND v.blockIndex IS NULL")
+    int updateBlock(@Param("id") Long id, @Param("blockHash") String blockHash, @Param("blockIndex") Integer blockIndex,
+                    @Param("rating") Integer rating);
+
+    /**
+     * Quita el bloque de las valoraciones anotadas en bloques que ya no existen,
+     * para que vuelvan a quedar sin minar.
+     * 
+     * @param size el número de bloques de la cadena
+     * @return el número de valoraciones actualizadas
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Valoracion v SET v.blockHash = NULL, v.blockIndex = NULL WHERE v.blockIndex >= :size")
+    int clearBlockFrom(@Param("size") Integer size);
 }
\ No newline at end of file
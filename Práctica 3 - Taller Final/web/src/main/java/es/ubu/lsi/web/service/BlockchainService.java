@@ -1,21 +1,47 @@
 package es.ubu.lsi.web.service;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 
 import es.ubu.lsi.web.blockchain.Block;
+import es.ubu.lsi.web.blockchain.BlockStore;
 import es.ubu.lsi.web.blockchain.Blockchain;
 import es.ubu.lsi.web.blockchain.BlockchainInfo;
+import es.ubu.lsi.web.blockchain.MerkleTree;
+import es.ubu.lsi.web.entity.Valoracion;
+import es.ubu.lsi.web.repository.ValoracionRepository;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * Servicio que gestiona la blockchain de valoraciones.
- * Mantiene una instancia única de la blockchain en memoria.
+ * Mantiene una instancia única de la blockchain, con los bloques guardados en disco en
+ * {@code blockchain.store.dir}, de modo que la cadena y los bloques anotados en las
+ * valoraciones siguen siendo válidos tras reiniciar la aplicación.
+ * Las valoraciones se minan en segundo plano, en un único hilo que es el único
+ * que modifica la cadena: la petición que valora solo encola el trabajo y no espera
+ * a la prueba de trabajo. El minero agrupa en cada bloque hasta
+ * {@code blockchain.batch.size} valoraciones, y no hace esperar a la primera de un lote
+ * más de {@code blockchain.batch.max-wait-ms} por completarlo. Al minarse, el bloque
+ * se anota en sus valoraciones y se publica en {@value #BLOCKS_TOPIC}.
  * 
  * @author Ibai Moya Aroz
  * @version 1.0
@@ -23,61 +49,260 @@ import lombok.extern.slf4j.Slf4j;
  */
 @Service
 @Slf4j
+@RequiredArgsConstructor
 public class BlockchainService {
+
+    /** Destino STOMP en el que se publica cada bloque minado. */
+    public static final String BLOCKS_TOPIC = "/topic/blockchain/blocks";
+
+    /** Segundos que se esperan al cerrar para terminar de minar lo encolado. */
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    /** Espera antes del primer reintento de un lote que ha fallado. */
+    private static final long RETRY_INITIAL_DELAY_MILLIS = 500;
+
+    /** Espera máxima entre reintentos, que se duplica en cada fallo hasta llegar a ella. */
+    private static final long RETRY_MAX_DELAY_MILLIS = 30_000;
+
+    /** Repositorio en el que se anota el bloque de cada valoración. */
+    private final ValoracionRepository valoracionRepository;
+
+    /** Plantilla para publicar los bloques minados por STOMP. */
+    private final SimpMessagingTemplate messagingTemplate;
+
+    /** Hilo único que mina los bloques en el orden en que llegan las valoraciones. */
+    private final ExecutorService miner = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "blockchain-miner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Valoraciones encoladas que aún no se han minado. */
+    private final AtomicInteger pendingRatings = new AtomicInteger();
+
+    /** Valoraciones a la espera de entrar en un lote, en orden de llegada. */
+    private final BlockingQueue<PendingRating> queue = new LinkedBlockingQueue<>();
+
+    /** Número máximo de valoraciones por bloque. */
+    @Value("${blockchain.batch.size:16}")
+    private int batchSize;
+
+    /** Tiempo máximo que espera la primera valoración de un lote a que se complete. */
+    @Value("${blockchain.batch.max-wait-ms:500}")
+    private long batchMaxWaitMillis;
+
+    /** Carpeta en la que se guardan los bloques. */
+    @Value("${blockchain.store.dir:data/blockchain}")
+    private String storeDir;
+
+    /** Bloques de la cadena, en disco. */
+    private BlockStore store;
+
+    /**
+     * Valoración encolada para minarse.
+     * 
+     * @param valoracionId ID de la valoración guardada
+     * @param movieId ID de la película valorada
+     * @param rating puntuación que se mina
+     * @param record registro que se guarda en el bloque
+     * @param queuedNanos instante en que se encoló
+     */
+    private record PendingRating(Long valoracionId, Integer movieId, Integer rating, String record, long queuedNanos) {
+    }
     
     /** Instancia única de la blockchain */
-    private Blockchain blockchain;
+    private volatile Blockchain blockchain;
     
     /**
-     * Inicializa la blockchain al arrancar el servicio.
+     * Inicializa la blockchain al arrancar el servicio, con los bloques guardados en disco.
      */
     @PostConstruct
     public void init() {
-        blockchain = new Blockchain();
-        log.info("Blockchain inicializada con bloque génesis");
-        
-        /* Verifica que la blockchain se ha inicializado correctamente. */
-        if (blockchain.isChainValid()) {
-            log.info("Blockchain válida con {} bloques", blockchain.getChain().size());
-        } else {
-            log.error("¡Blockchain inválida al inicializar!");
+        try {
+            store = new BlockStore(Path.of(storeDir));
+        } catch (IOException e) {
+            throw new IllegalStateException("No se puede abrir el almacén de bloques en " + storeDir, e);
+        }
+
+        /* La carga valida cada bloque y descarta los inválidos; después solo se validan los bloques nuevos. */
+        blockchain = new Blockchain(store);
+        log.info("Blockchain inicializada con {} bloques", blockchain.size());
 
-            /* Intenta reiniciar. */
-            resetBlockchain();
+        /* Si la carga ha descartado bloques, las valoraciones anotadas en ellos se vuelven a minar. */
+        int orphaned = valoracionRepository.clearBlockFrom(blockchain.size());
+        if (orphaned > 0) {
+            log.warn("{} valoraciones apuntaban a bloques descartados y se vuelven a minar", orphaned);
+        }
+
+        /* La cola solo está en memoria: lo que no llegó a minarse antes de parar sigue sin bloque en la base de datos. */
+        List<Valoracion> unmined = valoracionRepository.findByBlockIndexIsNullOrderByIdAsc();
+        if (!unmined.isEmpty()) {
+            log.info("Se vuelven a encolar {} valoraciones que no llegaron a minarse", unmined.size());
+        }
+        requeueRatings(unmined);
+    }
+
+    /**
+     * Vuelve a encolar valoraciones ya guardadas para minarlas, en el orden dado.
+     * 
+     * @param valoraciones las valoraciones
+     */
+    private void requeueRatings(List<Valoracion> valoraciones) {
+        for (Valoracion valoracion : valoraciones) {
+            queueRating(valoracion.getId(), valoracion.getUsuario().getId(), valoracion.getMovieId(), valoracion.getRating());
         }
     }
     
     /**
-     * Añade una nueva valoración a la blockchain.
+     * Termina de minar las valoraciones encoladas y cierra el almacén antes de cerrar la aplicación.
+     */
+    @PreDestroy
+    public void shutdown() {
+        miner.shutdown();
+        try {
+            if (!miner.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("Se cierra con {} valoraciones sin minar; se encolarán de nuevo al arrancar", pendingRatings.get());
+                miner.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            miner.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            store.close();
+        } catch (IOException e) {
+            log.error("Error cerrando el almacén de bloques", e);
+        }
+    }
+    
+    /**
+     * Encola una valoración ya guardada para minarla en la blockchain.
+     * Vuelve en cuanto queda encolada; el bloque se anota después en la valoración.
      * 
+     * @param valoracionId ID de la valoración guardada
      * @param userId ID del usuario que valora
      * @param movieId ID de la película valorada
      * @param rating valoración (1-5)
-     * @return información del bloque creado
      */
-    public Map<String, Object> addRatingToBlockchain(Long userId, Integer movieId, Integer rating) {
-        log.info("Añadiendo valoración a blockchain: User={}, Movie={}, Rating={}", 
-                 userId, movieId, rating);
-        
+    public void queueRating(Long valoracionId, Long userId, Integer movieId, Integer rating) {
+        log.info("Encolando valoración para la blockchain: Valoracion={}, User={}, Movie={}, Rating={}", 
+                 valoracionId, userId, movieId, rating);
+
+        String record = Blockchain.ratingRecord(valoracionId, userId, movieId, rating);
+        queue.add(new PendingRating(valoracionId, movieId, rating, record, System.nanoTime()));
+        pendingRatings.incrementAndGet();
+
+        /* Cada valoración pide un lote; si otro lote ya se la ha llevado, este no hace nada. */
+        miner.execute(this::mineBatch);
+    }
+
+    /**
+     * Forma un lote con las valoraciones encoladas, mina su bloque, lo anota en ellas
+     * y lo publica. Se ejecuta siempre en el hilo minero. Si falla el minado o la anotación,
+     * se reintenta con esperas crecientes en lugar de perder el lote; solo se abandona al
+     * cerrar, y entonces las valoraciones se vuelven a encolar al arrancar.
+     */
+    private void mineBatch() {
+        PendingRating first = queue.poll();
+        if (first == null) {
+            return;
+        }
+
+        int limit = Math.max(batchSize, 1);
+        List<PendingRating> batch = new ArrayList<>(limit);
+        batch.add(first);
+        queue.drainTo(batch, limit - batch.size());
+
+        /* Espera a completar el lote, pero no más del máximo desde que llegó la primera. */
+        long deadline = first.queuedNanos() + TimeUnit.MILLISECONDS.toNanos(batchMaxWaitMillis);
         try {
-            Block newBlock = blockchain.addRating(userId, movieId, rating);
-            
-            Map<String, Object> response = new HashMap<>();
-            response.put("blockIndex", newBlock.getIndex());
-            response.put("blockHash", newBlock.getHash());
-            response.put("timestamp", newBlock.getTimestamp());
-            response.put("previousHash", newBlock.getPreviousHash());
-            response.put("nonce", newBlock.getNonce());
-            
-            log.info("Bloque #{} minado exitosamente con hash: {}", 
-                     newBlock.getIndex(), newBlock.getHash());
+            while (batch.size() < limit) {
+                long remaining = deadline - System.nanoTime();
+                PendingRating next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+                queue.drainTo(batch, limit - batch.size());
+            }
+        } catch (InterruptedException e) {
+            /* Al cerrar no se espera más: se mina lo que haya. */
+            Thread.currentThread().interrupt();
+        }
+
+        List<String> records = new ArrayList<>(batch.size());
+        for (PendingRating pending : batch) {
+            records.add(pending.record());
+        }
+
+        try {
+            Block newBlock = retry("minando un lote de " + batch.size() + " valoraciones",
+                                   () -> blockchain.addRatings(records));
             
-            return response;
+            log.info("Bloque #{} minado exitosamente con {} valoraciones y hash: {}", 
+                     newBlock.getIndex(), batch.size(), newBlock.getHash());
+
+            List<Long> valoracionIds = new ArrayList<>(batch.size());
+            for (PendingRating pending : batch) {
+                int updated = retry("anotando el bloque en la valoración " + pending.valoracionId(),
+                                    () -> valoracionRepository.updateBlock(pending.valoracionId(), newBlock.getHash(),
+                                                                           newBlock.getIndex(), pending.rating()));
+                if (updated == 0) {
+                    /* Borrada o cambiada mientras se minaba: si se cambió, su nueva puntuación ya está encolada. */
+                    log.warn("La valoración {} se ha borrado o cambiado antes de minar su bloque", pending.valoracionId());
+                } else {
+                    valoracionIds.add(pending.valoracionId());
+                }
+            }
+
+            Map<String, Object> event = toBlockInfo(newBlock);
+            event.put("valoracionIds", valoracionIds);
+            messagingTemplate.convertAndSend(BLOCKS_TOPIC, event);
+        } catch (InterruptedException e) {
+            log.warn("Se cierra sin terminar un lote de {} valoraciones; se encolarán de nuevo al arrancar", batch.size());
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
-            log.error("Error añadiendo valoración a blockchain", e);
-            throw new RuntimeException("Error al añadir valoración a blockchain", e);
+            log.error("Error publicando un bloque de {} valoraciones", batch.size(), e);
+        } finally {
+            pendingRatings.addAndGet(-batch.size());
+        }
+    }
+
+    /**
+     * Ejecuta una acción hasta que termine sin error, esperando cada vez el doble entre
+     * intentos, hasta {@value #RETRY_MAX_DELAY_MILLIS} ms.
+     * 
+     * @param <T> tipo del resultado
+     * @param what descripción de la acción para el log
+     * @param action la acción
+     * @return el resultado de la acción
+     * @throws InterruptedException si se cierra la aplicación mientras se espera
+     */
+    private static <T> T retry(String what, Supplier<T> action) throws InterruptedException {
+        long delay = RETRY_INITIAL_DELAY_MILLIS;
+        while (true) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            try {
+                return action.get();
+            } catch (RuntimeException e) {
+                log.error("Error {}; se reintenta en {} ms", what, delay, e);
+                TimeUnit.MILLISECONDS.sleep(delay);
+                delay = Math.min(delay * 2, RETRY_MAX_DELAY_MILLIS);
+            }
         }
     }
+
+    /**
+     * Obtiene el número de valoraciones encoladas que aún no se han minado.
+     * 
+     * @return valoraciones pendientes
+     */
+    public int getPendingRatings() {
+        return pendingRatings.get();
+    }
     
     /**
      * Obtiene información general de la blockchain.
@@ -86,6 +311,7 @@ public class BlockchainService {
      */
     public BlockchainInfo getBlockchainInfo() {
         BlockchainInfo info = blockchain.getInfo();
+        info.setPendingRatings(pendingRatings.get());
         log.info("BlockchainInfo - Total bloques: {}, Válida: {}, Dificultad: {}", 
                  info.getTotalBlocks(), info.isValid(), info.getDifficulty());
         return info;
@@ -110,17 +336,12 @@ public class BlockchainService {
      * @return lista de bloques con su información
      */
     public List<Map<String, Object>> getAllBlocks() {
-        List<Map<String, Object>> blocks = new ArrayList<>();
+        Blockchain current = blockchain;
+        int size = current.size();
+        List<Map<String, Object>> blocks = new ArrayList<>(size);
         
-        for (Block block : blockchain.getChain()) {
-            Map<String, Object> blockInfo = new HashMap<>();
-            blockInfo.put("index", block.getIndex());
-            blockInfo.put("timestamp", block.getTimestamp());
-            blockInfo.put("data", block.getData());
-            blockInfo.put("hash", block.getHash());
-            blockInfo.put("previousHash", block.getPreviousHash());
-            blockInfo.put("nonce", block.getNonce());
-            blocks.add(blockInfo);
+        for (int i = 0; i < size; i++) {
+            blocks.add(toBlockInfo(current.getBlock(i)));
         }
         
         return blocks;
@@ -133,11 +354,21 @@ public class BlockchainService {
      * @return información del bloque o null si no existe
      */
     public Map<String, Object> getBlock(int index) {
-        if (index < 0 || index >= blockchain.getChain().size()) {
+        Block block = blockchain.getBlock(index);
+        if (block == null) {
             return null;
         }
         
-        Block block = blockchain.getChain().get(index);
+        return toBlockInfo(block);
+    }
+
+    /**
+     * Convierte un bloque en el mapa que devuelve la API.
+     * 
+     * @param block el bloque
+     * @return información del bloque
+     */
+    private static Map<String, Object> toBlockInfo(Block block) {
         Map<String, Object> blockInfo = new HashMap<>();
         blockInfo.put("index", block.getIndex());
         blockInfo.put("timestamp", block.getTimestamp());
@@ -145,19 +376,99 @@ public class BlockchainService {
         blockInfo.put("hash", block.getHash());
         blockInfo.put("previousHash", block.getPreviousHash());
         blockInfo.put("nonce", block.getNonce());
-        
+        blockInfo.put("records", block.getRecords());
+        blockInfo.put("merkleRoot", block.getMerkleRoot());
         return blockInfo;
     }
+
+    /**
+     * Genera la prueba de inclusión de una valoración en su bloque: el registro, los hashes
+     * hermanos hasta la raíz de Merkle y el resultado de comprobarla, sin el resto de registros.
+     * 
+     * @param valoracionId ID de la valoración
+     * @return la prueba, o null si la valoración no existe o su bloque ya no está en la cadena
+     */
+    public Map<String, Object> getRatingProof(Long valoracionId) {
+        Valoracion valoracion = valoracionRepository.findById(valoracionId).orElse(null);
+        if (valoracion == null) {
+            return null;
+        }
+
+        Map<String, Object> proofInfo = new HashMap<>();
+        proofInfo.put("valoracionId", valoracionId);
+        if (valoracion.getBlockIndex() == null) {
+            proofInfo.put("blockPending", true);
+            return proofInfo;
+        }
+
+        /* El bloque debe seguir en la cadena: tras un reinicio, el índice ya no es suyo. */
+        Block block = blockchain.getBlock(valoracion.getBlockIndex());
+        if (block == null || !block.getHash().equals(valoracion.getBlockHash())) {
+            return null;
+        }
+
+        /* Se busca desde el final: si se cambió dos veces en el mismo lote, vale la última. */
+        String prefix = "VALORACION:" + valoracionId + "|";
+        List<String> records = block.getRecords();
+        int position = records.size() - 1;
+        while (position >= 0 && !records.get(position).startsWith(prefix)) {
+            position--;
+        }
+        if (position < 0) {
+            return null;
+        }
+
+        String record = records.get(position);
+        List<MerkleTree.Step> proof = MerkleTree.proof(records, position);
+
+        proofInfo.put("blockPending", false);
+        proofInfo.put("blockIndex", block.getIndex());
+        proofInfo.put("blockHash", block.getHash());
+        proofInfo.put("merkleRoot", block.getMerkleRoot());
+        proofInfo.put("record", record);
+        proofInfo.put("position", position);
+        proofInfo.put("proof", proof);
+        proofInfo.put("matchesRating", record.contains("|RATING:" + valoracion.getRating() + "|"));
+        proofInfo.put("verified", MerkleTree.verify(record, proof, block.getMerkleRoot())
+                                  && block.hasValidHash());
+        return proofInfo;
+    }
     
     /**
      * Reinicia la blockchain creando una nueva instancia.
-     * ADVERTENCIA: Esto eliminará todos los bloques excepto el génesis.
+     * Se hace en el hilo minero, detrás de las valoraciones ya encoladas.
+     * ADVERTENCIA: Esto eliminará todos los bloques, también del disco, excepto el génesis.
      */
     public void resetBlockchain() {
+        try {
+            miner.submit(this::replaceBlockchain).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error al reiniciar la blockchain", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Reinicio de la blockchain interrumpido", e);
+        }
+    }
+
+    /**
+     * Sustituye la blockchain por una nueva con solo el bloque génesis.
+     * Las valoraciones anotadas en los bloques eliminados pierden el bloque y se vuelven
+     * a encolar; las que seguían en la cola no tenían bloque y se minan igual.
+     */
+    private void replaceBlockchain() {
         log.warn("Reiniciando blockchain - todos los bloques serán eliminados");
-        blockchain = new Blockchain();
+        List<Valoracion> mined = valoracionRepository.findByBlockIndexIsNotNullOrderByIdAsc();
+        store.clear();
+        blockchain = new Blockchain(store);
         log.info("Blockchain reiniciada con bloque génesis");
 
+        /* El génesis no guarda valoraciones: se quita el bloque a todas las anotadas. */
+        int cleared = valoracionRepository.clearBlockFrom(1);
+        if (cleared > 0) {
+            log.warn("{} valoraciones apuntaban a bloques eliminados y se vuelven a minar", cleared);
+        }
+        requeueRatings(mined);
+
         /* Verifica que la nueva blockchain es válida. */
         if (!blockchain.isChainValid()) {
             log.error("Error crítico: La nueva blockchain no es válida");
@@ -0,0 +1,64 @@
+package es.ubu.lsi.web.blockchain;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class BlockHasherTest {
+
+    private static final int[] NONCES = {0, 7, 10, 12345, 999_999, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+
+    @Test
+    void testHashMatchesStringHash() throws NoSuchAlgorithmException {
+        // Comprueba que el hash coincide con el que calculaba el bloque concatenando texto, para cualquier nonce.
+        int index = 3;
+        long timestamp = 1_700_000_000_000L;
+        String merkleRoot = MerkleTree.root(List.of("registro"));
+        String previousHash = "000abc";
+        BlockHasher hasher = new BlockHasher(BlockHasher.header(index, timestamp, merkleRoot, previousHash));
+        byte[] out = new byte[BlockHasher.HASH_LENGTH];
+
+        for (int nonce : NONCES) {
+            String expected = stringHash(index + timestamp + merkleRoot + previousHash + nonce);
+            hasher.hash(nonce, out);
+            assertEquals(expected, BlockHasher.toHex(out), "nonce " + nonce);
+            assertEquals(expected, BlockHasher.toHex(hasher.hash(nonce)), "nonce " + nonce);
+        }
+    }
+
+    @Test
+    void testBlockHashMatchesStringHash() throws NoSuchAlgorithmException {
+        // Comprueba que el hash de un bloque es el de sus campos concatenados, como antes de guardarlo en bytes.
+        Block block = new Block(1, List.of("a", "b"), "000abc");
+        block.mined(block.getTimestamp(), 42);
+
+        String expected = stringHash(block.getIndex() + block.getTimestamp() + block.getMerkleRoot()
+                                     + block.getPreviousHash() + block.getNonce());
+        assertEquals(expected, block.getHash());
+        assertEquals(expected, block.calculateHash());
+        assertTrue(block.hasValidHash());
+    }
+
+    @Test
+    void testHexRoundTrip() {
+        // Comprueba que fromHex deshace toHex, con ceros a la izquierda en cada byte.
+        byte[] bytes = {0x00, 0x0a, (byte) 0xff, 0x10};
+
+        assertEquals("000aff10", BlockHasher.toHex(bytes));
+        assertArrayEquals(bytes, BlockHasher.fromHex("000aff10"));
+    }
+
+    private static String stringHash(String input) throws NoSuchAlgorithmException {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(input.getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder();
+        for (byte b : hash) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,162 @@
+package es.ubu.lsi.web.blockchain;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BlockStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testReopenKeepsBlocks() throws IOException {
+        // Comprueba que los bloques se leen igual tras cerrar y volver a abrir el almacén.
+        List<Block> blocks;
+        try (BlockStore store = new BlockStore(dir)) {
+            blocks = appendBlocks(store, 3, "registro");
+        }
+
+        try (BlockStore store = new BlockStore(dir)) {
+            assertEquals(3, store.size());
+            for (int i = 0; i < blocks.size(); i++) {
+                assertSameBlock(blocks.get(i), store.read(i));
+            }
+        }
+    }
+
+    @Test
+    void testBlocksAcrossMappedRegions() throws IOException {
+        // Comprueba que se leen bien los bloques cuando los ficheros ocupan varias regiones mapeadas.
+        String padding = "x".repeat(500);
+        List<Block> blocks;
+        try (BlockStore store = new BlockStore(dir)) {
+            blocks = appendBlocks(store, 600, padding);
+            assertTrue(Files.size(dir.resolve(BlockStore.DATA_FILE)) > 2 * BlockStore.FIRST_REGION_SIZE);
+            for (int i = 0; i < blocks.size(); i++) {
+                assertSameBlock(blocks.get(i), store.read(i));
+            }
+        }
+
+        try (BlockStore store = new BlockStore(dir)) {
+            assertEquals(600, store.size());
+            assertSameBlock(blocks.get(599), store.read(599));
+        }
+    }
+
+    @Test
+    void testTornDataIsDiscarded() throws IOException {
+        // Comprueba que al abrir se descarta un bloque cuyos datos no llegaron a escribirse enteros.
+        try (BlockStore store = new BlockStore(dir)) {
+            appendBlocks(store, 3, "registro");
+        }
+        try (FileChannel data = FileChannel.open(dir.resolve(BlockStore.DATA_FILE), StandardOpenOption.WRITE)) {
+            data.truncate(data.size() - 5);
+        }
+
+        try (BlockStore store = new BlockStore(dir)) {
+            assertEquals(2, store.size());
+        }
+        assertEquals(2 * BlockStore.ENTRY_SIZE, Files.size(dir.resolve(BlockStore.INDEX_FILE)));
+    }
+
+    @Test
+    void testTornIndexEntryIsDiscarded() throws IOException {
+        // Comprueba que al abrir se descarta una entrada del índice a medias y se puede seguir añadiendo.
+        List<Block> blocks;
+        try (BlockStore store = new BlockStore(dir)) {
+            blocks = appendBlocks(store, 2, "registro");
+        }
+        try (FileChannel index = FileChannel.open(dir.resolve(BlockStore.INDEX_FILE), StandardOpenOption.APPEND)) {
+            index.write(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10}));
+        }
+
+        try (BlockStore store = new BlockStore(dir)) {
+            assertEquals(2, store.size());
+            Block next = new Block(2, List.of("siguiente"), blocks.get(1).getHash());
+            store.append(next);
+            assertSameBlock(next, store.read(2));
+        }
+        try (BlockStore store = new BlockStore(dir)) {
+            assertEquals(3, store.size());
+        }
+    }
+
+    @Test
+    void testCorruptedBlockFailsCrc() throws IOException {
+        // Comprueba que leer un bloque dañado en disco falla en lugar de devolver datos cambiados.
+        try (BlockStore store = new BlockStore(dir)) {
+            appendBlocks(store, 2, "registro");
+        }
+        Path data = dir.resolve(BlockStore.DATA_FILE);
+        byte[] bytes = Files.readAllBytes(data);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(data, bytes);
+
+        try (BlockStore store = new BlockStore(dir)) {
+            assertNotNull(store.read(0));
+            assertThrows(IllegalStateException.class, () -> store.read(1));
+        }
+    }
+
+    @Test
+    void testTruncateAndAppend() throws IOException {
+        // Comprueba que tras recortar se añade a continuación del último bloque conservado.
+        try (BlockStore store = new BlockStore(dir)) {
+            List<Block> blocks = appendBlocks(store, 3, "registro");
+            store.truncate(1);
+            assertEquals(1, store.size());
+
+            Block replacement = new Block(1, List.of("otro"), blocks.get(0).getHash());
+            store.append(replacement);
+            assertSameBlock(replacement, store.read(1));
+        }
+
+        try (BlockStore store = new BlockStore(dir)) {
+            assertEquals(2, store.size());
+            assertEquals(List.of("otro"), store.read(1).getRecords());
+        }
+    }
+
+    @Test
+    void testInvalidPositions() throws IOException {
+        // Comprueba que no se aceptan bloques fuera de orden ni lecturas fuera del almacén.
+        try (BlockStore store = new BlockStore(dir)) {
+            appendBlocks(store, 1, "registro");
+
+            assertThrows(IllegalArgumentException.class, () -> store.append(new Block(3, List.of("a"), "b")));
+            assertThrows(IndexOutOfBoundsException.class, () -> store.read(1));
+            assertThrows(IndexOutOfBoundsException.class, () -> store.read(-1));
+        }
+    }
+
+    private static List<Block> appendBlocks(BlockStore store, int count, String prefix) {
+        Block[] blocks = new Block[count];
+        String previousHash = "0";
+        for (int i = 0; i < count; i++) {
+            blocks[i] = new Block(i, List.of(prefix + i, "extra" + i), previousHash);
+            store.append(blocks[i]);
+            previousHash = blocks[i].getHash();
+        }
+        return List.of(blocks);
+    }
+
+    private static void assertSameBlock(Block expected, Block actual) {
+        assertEquals(expected.getIndex(), actual.getIndex());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getRecords(), actual.getRecords());
+        assertEquals(expected.getMerkleRoot(), actual.getMerkleRoot());
+        assertEquals(expected.getPreviousHash(), actual.getPreviousHash());
+        assertEquals(expected.getNonce(), actual.getNonce());
+        assertEquals(expected.getHash(), actual.getHash());
+    }
+}
@@ -0,0 +1,70 @@
+package es.ubu.lsi.web.blockchain;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BlockchainTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testValidChainAfterAdding() throws IOException {
+        // Comprueba que la cadena con bloques añadidos es válida, también al volver a cargarla.
+        try (BlockStore store = new BlockStore(dir)) {
+            Blockchain blockchain = new Blockchain(store);
+            blockchain.addRatings(List.of("a", "b"));
+            blockchain.addRatings(List.of("c"));
+
+            assertTrue(blockchain.isChainValid());
+            assertTrue(blockchain.getInfo().isValid());
+        }
+
+        try (BlockStore store = new BlockStore(dir)) {
+            Blockchain blockchain = new Blockchain(store);
+            assertEquals(3, blockchain.size());
+            assertTrue(blockchain.isChainValid());
+        }
+    }
+
+    @Test
+    void testValidationDetectsBlockDamagedAfterLoad() throws IOException {
+        // Comprueba que validar vuelve a leer los bloques y detecta uno dañado en disco después de cargar la cadena.
+        try (BlockStore store = new BlockStore(dir)) {
+            Blockchain blockchain = new Blockchain(store);
+            blockchain.addRatings(List.of("a", "b"));
+            assertTrue(blockchain.isChainValid());
+
+            flipFirstByte(1);
+
+            assertFalse(blockchain.isChainValid());
+        }
+    }
+
+    private void flipFirstByte(int position) throws IOException {
+        /* La entrada del índice dice dónde empieza el bloque en el fichero de datos. */
+        long offset;
+        try (FileChannel index = FileChannel.open(dir.resolve(BlockStore.INDEX_FILE))) {
+            ByteBuffer entry = ByteBuffer.allocate(Long.BYTES);
+            index.read(entry, (long) position * BlockStore.ENTRY_SIZE);
+            offset = entry.getLong(0);
+        }
+        try (FileChannel data = FileChannel.open(dir.resolve(BlockStore.DATA_FILE), StandardOpenOption.READ,
+                                                 StandardOpenOption.WRITE)) {
+            ByteBuffer first = ByteBuffer.allocate(1);
+            data.read(first, offset);
+            first.put(0, (byte) (first.get(0) ^ 1));
+            first.rewind();
+            data.write(first, offset);
+        }
+    }
+}
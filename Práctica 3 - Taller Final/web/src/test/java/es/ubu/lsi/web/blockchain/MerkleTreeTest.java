@@ -0,0 +1,72 @@
+package es.ubu.lsi.web.blockchain;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class MerkleTreeTest {
+
+    private static final List<String> FIVE_RECORDS = List.of("a", "b", "c", "d", "e");
+
+    @Test
+    void testProofVerifiesEveryRecord() {
+        // Comprueba que la prueba de cada registro lleva a la raíz, con un número impar de hojas.
+        String root = MerkleTree.root(FIVE_RECORDS);
+
+        for (int i = 0; i < FIVE_RECORDS.size(); i++) {
+            List<MerkleTree.Step> proof = MerkleTree.proof(FIVE_RECORDS, i);
+            assertTrue(MerkleTree.verify(FIVE_RECORDS.get(i), proof, root), "registro " + i);
+        }
+    }
+
+    @Test
+    void testUnpairedNodeAddsNoStep() {
+        // Comprueba que el nodo sin pareja sube sin cambios: el último de cinco solo necesita la raíz de los otros cuatro.
+        List<MerkleTree.Step> proof = MerkleTree.proof(FIVE_RECORDS, 4);
+
+        assertEquals(1, proof.size());
+        assertTrue(proof.get(0).isLeft());
+        assertEquals(MerkleTree.root(List.of("a", "b", "c", "d")), proof.get(0).getHash());
+    }
+
+    @Test
+    void testSingleRecord() {
+        // Comprueba que con un solo registro la prueba está vacía y la raíz es la hoja.
+        String root = MerkleTree.root(List.of("a"));
+
+        assertTrue(MerkleTree.proof(List.of("a"), 0).isEmpty());
+        assertTrue(MerkleTree.verify("a", List.of(), root));
+        assertNotEquals(root, MerkleTree.root(List.of("b")));
+    }
+
+    @Test
+    void testVerifyRejectsAlteredRecordOrProof() {
+        // Comprueba que la verificación falla con otro registro, otra raíz o un paso cambiado.
+        String root = MerkleTree.root(FIVE_RECORDS);
+        List<MerkleTree.Step> proof = MerkleTree.proof(FIVE_RECORDS, 1);
+
+        assertFalse(MerkleTree.verify("x", proof, root));
+        assertFalse(MerkleTree.verify("b", proof, MerkleTree.root(List.of("a", "b"))));
+
+        MerkleTree.Step first = proof.get(0);
+        List<MerkleTree.Step> swapped = List.of(new MerkleTree.Step(first.getHash(), !first.isLeft()),
+                                                proof.get(1), proof.get(2));
+        assertFalse(MerkleTree.verify("b", swapped, root));
+    }
+
+    @Test
+    void testRootDependsOnOrder() {
+        // Comprueba que cambiar el orden de los registros cambia la raíz.
+        assertNotEquals(MerkleTree.root(List.of("a", "b")), MerkleTree.root(List.of("b", "a")));
+    }
+
+    @Test
+    void testInvalidArguments() {
+        // Comprueba que no se aceptan listas vacías ni posiciones fuera del bloque.
+        assertThrows(IllegalArgumentException.class, () -> MerkleTree.root(List.of()));
+        assertThrows(IndexOutOfBoundsException.class, () -> MerkleTree.proof(FIVE_RECORDS, 5));
+        assertThrows(IndexOutOfBoundsException.class, () -> MerkleTree.proof(FIVE_RECORDS, -1));
+    }
+}
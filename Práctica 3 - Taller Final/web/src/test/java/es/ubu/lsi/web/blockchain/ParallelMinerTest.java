@@ -0,0 +1,57 @@
+package es.ubu.lsi.web.blockchain;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ParallelMinerTest {
+
+    @Test
+    void testMineMeetsDifficulty() {
+        // Comprueba que el bloque minado, con uno y con varios hilos, tiene un hash válido con la dificultad pedida.
+        for (int threads : new int[] {1, 4}) {
+            Block block = new Block(1, List.of("VALORACION:1|USER:1|MOVIE:1|RATING:5|TIME:0"), "0000abc");
+            new ParallelMiner(threads).mine(block, 3);
+
+            assertTrue(block.getHash().startsWith("000"), "hilos " + threads);
+            assertTrue(block.meetsDifficulty(3));
+            assertTrue(block.hasValidHash());
+        }
+    }
+
+    @Test
+    void testSearchFindsValidNonce() {
+        // Comprueba que el nonce encontrado en un rango da un hash con los ceros pedidos.
+        byte[] header = BlockHasher.header(1, 1_700_000_000_000L, "raiz", "anterior");
+        int nonce = new ParallelMiner(3).search(header, 1000, Integer.MAX_VALUE, 2);
+
+        assertTrue(nonce >= 1000);
+        assertTrue(ParallelMiner.hasLeadingZeros(new BlockHasher(header).hash(nonce), 2));
+    }
+
+    @Test
+    void testSearchWithoutValidNonce() {
+        // Comprueba que se devuelve -1 si ningún nonce del rango cumple la dificultad.
+        byte[] header = BlockHasher.header(1, 1_700_000_000_000L, "raiz", "anterior");
+
+        assertEquals(-1, new ParallelMiner(2).search(header, 0, 15, 64));
+    }
+
+    @Test
+    void testHasLeadingZeros() {
+        // Comprueba que se cuentan los ceros hexadecimales, también en medio de un byte.
+        byte[] hash = {0x00, 0x0f, (byte) 0xff};
+
+        assertTrue(ParallelMiner.hasLeadingZeros(hash, 0));
+        assertTrue(ParallelMiner.hasLeadingZeros(hash, 3));
+        assertFalse(ParallelMiner.hasLeadingZeros(hash, 4));
+    }
+
+    @Test
+    void testInvalidParallelism() {
+        // Comprueba que el minero necesita al menos un hilo.
+        assertThrows(IllegalArgumentException.class, () -> new ParallelMiner(0));
+    }
+}
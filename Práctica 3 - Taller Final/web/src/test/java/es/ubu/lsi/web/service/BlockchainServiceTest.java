@@ -0,0 +1,213 @@
+package es.ubu.lsi.web.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import es.ubu.lsi.web.entity.Usuario;
+import es.ubu.lsi.web.entity.Valoracion;
+import es.ubu.lsi.web.repository.ValoracionRepository;
+
+class BlockchainServiceTest {
+
+    @TempDir
+    Path storeDir;
+
+    private ValoracionRepository repo;
+
+    private SimpMessagingTemplate messagingTemplate;
+
+    @BeforeEach
+    void setUp() {
+        // Prepara los mocks del repositorio y de la publicación de bloques; por defecto no hay valoraciones sin minar.
+        repo = mock(ValoracionRepository.class);
+        messagingTemplate = mock(SimpMessagingTemplate.class);
+        when(repo.findByBlockIndexIsNullOrderByIdAsc()).thenReturn(List.of());
+        when(repo.updateBlock(any(), anyString(), any(), any())).thenReturn(1);
+    }
+
+    @Test
+    void testQueuedRatingIsMinedAndAnnotated() throws InterruptedException {
+        // Comprueba que una valoración encolada se mina, se anota en la valoración y se publica.
+        BlockchainService service = startService();
+
+        try {
+            service.queueRating(1L, 1L, 100, 4);
+            awaitMined(service);
+            verify(repo).updateBlock(eq(1L), anyString(), eq(1), eq(4));
+            verify(messagingTemplate).convertAndSend(eq(BlockchainService.BLOCKS_TOPIC), anyMap());
+            assertEquals(2, service.getBlockchainInfo().getTotalBlocks());
+            assertTrue(service.validateBlockchain());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void testInitRequeuesUnminedRatings() throws InterruptedException {
+        // Comprueba que al arrancar se minan las valoraciones que se quedaron sin bloque.
+        when(repo.findByBlockIndexIsNullOrderByIdAsc()).thenReturn(List.of(valoracion(1L), valoracion(2L)));
+        BlockchainService service = startService();
+
+        try {
+            awaitMined(service);
+            verify(repo).updateBlock(eq(1L), anyString(), eq(1), eq(4));
+            verify(repo).updateBlock(eq(2L), anyString(), eq(1), eq(4));
+            assertEquals(2, service.getBlockchainInfo().getTotalBlocks());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void testFailedBatchIsRetried() throws InterruptedException {
+        // Comprueba que si falla la anotación del bloque se reintenta en lugar de perder la valoración.
+        when(repo.updateBlock(any(), anyString(), any(), any()))
+            .thenThrow(new IllegalStateException("Base de datos caída"))
+            .thenReturn(1);
+        BlockchainService service = startService();
+
+        try {
+            service.queueRating(3L, 1L, 100, 4);
+            awaitMined(service);
+            verify(repo, times(2)).updateBlock(eq(3L), anyString(), eq(1), eq(4));
+            assertEquals(2, service.getBlockchainInfo().getTotalBlocks());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void testInitClearsRatingsOfDroppedBlocks() throws InterruptedException, IOException {
+        // Comprueba que al descartar un bloque dañado las valoraciones anotadas en él vuelven a quedar sin minar.
+        BlockchainService service = startService();
+        service.queueRating(1L, 1L, 100, 4);
+        awaitMined(service);
+        service.queueRating(2L, 1L, 101, 5);
+        awaitMined(service);
+        service.shutdown();
+
+        // Daña el último bloque en disco y vuelve a arrancar.
+        Path data = storeDir.resolve("blocks.dat");
+        byte[] bytes = Files.readAllBytes(data);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(data, bytes);
+
+        BlockchainService restarted = startService();
+        try {
+            assertEquals(2, restarted.getBlockchainInfo().getTotalBlocks());
+            assertTrue(restarted.validateBlockchain());
+            verify(repo).clearBlockFrom(2);
+        } finally {
+            restarted.shutdown();
+        }
+    }
+
+    @Test
+    void testReRateWhileQueuedKeepsNewRatingPending() throws InterruptedException {
+        // Comprueba que si el usuario cambia la valoración antes de minarla, el bloque viejo no se anota
+        // en la fila y la valoración nueva se anota con su propio bloque.
+        Valoracion row = valoracion(1L);
+        when(repo.updateBlock(any(), anyString(), any(), any())).thenAnswer(invocation -> {
+            /* Emula la condición de la consulta: solo se anota si sigue pendiente y con la puntuación minada. */
+            if (row.getBlockIndex() != null || !row.getRating().equals(invocation.getArgument(3))) {
+                return 0;
+            }
+            row.setBlockHash(invocation.getArgument(1));
+            row.setBlockIndex(invocation.getArgument(2));
+            return 1;
+        });
+        BlockchainService service = startService();
+        ReflectionTestUtils.setField(service, "batchSize", 1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService miner = (ExecutorService) ReflectionTestUtils.getField(service, "miner");
+
+        try {
+            /* Retiene el minero para que el cambio llegue entre encolar y minar. */
+            miner.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            service.queueRating(1L, 1L, 100, 4);
+            row.setRating(5);
+            service.queueRating(1L, 1L, 100, 5);
+            release.countDown();
+            awaitMined(service);
+
+            verify(repo).updateBlock(eq(1L), anyString(), eq(1), eq(4));
+            verify(repo).updateBlock(eq(1L), anyString(), eq(2), eq(5));
+            assertEquals(2, row.getBlockIndex());
+            assertEquals(3, service.getBlockchainInfo().getTotalBlocks());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void testResetRequeuesMinedRatings() throws InterruptedException {
+        // Comprueba que al reiniciar la cadena se quita el bloque a las valoraciones y se vuelven a minar.
+        BlockchainService service = startService();
+
+        try {
+            service.queueRating(1L, 1L, 100, 4);
+            awaitMined(service);
+            when(repo.findByBlockIndexIsNotNullOrderByIdAsc()).thenReturn(List.of(valoracion(1L)));
+            clearInvocations(repo);
+
+            service.resetBlockchain();
+            awaitMined(service);
+            verify(repo).clearBlockFrom(1);
+            verify(repo).updateBlock(eq(1L), anyString(), eq(1), eq(4));
+            assertEquals(2, service.getBlockchainInfo().getTotalBlocks());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    private BlockchainService startService() {
+        BlockchainService service = new BlockchainService(repo, messagingTemplate);
+        ReflectionTestUtils.setField(service, "batchSize", 16);
+        ReflectionTestUtils.setField(service, "batchMaxWaitMillis", 50L);
+        ReflectionTestUtils.setField(service, "storeDir", storeDir.toString());
+        service.init();
+        return service;
+    }
+
+    private static void awaitMined(BlockchainService service) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (service.getPendingRatings() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, service.getPendingRatings());
+    }
+
+    private static Valoracion valoracion(Long id) {
+        Usuario usuario = new Usuario("user", "email", "hash");
+        ReflectionTestUtils.setField(usuario, "id", 1L);
+        Valoracion valoracion = new Valoracion();
+        valoracion.setId(id);
+        valoracion.setUsuario(usuario);
+        valoracion.setMovieId(100);
+        valoracion.setRating(4);
+        return valoracion;
+    }
+}